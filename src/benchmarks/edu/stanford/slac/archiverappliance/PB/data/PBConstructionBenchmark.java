@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package edu.stanford.slac.archiverappliance.PB.data;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+import org.epics.archiverappliance.common.TimeUtils;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.data.DBRTimeEvent;
+import org.epics.archiverappliance.utils.simulation.SimulationEvent;
+import org.epics.archiverappliance.utils.simulation.SineGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.epics.archiverappliance.ByteArray;
+
+/**
+ * Converting a sample into its PB form (which is what the engine does for every sample) and back (which is what retrieval does).
+ * We use the serializing constructor from the DBRTimeEvent; the JCA constructors need a live DBR, but do the same PB work.
+ * @author mshankar
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PBConstructionBenchmark {
+	@Param({"DBR_SCALAR_STRING", "DBR_SCALAR_SHORT", "DBR_SCALAR_FLOAT", "DBR_SCALAR_ENUM", "DBR_SCALAR_BYTE", "DBR_SCALAR_INT", "DBR_SCALAR_DOUBLE", 
+		"DBR_WAVEFORM_STRING", "DBR_WAVEFORM_SHORT", "DBR_WAVEFORM_FLOAT", "DBR_WAVEFORM_ENUM", "DBR_WAVEFORM_BYTE", "DBR_WAVEFORM_INT", "DBR_WAVEFORM_DOUBLE"})
+	public ArchDBRTypes type;
+
+	private SimulationEvent sourceEvent;
+	private Constructor<? extends DBRTimeEvent> serializingConstructor;
+	private Constructor<? extends DBRTimeEvent> unmarshallingConstructor;
+	private short year;
+	private byte[] rawForm;
+
+	@Setup
+	public void setup() throws Exception {
+		year = TimeUtils.getCurrentYear();
+		sourceEvent = new SimulationEvent(1000, year, type, new SineGenerator(0));
+		serializingConstructor = DBR2PBTypeMapping.getPBClassFor(type).getSerializingConstructor();
+		unmarshallingConstructor = DBR2PBTypeMapping.getPBClassFor(type).getUnmarshallingFromByteArrayConstructor();
+		rawForm = serializingConstructor.newInstance(sourceEvent).getRawForm().toBytes();
+	}
+
+	@Benchmark
+	public DBRTimeEvent serialize() throws Exception {
+		return serializingConstructor.newInstance(sourceEvent);
+	}
+
+	@Benchmark
+	public Object unmarshall() throws Exception {
+		DBRTimeEvent event = unmarshallingConstructor.newInstance(year, new ByteArray(rawForm));
+		return event.getSampleValue();
+	}
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package edu.stanford.slac.archiverappliance.PB.data;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+import org.epics.archiverappliance.ByteArray;
+import org.epics.archiverappliance.common.TimeUtils;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.data.DBRTimeEvent;
+import org.epics.archiverappliance.data.VectorValue;
+import org.epics.archiverappliance.utils.simulation.SimulationEvent;
+import org.epics.archiverappliance.utils.simulation.SineGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Large waveforms thru the PB vector types.
+ * firstElement is what the scalar post processors (mean etc) do with a waveform; sumElements visits all the elements like the MATLAB response does.
+ * @author mshankar
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PBWaveformBenchmark {
+	@Param({"DBR_WAVEFORM_SHORT", "DBR_WAVEFORM_FLOAT", "DBR_WAVEFORM_INT", "DBR_WAVEFORM_DOUBLE"})
+	public ArchDBRTypes type;
+
+	@Param({"4096", "16384"})
+	public int elementCount;
+
+	private SimulationEvent sourceEvent;
+	private Constructor<? extends DBRTimeEvent> serializingConstructor;
+	private Constructor<? extends DBRTimeEvent> unmarshallingConstructor;
+	private short year;
+	private byte[] rawForm;
+
+	@Setup
+	public void setup() throws Exception {
+		year = TimeUtils.getCurrentYear();
+		sourceEvent = new SimulationEvent(1000, year, type, new SineGenerator(0, -1, elementCount));
+		serializingConstructor = DBR2PBTypeMapping.getPBClassFor(type).getSerializingConstructor();
+		unmarshallingConstructor = DBR2PBTypeMapping.getPBClassFor(type).getUnmarshallingFromByteArrayConstructor();
+		rawForm = serializingConstructor.newInstance(sourceEvent).getRawForm().toBytes();
+	}
+
+	@Benchmark
+	public DBRTimeEvent serialize() throws Exception {
+		return serializingConstructor.newInstance(sourceEvent);
+	}
+
+	@Benchmark
+	public double firstElement() throws Exception {
+		DBRTimeEvent event = unmarshallingConstructor.newInstance(year, new ByteArray(rawForm));
+		return event.getEpochSeconds() + event.getSampleValue().getValue().doubleValue();
+	}
+
+	@Benchmark
+	public double sumElements() throws Exception {
+		DBRTimeEvent event = unmarshallingConstructor.newInstance(year, new ByteArray(rawForm));
+		VectorValue<?> value = (VectorValue<?>) event.getSampleValue();
+		double sum = 0;
+		for(int i = 0; i < value.getElementCount(); i++) {
+			sum += value.getElementAsDouble(i);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public DBRTimeEvent makeClone() throws Exception {
+		return (DBRTimeEvent) unmarshallingConstructor.newInstance(year, new ByteArray(rawForm)).makeClone();
+	}
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package edu.stanford.slac.archiverappliance.PB.search;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.epics.archiverappliance.benchmarks.BenchmarkData;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The binary search for the start and end of a retrieval request in a PB file.
+ * @author mshankar
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FileEventStreamSearchBenchmark {
+	@Param({"DBR_SCALAR_DOUBLE", "DBR_WAVEFORM_DOUBLE"})
+	public ArchDBRTypes type;
+
+	@Param({"86400", "1000000"})
+	public int eventCount;
+
+	private Path path;
+	private long positionOfFirstSample;
+	private Random random = new Random(0);
+
+	@Setup
+	public void setup() throws Exception {
+		path = Files.createTempFile("FileEventStreamSearchBenchmark", ".pb");
+		positionOfFirstSample = BenchmarkData.writePBFile(path, BenchmarkData.generatePBEvents(type, eventCount));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(path);
+	}
+
+	@Benchmark
+	public long seekToTime() throws IOException {
+		FileEventStreamSearch search = new FileEventStreamSearch(path, positionOfFirstSample);
+		search.seekToTime(type, random.nextInt(eventCount));
+		return search.getFoundPosition();
+	}
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package edu.stanford.slac.archiverappliance.PB.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.epics.archiverappliance.ByteArray;
+import org.epics.archiverappliance.benchmarks.BenchmarkData;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading all the lines in a PB file; this is what a raw retrieval does for each file.
+ * Each invocation reads the whole file; divide by the number of events to get the per line cost.
+ * @author mshankar
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LineByteStreamBenchmark {
+	@Param({"DBR_SCALAR_DOUBLE", "DBR_WAVEFORM_DOUBLE"})
+	public ArchDBRTypes type;
+
+	@Param({"100000"})
+	public int eventCount;
+
+	private Path path;
+	private long positionOfFirstSample;
+
+	@Setup
+	public void setup() throws Exception {
+		path = Files.createTempFile("LineByteStreamBenchmark", ".pb");
+		positionOfFirstSample = BenchmarkData.writePBFile(path, BenchmarkData.generatePBEvents(type, eventCount));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(path);
+	}
+
+	@Benchmark
+	public int readLineReusingByteArray() throws IOException {
+		int lines = 0;
+		try(LineByteStream lis = new LineByteStream(path, positionOfFirstSample)) {
+			ByteArray bar = new ByteArray(LineByteStream.MAX_LINE_SIZE);
+			lis.readLine(bar);
+			while(!bar.isEmpty()) {
+				lines++;
+				lis.readLine(bar);
+			}
+		}
+		return lines;
+	}
+
+	@Benchmark
+	public int readLine() throws IOException {
+		int lines = 0;
+		try(LineByteStream lis = new LineByteStream(path, positionOfFirstSample)) {
+			while(lis.readLine() != null) {
+				lines++;
+			}
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package edu.stanford.slac.archiverappliance.PB.utils;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Escaping and unescaping of new lines; this is done for every sample we write or read from a PB file.
+ * The payloads are random bytes with the given percentage of bytes that need to be escaped.
+ * @author mshankar
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LineEscaperBenchmark {
+	@Param({"16", "256", "16384", "1048576"})
+	public int payloadSize;
+
+	@Param({"0", "1", "10"})
+	public int percentEscaped;
+
+	private byte[] unescaped;
+	private byte[] escaped;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(payloadSize);
+		byte[] specialChars = new byte[] { LineEscaper.ESCAPE_CHAR, LineEscaper.NEWLINE_CHAR, LineEscaper.CARRIAGERETURN_CHAR };
+		unescaped = new byte[payloadSize];
+		for(int i = 0; i < payloadSize; i++) {
+			if(random.nextInt(100) < percentEscaped) {
+				unescaped[i] = specialChars[random.nextInt(specialChars.length)];
+			} else {
+				byte b;
+				do {
+					b = (byte) random.nextInt(256);
+				} while(b == LineEscaper.ESCAPE_CHAR || b == LineEscaper.NEWLINE_CHAR || b == LineEscaper.CARRIAGERETURN_CHAR);
+				unescaped[i] = b;
+			}
+		}
+		escaped = LineEscaper.escapeNewLines(unescaped);
+	}
+
+	@Benchmark
+	public byte[] escape() {
+		return LineEscaper.escapeNewLines(unescaped);
+	}
+
+	@Benchmark
+	public byte[] unescape() {
+		return LineEscaper.unescapeNewLines(escaped);
+	}
+}
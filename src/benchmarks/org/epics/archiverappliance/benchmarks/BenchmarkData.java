@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.epics.archiverappliance.ByteArray;
+import org.epics.archiverappliance.Event;
+import org.epics.archiverappliance.common.TimeUtils;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.data.DBRTimeEvent;
+import org.epics.archiverappliance.engine.membuf.ArrayListEventStream;
+import org.epics.archiverappliance.retrieval.RemotableEventStreamDesc;
+import org.epics.archiverappliance.utils.simulation.SimulationEvent;
+import org.epics.archiverappliance.utils.simulation.SineGenerator;
+
+import edu.stanford.slac.archiverappliance.PB.EPICSEvent.PayloadInfo;
+import edu.stanford.slac.archiverappliance.PB.data.DBR2PBTypeMapping;
+import edu.stanford.slac.archiverappliance.PB.utils.LineEscaper;
+
+/**
+ * Generates the data used by the benchmarks; we use the sine generator from the simulation package so that the data looks like what we'd get from an IOC.
+ * @author mshankar
+ *
+ */
+public class BenchmarkData {
+	public static final String PV_NAME = "ArchUnitTest:benchmark";
+
+	/**
+	 * Generate events one second apart starting at the beginning of the current year.
+	 * @param type
+	 * @param count
+	 * @return The events as PB events.
+	 * @throws Exception
+	 */
+	public static ArrayListEventStream generatePBEvents(ArchDBRTypes type, int count) throws Exception {
+		short year = TimeUtils.getCurrentYear();
+		ArrayListEventStream strm = new ArrayListEventStream(count, new RemotableEventStreamDesc(type, PV_NAME, year));
+		SineGenerator generator = new SineGenerator(0);
+		for(int secondsIntoYear = 0; secondsIntoYear < count; secondsIntoYear++) {
+			SimulationEvent simEvent = new SimulationEvent(secondsIntoYear, year, type, generator);
+			strm.add(DBR2PBTypeMapping.getPBClassFor(type).getSerializingConstructor().newInstance(simEvent));
+		}
+		return strm;
+	}
+
+	/**
+	 * Write the events into a PB file in the same format as the PlainPB storage plugin.
+	 * @param path
+	 * @param strm
+	 * @return The position of the first sample in the file.
+	 * @throws IOException
+	 */
+	public static long writePBFile(Path path, ArrayListEventStream strm) throws IOException {
+		RemotableEventStreamDesc desc = strm.getDescription();
+		byte[] header = LineEscaper.escapeNewLines(PayloadInfo.newBuilder()
+				.setPvname(desc.getPvName())
+				.setType(desc.getArchDBRType().getPBPayloadType())
+				.setYear(desc.getYear())
+				.build().toByteArray());
+		try(OutputStream os = Files.newOutputStream(path)) {
+			os.write(header);
+			os.write(LineEscaper.NEWLINE_CHAR);
+			for(Event e : strm) {
+				// The raw form is already escaped for new lines
+				ByteArray val = ((DBRTimeEvent) e).getRawForm();
+				os.write(val.data, val.off, val.len);
+				os.write(LineEscaper.NEWLINE_CHAR);
+			}
+		}
+		return header.length + 1;
+	}
+}
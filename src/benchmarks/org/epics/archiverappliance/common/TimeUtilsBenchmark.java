@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.common;
+
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The timestamp conversions that happen for every sample in the engine and in retrieval.
+ * @author mshankar
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TimeUtilsBenchmark {
+	private long epochSeconds;
+	private Timestamp timestamp;
+	private YearSecondTimestamp yearSecondTimestamp;
+	private String iso8601String;
+
+	@Setup
+	public void setup() {
+		epochSeconds = TimeUtils.getCurrentEpochSeconds();
+		timestamp = TimeUtils.convertFromEpochSeconds(epochSeconds, 123456789);
+		yearSecondTimestamp = TimeUtils.convertToYearSecondTimestamp(timestamp);
+		iso8601String = TimeUtils.convertToISO8601String(timestamp);
+	}
+
+	@Benchmark
+	public YearSecondTimestamp timestampToYearSecondTimestamp() {
+		return TimeUtils.convertToYearSecondTimestamp(timestamp);
+	}
+
+	@Benchmark
+	public Timestamp yearSecondTimestampToTimestamp() {
+		return TimeUtils.convertFromYearSecondTimestamp(yearSecondTimestamp);
+	}
+
+	@Benchmark
+	public int secondsIntoYear() {
+		return TimeUtils.getSecondsIntoYear(epochSeconds);
+	}
+
+	@Benchmark
+	public short computeYear() {
+		return TimeUtils.computeYearForEpochSeconds(epochSeconds);
+	}
+
+	@Benchmark
+	public String toISO8601String() {
+		return TimeUtils.convertToISO8601String(timestamp);
+	}
+
+	@Benchmark
+	public Timestamp fromISO8601String() {
+		return TimeUtils.convertFromISO8601String(iso8601String);
+	}
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.retrieval;
+
+import java.io.OutputStream;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import org.epics.archiverappliance.benchmarks.BenchmarkData;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.engine.membuf.ArrayListEventStream;
+import org.epics.archiverappliance.retrieval.mimeresponses.PBRAWResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Merging and deduping two overlapping streams (for example, the STS and the MTS) into a PB response.
+ * The second stream overlaps the first by half, so half the events in the second stream are compared and skipped.
+ * The scores are per event.
+ * @author mshankar
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@OperationsPerInvocation(MergeDedupConsumerBenchmark.EVENT_COUNT)
+public class MergeDedupConsumerBenchmark {
+	static final int EVENT_COUNT = 100000;
+
+	@Param({"DBR_SCALAR_DOUBLE", "DBR_WAVEFORM_DOUBLE"})
+	public ArchDBRTypes type;
+
+	private ArrayListEventStream firstStream;
+	private ArrayListEventStream secondStream;
+	private Timestamp start;
+	private Timestamp end;
+
+	@Setup
+	public void setup() throws Exception {
+		ArrayListEventStream allEvents = BenchmarkData.generatePBEvents(type, EVENT_COUNT);
+		firstStream = new ArrayListEventStream(EVENT_COUNT/2, allEvents.getDescription());
+		firstStream.addAll(allEvents.subList(0, EVENT_COUNT/2));
+		secondStream = new ArrayListEventStream(EVENT_COUNT*3/4, allEvents.getDescription());
+		secondStream.addAll(allEvents.subList(EVENT_COUNT/4, EVENT_COUNT));
+		start = allEvents.get(0).getEventTimeStamp();
+		end = allEvents.get(EVENT_COUNT-1).getEventTimeStamp();
+	}
+
+	@Benchmark
+	public int mergeDedup() throws Exception {
+		CountingOutputStream os = new CountingOutputStream();
+		MergeDedupConsumer consumer = new MergeDedupConsumer(new PBRAWResponse(), os);
+		consumer.processingPV(BenchmarkData.PV_NAME, start, end, firstStream.getDescription());
+		consumer.consumeEventStream(firstStream);
+		consumer.consumeEventStream(secondStream);
+		consumer.close();
+		return os.count;
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		int count = 0;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
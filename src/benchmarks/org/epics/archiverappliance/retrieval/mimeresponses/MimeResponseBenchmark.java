@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.retrieval.mimeresponses;
+
+import java.io.OutputStream;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import org.epics.archiverappliance.Event;
+import org.epics.archiverappliance.benchmarks.BenchmarkData;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.engine.membuf.ArrayListEventStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encoding events into the JSON and PB responses; these are the most common formats requested from retrieval.
+ * The output is discarded; the scores are per event.
+ * @author mshankar
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@OperationsPerInvocation(MimeResponseBenchmark.EVENT_COUNT)
+public class MimeResponseBenchmark {
+	static final int EVENT_COUNT = 100000;
+
+	@Param({"DBR_SCALAR_DOUBLE", "DBR_SCALAR_STRING", "DBR_WAVEFORM_DOUBLE"})
+	public ArchDBRTypes type;
+
+	private ArrayListEventStream events;
+	private Timestamp start;
+	private Timestamp end;
+
+	@Setup
+	public void setup() throws Exception {
+		events = BenchmarkData.generatePBEvents(type, EVENT_COUNT);
+		start = events.get(0).getEventTimeStamp();
+		end = events.get(EVENT_COUNT-1).getEventTimeStamp();
+	}
+
+	@Benchmark
+	public void json(Blackhole blackhole) throws Exception {
+		encode(new JSONResponse(), blackhole);
+	}
+
+	@Benchmark
+	public void pbraw(Blackhole blackhole) throws Exception {
+		encode(new PBRAWResponse(), blackhole);
+	}
+
+	private void encode(MimeResponse response, final Blackhole blackhole) throws Exception {
+		response.setOutputStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				blackhole.consume(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				blackhole.consume(len);
+			}
+		});
+		response.processingPV(BenchmarkData.PV_NAME, start, end, events.getDescription());
+		response.swicthingToStream(events);
+		for(Event event : events) {
+			response.consumeEvent(event);
+		}
+		response.close();
+	}
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.retrieval.postprocessors;
+
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import org.epics.archiverappliance.EventStream;
+import org.epics.archiverappliance.benchmarks.BenchmarkData;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.config.PVTypeInfo;
+import org.epics.archiverappliance.engine.membuf.ArrayListEventStream;
+import org.epics.archiverappliance.retrieval.CallableEventStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Binning a day's worth of 1Hz samples using the mean post processor; the other summary stats post processors share the same binning code.
+ * The scores are per event.
+ * @author mshankar
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@OperationsPerInvocation(SummaryStatsBenchmark.EVENT_COUNT)
+public class SummaryStatsBenchmark {
+	static final int EVENT_COUNT = 86400;
+
+	@Param({"10", "600", "3600"})
+	public int binSizeInSeconds;
+
+	private ArrayListEventStream events;
+	private Timestamp start;
+	private Timestamp end;
+
+	@Setup
+	public void setup() throws Exception {
+		events = BenchmarkData.generatePBEvents(ArchDBRTypes.DBR_SCALAR_DOUBLE, EVENT_COUNT);
+		start = events.get(0).getEventTimeStamp();
+		end = events.get(EVENT_COUNT-1).getEventTimeStamp();
+	}
+
+	@Benchmark
+	public EventStream mean() throws Exception {
+		Mean meanProcessor = new Mean();
+		meanProcessor.initialize("mean_" + binSizeInSeconds, BenchmarkData.PV_NAME);
+		meanProcessor.estimateMemoryConsumption(BenchmarkData.PV_NAME, new PVTypeInfo(BenchmarkData.PV_NAME, ArchDBRTypes.DBR_SCALAR_DOUBLE, true, 1), start, end, null);
+		meanProcessor.wrap(CallableEventStream.makeOneStreamCallable(events, null, false)).call();
+		return meanProcessor.getConsolidatedEventStream();
+	}
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.utils.ui;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.epics.archiverappliance.common.TimeUtils;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.config.PVTypeInfo;
+import org.epics.archiverappliance.mgmt.policy.PolicyConfig.SamplingMethod;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PVTypeInfo to and from JSON; this is done once per PV on startup, on each persistence write and in export/import config.
+ * The tree variants go thru a JSONObject like we used to; the streaming variants do not.
+ * @author mshankar
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class JSONCodecBenchmark {
+	private JSONEncoder<PVTypeInfo> encoder;
+	private JSONDecoder<PVTypeInfo> decoder;
+	private PVTypeInfo typeInfo;
+	private String jsonStr;
+
+	@Setup
+	public void setup() throws Exception {
+		encoder = JSONEncoder.getEncoder(PVTypeInfo.class);
+		decoder = JSONDecoder.getDecoder(PVTypeInfo.class);
+		typeInfo = new PVTypeInfo("ROOM:LI30:1:OUTSIDE_TEMP", ArchDBRTypes.DBR_SCALAR_DOUBLE, true, 1);
+		typeInfo.setApplianceIdentity("appliance0");
+		typeInfo.setSamplingMethod(SamplingMethod.MONITOR);
+		typeInfo.setSamplingPeriod(1.0f);
+		typeInfo.setPolicyName("default");
+		typeInfo.setDataStores(new String[] {
+				"pb://localhost?name=STS&rootFolder=${ARCHAPPL_SHORT_TERM_FOLDER}&partitionGranularity=PARTITION_HOUR",
+				"pb://localhost?name=MTS&rootFolder=${ARCHAPPL_MEDIUM_TERM_FOLDER}&partitionGranularity=PARTITION_DAY",
+				"pb://localhost?name=LTS&rootFolder=${ARCHAPPL_LONG_TERM_FOLDER}&partitionGranularity=PARTITION_YEAR" });
+		typeInfo.setArchiveFields(new String[] { "HIHI", "LOLO", "HIGH", "LOW" });
+		HashMap<String, String> extraFields = new HashMap<String, String>();
+		extraFields.put("DESC", "Outside temperature");
+		extraFields.put("EGU", "degF");
+		typeInfo.setExtraFields(extraFields);
+		typeInfo.setCreationTime(TimeUtils.now());
+		typeInfo.setModificationTime(TimeUtils.now());
+		jsonStr = encoder.encodeToString(typeInfo);
+	}
+
+	@Benchmark
+	public JSONEncoder<PVTypeInfo> getEncoder() throws Exception {
+		return JSONEncoder.getEncoder(PVTypeInfo.class);
+	}
+
+	@Benchmark
+	public String encodeTree() throws Exception {
+		return encoder.encode(typeInfo).toJSONString();
+	}
+
+	@Benchmark
+	public String encodeStreaming() throws Exception {
+		return encoder.encodeToString(typeInfo);
+	}
+
+	@Benchmark
+	public PVTypeInfo decodeTree() throws Exception {
+		PVTypeInfo ret = new PVTypeInfo();
+		decoder.decode((JSONObject) JSONValue.parse(jsonStr), ret);
+		return ret;
+	}
+
+	@Benchmark
+	public PVTypeInfo decodeStreaming() throws Exception {
+		PVTypeInfo ret = new PVTypeInfo();
+		decoder.decode(jsonStr, ret);
+		return ret;
+	}
+}
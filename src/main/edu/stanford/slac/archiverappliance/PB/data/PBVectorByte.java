@@ -7,6 +7,7 @@
  *******************************************************************************/
 package edu.stanford.slac.archiverappliance.PB.data;
 
+import java.nio.ByteBuffer;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -26,11 +27,8 @@ import org.epics.pvdata.pv.PVByteArray;
 import org.epics.pvdata.pv.PVStructure;
 import org.epics.pvdata.pv.ScalarType;
 
-import com.google.protobuf.ByteString;
-
 import edu.stanford.slac.archiverappliance.PB.EPICSEvent;
 import edu.stanford.slac.archiverappliance.PB.EPICSEvent.FieldValue;
-import edu.stanford.slac.archiverappliance.PB.EPICSEvent.VectorChar.Builder;
 import edu.stanford.slac.archiverappliance.PB.utils.LineEscaper;
 import gov.aps.jca.dbr.DBR;
 import gov.aps.jca.dbr.DBR_TIME_Byte;
@@ -44,6 +42,7 @@ public class PBVectorByte implements DBRTimeEvent, PartionedTime {
 	ByteArray bar = null;
 	short year = 0;
 	EPICSEvent.VectorChar dbevent = null;
+	PBVectorCodec header = null;
 
 	
 	public PBVectorByte(short year, ByteArray bar) {
@@ -51,51 +50,17 @@ public class PBVectorByte implements DBRTimeEvent, PartionedTime {
 		this.year = year;
 	}
 	
-	@SuppressWarnings("unchecked")
 	public PBVectorByte(DBRTimeEvent ev) {
-		List<Byte> bytes = ev.getSampleValue().getValues();
-		byte[] vals = new byte[bytes.size()];
-		int i = 0;
-		for(Byte b : bytes) {
-			vals[i++] = b;
-		}
 		YearSecondTimestamp yst = TimeUtils.convertToYearSecondTimestamp(ev.getEventTimeStamp());
 		year = yst.getYear();
-		Builder builder = EPICSEvent.VectorChar.newBuilder()
-				.setSecondsintoyear(yst.getSecondsintoyear())
-				.setNano(yst.getNanos())
-				.setVal(ByteString.copyFrom(vals));
-		if(ev.getSeverity() != 0) builder.setSeverity(ev.getSeverity());
-		if(ev.getStatus() != 0) builder.setStatus(ev.getStatus());
-		if(ev.hasFieldValues()) {
-			HashMap<String, String> fields = ev.getFields();
-			for(String fieldName : fields.keySet()) {
-				FieldValue fv = EPICSEvent.FieldValue.newBuilder().setName(fieldName).setVal(fields.get(fieldName)).build();
-				builder.addFieldvalues(fv);
-			}
-			builder.setFieldactualchange(ev.isActualChange());
-		}
-		dbevent = builder.build();
-		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		bar = PBVectorCodec.encode(PBVectorCodec.ElementType.BYTES, yst, ev, PBVectorCodec.toBytes(PBVectorCodec.ElementType.BYTES, ev.getSampleValue()));
 	}
 
 	public PBVectorByte(DBR dbr) {
 		DBR_TIME_Byte realtype = (DBR_TIME_Byte) dbr;
-		byte[] vals = new byte[realtype.getCount()];
-		int i = 0;
-		for(Byte b : realtype.getByteValue()) {
-			vals[i++] = b;
-		}
 		YearSecondTimestamp yst = TimeUtils.convertToYearSecondTimestamp(realtype.getTimeStamp());
 		year = yst.getYear();
-		Builder builder = EPICSEvent.VectorChar.newBuilder()
-				.setSecondsintoyear(yst.getSecondsintoyear())
-				.setNano(yst.getNanos())
-				.setVal(ByteString.copyFrom(vals));
-		if(realtype.getSeverity().getValue() != 0) builder.setSeverity(realtype.getSeverity().getValue());
-		if(realtype.getStatus().getValue() != 0) builder.setStatus(realtype.getStatus().getValue());
-		dbevent = builder.build();
-		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));;
+		bar = PBVectorCodec.encode(PBVectorCodec.ElementType.BYTES, yst, realtype.getSeverity().getValue(), realtype.getStatus().getValue(), ByteBuffer.wrap(realtype.getByteValue(), 0, realtype.getCount()));
 	}
 
 	public PBVectorByte(PVStructure v4Data) {
@@ -112,17 +77,9 @@ public class PBVectorByte implements DBRTimeEvent, PartionedTime {
 		PVByteArray pvArray = (PVByteArray) v4Data.getScalarArrayField("value", ScalarType.pvByte);
 		ByteArrayData arrayData = new ByteArrayData();
 		pvArray.get(0, pvArray.getLength(), arrayData);
-		byte[] data = arrayData.data;
 
 		year = yst.getYear();
-		Builder builder = EPICSEvent.VectorChar.newBuilder()
-				.setSecondsintoyear(yst.getSecondsintoyear())
-				.setNano(yst.getNanos())
-				.setVal(ByteString.copyFrom(data));
-		if(severity != 0) builder.setSeverity(severity);
-		if(status != 0) builder.setStatus(status);
-		dbevent = builder.build();
-		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		bar = PBVectorCodec.encode(PBVectorCodec.ElementType.BYTES, yst, severity, status, ByteBuffer.wrap(arrayData.data));
 	}
 
 	@Override
@@ -133,8 +90,8 @@ public class PBVectorByte implements DBRTimeEvent, PartionedTime {
 	
 	@Override
 	public Timestamp getEventTimeStamp() {
-		unmarshallEventIfNull();
-		return TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp(year, dbevent.getSecondsintoyear(), dbevent.getNano()));
+		parseHeaderIfNull();
+		return TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp(year, header.secondsintoyear, header.nano));
 	}
 	
 	@Override
@@ -144,14 +101,14 @@ public class PBVectorByte implements DBRTimeEvent, PartionedTime {
 	
 	@Override
 	public int getSecondsIntoYear() {
-		unmarshallEventIfNull();
-		return dbevent.getSecondsintoyear();
+		parseHeaderIfNull();
+		return header.secondsintoyear;
 	}
 
 	@Override
 	public long getEpochSeconds() {
-		unmarshallEventIfNull();
-		return TimeUtils.getStartOfYearInSeconds(year) + dbevent.getSecondsintoyear();
+		parseHeaderIfNull();
+		return TimeUtils.getStartOfYearInSeconds(year) + header.secondsintoyear;
 	}
 
 	@Override
@@ -161,6 +118,10 @@ public class PBVectorByte implements DBRTimeEvent, PartionedTime {
 
 	@Override
 	public SampleValue getSampleValue() {
+		parseHeaderIfNull();
+		if(header.areValuesDecodable()) {
+			return header.decodeValues();
+		}
 		unmarshallEventIfNull();
 		byte[] bytes = dbevent.getVal().toByteArray();
 		ArrayList<Byte> ret = new ArrayList<Byte>(bytes.length);
@@ -172,20 +133,20 @@ public class PBVectorByte implements DBRTimeEvent, PartionedTime {
 
 	@Override
 	public int getStatus() {
-		unmarshallEventIfNull();
-		return dbevent.getStatus();
+		parseHeaderIfNull();
+		return header.status;
 	}
 
 	@Override
 	public int getSeverity() {
-		unmarshallEventIfNull();
-		return dbevent.getSeverity();
+		parseHeaderIfNull();
+		return header.severity;
 	}
 
 	@Override
 	public int getRepeatCount() {
-		unmarshallEventIfNull();
-		return dbevent.getRepeatcount();
+		parseHeaderIfNull();
+		return header.repeatcount;
 	}
 	
 	@Override
@@ -193,6 +154,7 @@ public class PBVectorByte implements DBRTimeEvent, PartionedTime {
 		unmarshallEventIfNull();
 		dbevent = EPICSEvent.VectorChar.newBuilder().mergeFrom(dbevent).setRepeatcount(repeatCount).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 
@@ -205,6 +167,7 @@ public class PBVectorByte implements DBRTimeEvent, PartionedTime {
 			dbevent = EPICSEvent.VectorChar.newBuilder().mergeFrom(dbevent).build();
 		}
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 	
@@ -217,9 +180,16 @@ public class PBVectorByte implements DBRTimeEvent, PartionedTime {
 			dbevent = EPICSEvent.VectorChar.newBuilder().mergeFrom(dbevent).build();
 		}
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 	
+	private void parseHeaderIfNull() {
+		if(header == null) {
+			header = PBVectorCodec.parse(PBVectorCodec.ElementType.BYTES, bar);
+		}
+	}
+
 	private void unmarshallEventIfNull() {
 		try {
 			if(dbevent == null) {
@@ -231,14 +201,14 @@ public class PBVectorByte implements DBRTimeEvent, PartionedTime {
 	}
 	@Override
 	public boolean hasFieldValues() {
-		unmarshallEventIfNull();
-		return dbevent.getFieldvaluesCount() > 0;
+		parseHeaderIfNull();
+		return header.fieldValuesCount > 0;
 	}
 
 	@Override
 	public boolean isActualChange() {
-		unmarshallEventIfNull();
-		return dbevent.getFieldactualchange();
+		parseHeaderIfNull();
+		return header.fieldactualchange;
 	}
 
 	@Override
@@ -274,6 +244,7 @@ public class PBVectorByte implements DBRTimeEvent, PartionedTime {
 		FieldValue fv = EPICSEvent.FieldValue.newBuilder().setName(fieldName).setVal(fieldValue).build();
 		dbevent = EPICSEvent.VectorChar.newBuilder().mergeFrom(dbevent).addFieldvalues(fv).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 
@@ -282,6 +253,7 @@ public class PBVectorByte implements DBRTimeEvent, PartionedTime {
 		unmarshallEventIfNull();
 		dbevent = EPICSEvent.VectorChar.newBuilder().mergeFrom(dbevent).setFieldactualchange(true).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 
@@ -294,6 +266,7 @@ public class PBVectorByte implements DBRTimeEvent, PartionedTime {
 		}
 		dbevent = EPICSEvent.VectorChar.newBuilder().mergeFrom(dbevent).addAllFieldvalues(fieldValuesList).setFieldactualchange(markAsActualChange).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}	
 
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package edu.stanford.slac.archiverappliance.PB.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.epics.archiverappliance.ByteArray;
+import org.epics.archiverappliance.common.YearSecondTimestamp;
+import org.epics.archiverappliance.data.DBRTimeEvent;
+import org.epics.archiverappliance.data.PrimitiveVectorValue;
+import org.epics.archiverappliance.data.SampleValue;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import edu.stanford.slac.archiverappliance.PB.EPICSEvent;
+import edu.stanford.slac.archiverappliance.PB.EPICSEvent.FieldValue;
+import edu.stanford.slac.archiverappliance.PB.utils.LineEscaper;
+
+/**
+ * Reads and writes the PB vector messages (VectorDouble, VectorFloat etc) without going thru the generated builders.
+ * The generated code parses the values in a waveform into a list of boxed numbers; for large waveforms this is most of the cost of reading a sample.
+ * All the vector messages have the same layout with the values in field 3 as a packed repeated field (or as bytes for VectorChar).
+ * So, we parse the scalar fields and remember where the values are; the values are decoded into a {@link PrimitiveVectorValue} only when they are asked for.
+ * The bytes generated by the encode methods are the same as those generated by the builders; so there is no change to the data on disk.
+ * @author mshankar
+ *
+ */
+class PBVectorCodec {
+	private static final int VALUES_FIELD = 3;
+
+	/**
+	 * How the elements of the vector are encoded in field 3; the elements are held in a PrimitiveVectorValue as little endian elements of elementSize bytes.
+	 */
+	enum ElementType {
+		DOUBLE(8),
+		FLOAT(4),
+		SFIXED32(4),
+		/** sint32 on disk; these are shorts (or enums) in memory */
+		SINT32(2),
+		BYTES(1);
+
+		final int elementSize;
+		ElementType(int elementSize) {
+			this.elementSize = elementSize;
+		}
+	}
+
+	int secondsintoyear = 0;
+	int nano = 0;
+	int severity = 0;
+	int status = 0;
+	int repeatcount = 0;
+	int fieldValuesCount = 0;
+	boolean fieldactualchange = false;
+	private final ElementType elementType;
+	private byte[] data;
+	private int valuesOffset = 0;
+	private int valuesLength = 0;
+	/** False if the values are not a single packed field; we then let the generated code parse the values */
+	private boolean valuesDecodable = true;
+
+	private PBVectorCodec(ElementType elementType) {
+		this.elementType = elementType;
+	}
+
+	/**
+	 * Parse everything but the values in the message in the ByteArray.
+	 * Like the generated code, the data in the ByteArray is accessed later when the values are decoded.
+	 * @param elementType
+	 * @param bar
+	 * @return
+	 */
+	static PBVectorCodec parse(ElementType elementType, ByteArray bar) {
+		try {
+			bar.inPlaceUnescape();
+			PBVectorCodec ret = new PBVectorCodec(elementType);
+			ret.data = bar.unescapedData;
+			CodedInputStream input = CodedInputStream.newInstance(bar.unescapedData, bar.off, bar.unescapedLen);
+			boolean seenValues = false;
+			int tag = input.readTag();
+			while(tag != 0) {
+				switch(WireFormat.getTagFieldNumber(tag)) {
+				case 1: ret.secondsintoyear = input.readUInt32(); break;
+				case 2: ret.nano = input.readUInt32(); break;
+				case 4: ret.severity = input.readInt32(); break;
+				case 5: ret.status = input.readInt32(); break;
+				case 6: ret.repeatcount = input.readUInt32(); break;
+				case 7: ret.fieldValuesCount++; input.skipField(tag); break;
+				case 8: ret.fieldactualchange = input.readBool(); break;
+				case VALUES_FIELD:
+					if((tag & 0x7) == WireFormat.WIRETYPE_LENGTH_DELIMITED && !seenValues) {
+						ret.valuesLength = input.readRawVarint32();
+						ret.valuesOffset = bar.off + input.getTotalBytesRead();
+						input.skipRawBytes(ret.valuesLength);
+						seenValues = true;
+					} else {
+						ret.valuesDecodable = false;
+						input.skipField(tag);
+					}
+					break;
+				default:
+					input.skipField(tag);
+				}
+				tag = input.readTag();
+			}
+			return ret;
+		} catch(Exception ex) {
+			throw new PBParseException(bar.toBytes(), ex);
+		}
+	}
+
+	/**
+	 * @return false if the values cannot be decoded by {@link #decodeValues()} and should be obtained using the generated code.
+	 */
+	boolean areValuesDecodable() {
+		return valuesDecodable;
+	}
+
+	/**
+	 * Decode the values into a PrimitiveVectorValue.
+	 * For the fixed size element types, this is a copy of the bytes on disk; so the value does not depend on the (possibly reused) ByteArray.
+	 * @return
+	 */
+	PrimitiveVectorValue<?> decodeValues() {
+		try {
+			ByteBuffer buf;
+			if(elementType == ElementType.SINT32) {
+				int count = 0;
+				for(int i = valuesOffset; i < valuesOffset + valuesLength; i++) {
+					if((data[i] & 0x80) == 0) count++;
+				}
+				buf = ByteBuffer.allocate(count*2).order(ByteOrder.LITTLE_ENDIAN);
+				CodedInputStream input = CodedInputStream.newInstance(data, valuesOffset, valuesLength);
+				for(int i = 0; i < count; i++) {
+					buf.putShort((short) input.readSInt32());
+				}
+				buf.flip();
+			} else {
+				byte[] values = new byte[valuesLength];
+				System.arraycopy(data, valuesOffset, values, 0, valuesLength);
+				buf = ByteBuffer.wrap(values);
+			}
+			return newValue(elementType, buf);
+		} catch(IOException ex) {
+			throw new PBParseException(null, ex);
+		}
+	}
+
+	private static PrimitiveVectorValue<?> newValue(ElementType elementType, ByteBuffer buf) {
+		switch(elementType) {
+		case DOUBLE: return new PrimitiveVectorValue.OfDouble(buf);
+		case FLOAT: return new PrimitiveVectorValue.OfFloat(buf);
+		case SFIXED32: return new PrimitiveVectorValue.OfInt(buf);
+		case SINT32: return new PrimitiveVectorValue.OfShort(buf);
+		case BYTES: return new PrimitiveVectorValue.OfByte(buf);
+		default: throw new UnsupportedOperationException("Unknown element type " + elementType);
+		}
+	}
+
+	private static boolean isOfElementType(ElementType elementType, SampleValue value) {
+		switch(elementType) {
+		case DOUBLE: return value instanceof PrimitiveVectorValue.OfDouble;
+		case FLOAT: return value instanceof PrimitiveVectorValue.OfFloat;
+		case SFIXED32: return value instanceof PrimitiveVectorValue.OfInt;
+		case SINT32: return value instanceof PrimitiveVectorValue.OfShort;
+		case BYTES: return value instanceof PrimitiveVectorValue.OfByte;
+		default: return false;
+		}
+	}
+
+	/**
+	 * Get the values in the sample value as little endian elements of the element type.
+	 * Values that are already held in a PrimitiveVectorValue of the same type are not decoded.
+	 */
+	@SuppressWarnings("unchecked")
+	static ByteBuffer toBytes(ElementType elementType, SampleValue value) {
+		if(isOfElementType(elementType, value)) {
+			return value.getValueAsBytes();
+		}
+		List<Number> vals = value.getValues();
+		ByteBuffer buf = ByteBuffer.allocate(vals.size()*elementType.elementSize).order(ByteOrder.LITTLE_ENDIAN);
+		for(Number val : vals) {
+			switch(elementType) {
+			case DOUBLE: buf.putDouble(val.doubleValue()); break;
+			case FLOAT: buf.putFloat(val.floatValue()); break;
+			case SFIXED32: buf.putInt(val.intValue()); break;
+			case SINT32: buf.putShort(val.shortValue()); break;
+			case BYTES: buf.put(val.byteValue()); break;
+			}
+		}
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Encode a vector message with the values in the ByteBuffer and escape it for storage.
+	 * @param elementType
+	 * @param yst
+	 * @param severity
+	 * @param status
+	 * @param values - Little endian elements of the element type.
+	 * @return
+	 */
+	static ByteArray encode(ElementType elementType, YearSecondTimestamp yst, int severity, int status, ByteBuffer values) {
+		return encode(elementType, yst, severity, status, values, null, false);
+	}
+
+	/**
+	 * Encode a copy of the event with the values in the ByteBuffer; the field values of the event are copied over as well.
+	 */
+	static ByteArray encode(ElementType elementType, YearSecondTimestamp yst, DBRTimeEvent ev, ByteBuffer values) {
+		if(ev.hasFieldValues()) {
+			return encode(elementType, yst, ev.getSeverity(), ev.getStatus(), values, ev.getFields(), ev.isActualChange());
+		} else {
+			return encode(elementType, yst, ev.getSeverity(), ev.getStatus(), values, null, false);
+		}
+	}
+
+	/**
+	 * The fields are written in field number order, the same as the generated code does.
+	 * Like the builders in the constructors, severity and status are written only if they are not 0 and fieldactualchange only if we have field values.
+	 */
+	private static ByteArray encode(ElementType elementType, YearSecondTimestamp yst, int severity, int status, ByteBuffer values, HashMap<String, String> fields, boolean actualChange) {
+		try {
+			values = values.slice().order(ByteOrder.LITTLE_ENDIAN);
+			int elementCount = values.remaining()/elementType.elementSize;
+			int valuesLength = values.remaining();
+			if(elementType == ElementType.SINT32) {
+				valuesLength = 0;
+				for(int i = 0; i < elementCount; i++) {
+					valuesLength += CodedOutputStream.computeSInt32SizeNoTag(values.getShort(i*2));
+				}
+			}
+			// Packed repeated fields with no elements are not written at all; VectorChar's bytes are required and are always written.
+			boolean writeValues = elementCount > 0 || elementType == ElementType.BYTES;
+
+			LinkedList<FieldValue> fieldValues = new LinkedList<FieldValue>();
+			if(fields != null) {
+				for(String fieldName : fields.keySet()) {
+					fieldValues.add(EPICSEvent.FieldValue.newBuilder().setName(fieldName).setVal(fields.get(fieldName)).build());
+				}
+			}
+
+			int size = CodedOutputStream.computeUInt32Size(1, yst.getSecondsintoyear()) + CodedOutputStream.computeUInt32Size(2, yst.getNanos());
+			if(writeValues) size += CodedOutputStream.computeTagSize(VALUES_FIELD) + CodedOutputStream.computeRawVarint32Size(valuesLength) + valuesLength;
+			if(severity != 0) size += CodedOutputStream.computeInt32Size(4, severity);
+			if(status != 0) size += CodedOutputStream.computeInt32Size(5, status);
+			for(FieldValue fieldValue : fieldValues) {
+				size += CodedOutputStream.computeMessageSize(7, fieldValue);
+			}
+			if(fields != null) size += CodedOutputStream.computeBoolSize(8, actualChange);
+
+			byte[] ret = new byte[size];
+			CodedOutputStream output = CodedOutputStream.newInstance(ret);
+			output.writeUInt32(1, yst.getSecondsintoyear());
+			output.writeUInt32(2, yst.getNanos());
+			if(writeValues) {
+				output.writeTag(VALUES_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+				output.writeRawVarint32(valuesLength);
+				if(elementType == ElementType.SINT32) {
+					for(int i = 0; i < elementCount; i++) {
+						output.writeSInt32NoTag(values.getShort(i*2));
+					}
+				} else if(values.hasArray()) {
+					output.writeRawBytes(values.array(), values.arrayOffset() + values.position(), valuesLength);
+				} else {
+					byte[] valueBytes = new byte[valuesLength];
+					values.duplicate().get(valueBytes);
+					output.writeRawBytes(valueBytes);
+				}
+			}
+			if(severity != 0) output.writeInt32(4, severity);
+			if(status != 0) output.writeInt32(5, status);
+			for(FieldValue fieldValue : fieldValues) {
+				output.writeMessage(7, fieldValue);
+			}
+			if(fields != null) output.writeBool(8, actualChange);
+			output.checkNoSpaceLeft();
+			return new ByteArray(LineEscaper.escapeNewLines(ret));
+		} catch(IOException ex) {
+			// We are writing into a byte array; this should never happen.
+			throw new RuntimeException("Exception encoding a vector of " + elementType, ex);
+		}
+	}
+}
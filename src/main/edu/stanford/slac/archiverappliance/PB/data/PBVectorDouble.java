@@ -8,7 +8,6 @@
 package edu.stanford.slac.archiverappliance.PB.data;
 
 import java.sql.Timestamp;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -19,6 +18,7 @@ import org.epics.archiverappliance.common.TimeUtils;
 import org.epics.archiverappliance.common.YearSecondTimestamp;
 import org.epics.archiverappliance.config.ArchDBRTypes;
 import org.epics.archiverappliance.data.DBRTimeEvent;
+import org.epics.archiverappliance.data.PrimitiveVectorValue;
 import org.epics.archiverappliance.data.SampleValue;
 import org.epics.archiverappliance.data.VectorValue;
 import org.epics.pvdata.pv.DoubleArrayData;
@@ -28,7 +28,6 @@ import org.epics.pvdata.pv.ScalarType;
 
 import edu.stanford.slac.archiverappliance.PB.EPICSEvent;
 import edu.stanford.slac.archiverappliance.PB.EPICSEvent.FieldValue;
-import edu.stanford.slac.archiverappliance.PB.EPICSEvent.VectorDouble.Builder;
 import edu.stanford.slac.archiverappliance.PB.utils.LineEscaper;
 import gov.aps.jca.dbr.DBR;
 import gov.aps.jca.dbr.DBR_TIME_Double;
@@ -42,48 +41,24 @@ public class PBVectorDouble implements DBRTimeEvent, PartionedTime {
 	ByteArray bar = null;
 	short year = 0;
 	EPICSEvent.VectorDouble dbevent = null;
+	PBVectorCodec header = null;
 
 	public PBVectorDouble(short year, ByteArray bar) {
 		this.bar = bar;
 		this.year = year;
 	}
 	
-	@SuppressWarnings("unchecked")
 	public PBVectorDouble(DBRTimeEvent ev) {
 		YearSecondTimestamp yst = TimeUtils.convertToYearSecondTimestamp(ev.getEventTimeStamp());
 		year = yst.getYear();
-		Builder builder = EPICSEvent.VectorDouble.newBuilder()
-		.setSecondsintoyear(yst.getSecondsintoyear())
-		.setNano(yst.getNanos())
-		.addAllVal(ev.getSampleValue().getValues());
-		if(ev.getSeverity() != 0) builder.setSeverity(ev.getSeverity());
-		if(ev.getStatus() != 0) builder.setStatus(ev.getStatus());
-		if(ev.hasFieldValues()) {
-			HashMap<String, String> fields = ev.getFields();
-			for(String fieldName : fields.keySet()) {
-				FieldValue fv = EPICSEvent.FieldValue.newBuilder().setName(fieldName).setVal(fields.get(fieldName)).build();
-				builder.addFieldvalues(fv);
-			}
-			builder.setFieldactualchange(ev.isActualChange());
-		}
-		dbevent = builder.build();
-		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		bar = PBVectorCodec.encode(PBVectorCodec.ElementType.DOUBLE, yst, ev, PBVectorCodec.toBytes(PBVectorCodec.ElementType.DOUBLE, ev.getSampleValue()));
 	}
 
 	public PBVectorDouble(DBR dbr) {
 		DBR_TIME_Double realtype = (DBR_TIME_Double) dbr;
 		YearSecondTimestamp yst = TimeUtils.convertToYearSecondTimestamp(realtype.getTimeStamp());
 		year = yst.getYear();
-		ArrayList<Double> vals = new ArrayList<Double>(realtype.getCount());
-		for(double val : realtype.getDoubleValue()) vals.add(val);
-		Builder builder = EPICSEvent.VectorDouble.newBuilder()
-		.setSecondsintoyear(yst.getSecondsintoyear())
-		.setNano(yst.getNanos())
-		.addAllVal(vals);
-		if(realtype.getSeverity().getValue() != 0) builder.setSeverity(realtype.getSeverity().getValue());
-		if(realtype.getStatus().getValue() != 0) builder.setStatus(realtype.getStatus().getValue());
-		dbevent = builder.build();
-		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));;
+		bar = PBVectorCodec.encode(PBVectorCodec.ElementType.DOUBLE, yst, realtype.getSeverity().getValue(), realtype.getStatus().getValue(), PrimitiveVectorValue.OfDouble.toBytes(realtype.getDoubleValue()));
 	}
 
 	public PBVectorDouble(PVStructure v4Data) {
@@ -100,21 +75,9 @@ public class PBVectorDouble implements DBRTimeEvent, PartionedTime {
 		PVDoubleArray pvArray = (PVDoubleArray) v4Data.getScalarArrayField("value", ScalarType.pvDouble);
 		DoubleArrayData arrayData = new DoubleArrayData();
 		pvArray.get(0, pvArray.getLength(), arrayData);
-		ArrayList<Double> vals = new ArrayList<Double>();
-		double[] data = arrayData.data;
-		for(double dataitem : data) { 
-			vals.add(dataitem);
-		}
 
 		year = yst.getYear();
-		Builder builder = EPICSEvent.VectorDouble.newBuilder()
-				.setSecondsintoyear(yst.getSecondsintoyear())
-				.setNano(yst.getNanos())
-				.addAllVal(vals);
-		if(severity != 0) builder.setSeverity(severity);
-		if(status != 0) builder.setStatus(status);
-		dbevent = builder.build();
-		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		bar = PBVectorCodec.encode(PBVectorCodec.ElementType.DOUBLE, yst, severity, status, PrimitiveVectorValue.OfDouble.toBytes(arrayData.data));
 	}
 
 
@@ -126,8 +89,8 @@ public class PBVectorDouble implements DBRTimeEvent, PartionedTime {
 	
 	@Override
 	public Timestamp getEventTimeStamp() {
-		unmarshallEventIfNull();
-		return TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp(year, dbevent.getSecondsintoyear(), dbevent.getNano()));
+		parseHeaderIfNull();
+		return TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp(year, header.secondsintoyear, header.nano));
 	}
 	
 	@Override
@@ -137,14 +100,14 @@ public class PBVectorDouble implements DBRTimeEvent, PartionedTime {
 	
 	@Override
 	public int getSecondsIntoYear() {
-		unmarshallEventIfNull();
-		return dbevent.getSecondsintoyear();
+		parseHeaderIfNull();
+		return header.secondsintoyear;
 	}
 
 	@Override
 	public long getEpochSeconds() {
-		unmarshallEventIfNull();
-		return TimeUtils.getStartOfYearInSeconds(year) + dbevent.getSecondsintoyear();
+		parseHeaderIfNull();
+		return TimeUtils.getStartOfYearInSeconds(year) + header.secondsintoyear;
 	}
 
 	@Override
@@ -154,26 +117,30 @@ public class PBVectorDouble implements DBRTimeEvent, PartionedTime {
 
 	@Override
 	public SampleValue getSampleValue() {
+		parseHeaderIfNull();
+		if(header.areValuesDecodable()) {
+			return header.decodeValues();
+		}
 		unmarshallEventIfNull();
 		return new VectorValue<Double>(dbevent.getValList());
 	}
 
 	@Override
 	public int getStatus() {
-		unmarshallEventIfNull();
-		return dbevent.getStatus();
+		parseHeaderIfNull();
+		return header.status;
 	}
 
 	@Override
 	public int getSeverity() {
-		unmarshallEventIfNull();
-		return dbevent.getSeverity();
+		parseHeaderIfNull();
+		return header.severity;
 	}
 
 	@Override
 	public int getRepeatCount() {
-		unmarshallEventIfNull();
-		return dbevent.getRepeatcount();
+		parseHeaderIfNull();
+		return header.repeatcount;
 	}
 	
 	@Override
@@ -181,6 +148,7 @@ public class PBVectorDouble implements DBRTimeEvent, PartionedTime {
 		unmarshallEventIfNull();
 		dbevent = EPICSEvent.VectorDouble.newBuilder().mergeFrom(dbevent).setRepeatcount(repeatCount).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 
@@ -193,6 +161,7 @@ public class PBVectorDouble implements DBRTimeEvent, PartionedTime {
 			dbevent = EPICSEvent.VectorDouble.newBuilder().mergeFrom(dbevent).build();
 		}
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 	
@@ -205,9 +174,16 @@ public class PBVectorDouble implements DBRTimeEvent, PartionedTime {
 			dbevent = EPICSEvent.VectorDouble.newBuilder().mergeFrom(dbevent).build();
 		}
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 	
+	private void parseHeaderIfNull() {
+		if(header == null) {
+			header = PBVectorCodec.parse(PBVectorCodec.ElementType.DOUBLE, bar);
+		}
+	}
+
 	private void unmarshallEventIfNull() {
 		try {
 			if(dbevent == null) {
@@ -219,14 +195,14 @@ public class PBVectorDouble implements DBRTimeEvent, PartionedTime {
 	}
 	@Override
 	public boolean hasFieldValues() {
-		unmarshallEventIfNull();
-		return dbevent.getFieldvaluesCount() > 0;
+		parseHeaderIfNull();
+		return header.fieldValuesCount > 0;
 	}
 
 	@Override
 	public boolean isActualChange() {
-		unmarshallEventIfNull();
-		return dbevent.getFieldactualchange();
+		parseHeaderIfNull();
+		return header.fieldactualchange;
 	}
 
 	@Override
@@ -262,6 +238,7 @@ public class PBVectorDouble implements DBRTimeEvent, PartionedTime {
 		FieldValue fv = EPICSEvent.FieldValue.newBuilder().setName(fieldName).setVal(fieldValue).build();
 		dbevent = EPICSEvent.VectorDouble.newBuilder().mergeFrom(dbevent).addFieldvalues(fv).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 
@@ -270,6 +247,7 @@ public class PBVectorDouble implements DBRTimeEvent, PartionedTime {
 		unmarshallEventIfNull();
 		dbevent = EPICSEvent.VectorDouble.newBuilder().mergeFrom(dbevent).setFieldactualchange(true).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 
@@ -282,6 +260,7 @@ public class PBVectorDouble implements DBRTimeEvent, PartionedTime {
 		}
 		dbevent = EPICSEvent.VectorDouble.newBuilder().mergeFrom(dbevent).addAllFieldvalues(fieldValuesList).setFieldactualchange(markAsActualChange).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}	
 
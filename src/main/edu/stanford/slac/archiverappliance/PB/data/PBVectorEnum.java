@@ -19,6 +19,7 @@ import org.epics.archiverappliance.common.TimeUtils;
 import org.epics.archiverappliance.common.YearSecondTimestamp;
 import org.epics.archiverappliance.config.ArchDBRTypes;
 import org.epics.archiverappliance.data.DBRTimeEvent;
+import org.epics.archiverappliance.data.PrimitiveVectorValue;
 import org.epics.archiverappliance.data.SampleValue;
 import org.epics.archiverappliance.data.VectorValue;
 import org.epics.pvdata.pv.PVStructure;
@@ -41,51 +42,24 @@ public class PBVectorEnum implements DBRTimeEvent, PartionedTime {
 	ByteArray bar = null;
 	short year = 0;
 	EPICSEvent.VectorEnum dbevent = null;
+	PBVectorCodec header = null;
 
 	public PBVectorEnum(short year, ByteArray bar) {
 		this.bar = bar;
 		this.year = year;
 	}
 	
-	@SuppressWarnings("unchecked")
 	public PBVectorEnum(DBRTimeEvent ev) {
-		List<Short> srcvals = (List<Short>) ev.getSampleValue().getValues();
-		ArrayList<Integer> vals = new ArrayList<Integer>(srcvals.size());
-		for(int val : srcvals) vals.add(val);
 		YearSecondTimestamp yst = TimeUtils.convertToYearSecondTimestamp(ev.getEventTimeStamp());
 		year = yst.getYear();
-		Builder builder = EPICSEvent.VectorEnum.newBuilder()
-				.setSecondsintoyear(yst.getSecondsintoyear())
-				.setNano(yst.getNanos())
-				.addAllVal(vals);
-		if(ev.getSeverity() != 0) builder.setSeverity(ev.getSeverity());
-		if(ev.getStatus() != 0) builder.setStatus(ev.getStatus());
-		if(ev.hasFieldValues()) {
-			HashMap<String, String> fields = ev.getFields();
-			for(String fieldName : fields.keySet()) {
-				FieldValue fv = EPICSEvent.FieldValue.newBuilder().setName(fieldName).setVal(fields.get(fieldName)).build();
-				builder.addFieldvalues(fv);
-			}
-			builder.setFieldactualchange(ev.isActualChange());
-		}
-		dbevent = builder.build();
-		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		bar = PBVectorCodec.encode(PBVectorCodec.ElementType.SINT32, yst, ev, PBVectorCodec.toBytes(PBVectorCodec.ElementType.SINT32, ev.getSampleValue()));
 	}
 
 	public PBVectorEnum(DBR dbr) {
 		DBR_TIME_Enum realtype = (DBR_TIME_Enum) dbr;
 		YearSecondTimestamp yst = TimeUtils.convertToYearSecondTimestamp(realtype.getTimeStamp());
 		year = yst.getYear();
-		ArrayList<Integer> vals = new ArrayList<Integer>(realtype.getCount());
-		for(int val : realtype.getEnumValue()) vals.add(val);
-		Builder builder = EPICSEvent.VectorEnum.newBuilder()
-				.setSecondsintoyear(yst.getSecondsintoyear())
-				.setNano(yst.getNanos())
-				.addAllVal(vals);
-		if(realtype.getSeverity().getValue() != 0) builder.setSeverity(realtype.getSeverity().getValue());
-		if(realtype.getStatus().getValue() != 0) builder.setStatus(realtype.getStatus().getValue());
-		dbevent = builder.build();
-		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));;
+		bar = PBVectorCodec.encode(PBVectorCodec.ElementType.SINT32, yst, realtype.getSeverity().getValue(), realtype.getStatus().getValue(), PrimitiveVectorValue.OfShort.toBytes(realtype.getEnumValue()));
 	}
 
 	public PBVectorEnum(PVStructure v4Data) {
@@ -127,8 +101,8 @@ public class PBVectorEnum implements DBRTimeEvent, PartionedTime {
 	
 	@Override
 	public Timestamp getEventTimeStamp() {
-		unmarshallEventIfNull();
-		return TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp(year, dbevent.getSecondsintoyear(), dbevent.getNano()));
+		parseHeaderIfNull();
+		return TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp(year, header.secondsintoyear, header.nano));
 	}
 	
 	@Override
@@ -138,14 +112,14 @@ public class PBVectorEnum implements DBRTimeEvent, PartionedTime {
 	
 	@Override
 	public int getSecondsIntoYear() {
-		unmarshallEventIfNull();
-		return dbevent.getSecondsintoyear();
+		parseHeaderIfNull();
+		return header.secondsintoyear;
 	}
 
 	@Override
 	public long getEpochSeconds() {
-		unmarshallEventIfNull();
-		return TimeUtils.getStartOfYearInSeconds(year) + dbevent.getSecondsintoyear();
+		parseHeaderIfNull();
+		return TimeUtils.getStartOfYearInSeconds(year) + header.secondsintoyear;
 	}
 
 	@Override
@@ -155,6 +129,10 @@ public class PBVectorEnum implements DBRTimeEvent, PartionedTime {
 
 	@Override
 	public SampleValue getSampleValue() {
+		parseHeaderIfNull();
+		if(header.areValuesDecodable()) {
+			return header.decodeValues();
+		}
 		unmarshallEventIfNull();
 		List<Short> shortvals = new ArrayList<Short>(dbevent.getValList().size());
 		for(int val : dbevent.getValList()) shortvals.add((short) val);
@@ -163,20 +141,20 @@ public class PBVectorEnum implements DBRTimeEvent, PartionedTime {
 
 	@Override
 	public int getStatus() {
-		unmarshallEventIfNull();
-		return dbevent.getStatus();
+		parseHeaderIfNull();
+		return header.status;
 	}
 
 	@Override
 	public int getSeverity() {
-		unmarshallEventIfNull();
-		return dbevent.getSeverity();
+		parseHeaderIfNull();
+		return header.severity;
 	}
 
 	@Override
 	public int getRepeatCount() {
-		unmarshallEventIfNull();
-		return dbevent.getRepeatcount();
+		parseHeaderIfNull();
+		return header.repeatcount;
 	}
 	
 	@Override
@@ -184,6 +162,7 @@ public class PBVectorEnum implements DBRTimeEvent, PartionedTime {
 		unmarshallEventIfNull();
 		dbevent = EPICSEvent.VectorEnum.newBuilder().mergeFrom(dbevent).setRepeatcount(repeatCount).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 
@@ -196,6 +175,7 @@ public class PBVectorEnum implements DBRTimeEvent, PartionedTime {
 			dbevent = EPICSEvent.VectorEnum.newBuilder().mergeFrom(dbevent).build();
 		}
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 	
@@ -208,9 +188,16 @@ public class PBVectorEnum implements DBRTimeEvent, PartionedTime {
 			dbevent = EPICSEvent.VectorEnum.newBuilder().mergeFrom(dbevent).build();
 		}
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 	
+	private void parseHeaderIfNull() {
+		if(header == null) {
+			header = PBVectorCodec.parse(PBVectorCodec.ElementType.SINT32, bar);
+		}
+	}
+
 	private void unmarshallEventIfNull() {
 		try {
 			if(dbevent == null) {
@@ -222,14 +209,14 @@ public class PBVectorEnum implements DBRTimeEvent, PartionedTime {
 	}
 	@Override
 	public boolean hasFieldValues() {
-		unmarshallEventIfNull();
-		return dbevent.getFieldvaluesCount() > 0;
+		parseHeaderIfNull();
+		return header.fieldValuesCount > 0;
 	}
 
 	@Override
 	public boolean isActualChange() {
-		unmarshallEventIfNull();
-		return dbevent.getFieldactualchange();
+		parseHeaderIfNull();
+		return header.fieldactualchange;
 	}
 
 	@Override
@@ -265,6 +252,7 @@ public class PBVectorEnum implements DBRTimeEvent, PartionedTime {
 		FieldValue fv = EPICSEvent.FieldValue.newBuilder().setName(fieldName).setVal(fieldValue).build();
 		dbevent = EPICSEvent.VectorEnum.newBuilder().mergeFrom(dbevent).addFieldvalues(fv).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 
@@ -273,6 +261,7 @@ public class PBVectorEnum implements DBRTimeEvent, PartionedTime {
 		unmarshallEventIfNull();
 		dbevent = EPICSEvent.VectorEnum.newBuilder().mergeFrom(dbevent).setFieldactualchange(true).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 
@@ -285,6 +274,7 @@ public class PBVectorEnum implements DBRTimeEvent, PartionedTime {
 		}
 		dbevent = EPICSEvent.VectorEnum.newBuilder().mergeFrom(dbevent).addAllFieldvalues(fieldValuesList).setFieldactualchange(markAsActualChange).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}	
 
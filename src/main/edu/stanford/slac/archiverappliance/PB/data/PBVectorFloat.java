@@ -8,7 +8,6 @@
 package edu.stanford.slac.archiverappliance.PB.data;
 
 import java.sql.Timestamp;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -19,6 +18,7 @@ import org.epics.archiverappliance.common.TimeUtils;
 import org.epics.archiverappliance.common.YearSecondTimestamp;
 import org.epics.archiverappliance.config.ArchDBRTypes;
 import org.epics.archiverappliance.data.DBRTimeEvent;
+import org.epics.archiverappliance.data.PrimitiveVectorValue;
 import org.epics.archiverappliance.data.SampleValue;
 import org.epics.archiverappliance.data.VectorValue;
 import org.epics.pvdata.pv.FloatArrayData;
@@ -28,7 +28,6 @@ import org.epics.pvdata.pv.ScalarType;
 
 import edu.stanford.slac.archiverappliance.PB.EPICSEvent;
 import edu.stanford.slac.archiverappliance.PB.EPICSEvent.FieldValue;
-import edu.stanford.slac.archiverappliance.PB.EPICSEvent.VectorFloat.Builder;
 import edu.stanford.slac.archiverappliance.PB.utils.LineEscaper;
 import gov.aps.jca.dbr.DBR;
 import gov.aps.jca.dbr.DBR_TIME_Float;
@@ -42,48 +41,24 @@ public class PBVectorFloat implements DBRTimeEvent, PartionedTime {
 	ByteArray bar = null;
 	short year = 0;
 	EPICSEvent.VectorFloat dbevent = null;
+	PBVectorCodec header = null;
 
 	public PBVectorFloat(short year, ByteArray bar) {
 		this.bar = bar;
 		this.year = year;
 	}
 	
-	@SuppressWarnings("unchecked")
 	public PBVectorFloat(DBRTimeEvent ev) {
 		YearSecondTimestamp yst = TimeUtils.convertToYearSecondTimestamp(ev.getEventTimeStamp());
 		year = yst.getYear();
-		Builder builder = EPICSEvent.VectorFloat.newBuilder()
-				.setSecondsintoyear(yst.getSecondsintoyear())
-				.setNano(yst.getNanos())
-				.addAllVal(ev.getSampleValue().getValues());
-		if(ev.getSeverity() != 0) builder.setSeverity(ev.getSeverity());
-		if(ev.getStatus() != 0) builder.setStatus(ev.getStatus());
-		if(ev.hasFieldValues()) {
-			HashMap<String, String> fields = ev.getFields();
-			for(String fieldName : fields.keySet()) {
-				FieldValue fv = EPICSEvent.FieldValue.newBuilder().setName(fieldName).setVal(fields.get(fieldName)).build();
-				builder.addFieldvalues(fv);
-			}
-			builder.setFieldactualchange(ev.isActualChange());
-		}
-		dbevent = builder.build();
-		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		bar = PBVectorCodec.encode(PBVectorCodec.ElementType.FLOAT, yst, ev, PBVectorCodec.toBytes(PBVectorCodec.ElementType.FLOAT, ev.getSampleValue()));
 	}
 
 	public PBVectorFloat(DBR dbr) {
 		DBR_TIME_Float realtype = (DBR_TIME_Float) dbr;
 		YearSecondTimestamp yst = TimeUtils.convertToYearSecondTimestamp(realtype.getTimeStamp());
 		year = yst.getYear();
-		ArrayList<Float> vals = new ArrayList<Float>(realtype.getCount());
-		for(float val : realtype.getFloatValue()) vals.add(val);
-		Builder builder = EPICSEvent.VectorFloat.newBuilder()
-				.setSecondsintoyear(yst.getSecondsintoyear())
-				.setNano(yst.getNanos())
-				.addAllVal(vals);
-		if(realtype.getSeverity().getValue() != 0) builder.setSeverity(realtype.getSeverity().getValue());
-		if(realtype.getStatus().getValue() != 0) builder.setStatus(realtype.getStatus().getValue());
-		dbevent = builder.build();
-		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));;
+		bar = PBVectorCodec.encode(PBVectorCodec.ElementType.FLOAT, yst, realtype.getSeverity().getValue(), realtype.getStatus().getValue(), PrimitiveVectorValue.OfFloat.toBytes(realtype.getFloatValue()));
 	}
 
 	public PBVectorFloat(PVStructure v4Data) {
@@ -100,21 +75,9 @@ public class PBVectorFloat implements DBRTimeEvent, PartionedTime {
 		PVFloatArray pvArray = (PVFloatArray) v4Data.getScalarArrayField("value", ScalarType.pvFloat);
 		FloatArrayData arrayData = new FloatArrayData();
 		pvArray.get(0, pvArray.getLength(), arrayData);
-		ArrayList<Float> vals = new ArrayList<Float>();
-		float[] data = arrayData.data;
-		for(float dataitem : data) { 
-			vals.add(dataitem);
-		}
 
 		year = yst.getYear();
-		Builder builder = EPICSEvent.VectorFloat.newBuilder()
-				.setSecondsintoyear(yst.getSecondsintoyear())
-				.setNano(yst.getNanos())
-				.addAllVal(vals);
-		if(severity != 0) builder.setSeverity(severity);
-		if(status != 0) builder.setStatus(status);
-		dbevent = builder.build();
-		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		bar = PBVectorCodec.encode(PBVectorCodec.ElementType.FLOAT, yst, severity, status, PrimitiveVectorValue.OfFloat.toBytes(arrayData.data));
 	}
 	
 	@Override
@@ -124,8 +87,8 @@ public class PBVectorFloat implements DBRTimeEvent, PartionedTime {
 
 	@Override
 	public Timestamp getEventTimeStamp() {
-		unmarshallEventIfNull();
-		return TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp(year, dbevent.getSecondsintoyear(), dbevent.getNano()));
+		parseHeaderIfNull();
+		return TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp(year, header.secondsintoyear, header.nano));
 	}
 	
 	@Override
@@ -135,14 +98,14 @@ public class PBVectorFloat implements DBRTimeEvent, PartionedTime {
 	
 	@Override
 	public int getSecondsIntoYear() {
-		unmarshallEventIfNull();
-		return dbevent.getSecondsintoyear();
+		parseHeaderIfNull();
+		return header.secondsintoyear;
 	}
 
 	@Override
 	public long getEpochSeconds() {
-		unmarshallEventIfNull();
-		return TimeUtils.getStartOfYearInSeconds(year) + dbevent.getSecondsintoyear();
+		parseHeaderIfNull();
+		return TimeUtils.getStartOfYearInSeconds(year) + header.secondsintoyear;
 	}
 
 	@Override
@@ -152,26 +115,30 @@ public class PBVectorFloat implements DBRTimeEvent, PartionedTime {
 
 	@Override
 	public SampleValue getSampleValue() {
+		parseHeaderIfNull();
+		if(header.areValuesDecodable()) {
+			return header.decodeValues();
+		}
 		unmarshallEventIfNull();
 		return new VectorValue<Float>(dbevent.getValList());
 	}
 
 	@Override
 	public int getStatus() {
-		unmarshallEventIfNull();
-		return dbevent.getStatus();
+		parseHeaderIfNull();
+		return header.status;
 	}
 
 	@Override
 	public int getSeverity() {
-		unmarshallEventIfNull();
-		return dbevent.getSeverity();
+		parseHeaderIfNull();
+		return header.severity;
 	}
 
 	@Override
 	public int getRepeatCount() {
-		unmarshallEventIfNull();
-		return dbevent.getRepeatcount();
+		parseHeaderIfNull();
+		return header.repeatcount;
 	}
 	
 	@Override
@@ -179,6 +146,7 @@ public class PBVectorFloat implements DBRTimeEvent, PartionedTime {
 		unmarshallEventIfNull();
 		dbevent = EPICSEvent.VectorFloat.newBuilder().mergeFrom(dbevent).setRepeatcount(repeatCount).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 
@@ -191,6 +159,7 @@ public class PBVectorFloat implements DBRTimeEvent, PartionedTime {
 			dbevent = EPICSEvent.VectorFloat.newBuilder().mergeFrom(dbevent).build();
 		}
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 	
@@ -203,9 +172,16 @@ public class PBVectorFloat implements DBRTimeEvent, PartionedTime {
 			dbevent = EPICSEvent.VectorFloat.newBuilder().mergeFrom(dbevent).build();
 		}
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 	
+	private void parseHeaderIfNull() {
+		if(header == null) {
+			header = PBVectorCodec.parse(PBVectorCodec.ElementType.FLOAT, bar);
+		}
+	}
+
 	private void unmarshallEventIfNull() {
 		try {
 			if(dbevent == null) {
@@ -217,14 +193,14 @@ public class PBVectorFloat implements DBRTimeEvent, PartionedTime {
 	}
 	@Override
 	public boolean hasFieldValues() {
-		unmarshallEventIfNull();
-		return dbevent.getFieldvaluesCount() > 0;
+		parseHeaderIfNull();
+		return header.fieldValuesCount > 0;
 	}
 
 	@Override
 	public boolean isActualChange() {
-		unmarshallEventIfNull();
-		return dbevent.getFieldactualchange();
+		parseHeaderIfNull();
+		return header.fieldactualchange;
 	}
 
 	@Override
@@ -260,6 +236,7 @@ public class PBVectorFloat implements DBRTimeEvent, PartionedTime {
 		FieldValue fv = EPICSEvent.FieldValue.newBuilder().setName(fieldName).setVal(fieldValue).build();
 		dbevent = EPICSEvent.VectorFloat.newBuilder().mergeFrom(dbevent).addFieldvalues(fv).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 
@@ -268,6 +245,7 @@ public class PBVectorFloat implements DBRTimeEvent, PartionedTime {
 		unmarshallEventIfNull();
 		dbevent = EPICSEvent.VectorFloat.newBuilder().mergeFrom(dbevent).setFieldactualchange(true).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}
 
@@ -280,6 +258,7 @@ public class PBVectorFloat implements DBRTimeEvent, PartionedTime {
 		}
 		dbevent = EPICSEvent.VectorFloat.newBuilder().mergeFrom(dbevent).addAllFieldvalues(fieldValuesList).setFieldactualchange(markAsActualChange).build();
 		bar = new ByteArray(LineEscaper.escapeNewLines(dbevent.toByteArray()));
+		header = null;
 		return;
 	}	
 
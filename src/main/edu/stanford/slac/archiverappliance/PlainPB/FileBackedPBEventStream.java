@@ -10,12 +10,17 @@ package edu.stanford.slac.archiverappliance.PlainPB;
 
 import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import org.apache.log4j.Logger;
@@ -30,10 +35,12 @@ import org.epics.archiverappliance.data.DBRTimeEvent;
 import org.epics.archiverappliance.etl.ETLBulkStream;
 import org.epics.archiverappliance.retrieval.RemotableEventStreamDesc;
 import org.epics.archiverappliance.retrieval.RemotableOverRaw;
+import org.epics.archiverappliance.retrieval.RetrievalBulkStream;
 
 import edu.stanford.slac.archiverappliance.PB.data.DBR2PBTypeMapping;
 import edu.stanford.slac.archiverappliance.PB.search.FileEventStreamSearch;
 import edu.stanford.slac.archiverappliance.PB.utils.LineByteStream;
+import edu.stanford.slac.archiverappliance.PB.utils.LineEscaper;
 
 /**
  * An EventStream that is backed by a single PB file.
@@ -42,7 +49,7 @@ import edu.stanford.slac.archiverappliance.PB.utils.LineByteStream;
  * @author mshankar
  *
  */
-public class FileBackedPBEventStream implements EventStream, RemotableOverRaw, ETLBulkStream {
+public class FileBackedPBEventStream implements EventStream, RemotableOverRaw, ETLBulkStream, RetrievalBulkStream {
 	private static Logger logger = Logger.getLogger(FileBackedPBEventStream.class.getName());
 	private String pvName;
 	private Path path = null;
@@ -55,6 +62,11 @@ public class FileBackedPBEventStream implements EventStream, RemotableOverRaw, E
 	private FileBackedPBEventStreamIterator theIterator = null;
 	private RemotableEventStreamDesc desc;
 	private PBFileInfo fileInfo = null;
+	/**
+	 * The last line in the file could be larger than this in case of waveforms; in this case, we do not bother with bulk transfers.
+	 */
+	private static final int MAX_TAIL_CHECK_SIZE = 64*1024;
+	private Timestamp lastEventTimeStamp = null;
 	
 	/**
 	 * Used when we want to include data from the entire file. 
@@ -368,5 +380,98 @@ public class FileBackedPBEventStream implements EventStream, RemotableOverRaw, E
 		channel.position(fileInfo.getPositionOfFirstSample());
 		return channel;
 	}
-}
 
+	/**
+	 * We transfer in bulk only if we need all the events in this file.
+	 * That is, we are using a position based iterator that starts at the first sample and ends at the end of the file.
+	 * We also make sure that the last line in the file is a complete line that parses into an event; files that are being appended to are therefore left to the iterators.
+	 * Files that are not on the default file system (for example, in zip files) are left to the iterators.
+	 */
+	@Override
+	public boolean canTransferInBulk() throws IOException {
+		if(theIterator != null || !this.positionBoundaries) {
+			return false;
+		}
+		if(!path.getFileSystem().equals(FileSystems.getDefault())) {
+			return false;
+		}
+		if(fileInfo == null) {
+			readPayLoadInfo();
+		}
+		if(fileInfo.getFirstEvent() == null) {
+			return false;
+		}
+		long positionOfFirstSample = fileInfo.getPositionOfFirstSample();
+		if(startFilePos != 0L && startFilePos != positionOfFirstSample - 1) {
+			return false;
+		}
+		if(endFilePos != Files.size(path) || endFilePos <= positionOfFirstSample) {
+			return false;
+		}
+		// We determine the last event ourselves from the tail of the file; this also makes sure that the file ends with a complete line.
+		long tailLength = Math.min(MAX_TAIL_CHECK_SIZE, endFilePos - positionOfFirstSample);
+		long tailStart = endFilePos - tailLength;
+		byte[] tail = new byte[(int) tailLength];
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.wrap(tail);
+			long pos = tailStart;
+			while(buf.hasRemaining()) {
+				int bytesRead = channel.read(buf, pos);
+				if(bytesRead < 0) {
+					return false;
+				}
+				pos += bytesRead;
+			}
+		}
+		int lastIndex = tail.length - 1;
+		if(tail[lastIndex] != LineEscaper.NEWLINE_CHAR) {
+			logger.debug("File " + path.toString() + " does not end with a newline; skipping bulk transfer");
+			return false;
+		}
+		int lineStart = lastIndex - 1;
+		while(lineStart >= 0 && tail[lineStart] != LineEscaper.NEWLINE_CHAR) {
+			lineStart--;
+		}
+		if(lineStart < 0 && tailStart != positionOfFirstSample) {
+			logger.debug("Last line in file " + path.toString() + " is larger than " + MAX_TAIL_CHECK_SIZE + "; skipping bulk transfer");
+			return false;
+		}
+		lineStart++;
+		try {
+			Constructor<? extends DBRTimeEvent> unmarshallingConstructor = DBR2PBTypeMapping.getPBClassFor(this.type).getUnmarshallingFromByteArrayConstructor();
+			DBRTimeEvent lastEvent = (DBRTimeEvent) unmarshallingConstructor.newInstance(desc.getYear(), new ByteArray(Arrays.copyOfRange(tail, lineStart, lastIndex)));
+			this.lastEventTimeStamp = lastEvent.getEventTimeStamp();
+		} catch(Exception ex) {
+			logger.debug("Unable to parse the last line in file " + path.toString() + "; skipping bulk transfer", ex);
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public Timestamp getFirstEventTimeStamp() {
+		return fileInfo.getFirstEvent().getEventTimeStamp();
+	}
+
+	@Override
+	public Timestamp getLastEventTimeStamp() {
+		return lastEventTimeStamp;
+	}
+
+	@Override
+	public long transferTo(WritableByteChannel target) throws IOException {
+		long position = fileInfo.getPositionOfFirstSample();
+		long bytesToTransfer = endFilePos - position;
+		long totalTransferred = 0;
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			while(totalTransferred < bytesToTransfer) {
+				long transferred = channel.transferTo(position + totalTransferred, bytesToTransfer - totalTransferred, target);
+				if(transferred <= 0) {
+					throw new IOException("Unable to transfer data from " + path.toString() + " after " + totalTransferred + " of " + bytesToTransfer + " bytes");
+				}
+				totalTransferred += transferred;
+			}
+		}
+		return totalTransferred;
+	}
+}
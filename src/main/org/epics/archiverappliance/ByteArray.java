@@ -89,25 +89,20 @@ public class ByteArray {
 		return len == 0;
 	}
 	
+	/**
+	 * Unescape the data into unescapedData.
+	 * If there is nothing to unescape, unescapedData points to the same array as data; so treat unescapedData as read only.
+	 * @return this
+	 */
 	public ByteArray inPlaceUnescape() {
 		if(len == 0) return this;
-		if(unescapedData == null || unescapedData.length != data.length) unescapedData = new byte[data.length];
-		unescapedLen = 0;
-		for(int i = off; i < len; i++) {
-			byte b = data[i];
-			if(b == LineEscaper.ESCAPE_CHAR) {
-				i++;
-				b = data[i];
-				switch(b) {
-				case LineEscaper.ESCAPE_ESCAPE_CHAR: unescapedData[unescapedLen++] = LineEscaper.ESCAPE_CHAR;break;
-				case LineEscaper.NEWLINE_ESCAPE_CHAR: unescapedData[unescapedLen++] = LineEscaper.NEWLINE_CHAR;break;
-				case LineEscaper.CARRIAGERETURN_ESCAPE_CHAR: unescapedData[unescapedLen++] = LineEscaper.CARRIAGERETURN_CHAR;break;
-				default: unescapedData[unescapedLen++] = b;break;
-				}
-			} else {
-				unescapedData[unescapedLen++] = b;
-			}
+		if(LineEscaper.indexOfEscapeChar(data, off, off + len) == -1) {
+			unescapedData = data;
+			unescapedLen = len;
+			return this;
 		}
+		if(unescapedData == null || unescapedData == data || unescapedData.length != data.length) unescapedData = new byte[data.length];
+		unescapedLen = LineEscaper.unescapeNewLines(data, off, len, unescapedData, off);
 		return this;
 	}
 }
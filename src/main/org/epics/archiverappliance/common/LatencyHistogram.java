@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.common;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size latency histogram that does not allocate anything when recording.
+ * Similar to a HDR histogram, the buckets are powers of two (in microseconds), each split into {@link #SUB_BUCKETS} linear sub buckets.
+ * This gives us a relative error of at most 25% over a range of a microsecond to a few days.
+ * Recording and reading can happen concurrently; the reads are not a consistent snapshot but that is ok for metrics.
+ *
+ * @author mshankar
+ *
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** 2^40 microseconds is about 12 days; anything larger goes into the last bucket */
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2)*SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong(0);
+	private final AtomicLong totalMicros = new AtomicLong(0);
+	private final AtomicLong maxMicros = new AtomicLong(0);
+
+	public void recordNanos(long nanos) {
+		recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	public void recordMicros(long micros) {
+		if(micros < 0) micros = 0;
+		buckets.incrementAndGet(bucketIndex(micros));
+		count.incrementAndGet();
+		totalMicros.addAndGet(micros);
+		long currentMax = maxMicros.get();
+		while(micros > currentMax && !maxMicros.compareAndSet(currentMax, micros)) {
+			currentMax = maxMicros.get();
+		}
+	}
+
+	static int bucketIndex(long micros) {
+		if(micros < SUB_BUCKETS) return (int) micros;
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if(exponent > MAX_EXPONENT) return BUCKET_COUNT - 1;
+		int subBucket = (int) ((micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+		return (exponent - SUB_BUCKET_BITS + 1)*SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @param index
+	 * @return The largest value (in microseconds) that goes into this bucket.
+	 */
+	static long bucketUpperBoundMicros(int index) {
+		if(index < SUB_BUCKETS) return index;
+		int exponent = index/SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int subBucket = index % SUB_BUCKETS;
+		long bucketStart = (1L << exponent) + (((long) subBucket) << (exponent - SUB_BUCKET_BITS));
+		return bucketStart + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public double getMeanMicros() {
+		long samples = count.get();
+		return samples > 0 ? ((double) totalMicros.get())/samples : 0.0;
+	}
+
+	public long getMaxMicros() {
+		return maxMicros.get();
+	}
+
+	/**
+	 * Estimate the value at the given percentile; the estimate is the upper bound of the bucket containing the percentile.
+	 * @param percentile - Between 0 and 100
+	 * @return The estimate in microseconds
+	 */
+	public long getPercentileMicros(double percentile) {
+		long samples = 0;
+		long[] counts = new long[BUCKET_COUNT];
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets.get(i);
+			samples += counts[i];
+		}
+		if(samples == 0) return 0;
+		long target = (long) Math.ceil(samples*percentile/100.0);
+		long seen = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if(seen >= target && counts[i] > 0) {
+				return Math.min(bucketUpperBoundMicros(i), maxMicros.get());
+			}
+		}
+		return maxMicros.get();
+	}
+
+	/**
+	 * @return The non empty buckets as a map of the bucket upper bound (in microseconds) to the number of samples in the bucket.
+	 */
+	public LinkedHashMap<String, String> getBuckets() {
+		LinkedHashMap<String, String> ret = new LinkedHashMap<String, String>();
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			long bucketCount = buckets.get(i);
+			if(bucketCount > 0) {
+				ret.put(Long.toString(bucketUpperBoundMicros(i)), Long.toString(bucketCount));
+			}
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.common;
+
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Writes metrics in the Prometheus text exposition format (which OpenMetrics is based on).
+ * The metrics for each webapp are written by the <code>/bpl/metrics</code> BPL of that webapp.
+ * Each metric family is started using {@link #family} and is followed by its samples.
+ * All metric names are prefixed with <code>archappl_</code>; callers should pass in counters and gauges that are maintained as we go so that a scrape does not depend on the number of PVs.
+ *
+ * @author mshankar
+ *
+ */
+public class OpenMetricsWriter {
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	private static final String PREFIX = "archappl_";
+	private static final double[] SUMMARY_QUANTILES = new double[] { 0.5, 0.9, 0.99 };
+
+	private final PrintWriter out;
+	private final String component;
+
+	/**
+	 * @param out
+	 * @param component - One of mgmt, engine, etl or retrieval; added as a label to all the samples.
+	 */
+	public OpenMetricsWriter(PrintWriter out, String component) {
+		this.out = out;
+		this.component = component;
+	}
+
+	/**
+	 * Start a metric family
+	 * @param name - Name of the metric without the archappl_ prefix
+	 * @param type - One of counter, gauge or summary
+	 * @param help
+	 */
+	public void family(String name, String type, String help) {
+		out.print("# HELP ");
+		out.print(PREFIX);
+		out.print(name);
+		out.print(' ');
+		out.println(help.replace("\\", "\\\\").replace("\n", "\\n"));
+		out.print("# TYPE ");
+		out.print(PREFIX);
+		out.print(name);
+		out.print(' ');
+		out.println(type);
+	}
+
+	public void sample(String name, double value) {
+		sample(name, null, null, null, null, value);
+	}
+
+	public void sample(String name, String labelName, String labelValue, double value) {
+		sample(name, labelName, labelValue, null, null, value);
+	}
+
+	public void sample(String name, String labelName, String labelValue, String labelName2, String labelValue2, double value) {
+		out.print(PREFIX);
+		out.print(name);
+		out.print("{component=\"");
+		out.print(component);
+		out.print('"');
+		if(labelName != null) {
+			appendLabel(labelName, labelValue);
+		}
+		if(labelName2 != null) {
+			appendLabel(labelName2, labelValue2);
+		}
+		out.print("} ");
+		out.println(formatValue(value));
+	}
+
+	/**
+	 * Convenience method for a family with a single sample.
+	 */
+	public void gauge(String name, String help, double value) {
+		family(name, "gauge", help);
+		sample(name, value);
+	}
+
+	/**
+	 * Convenience method for a family with a single sample; the name should end with _total.
+	 */
+	public void counter(String name, String help, double value) {
+		family(name, "counter", help);
+		sample(name, value);
+	}
+
+	/**
+	 * Write the samples for a latency histogram as a summary in seconds.
+	 * The caller is expected to have started the family (of type summary) using {@link #family}.
+	 * @param name
+	 * @param labelName - Can be null
+	 * @param labelValue
+	 * @param histogram
+	 */
+	public void summary(String name, String labelName, String labelValue, LatencyHistogram histogram) {
+		for(double quantile : SUMMARY_QUANTILES) {
+			sample(name, labelName, labelValue, "quantile", Double.toString(quantile), histogram.getPercentileMicros(quantile*100)/1000000.0);
+		}
+		sample(name + "_sum", labelName, labelValue, null, null, histogram.getMeanMicros()*histogram.getCount()/1000000.0);
+		sample(name + "_count", labelName, labelValue, null, null, histogram.getCount());
+	}
+
+	/**
+	 * Write the JVM metrics - uptime, memory, threads, GC and the system load.
+	 */
+	public void jvmMetrics() {
+		gauge("jvm_uptime_seconds", "Time since the JVM started", ManagementFactory.getRuntimeMXBean().getUptime()/1000.0);
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+		family("jvm_memory_used_bytes", "gauge", "Memory used by the JVM");
+		sample("jvm_memory_used_bytes", "area", "heap", heap.getUsed());
+		sample("jvm_memory_used_bytes", "area", "nonheap", nonHeap.getUsed());
+		family("jvm_memory_committed_bytes", "gauge", "Memory committed by the JVM");
+		sample("jvm_memory_committed_bytes", "area", "heap", heap.getCommitted());
+		sample("jvm_memory_committed_bytes", "area", "nonheap", nonHeap.getCommitted());
+		gauge("jvm_memory_max_bytes", "Maximum heap size", heap.getMax());
+		gauge("jvm_threads", "Live threads in the JVM", ManagementFactory.getThreadMXBean().getThreadCount());
+		family("jvm_gc_collections_total", "counter", "Garbage collections by collector");
+		for(GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			sample("jvm_gc_collections_total", "gc", gcBean.getName(), Math.max(gcBean.getCollectionCount(), 0));
+		}
+		family("jvm_gc_collection_seconds_total", "counter", "Time spent in garbage collection by collector");
+		for(GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			sample("jvm_gc_collection_seconds_total", "gc", gcBean.getName(), Math.max(gcBean.getCollectionTime(), 0)/1000.0);
+		}
+		double loadAverage = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+		if(loadAverage >= 0) {
+			gauge("system_load_average", "System load average for the last minute", loadAverage);
+		}
+	}
+
+	private void appendLabel(String labelName, String labelValue) {
+		out.print(',');
+		out.print(labelName);
+		out.print("=\"");
+		out.print(labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"));
+		out.print('"');
+	}
+
+	static String formatValue(double value) {
+		if(Double.isNaN(value)) return "NaN";
+		if(Double.isInfinite(value)) return value > 0 ? "+Inf" : "-Inf";
+		if(value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+		return Double.toString(value);
+	}
+}
@@ -25,21 +25,37 @@ public class ApplianceAggregateInfo {
 	
 	public ApplianceAggregateInfo clone() {
 		ApplianceAggregateInfo retval = new ApplianceAggregateInfo();
-		retval.totalStorageRate = this.totalStorageRate;
-		retval.totalEventRate = this.totalEventRate;
-		retval.totalPVCount = this.totalPVCount;
-		retval.totalStorageImpact = new HashMap<String, Long>();
-		for(String key : this.totalStorageImpact.keySet()) {
-			retval.totalStorageImpact.put(key, this.totalStorageImpact.get(key));
+		synchronized(this) {
+			retval.totalStorageRate = this.totalStorageRate;
+			retval.totalEventRate = this.totalEventRate;
+			retval.totalPVCount = this.totalPVCount;
+			retval.totalStorageImpact = new HashMap<String, Long>();
+			for(String key : this.totalStorageImpact.keySet()) {
+				retval.totalStorageImpact.put(key, this.totalStorageImpact.get(key));
+			}
 		}
 		return retval;
 	}
 	
 	public void addInfoForPV(String pvName, PVTypeInfo typeInfo, ConfigService configService) {
+		updateInfoForPV(typeInfo, configService, 1);
+	}
+	
+	/**
+	 * Remove the contribution of this PV; the typeInfo should be the one that was added.
+	 * @param pvName
+	 * @param typeInfo
+	 * @param configService
+	 */
+	public void removeInfoForPV(String pvName, PVTypeInfo typeInfo, ConfigService configService) {
+		updateInfoForPV(typeInfo, configService, -1);
+	}
+	
+	private void updateInfoForPV(PVTypeInfo typeInfo, ConfigService configService, int sign) {
 		synchronized(this) {
-			totalStorageRate += typeInfo.getComputedStorageRate();
-			totalEventRate += typeInfo.getComputedEventRate();
-			totalPVCount++;
+			totalStorageRate += sign*typeInfo.getComputedStorageRate();
+			totalEventRate += sign*typeInfo.getComputedEventRate();
+			totalPVCount += sign;
 			if(typeInfo.getDataStores() != null && typeInfo.getDataStores().length > 0) {
 				for(String dataStore : typeInfo.getDataStores()) {
 					try {
@@ -47,13 +63,14 @@ public class ApplianceAggregateInfo {
 						if(etlDest instanceof StorageMetrics) {
 							StorageMetrics stMetrics = (StorageMetrics) etlDest;
 							String identity = stMetrics.getName();
-							double storageImpact = etlDest.getPartitionGranularity().getApproxSecondsPerChunk()*typeInfo.getComputedStorageRate();
+							// Truncate before adding so that removing the PV takes away exactly what was added.
+							long storageImpact = (long) (etlDest.getPartitionGranularity().getApproxSecondsPerChunk()*typeInfo.getComputedStorageRate());
 							if(!totalStorageImpact.containsKey(identity)) {
 								totalStorageImpact.put(identity, new Long(0));
 							}
 
 							long currentStorageImpact = totalStorageImpact.get(identity);
-							currentStorageImpact += storageImpact;
+							currentStorageImpact += sign*storageImpact;
 							totalStorageImpact.put(identity, currentStorageImpact);
 						}
 					} catch(Exception ex) {
@@ -131,7 +148,7 @@ public class ApplianceAggregateInfo {
 	 * @param other
 	 * @return
 	 */
-	public ApplianceAggregateInfo getDifference(ApplianceAggregateInfo other) {
+	public synchronized ApplianceAggregateInfo getDifference(ApplianceAggregateInfo other) {
 		ApplianceAggregateInfo retval = new ApplianceAggregateInfo();
 		retval.totalPVCount = this.totalPVCount - other.totalPVCount;
 		retval.totalEventRate = this.totalEventRate - other.totalEventRate;
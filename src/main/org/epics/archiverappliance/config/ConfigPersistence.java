@@ -2,6 +2,7 @@ package org.epics.archiverappliance.config;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -16,20 +17,49 @@ import java.util.List;
  * 
  * The APIs typically have one method to get all the keys, one to get a value given a key and a third to change a value given a key.
  * Others may be added later to improve performance and such.
+ * For example, the bulk load methods (getAllTypeInfos etc) are used on startup to load everything in a few round trips instead of one per key.
  * @author mshankar
  *
  */
 public interface ConfigPersistence {
+	/**
+	 * The bulk load methods hand over what they load a page at a time to one of these.
+	 * Pages are handed over in order on the thread that called the bulk load method.
+	 * Consumers should not call back into the persistence layer.
+	 * @param <T>
+	 */
+	public interface BulkLoadConsumer<T> {
+		public void consume(Map<String, T> page) throws IOException;
+	}
+
 	public List<String> getTypeInfoKeys() throws IOException;
 	public PVTypeInfo getTypeInfo(String pvName) throws IOException;
 	public void putTypeInfo(String pvName, PVTypeInfo typeInfo) throws IOException;
 	public void deleteTypeInfo(String pvName) throws IOException;
+	/**
+	 * Get all the typeInfos in pages of about pageSize typeInfos.
+	 * Implementations should fetch these in as few round trips as possible and decode them in parallel.
+	 * @param pageSize
+	 * @param consumer
+	 * @throws IOException
+	 */
+	public void getAllTypeInfos(int pageSize, BulkLoadConsumer<PVTypeInfo> consumer) throws IOException;
+	/**
+	 * Apply a batch of changes to the typeInfos in as few round trips as possible; for example, one JDBC batch in a transaction or one redis pipeline.
+	 * Keys with a null value are deleted.
+	 * The other batch methods (putArchivePVRequests etc) work the same way; these are used to flush the changes queued up in the write behind queue.
+	 * @param typeInfos
+	 * @throws IOException
+	 */
+	public void putTypeInfos(Map<String, PVTypeInfo> typeInfos) throws IOException;
 	
 	
 	public List<String> getArchivePVRequestsKeys() throws IOException;
 	public UserSpecifiedSamplingParams getArchivePVRequest(String pvName) throws IOException;
 	public void putArchivePVRequest(String pvName, UserSpecifiedSamplingParams userParams) throws IOException;
 	public void removeArchivePVRequest(String pvName) throws IOException;
+	public void getAllArchivePVRequests(int pageSize, BulkLoadConsumer<UserSpecifiedSamplingParams> consumer) throws IOException;
+	public void putArchivePVRequests(Map<String, UserSpecifiedSamplingParams> archivePVRequests) throws IOException;
 	
 	public List<String> getExternalDataServersKeys() throws IOException;
 	public String getExternalDataServer(String serverId) throws IOException;
@@ -41,4 +71,6 @@ public interface ConfigPersistence {
 	public String getAliasNamesToRealName(String pvName) throws IOException;
 	public void putAliasNamesToRealName(String pvName, String realName) throws IOException;	
 	public void removeAliasName(String pvName, String realName) throws IOException;	
+	public void getAllAliasNamesToRealNames(int pageSize, BulkLoadConsumer<String> consumer) throws IOException;
+	public void putAliasNamesToRealNames(Map<String, String> aliasNamesToRealNames) throws IOException;
 }
@@ -9,7 +9,9 @@ package org.epics.archiverappliance.config;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -19,9 +21,12 @@ import javax.servlet.ServletContext;
 
 import org.epics.archiverappliance.config.exception.AlreadyRegisteredException;
 import org.epics.archiverappliance.config.exception.ConfigException;
+import org.epics.archiverappliance.config.persistence.WriteBehindPersistence;
+import org.epics.archiverappliance.config.pubsub.PubSubEventBatcher;
 import org.epics.archiverappliance.engine.pv.EngineContext;
 import org.epics.archiverappliance.etl.common.PBThreeTierETLPVLookup;
 import org.epics.archiverappliance.mgmt.MgmtRuntimeState;
+import org.epics.archiverappliance.mgmt.policy.ExecutePolicyPool;
 import org.epics.archiverappliance.mgmt.policy.PolicyConfig;
 import org.epics.archiverappliance.retrieval.RetrievalState;
 
@@ -235,6 +240,14 @@ public interface ConfigService {
 	 */
 	public Set<String> getPVsForApplianceMatchingRegex(String nameToMatch);
 
+	/**
+	 * Same as {@link #getPVsForApplianceMatchingRegex(String)} but stops after finding limit names.
+	 * @param nameToMatch
+	 * @param limit - -1 for all the matching names.
+	 * @return The matching names, sorted.
+	 */
+	public Set<String> getPVsForApplianceMatchingRegex(String nameToMatch, int limit);
+
 	
 	/**
 	 * Make changes in the config service to register this PV to an appliance
@@ -251,6 +264,42 @@ public interface ConfigService {
 	 * @return
 	 */
 	public PVTypeInfo getTypeInfoForPV(String pvName);
+
+	/**
+	 * Get the typeinfos and appliances for these PVs into the local near caches using one bulk lookup per cluster map.
+	 * Call this before looping over many PVs with getTypeInfoForPV/getApplianceForPV; for example, in multi PV retrieval requests.
+	 * @param pvNames
+	 */
+	public void prefetchPVInfos(Collection<String> pvNames);
+
+	/**
+	 * Get the local near caches for the cluster maps; these are used to report cache metrics.
+	 * This is empty if the near caches are turned off.
+	 * @return
+	 */
+	public List<NearCache<?>> getNearCaches();
+
+	/**
+	 * Changes to the config are written to the persistence layer in the background in batches.
+	 * Call this to wait till the changes made so far have been written; for example, before acknowledging a bulk operation.
+	 * Note that changes to the typeinfos are persisted when the change event comes back from the cluster and may not be covered by this call.
+	 * @throws IOException
+	 */
+	public void flushPersistenceWrites() throws IOException;
+
+	/**
+	 * Get the write behind queue in front of the persistence layer; this is used to report queue metrics.
+	 * This is null if the write behind queue is turned off or if this is not the mgmt webapp.
+	 * @return
+	 */
+	public WriteBehindPersistence getPersistenceWriteBehind();
+	
+	/**
+	 * Get the batcher for the events that we publish into the cluster; this is used to report pubsub metrics.
+	 * This is null if batching of pubsub events is turned off.
+	 * @return
+	 */
+	public PubSubEventBatcher getPubSubEventBatcher();
 	
 	/**
 	 * Update the type information about a PV; updating both ther persistent and cached versions of the information. 
@@ -261,6 +310,13 @@ public interface ConfigService {
 	 */
 	public void updateTypeInfoForPV(String pvName, PVTypeInfo typeInfo);
 	
+	/**
+	 * Update the type information for many PVs using one bulk put into the cluster instead of one put per PV; for example, when importing a configuration.
+	 * As with updateTypeInfoForPV, the changes are persisted when the change events come back from the cluster.
+	 * @param typeInfos - Map of PV name to the type information for that PV.
+	 */
+	public void updateTypeInfosForPVs(Map<String, PVTypeInfo> typeInfos);
+	
 	
 	/**
 	 * Remove the pv from all cached and persisted configuration.
@@ -271,11 +327,20 @@ public interface ConfigService {
 	
 	/**
 	 * Facilitates various optimizations for BPL that uses appliance wide information by caching and maintaining this information on a per appliance basis
-	 * 
-	 * @return
+	 * The mgmt webapp maintains this for all the appliances in the cluster as typeinfos change; so, in the mgmt webapp, this is a local lookup once the aggregate for an appliance has been seeded.
+	 * @return A copy of the aggregate info for the appliance
 	 */
 	public ApplianceAggregateInfo getAggregatedApplianceInfo(ApplianceInfo applianceInfo) throws IOException;
 	
+	/**
+	 * Fetch the aggregate info for the appliance from its mgmt webapp and use it to reseed the copy maintained in this mgmt webapp. 
+	 * This corrects any drift in the incrementally maintained aggregates; capacity planning calls this when it refreshes its measured data.
+	 * @param applianceInfo
+	 * @return A copy of the aggregate info for the appliance
+	 * @throws IOException
+	 */
+	public ApplianceAggregateInfo refreshAggregatedApplianceInfo(ApplianceInfo applianceInfo) throws IOException;
+	
 	/**
 	 * The workflow for requesting a PV to be archived consists of multiple steps
 	 * This method adds a PV to the persisted list of PVs that are currently engaged in this workflow in addition to any user specified overrides
@@ -393,6 +458,22 @@ public interface ConfigService {
 	 */
 	public PolicyConfig computePolicyForPV(String pvName, MetaInfo metaInfo, UserSpecifiedSamplingParams userSpecParams) throws IOException;
 	
+	/**
+	 * Determine the policies for many PVs in one call; the policies are computed in parallel using a pool of policy interpreters.
+	 * PVs for which the policy could not be computed are left out of the result.
+	 * @param pvNamesAndMetaInfos - Map of PV name to the MetaInfo for the PV
+	 * @param userSpecParams - Map of PV name to the user specified sampling params for the PV
+	 * @return Map of PV name to the policy for the PV
+	 * @throws IOException
+	 */
+	public LinkedHashMap<String, PolicyConfig> computePoliciesForPVs(LinkedHashMap<String, MetaInfo> pvNamesAndMetaInfos, Map<String, UserSpecifiedSamplingParams> userSpecParams) throws IOException;
+	
+	/**
+	 * Get the pool of policy interpreters; this is used to report policy execution metrics.
+	 * @return
+	 */
+	public ExecutePolicyPool getExecutePolicyPool();
+	
 	
 	/**
 	 * Return a map of name to description of all the policies in the system
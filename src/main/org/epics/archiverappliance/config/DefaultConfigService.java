@@ -27,6 +27,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -34,13 +35,12 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletContext;
 
@@ -54,7 +54,11 @@ import org.epics.archiverappliance.config.PVTypeInfoEvent.ChangeType;
 import org.epics.archiverappliance.config.exception.AlreadyRegisteredException;
 import org.epics.archiverappliance.config.exception.ConfigException;
 import org.epics.archiverappliance.config.persistence.MySQLPersistence;
+import org.epics.archiverappliance.config.persistence.WriteBehindPersistence;
+import org.epics.archiverappliance.config.pubsub.BatchedPubSubEvent;
+import org.epics.archiverappliance.config.pubsub.PartitionedEventBus;
 import org.epics.archiverappliance.config.pubsub.PubSubEvent;
+import org.epics.archiverappliance.config.pubsub.PubSubEventBatcher;
 import org.epics.archiverappliance.engine.ArchiveEngine;
 import org.epics.archiverappliance.engine.pv.EngineContext;
 import org.epics.archiverappliance.etl.common.PBThreeTierETLPVLookup;
@@ -62,7 +66,7 @@ import org.epics.archiverappliance.mgmt.MgmtPostStartup;
 import org.epics.archiverappliance.mgmt.MgmtRuntimeState;
 import org.epics.archiverappliance.mgmt.NonMgmtPostStartup;
 import org.epics.archiverappliance.mgmt.bpl.cahdlers.NamesHandler;
-import org.epics.archiverappliance.mgmt.policy.ExecutePolicy;
+import org.epics.archiverappliance.mgmt.policy.ExecutePolicyPool;
 import org.epics.archiverappliance.mgmt.policy.PolicyConfig;
 import org.epics.archiverappliance.mgmt.policy.PolicyConfig.SamplingMethod;
 import org.epics.archiverappliance.retrieval.RetrievalState;
@@ -73,12 +77,6 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.xml.sax.SAXException;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.cache.RemovalListener;
-import com.google.common.cache.RemovalNotification;
-import com.google.common.eventbus.AsyncEventBus;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import com.hazelcast.client.HazelcastClient;
@@ -142,6 +140,9 @@ public class DefaultConfigService implements ConfigService {
 	protected ITopic<PubSubEvent> pubSub = null;
 	protected Map<String, Boolean> namedFlags = null;
 	// Configuration state ends here.
+	// Local near caches for the cluster maps that we look up the most; these are null if the near caches are turned off.
+	protected NearCache<PVTypeInfo> typeInfosNearCache = null;
+	protected NearCache<ApplianceInfo> pv2applianceNearCache = null;
 	
 	// Runtime state begins here 
 	protected LinkedList<Runnable> shutdownHooks = new LinkedList<Runnable>();
@@ -154,14 +155,35 @@ public class DefaultConfigService implements ConfigService {
 
 	// This is an optimization; we cache a copy of PVs that are registered for this appliance.
 	protected ConcurrentSkipListSet<String> pvsForThisAppliance = null;
-	// Maintain a TRIE index for the pvNames in this appliance.
-	protected ConcurrentHashMap<String, ConcurrentSkipListSet<String>> parts2PVNamesForThisAppliance = new ConcurrentHashMap<String, ConcurrentSkipListSet<String>>(); 
+	// Maintain an index of the pvNames (and aliases) in this appliance for the searches.
+	protected PVNameIndex pvNameIndexForThisAppliance = new PVNameIndex(); 
 	protected ConcurrentSkipListSet<String> pausedPVsForThisAppliance = null;
 	protected ApplianceAggregateInfo applianceAggregateInfo = new ApplianceAggregateInfo();
-	protected EventBus eventBus = new AsyncEventBus(Executors.newSingleThreadExecutor(new ThreadFactory() { @Override public Thread newThread(Runnable r) { return new Thread(r, "Event bus");}}));
+	/**
+	 * The mgmt webapp also maintains the aggregates for the other appliances in the cluster so that capacity planning does not have to ask for these for each PV.
+	 * These are seeded from the other appliances' mgmt webapps the first time they are needed and kept up to date using the changes to the typeinfos.
+	 */
+	protected ConcurrentHashMap<String, ApplianceAggregateInfo> otherApplianceAggregateInfos = new ConcurrentHashMap<String, ApplianceAggregateInfo>();
+	/**
+	 * Events for a PV are delivered in order on one of these threads; events for different PVs are delivered in parallel.
+	 */
+	private static final int DEFAULT_EVENT_BUS_THREADS = 4;
+	protected PartitionedEventBus eventBus = new PartitionedEventBus("Event bus", DEFAULT_EVENT_BUS_THREADS);
+	/**
+	 * If batching of pubsub events is turned on, events published into the cluster are sent in batches using this; else null.
+	 */
+	protected PubSubEventBatcher pubSubEventBatcher = null;
 	protected Properties archapplproperties = new Properties();
 	protected PVNameToKeyMapping pvName2KeyConverter = null;
 	protected ConfigPersistence persistanceLayer;
+	/**
+	 * If the write behind queue is turned on, this is the persistanceLayer; else null.
+	 */
+	protected WriteBehindPersistence persistenceWriteBehind = null;
+	/**
+	 * Number of objects we ask for at a time when loading the config from the persistence layer on startup.
+	 */
+	private static final int PERSISTENCE_LOAD_PAGE_SIZE = 1000;
 
 	// State local to DefaultConfigService.
 	protected WAR_FILE warFile = WAR_FILE.MGMT;
@@ -169,22 +191,10 @@ public class DefaultConfigService implements ConfigService {
 	protected ScheduledExecutorService startupExecutor = null;
 	protected ProcessMetrics processMetrics = new ProcessMetrics();
 	private HashSet<String> runTimeFields = new HashSet<String>();
-	// Use a Guava cache to store one and only one ExecutePolicy object that expires after some inactivity.
-	// The side effect is that it may take this many minutes to update the policy that is cached.
-	private LoadingCache<String, ExecutePolicy> theExecutionPolicy = CacheBuilder.newBuilder()
-			.expireAfterWrite(1, TimeUnit.MINUTES)
-			.removalListener(new RemovalListener<String, ExecutePolicy>() {
-				@Override
-				public void onRemoval(RemovalNotification<String, ExecutePolicy> arg) {
-					arg.getValue().close();
-				}
-			})
-			.build(new CacheLoader<String, ExecutePolicy>() {
-				public ExecutePolicy load(String key) throws IOException {
-					logger.info("Updating the cached execute policy");
-					return new ExecutePolicy(DefaultConfigService.this);
-				}
-			});
+	// A pool of interpreters that have loaded the policies.py; the interpreters are recreated every policyRefreshSecs.
+	// The side effect is that it may take this long to pick up changes to the policies.py.
+	// This is created on first use as we need the installation properties.
+	private ExecutePolicyPool executePolicyPool = null;
 
 
 
@@ -294,6 +304,15 @@ public class DefaultConfigService implements ConfigService {
 			configlogger.fatal("Exception loading the appliance properties file", ex);
 		}
 		
+		GetUrlContent.setFanOutTimeoutSeconds(Integer.parseInt(archapplproperties.getProperty("org.epics.archiverappliance.utils.ui.GetUrlContent.FanOutTimeoutSeconds", "60")));
+
+		int eventBusThreads = Integer.parseInt(archapplproperties.getProperty("org.epics.archiverappliance.config.DefaultConfigService.eventBusThreads", Integer.toString(DEFAULT_EVENT_BUS_THREADS)));
+		if(eventBusThreads != eventBus.getPartitionCount()) {
+			configlogger.info("Delivering events using " + eventBusThreads + " event bus threads");
+			eventBus.shutdown();
+			eventBus = new PartitionedEventBus("Event bus", eventBusThreads);
+		}
+
 		switch(contextPath) {
 		case "/mgmt":
 			warFile = WAR_FILE.MGMT;
@@ -576,6 +595,26 @@ public class DefaultConfigService implements ConfigService {
 		aliasNamesToRealNames = hzinstance.getMap("aliasNamesToRealNames");
 		pv2ChannelArchiverDataServer = hzinstance.getMap("pv2ChannelArchiverDataServer");
 		pubSub = hzinstance.getTopic("pubSub");
+		int pubSubBatchSize = Integer.parseInt(archapplproperties.getProperty("org.epics.archiverappliance.config.DefaultConfigService.pubSubBatchSize", "500"));
+		if(pubSubBatchSize > 1) {
+			long pubSubBatchMillis = Long.parseLong(archapplproperties.getProperty("org.epics.archiverappliance.config.DefaultConfigService.pubSubBatchMillis", "100"));
+			configlogger.info("Publishing events into the cluster in batches of up to " + pubSubBatchSize + " events every " + pubSubBatchMillis + "(ms)");
+			final ITopic<PubSubEvent> clusterTopic = pubSub;
+			pubSubEventBatcher = new PubSubEventBatcher(new PubSubEventBatcher.Publisher() {
+				@Override
+				public void publish(PubSubEvent pubSubEvent) {
+					clusterTopic.publish(pubSubEvent);
+				}
+			}, pubSubBatchSize, pubSubBatchMillis);
+			// Shutdown hooks are run in reverse; so this runs before the clustering instance is shut down.
+			shutdownHooks.add(new Runnable() {
+				@Override
+				public void run() {
+					pubSubEventBatcher.close();
+				}
+			});
+		}
+		initializeNearCaches(hzinstance);
 		
 		final HazelcastInstance shutdownHzInstance = hzinstance;
 		shutdownHooks.add(0, new Runnable() {
@@ -762,7 +801,7 @@ public class DefaultConfigService implements ConfigService {
 			public void entryUpdated(EntryEvent<Object, Object> entryEvent) {
 				PVTypeInfo typeInfo =(PVTypeInfo) entryEvent.getValue();
 				String pvName = typeInfo.getPvName();
-				eventBus.post(new PVTypeInfoEvent(pvName, typeInfo, ChangeType.TYPEINFO_MODIFIED));
+				eventBus.post(new PVTypeInfoEvent(pvName, typeInfo, ChangeType.TYPEINFO_MODIFIED, (PVTypeInfo) entryEvent.getOldValue()));
 				logger.debug("Received entryUpdated for pvTypeInfo");
 				if(persistanceLayer != null) { 
 					try { 
@@ -787,8 +826,15 @@ public class DefaultConfigService implements ConfigService {
 						// We publish messages from hazelcast into this VM only if the intened WAR file is us.
 						logger.debug("Publishing event into this JVM " + pubSubEvent.generateEventDescription());
 						// In this case, we set the source as being the cluster to prevent republishing back into the cluster.
-						pubSubEvent.markSourceAsCluster();
-						eventBus.post(pubSubEvent);
+						if(pubSubEvent instanceof BatchedPubSubEvent) {
+							for(PubSubEvent batchedEvent : ((BatchedPubSubEvent) pubSubEvent).getEvents()) {
+								batchedEvent.markSourceAsCluster();
+								eventBus.post(batchedEvent);
+							}
+						} else {
+							pubSubEvent.markSourceAsCluster();
+							eventBus.post(pubSubEvent);
+						}
 					} else { 
 						logger.debug("Skipping publishing event into this JVM " + pubSubEvent.generateEventDescription() + " as destination is not me " + DefaultConfigService.this.warFile.toString());
 					}
@@ -821,12 +867,7 @@ public class DefaultConfigService implements ConfigService {
 						logger.debug("Removing pv " + pvName + " from the locally cached copy of pvs for this appliance");
 						pvsForThisAppliance.remove(pvName);
 						pausedPVsForThisAppliance.remove(pvName);
-						// For now, we do not anticipate many PVs being deleted from the cache to worry about keeping applianceAggregateInfo upto date...
-						// This may change later... 
-						String[] parts = this.pvName2KeyConverter.breakIntoParts(pvName);
-						for(String part : parts) { 
-							parts2PVNamesForThisAppliance.get(part).remove(pvName);
-						}
+						pvNameIndexForThisAppliance.remove(pvName);
 					}
 				}
 			} else {
@@ -837,14 +878,7 @@ public class DefaultConfigService implements ConfigService {
 						if(typeInfo.isPaused()) { 
 							pausedPVsForThisAppliance.add(typeInfo.getPvName());
 						}
-						String[] parts = this.pvName2KeyConverter.breakIntoParts(pvName);
-						for(String part : parts) { 
-							if(!parts2PVNamesForThisAppliance.containsKey(part)) { 
-								parts2PVNamesForThisAppliance.put(part, new ConcurrentSkipListSet<String>());
-							}
-							parts2PVNamesForThisAppliance.get(part).add(pvName);
-						}
-						applianceAggregateInfo.addInfoForPV(pvName, typeInfo, this);
+						pvNameIndexForThisAppliance.add(pvName);
 					} else { 
 						if(typeInfo.isPaused()) { 
 							pausedPVsForThisAppliance.add(typeInfo.getPvName());
@@ -857,6 +891,42 @@ public class DefaultConfigService implements ConfigService {
 		}
 	}
 	
+	/**
+	 * Keep the appliance aggregates up to date as typeinfos are added, changed or deleted anywhere in the cluster.
+	 * Changes to PVs on appliances whose aggregates we have not seeded yet are skipped; the seed will include them.
+	 * @param event
+	 */
+	@Subscribe public void updateApplianceAggregates(PVTypeInfoEvent event) {
+		String pvName = event.getPvName();
+		switch(event.getChangeType()) {
+		case TYPEINFO_ADDED: {
+			ApplianceAggregateInfo aggregateInfo = getAggregateToUpdate(event.getTypeInfo().getApplianceIdentity());
+			if(aggregateInfo != null) aggregateInfo.addInfoForPV(pvName, event.getTypeInfo(), this);
+			return;
+		}
+		case TYPEINFO_MODIFIED: {
+			PVTypeInfo oldTypeInfo = event.getOldTypeInfo();
+			if(oldTypeInfo == null) return;
+			ApplianceAggregateInfo oldAggregateInfo = getAggregateToUpdate(oldTypeInfo.getApplianceIdentity());
+			if(oldAggregateInfo != null) oldAggregateInfo.removeInfoForPV(pvName, oldTypeInfo, this);
+			ApplianceAggregateInfo newAggregateInfo = getAggregateToUpdate(event.getTypeInfo().getApplianceIdentity());
+			if(newAggregateInfo != null) newAggregateInfo.addInfoForPV(pvName, event.getTypeInfo(), this);
+			return;
+		}
+		case TYPEINFO_DELETED: {
+			ApplianceAggregateInfo aggregateInfo = getAggregateToUpdate(event.getTypeInfo().getApplianceIdentity());
+			if(aggregateInfo != null) aggregateInfo.removeInfoForPV(pvName, event.getTypeInfo(), this);
+			return;
+		}
+		}
+	}
+	
+	private ApplianceAggregateInfo getAggregateToUpdate(String applianceIdentity) {
+		if(applianceIdentity == null) return null;
+		if(applianceIdentity.equals(myApplianceInfo.getIdentity())) return applianceAggregateInfo;
+		return otherApplianceAggregateInfos.get(applianceIdentity);
+	}
+	
 	@Subscribe public void publishEventIntoCluster(PubSubEvent pubSubEvent) {
 		if(pubSubEvent.isSourceCluster()) { 
 			logger.debug("Skipping publishing events from the cluster back into the cluster " + pubSubEvent.generateEventDescription());
@@ -868,7 +938,11 @@ public class DefaultConfigService implements ConfigService {
 		} else {
 			pubSubEvent.setSource(myIdentity);
 			logger.debug(this.warFile + " - Publishing event from local event bus onto cluster " + pubSubEvent.generateEventDescription());
-			pubSub.publish(pubSubEvent);
+			if(pubSubEventBatcher != null) {
+				pubSubEventBatcher.add(pubSubEvent);
+			} else {
+				pubSub.publish(pubSubEvent);
+			}
 		}
 	}
 
@@ -971,7 +1045,7 @@ public class DefaultConfigService implements ConfigService {
 
 	@Override
 	public ApplianceInfo getApplianceForPV(String pvName) {
-		ApplianceInfo applianceInfo = pv2appliancemapping.get(pvName);
+		ApplianceInfo applianceInfo = pv2applianceNearCache != null ? pv2applianceNearCache.get(pvName) : pv2appliancemapping.get(pvName);
 		if(applianceInfo == null && this.persistanceLayer != null) { 
 			try { 
 				PVTypeInfo typeInfo = this.persistanceLayer.getTypeInfo(pvName);
@@ -1050,56 +1124,13 @@ public class DefaultConfigService implements ConfigService {
 	
 	@Override
 	public Set<String> getPVsForApplianceMatchingRegex(String nameToMatch) {
+		return getPVsForApplianceMatchingRegex(nameToMatch, -1);
+	}
+
+	@Override
+	public Set<String> getPVsForApplianceMatchingRegex(String nameToMatch, int limit) {
 		logger.debug("Finding matching names for " + nameToMatch);
-		LinkedList<String> fixedStringParts = new LinkedList<String>();
-		String[] parts = this.pvName2KeyConverter.breakIntoParts(nameToMatch);
-		Pattern fixedStringParttern = Pattern.compile("[a-zA-Z_0-9-]+");
-		for(String part : parts) { 
-			if(fixedStringParttern.matcher(part).matches()) { 
-				logger.debug("Fixed string part " +  part);
-				fixedStringParts.add(part);
-			} else { 
-				logger.debug("Regex string part " + part);
-			}
-		}
-		
-		if(fixedStringParts.size() > 0) {
-			HashSet<String> ret = new HashSet<String>();
-			HashSet<String> namesSubset = new HashSet<String>();
-			// This reverse is probably specific to SLAC's namespace rules but it does make a big difference. 
-			// Perhaps we can use a more intelligent way of choosing the specific path thru the trie.
-			Collections.reverse(fixedStringParts);
-			for(String fixedStringPart : fixedStringParts) { 
-				ConcurrentSkipListSet<String> pvNamesForPart = parts2PVNamesForThisAppliance.get(fixedStringPart);
-				if(pvNamesForPart != null) { 
-					if(namesSubset.isEmpty()) { 
-						namesSubset.addAll(pvNamesForPart);
-					} else { 
-						namesSubset.retainAll(pvNamesForPart);
-					}
-				}
-			}
-			logger.debug("Using fixed string path matching against names " + namesSubset.size());
-			Pattern pattern = Pattern.compile(nameToMatch);
-			for(String pvName : namesSubset) { 
-				if(pattern.matcher(pvName).matches()) { 
-					ret.add(pvName);
-				}
-			}
-			return ret;
-		} else { 
-			// The use pattern did not have any fixed elements at all. 
-			// In this case we do brute force matching; should take longer. 
-			logger.debug("Using brute force pattern matching against names");
-			HashSet<String> ret = new HashSet<String>();
-			Pattern pattern = Pattern.compile(nameToMatch);
-			for(String pvName : this.pvsForThisAppliance) { 
-				if(pattern.matcher(pvName).matches()) { 
-					ret.add(pvName);
-				}
-			}
-			return ret;
-		}
+		return pvNameIndexForThisAppliance.getMatchingNames(nameToMatch, limit);
 	}	
 
 
@@ -1107,17 +1138,41 @@ public class DefaultConfigService implements ConfigService {
 	public ApplianceAggregateInfo getAggregatedApplianceInfo(ApplianceInfo applianceInfo) throws IOException {
 		if(applianceInfo.getIdentity().equals(myApplianceInfo.getIdentity()) && this.warFile == WAR_FILE.MGMT) {
 			logger.debug("Returning local copy of appliance info for " + applianceInfo.getIdentity());
-			return applianceAggregateInfo;
-		} else {
-			try {
-				JSONObject aggregateInfo = GetUrlContent.getURLContentAsJSONObject(applianceInfo.getMgmtURL() + "/getAggregatedApplianceInfo", false);
-				JSONDecoder<ApplianceAggregateInfo> jsonDecoder = JSONDecoder.getDecoder(ApplianceAggregateInfo.class);
-				ApplianceAggregateInfo retval = new ApplianceAggregateInfo();
-				jsonDecoder.decode(aggregateInfo, retval);
-				return retval;
-			} catch(Exception ex) {
-				throw new IOException(ex);
+			return applianceAggregateInfo.clone();
+		} else if(this.warFile == WAR_FILE.MGMT) {
+			ApplianceAggregateInfo aggregateInfo = otherApplianceAggregateInfos.get(applianceInfo.getIdentity());
+			if(aggregateInfo != null) {
+				return aggregateInfo.clone();
 			}
+			return refreshAggregatedApplianceInfo(applianceInfo);
+		} else {
+			return fetchAggregatedApplianceInfo(applianceInfo);
+		}
+	}
+
+	@Override
+	public ApplianceAggregateInfo refreshAggregatedApplianceInfo(ApplianceInfo applianceInfo) throws IOException {
+		if(applianceInfo.getIdentity().equals(myApplianceInfo.getIdentity()) && this.warFile == WAR_FILE.MGMT) {
+			return applianceAggregateInfo.clone();
+		}
+		ApplianceAggregateInfo aggregateInfo = fetchAggregatedApplianceInfo(applianceInfo);
+		if(this.warFile == WAR_FILE.MGMT) {
+			logger.debug("Seeding the aggregate info for appliance " + applianceInfo.getIdentity());
+			otherApplianceAggregateInfos.put(applianceInfo.getIdentity(), aggregateInfo);
+			return aggregateInfo.clone();
+		}
+		return aggregateInfo;
+	}
+
+	private ApplianceAggregateInfo fetchAggregatedApplianceInfo(ApplianceInfo applianceInfo) throws IOException {
+		try {
+			JSONObject aggregateInfo = GetUrlContent.getURLContentAsJSONObject(applianceInfo.getMgmtURL() + "/getAggregatedApplianceInfo", false);
+			JSONDecoder<ApplianceAggregateInfo> jsonDecoder = JSONDecoder.getDecoder(ApplianceAggregateInfo.class);
+			ApplianceAggregateInfo retval = new ApplianceAggregateInfo();
+			jsonDecoder.decode(aggregateInfo, retval);
+			return retval;
+		} catch(Exception ex) {
+			throw new IOException(ex);
 		}
 	}
 
@@ -1127,17 +1182,42 @@ public class DefaultConfigService implements ConfigService {
 		ApplianceInfo info = pv2appliancemapping.get(pvName);
 		if(info != null) throw new AlreadyRegisteredException(info);
 		pv2appliancemapping.put(pvName, applianceInfo);
+		if(pv2applianceNearCache != null) pv2applianceNearCache.invalidate(pvName);
 	}
 	
 	
 	@Override
 	public PVTypeInfo getTypeInfoForPV(String pvName) {
-		if(typeInfos.containsKey(pvName))  {
-			logger.debug("Retrieving typeinfo from cache for pv " + pvName);
-			return typeInfos.get(pvName);
+		if(typeInfosNearCache != null) {
+			return typeInfosNearCache.get(pvName);
 		}
-		
-		return null;
+		return typeInfos.get(pvName);
+	}
+
+	@Override
+	public void prefetchPVInfos(Collection<String> pvNames) {
+		if(typeInfosNearCache != null) typeInfosNearCache.prefetch(pvNames);
+		if(pv2applianceNearCache != null) pv2applianceNearCache.prefetch(pvNames);
+	}
+
+	@Override
+	public List<NearCache<?>> getNearCaches() {
+		return NearCache.asList(typeInfosNearCache, pv2applianceNearCache);
+	}
+
+	@Override
+	public void flushPersistenceWrites() throws IOException {
+		if(persistenceWriteBehind != null) persistenceWriteBehind.flush();
+	}
+
+	@Override
+	public WriteBehindPersistence getPersistenceWriteBehind() {
+		return persistenceWriteBehind;
+	}
+
+	@Override
+	public PubSubEventBatcher getPubSubEventBatcher() {
+		return pubSubEventBatcher;
 	}
 	
 	
@@ -1150,22 +1230,36 @@ public class DefaultConfigService implements ConfigService {
 		}
 		
 		typeInfos.put(pvName, typeInfo);
+		if(typeInfosNearCache != null) typeInfosNearCache.invalidate(pvName);
+	}
+
+	@Override
+	public void updateTypeInfosForPVs(Map<String, PVTypeInfo> typeInfosForPVs) {
+		logger.debug("Updating typeinfos for " + typeInfosForPVs.size() + " PVs");
+		for(Map.Entry<String, PVTypeInfo> entry : typeInfosForPVs.entrySet()) {
+			if(!entry.getValue().keyAlreadyGenerated()) {
+				this.pvName2KeyConverter.convertPVNameToKey(entry.getKey());
+			}
+		}
+		
+		typeInfos.putAll(typeInfosForPVs);
+		if(typeInfosNearCache != null) {
+			for(String pvName : typeInfosForPVs.keySet()) {
+				typeInfosNearCache.invalidate(pvName);
+			}
+		}
 	}
 
 	@Override
 	public void removePVFromCluster(String pvName) {
 		logger.info("Removing PV from cluster.." + pvName);
 		pv2appliancemapping.remove(pvName);
+		if(pv2applianceNearCache != null) pv2applianceNearCache.invalidate(pvName);
 		pvsForThisAppliance.remove(pvName);		
 		typeInfos.remove(pvName);
+		if(typeInfosNearCache != null) typeInfosNearCache.invalidate(pvName);
 		pausedPVsForThisAppliance.remove(pvName);
-		String[] parts = this.pvName2KeyConverter.breakIntoParts(pvName);
-		for(String part : parts) { 
-			ConcurrentSkipListSet<String> pvNamesForPart = parts2PVNamesForThisAppliance.get(part);
-			if(pvNamesForPart != null) { 
-				pvNamesForPart.remove(pvName);
-			}
-		}
+		pvNameIndexForThisAppliance.remove(pvName);
 	}
 
 	private class PVApplianceCombo implements Comparable<PVApplianceCombo> {
@@ -1272,14 +1366,8 @@ public class DefaultConfigService implements ConfigService {
 			logger.error("Exception adding alias name to persistence " + aliasName, ex);
 		}
 		
-		// Add aliases into the trie
-		String[] parts = this.pvName2KeyConverter.breakIntoParts(aliasName);
-		for(String part : parts) { 
-			if(!parts2PVNamesForThisAppliance.containsKey(part)) { 
-				parts2PVNamesForThisAppliance.put(part, new ConcurrentSkipListSet<String>());
-			}
-			parts2PVNamesForThisAppliance.get(part).add(aliasName);
-		}
+		// Add aliases into the name index
+		pvNameIndexForThisAppliance.add(aliasName);
 	}
 	
 	
@@ -1292,11 +1380,8 @@ public class DefaultConfigService implements ConfigService {
 			logger.error("Exception removing alias name from persistence " + aliasName, ex);
 		}
 		
-		// Remove the aliasname from the trie
-		String[] parts = this.pvName2KeyConverter.breakIntoParts(aliasName);
-		for(String part : parts) { 
-			parts2PVNamesForThisAppliance.get(part).remove(aliasName);
-		}
+		// Remove the aliasname from the name index
+		pvNameIndexForThisAppliance.remove(aliasName);
 	}
 
 	
@@ -1362,6 +1447,7 @@ public class DefaultConfigService implements ConfigService {
 			}
 		}
 		logger.debug("Done running shutdown hooks in webapp " + this.warFile);
+		eventBus.shutdown();
 	}
 
 	@Override
@@ -1511,84 +1597,104 @@ public class DefaultConfigService implements ConfigService {
 
 	@Override
 	public PolicyConfig computePolicyForPV(String pvName, MetaInfo metaInfo, UserSpecifiedSamplingParams userSpecParams) throws IOException {
-		try(InputStream is = this.getPolicyText()) {
-			logger.debug("Computing policy for pvName");
-			HashMap<String, Object> pvInfo = new HashMap<String, Object>();
-			pvInfo.put("dbrtype", metaInfo.getArchDBRTypes().toString());
-			pvInfo.put("elementCount", metaInfo.getCount());
-			pvInfo.put("eventRate", metaInfo.getEventRate());
-			pvInfo.put("storageRate", metaInfo.getStorageRate());
-			pvInfo.put("aliasName", metaInfo.getAliasName());
-			if(userSpecParams != null && userSpecParams.getPolicyName() != null) {
-				logger.debug("Passing user override of policy " + userSpecParams.getPolicyName() + " as the dict entry policyName");
-				pvInfo.put("policyName", userSpecParams.getPolicyName());
-			}
-			if(userSpecParams.getControllingPV() != null) { 
-				pvInfo.put("controlPV", userSpecParams.getControllingPV());
-			}
+		logger.debug("Computing policy for pvName");
+		try {
+			return getExecutePolicyPool().computePolicyForPV(pvName, makePVInfoForPolicy(pvName, metaInfo, userSpecParams));
+		} catch(IOException | RuntimeException ex) {
+			logger.error("Exception executing policy for pv " + pvName, ex);
+			throw ex;
+		}
+	}
+	
+	@Override
+	public LinkedHashMap<String, PolicyConfig> computePoliciesForPVs(LinkedHashMap<String, MetaInfo> pvNamesAndMetaInfos, Map<String, UserSpecifiedSamplingParams> userSpecParams) throws IOException {
+		logger.debug("Computing policies for " + pvNamesAndMetaInfos.size() + " PVs");
+		LinkedHashMap<String, HashMap<String, Object>> pvInfos = new LinkedHashMap<String, HashMap<String, Object>>();
+		for(Map.Entry<String, MetaInfo> entry : pvNamesAndMetaInfos.entrySet()) {
+			pvInfos.put(entry.getKey(), makePVInfoForPolicy(entry.getKey(), entry.getValue(), userSpecParams.get(entry.getKey())));
+		}
+		return getExecutePolicyPool().computePoliciesForPVs(pvInfos);
+	}
+	
+	/**
+	 * Make the dictionary that is passed to determinePolicy in policies.py
+	 */
+	private HashMap<String, Object> makePVInfoForPolicy(String pvName, MetaInfo metaInfo, UserSpecifiedSamplingParams userSpecParams) {
+		HashMap<String, Object> pvInfo = new HashMap<String, Object>();
+		pvInfo.put("dbrtype", metaInfo.getArchDBRTypes().toString());
+		pvInfo.put("elementCount", metaInfo.getCount());
+		pvInfo.put("eventRate", metaInfo.getEventRate());
+		pvInfo.put("storageRate", metaInfo.getStorageRate());
+		pvInfo.put("aliasName", metaInfo.getAliasName());
+		if(userSpecParams != null && userSpecParams.getPolicyName() != null) {
+			logger.debug("Passing user override of policy " + userSpecParams.getPolicyName() + " as the dict entry policyName");
+			pvInfo.put("policyName", userSpecParams.getPolicyName());
+		}
+		if(userSpecParams != null && userSpecParams.getControllingPV() != null) { 
+			pvInfo.put("controlPV", userSpecParams.getControllingPV());
+		}
 
-			
-			HashMap<String,String> otherMetaInfo = metaInfo.getOtherMetaInfo();
-			for(String otherMetaInfoKey : this.getExtraFields()) {
-				if(otherMetaInfo.containsKey(otherMetaInfoKey)) {
-					if(otherMetaInfoKey.equals("ADEL") || otherMetaInfoKey.equals("MDEL")) {
-						try { 
-							pvInfo.put(otherMetaInfoKey, Double.parseDouble(otherMetaInfo.get(otherMetaInfoKey)));
-						} catch(Exception ex) { 
-							logger.error("Exception adding MDEL and ADEL to the info", ex);
-						}
-					} else { 
-						pvInfo.put(otherMetaInfoKey,otherMetaInfo.get(otherMetaInfoKey));
+		
+		HashMap<String,String> otherMetaInfo = metaInfo.getOtherMetaInfo();
+		for(String otherMetaInfoKey : this.getExtraFields()) {
+			if(otherMetaInfo.containsKey(otherMetaInfoKey)) {
+				if(otherMetaInfoKey.equals("ADEL") || otherMetaInfoKey.equals("MDEL")) {
+					try { 
+						pvInfo.put(otherMetaInfoKey, Double.parseDouble(otherMetaInfo.get(otherMetaInfoKey)));
+					} catch(Exception ex) { 
+						logger.error("Exception adding MDEL and ADEL to the info", ex);
 					}
+				} else { 
+					pvInfo.put(otherMetaInfoKey,otherMetaInfo.get(otherMetaInfoKey));
 				}
 			}
+		}
 
-			if(logger.isDebugEnabled()) {
-				StringBuilder buf = new StringBuilder();
-				buf.append("Before computing policy for");
-				buf.append(pvName);
-				buf.append(" pvInfo is \n");
-				for(String key : pvInfo.keySet()) {
-					buf.append(key);
-					buf.append("=");
-					buf.append(pvInfo.get(key));
-					buf.append("\n");
-				}
-				logger.debug(buf.toString());
-			}
-			
-			try {
-				// We only have one policy in the cache...
-				ExecutePolicy executePolicy = theExecutionPolicy.get("ThePolicy");
-				PolicyConfig policyConfig = executePolicy.computePolicyForPV(pvName, pvInfo);
-				return policyConfig;
-			} catch (ExecutionException e) {
-				Throwable cause = e.getCause();
-				logger.error("Exception executing policy for pv " + pvName, cause);
-				if(cause instanceof IOException) { 
-					throw (IOException) cause;
-				} else { 
-					throw new IOException(cause);
-				}
+		if(logger.isDebugEnabled()) {
+			StringBuilder buf = new StringBuilder();
+			buf.append("Before computing policy for");
+			buf.append(pvName);
+			buf.append(" pvInfo is \n");
+			for(String key : pvInfo.keySet()) {
+				buf.append(key);
+				buf.append("=");
+				buf.append(pvInfo.get(key));
+				buf.append("\n");
 			}
+			logger.debug(buf.toString());
 		}
+		return pvInfo;
 	}
 	
 	
 	
 	@Override
 	public HashMap<String, String> getPoliciesInInstallation() throws IOException {
-		try(ExecutePolicy executePolicy = new ExecutePolicy(this)) { 
-			return executePolicy.getPolicyList();
-		}
+		return getExecutePolicyPool().getPolicyList();
 	}
 	
 	
 	@Override
 	public List<String> getFieldsArchivedAsPartOfStream() throws IOException {
-		try(ExecutePolicy executePolicy = new ExecutePolicy(this)) { 
-			return executePolicy.getFieldsArchivedAsPartOfStream();
+		return getExecutePolicyPool().getFieldsArchivedAsPartOfStream();
+	}
+	
+	@Override
+	public synchronized ExecutePolicyPool getExecutePolicyPool() {
+		if(executePolicyPool == null) {
+			int policyInterpreters = Integer.parseInt(this.getInstallationProperties().getProperty("org.epics.archiverappliance.config.DefaultConfigService.policyInterpreters", Integer.toString(Runtime.getRuntime().availableProcessors())));
+			int policyRefreshSecs = Integer.parseInt(this.getInstallationProperties().getProperty("org.epics.archiverappliance.config.DefaultConfigService.policyRefreshSecs", "60"));
+			configlogger.info("Computing policies using up to " + policyInterpreters + " interpreters that are refreshed every " + policyRefreshSecs + " seconds");
+			executePolicyPool = new ExecutePolicyPool(this, policyInterpreters, policyRefreshSecs*1000L);
+			final ExecutePolicyPool shutdownPolicyPool = executePolicyPool;
+			shutdownHooks.add(new Runnable() {
+				@Override
+				public void run() {
+					shutdownPolicyPool.close();
+				}
+			});
 		}
+		return executePolicyPool;
 	}
 
 	@Override
@@ -1658,69 +1764,69 @@ public class DefaultConfigService implements ConfigService {
 		return pvName2KeyConverter;
 	}
 	
+	/**
+	 * Set up the local near caches for the typeinfo and pv2appliancemapping cluster maps.
+	 * Entries are invalidated by listening (without values) to changes in these maps.
+	 * Set the maximum size to 0 to turn off the near caches.
+	 */
+	private void initializeNearCaches(HazelcastInstance hzinstance) {
+		long nearCacheMaxSize = Long.parseLong(this.getInstallationProperties().getProperty("org.epics.archiverappliance.config.DefaultConfigService.nearCacheMaxSize", "200000"));
+		long nearCacheExpirySeconds = Long.parseLong(this.getInstallationProperties().getProperty("org.epics.archiverappliance.config.DefaultConfigService.nearCacheExpirySeconds", "600"));
+		if(nearCacheMaxSize <= 0) {
+			configlogger.info("Near caches for the cluster maps are turned off");
+			return;
+		}
+		// Callers change typeinfos in place before putting them back; so each lookup gets its own copy.
+		typeInfosNearCache = new NearCache<PVTypeInfo>("typeinfo", typeInfos, nearCacheMaxSize, nearCacheExpirySeconds, true);
+		hzinstance.getMap("typeinfo").addEntryListener(typeInfosNearCache.getInvalidationListener(), false);
+		pv2applianceNearCache = new NearCache<ApplianceInfo>("pv2appliancemapping", pv2appliancemapping, nearCacheMaxSize, nearCacheExpirySeconds);
+		hzinstance.getMap("pv2appliancemapping").addEntryListener(pv2applianceNearCache.getInvalidationListener(), false);
+	}
+
 	/**
 	 * Load typeInfos into the cluster hashmaps from the persistence layer on startup.
-	 * To avoid overwhelming the cluster, we batch the loads 
+	 * To avoid overwhelming the cluster, we batch the loads; each page from the persistence layer is a batch.
 	 */
 	private void loadTypeInfosFromPersistence() {
 		try { 
 			configlogger.info("Loading PVTypeInfo from persistence");
-			List<String> upgradedPVs = new LinkedList<String>();
-			List<String> pvNamesFromPersistence = persistanceLayer.getTypeInfoKeys();
-			HashMap<String, PVTypeInfo> newTypeInfos = new HashMap<String, PVTypeInfo>();
-			HashMap<String, ApplianceInfo> newPVMappings = new HashMap<String, ApplianceInfo>();
-			int objectCount = 0;
-			int batch = 0;
-			int clusterPVCount = 0;
-			for(String pvNameFromPersistence : pvNamesFromPersistence) {
-				PVTypeInfo typeInfo = persistanceLayer.getTypeInfo(pvNameFromPersistence);
-				if(typeInfo.getApplianceIdentity().equals(myIdentity)) {
-					// Here's where we put schema update logic
-					upgradeTypeInfo(typeInfo, upgradedPVs);
-					
-					String pvName = typeInfo.getPvName();
-					newTypeInfos.put(pvName, typeInfo);
-					newPVMappings.put(pvName, appliances.get(typeInfo.getApplianceIdentity()));
-					pvsForThisAppliance.add(pvName);
-					if(typeInfo.isPaused()) { 
-						pausedPVsForThisAppliance.add(pvName);
-					}
-					String[] parts = this.pvName2KeyConverter.breakIntoParts(pvName);
-					for(String part : parts) { 
-						if(!parts2PVNamesForThisAppliance.containsKey(part)) { 
-							parts2PVNamesForThisAppliance.put(part, new ConcurrentSkipListSet<String>());
+			final List<String> upgradedPVs = new LinkedList<String>();
+			final AtomicInteger batch = new AtomicInteger(0);
+			final AtomicInteger clusterPVCount = new AtomicInteger(0);
+			persistanceLayer.getAllTypeInfos(PERSISTENCE_LOAD_PAGE_SIZE, new ConfigPersistence.BulkLoadConsumer<PVTypeInfo>() {
+				@Override
+				public void consume(Map<String, PVTypeInfo> page) throws IOException {
+					HashMap<String, PVTypeInfo> newTypeInfos = new HashMap<String, PVTypeInfo>();
+					HashMap<String, ApplianceInfo> newPVMappings = new HashMap<String, ApplianceInfo>();
+					for(PVTypeInfo typeInfo : page.values()) {
+						if(typeInfo.getApplianceIdentity().equals(myIdentity)) {
+							// Here's where we put schema update logic
+							upgradeTypeInfo(typeInfo, upgradedPVs);
+							
+							String pvName = typeInfo.getPvName();
+							newTypeInfos.put(pvName, typeInfo);
+							newPVMappings.put(pvName, appliances.get(typeInfo.getApplianceIdentity()));
+							pvsForThisAppliance.add(pvName);
+							if(typeInfo.isPaused()) { 
+								pausedPVsForThisAppliance.add(pvName);
+							}
+							pvNameIndexForThisAppliance.add(pvName);
 						}
-						parts2PVNamesForThisAppliance.get(part).add(pvName);
 					}
 
-					objectCount++;
-				}
-				// Add in batch sizes of 1000 or so...
-				if(objectCount > 1000) {
-					this.typeInfos.putAll(newTypeInfos);
-					this.pv2appliancemapping.putAll(newPVMappings);
-					for(String pvName : newTypeInfos.keySet()) {
-						applianceAggregateInfo.addInfoForPV(pvName, newTypeInfos.get(pvName), this);
+					if(newTypeInfos.size() > 0) {
+						typeInfos.putAll(newTypeInfos);
+						pv2appliancemapping.putAll(newPVMappings);
+						for(String pvName : newTypeInfos.keySet()) {
+							applianceAggregateInfo.addInfoForPV(pvName, newTypeInfos.get(pvName), DefaultConfigService.this);
+						}
+						clusterPVCount.addAndGet(newTypeInfos.size());
+						logger.debug("Adding next batch of PVs " + batch.getAndIncrement());
 					}
-					clusterPVCount += newTypeInfos.size();
-					newTypeInfos = new HashMap<String, PVTypeInfo>();
-					newPVMappings = new HashMap<String, ApplianceInfo>();
-					objectCount = 0;
-					logger.debug("Adding next batch of PVs " + batch++);
 				}
-			}
-
-			if(newTypeInfos.size() > 0) {
-				logger.debug("Adding final batch of PVs from persistence");
-				this.typeInfos.putAll(newTypeInfos);
-				this.pv2appliancemapping.putAll(newPVMappings);
-				for(String pvName : newTypeInfos.keySet()) {
-					applianceAggregateInfo.addInfoForPV(pvName, newTypeInfos.get(pvName), this);
-				}
-				clusterPVCount += newTypeInfos.size();
-			}
+			});
 
-			configlogger.info("Done loading " + + clusterPVCount + " PVs from persistence into cluster");
+			configlogger.info("Done loading " + clusterPVCount.get() + " PVs from persistence into cluster");
 			
 			for(String upgradedPVName : upgradedPVs) { 
 				logger.debug("PV " + upgradedPVName + "'s schema was upgraded");
@@ -1752,41 +1858,31 @@ public class DefaultConfigService implements ConfigService {
 	private void loadAliasesFromPersistence() {
 		try { 
 			configlogger.info("Loading aliases from persistence");
-			List<String> pvNamesFromPersistence = persistanceLayer.getAliasNamesToRealNamesKeys();
-			HashMap<String, String> newAliases = new HashMap<String, String>();
-			int objectCount = 0;
-			int batch = 0;
-			int clusterPVCount = 0;
-			for(String pvNameFromPersistence : pvNamesFromPersistence) {
-				String realName = persistanceLayer.getAliasNamesToRealName(pvNameFromPersistence);
-				if(this.pvsForThisAppliance.contains(realName)) {
-					newAliases.put(pvNameFromPersistence, realName);
-					// Add the alias into the trie
-					String[] parts = this.pvName2KeyConverter.breakIntoParts(pvNameFromPersistence);
-					for(String part : parts) { 
-						if(!parts2PVNamesForThisAppliance.containsKey(part)) { 
-							parts2PVNamesForThisAppliance.put(part, new ConcurrentSkipListSet<String>());
+			final AtomicInteger batch = new AtomicInteger(0);
+			final AtomicInteger clusterPVCount = new AtomicInteger(0);
+			persistanceLayer.getAllAliasNamesToRealNames(PERSISTENCE_LOAD_PAGE_SIZE, new ConfigPersistence.BulkLoadConsumer<String>() {
+				@Override
+				public void consume(Map<String, String> page) throws IOException {
+					HashMap<String, String> newAliases = new HashMap<String, String>();
+					for(Map.Entry<String, String> aliasFromPersistence : page.entrySet()) {
+						String pvNameFromPersistence = aliasFromPersistence.getKey();
+						String realName = aliasFromPersistence.getValue();
+						if(pvsForThisAppliance.contains(realName)) {
+							newAliases.put(pvNameFromPersistence, realName);
+							// Add the alias into the name index
+							pvNameIndexForThisAppliance.add(pvNameFromPersistence);
 						}
-						parts2PVNamesForThisAppliance.get(part).add(pvNameFromPersistence);
-					}					
-				}
-				// Add in batch sizes of 1000 or so...
-				if(objectCount > 1000) {
-					this.aliasNamesToRealNames.putAll(newAliases);
-					clusterPVCount += newAliases.size();
-					newAliases = new HashMap<String, String>();
-					objectCount = 0;
-					logger.debug("Adding next batch of aliases " + batch++);
-				}
-			}
+					}
 
-			if(newAliases.size() > 0) {
-				logger.debug("Adding final batch of aliases from persistence");
-				this.aliasNamesToRealNames.putAll(newAliases);
-				clusterPVCount += newAliases.size();
-			}
+					if(newAliases.size() > 0) {
+						aliasNamesToRealNames.putAll(newAliases);
+						clusterPVCount.addAndGet(newAliases.size());
+						logger.debug("Adding next batch of aliases " + batch.getAndIncrement());
+					}
+				}
+			});
 
-			configlogger.info("Done loading " + clusterPVCount + " aliases from persistence into cluster ");
+			configlogger.info("Done loading " + clusterPVCount.get() + " aliases from persistence into cluster ");
 		} catch(Exception ex) {
 			configlogger.error("Exception loading aliases from persistence", ex);
 		}
@@ -1801,32 +1897,19 @@ public class DefaultConfigService implements ConfigService {
 	private void loadArchiveRequestsFromPersistence() throws ConfigException {
 		try { 
 			configlogger.info("Loading archive requests from persistence");
-			List<String> pvNamesFromPersistence = persistanceLayer.getArchivePVRequestsKeys();
-			HashMap<String, UserSpecifiedSamplingParams> newArchiveRequests = new HashMap<String, UserSpecifiedSamplingParams>();
-			int objectCount = 0;
-			int batch = 0;
-			int clusterPVCount = 0;
-			for(String pvNameFromPersistence : pvNamesFromPersistence) {
-				UserSpecifiedSamplingParams userSpecifiedParams = persistanceLayer.getArchivePVRequest(pvNameFromPersistence);
-				// We should not need to add an appliance check here.. However, if after production deployment, we determine we need to do so; this is the right place.
-				newArchiveRequests.put(pvNameFromPersistence, userSpecifiedParams);
-				// Add in batch sizes of 1000 or so...
-				if(objectCount > 1000) {
-					this.archivePVRequests.putAll(newArchiveRequests);
-					clusterPVCount += newArchiveRequests.size();
-					newArchiveRequests = new HashMap<String, UserSpecifiedSamplingParams>();
-					objectCount = 0;
-					logger.debug("Adding next batch of archive pv requests " + batch++);
+			final AtomicInteger batch = new AtomicInteger(0);
+			final AtomicInteger clusterPVCount = new AtomicInteger(0);
+			persistanceLayer.getAllArchivePVRequests(PERSISTENCE_LOAD_PAGE_SIZE, new ConfigPersistence.BulkLoadConsumer<UserSpecifiedSamplingParams>() {
+				@Override
+				public void consume(Map<String, UserSpecifiedSamplingParams> page) throws IOException {
+					// We should not need to add an appliance check here.. However, if after production deployment, we determine we need to do so; this is the right place.
+					archivePVRequests.putAll(page);
+					clusterPVCount.addAndGet(page.size());
+					logger.debug("Adding next batch of archive pv requests " + batch.getAndIncrement());
 				}
-			}
-
-			if(newArchiveRequests.size() > 0) {
-				logger.debug("Adding final batch of archive pv requests from persistence");
-				this.archivePVRequests.putAll(newArchiveRequests);
-				clusterPVCount += newArchiveRequests.size();
-			}
+			});
 
-			configlogger.info("Done loading " + clusterPVCount + " archive pv requests from persistence into cluster ");
+			configlogger.info("Done loading " + clusterPVCount.get() + " archive pv requests from persistence into cluster ");
 		} catch(Exception ex) {
 			configlogger.error("Exception loading archive pv requests from persistence", ex);
 		}
@@ -1854,6 +1937,27 @@ public class DefaultConfigService implements ConfigService {
 				throw new ConfigException("Exception initializing persistence layer using " + persistenceFromEnv, ex);
 			}
 		}
+
+		long writeBehindMillis = Long.parseLong(this.getInstallationProperties().getProperty("org.epics.archiverappliance.config.DefaultConfigService.persistenceWriteBehindMillis", "500"));
+		int writeBatchSize = Integer.parseInt(this.getInstallationProperties().getProperty("org.epics.archiverappliance.config.DefaultConfigService.persistenceWriteBatchSize", "1000"));
+		if(writeBehindMillis <= 0) {
+			configlogger.info("Changes are written to the persistence layer as they happen");
+			return;
+		}
+		persistenceWriteBehind = new WriteBehindPersistence(persistanceLayer, writeBehindMillis, writeBatchSize);
+		persistanceLayer = persistenceWriteBehind;
+		// Changes to the typeinfos come in from the cluster; so we flush after the clustering instance has been shut down.
+		shutdownHooks.add(0, new Runnable() {
+			@Override
+			public void run() {
+				logger.debug("Flushing the changes queued up for the persistence layer");
+				try {
+					persistenceWriteBehind.close();
+				} catch(IOException ex) {
+					logger.error("Exception flushing the changes queued up for the persistence layer", ex);
+				}
+			}
+		});
 	}
 
 	public ProcessMetrics getProcessMetrics() {
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+import org.epics.archiverappliance.common.OpenMetricsWriter;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.IMap;
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+import com.hazelcast.map.listener.EntryUpdatedListener;
+import com.hazelcast.map.listener.MapListener;
+
+/**
+ * A local cache in front of one of the cluster maps.
+ * Most lookups into the cluster maps (typeinfos, pv2appliancemapping) are for the same PVs over and over again; for PVs whose entries live on another member, each lookup is a network round trip.
+ * Entries are invalidated using the listener from {@link #getInvalidationListener()} when they change anywhere in the cluster.
+ * Changes made in this JVM should also call {@link #invalidate(String)} as the cluster events are delivered asynchronously.
+ * Entries also expire a while after they are cached to bound how stale we can get if we miss an event (for example, on a reconnect).
+ * <p>
+ * Values that callers change in place (for example, PVTypeInfo) should use copyOnRead; we then cache the serialized form and each lookup gets its own copy, just like a lookup into the cluster map.
+ * Otherwise, the cached objects are shared between callers and should not be changed.
+ * We do not cache misses.
+ * @author mshankar
+ *
+ * @param <V>
+ */
+public class NearCache<V> {
+	private static Logger logger = Logger.getLogger(NearCache.class.getName());
+	private final String name;
+	private final Map<String, V> clusterMap;
+	private final boolean copyOnRead;
+	/**
+	 * Holds the values; or their serialized forms if copyOnRead.
+	 */
+	private final Cache<String, Object> localCache;
+	/**
+	 * Incremented on each invalidation; used for the metrics.
+	 */
+	private final AtomicLong invalidations = new AtomicLong(0);
+	/**
+	 * Versions for the keys, striped on the hash of the key, incremented when a key in the stripe is invalidated.
+	 * A lookup that spans an invalidation of its key does not leave what it got from the cluster map in the cache as it could be stale.
+	 * Striping bounds the memory used and an invalidation only affects the keys in its stripe.
+	 */
+	private static final int VERSION_STRIPES = 1024;
+	private final AtomicLongArray keyVersions = new AtomicLongArray(VERSION_STRIPES);
+	/**
+	 * Incremented on each invalidateAll.
+	 */
+	private final AtomicLong invalidateAllVersion = new AtomicLong(0);
+
+	/**
+	 * @param name - Used in the metrics; typically the name of the cluster map.
+	 * @param clusterMap
+	 * @param maximumSize - Maximum number of entries we cache locally.
+	 * @param expireAfterSeconds - Cached entries expire this long after they are cached.
+	 */
+	public NearCache(String name, Map<String, V> clusterMap, long maximumSize, long expireAfterSeconds) {
+		this(name, clusterMap, maximumSize, expireAfterSeconds, false);
+	}
+
+	/**
+	 * @param name - Used in the metrics; typically the name of the cluster map.
+	 * @param clusterMap
+	 * @param maximumSize - Maximum number of entries we cache locally.
+	 * @param expireAfterSeconds - Cached entries expire this long after they are cached.
+	 * @param copyOnRead - If true, the values are cached in serialized form and each lookup returns a new copy. The values must be Serializable.
+	 */
+	public NearCache(String name, Map<String, V> clusterMap, long maximumSize, long expireAfterSeconds, boolean copyOnRead) {
+		this.name = name;
+		this.clusterMap = clusterMap;
+		this.copyOnRead = copyOnRead;
+		this.localCache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(expireAfterSeconds, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+		logger.info("Near cache for " + name + " caches up to " + maximumSize + " entries for " + expireAfterSeconds + " seconds" + (copyOnRead ? " in serialized form" : ""));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * One lookup into the local cache and, on a miss, one lookup into the cluster map.
+	 * @param key
+	 * @return The value or null if the cluster map does not have this key.
+	 */
+	public V get(String key) {
+		Object cached = localCache.getIfPresent(key);
+		if(cached != null) {
+			V value = fromCached(key, cached);
+			if(value != null) return value;
+		}
+		long versionBefore = versionOf(key);
+		V value = clusterMap.get(key);
+		if(value != null) {
+			cacheIfNotInvalidated(key, value, versionBefore);
+		}
+		return value;
+	}
+
+	/**
+	 * Load the keys that are not already in the local cache using one bulk lookup into the cluster map.
+	 * Use this before looping over many keys.
+	 * @param keys
+	 */
+	@SuppressWarnings("unchecked")
+	public void prefetch(Collection<String> keys) {
+		Map<String, Long> missingKeys = new HashMap<String, Long>();
+		for(String key : keys) {
+			if(key != null && localCache.getIfPresent(key) == null) {
+				missingKeys.put(key, versionOf(key));
+			}
+		}
+		if(missingKeys.isEmpty()) return;
+		Map<String, V> values;
+		if(clusterMap instanceof IMap) {
+			values = ((IMap<String, V>) clusterMap).getAll(missingKeys.keySet());
+		} else {
+			values = new HashMap<String, V>();
+			for(String key : missingKeys.keySet()) {
+				V value = clusterMap.get(key);
+				if(value != null) values.put(key, value);
+			}
+		}
+		for(Map.Entry<String, V> entry : values.entrySet()) {
+			cacheIfNotInvalidated(entry.getKey(), entry.getValue(), missingKeys.get(entry.getKey()));
+		}
+		logger.debug("Prefetched " + values.size() + " of " + missingKeys.size() + " entries into the near cache for " + name);
+	}
+
+	private long versionOf(String key) {
+		return keyVersions.get(stripe(key)) + invalidateAllVersion.get();
+	}
+
+	private static int stripe(String key) {
+		return (key.hashCode() & 0x7fffffff) % VERSION_STRIPES;
+	}
+
+	/**
+	 * Cache a value we got from the cluster map unless the key was invalidated since versionBefore.
+	 * We check again after the put; invalidate bumps the version before it removes the entry, so either we see the new version here and remove what we put or the invalidation removes it.
+	 */
+	private void cacheIfNotInvalidated(String key, V value, long versionBefore) {
+		if(versionOf(key) != versionBefore) return;
+		cache(key, value);
+		if(versionOf(key) != versionBefore) {
+			localCache.invalidate(key);
+		}
+	}
+
+	private void cache(String key, V value) {
+		if(!copyOnRead) {
+			localCache.put(key, value);
+			return;
+		}
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			try(ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+				oos.writeObject(value);
+			}
+			localCache.put(key, bos.toByteArray());
+		} catch(IOException ex) {
+			logger.error("Not caching the value for " + key + " in the near cache for " + name, ex);
+		}
+	}
+
+	/**
+	 * @return The cached value; a new copy if copyOnRead. Null if we cannot deserialize the cached value; the caller then looks it up in the cluster map.
+	 */
+	@SuppressWarnings("unchecked")
+	private V fromCached(String key, Object cached) {
+		if(!copyOnRead) return (V) cached;
+		try(ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream((byte[]) cached))) {
+			return (V) ois.readObject();
+		} catch(IOException | ClassNotFoundException ex) {
+			logger.error("Exception deserializing the cached value for " + key + " in the near cache for " + name, ex);
+			localCache.invalidate(key);
+			return null;
+		}
+	}
+
+	public void invalidate(String key) {
+		invalidations.incrementAndGet();
+		keyVersions.incrementAndGet(stripe(key));
+		localCache.invalidate(key);
+	}
+
+	public void invalidateAll() {
+		invalidations.incrementAndGet();
+		invalidateAllVersion.incrementAndGet();
+		localCache.invalidateAll();
+	}
+
+	public long size() {
+		return localCache.size();
+	}
+
+	public CacheStats getStats() {
+		return localCache.stats();
+	}
+
+	/**
+	 * @return A listener that should be added to the cluster map (without values) to invalidate entries as they change in the cluster.
+	 */
+	public MapListener getInvalidationListener() {
+		return new InvalidationListener();
+	}
+
+	private class InvalidationListener implements EntryAddedListener<String, V>, EntryUpdatedListener<String, V>, EntryRemovedListener<String, V>, EntryEvictedListener<String, V> {
+		@Override
+		public void entryAdded(EntryEvent<String, V> event) {
+			invalidate(event.getKey());
+		}
+
+		@Override
+		public void entryUpdated(EntryEvent<String, V> event) {
+			invalidate(event.getKey());
+		}
+
+		@Override
+		public void entryRemoved(EntryEvent<String, V> event) {
+			invalidate(event.getKey());
+		}
+
+		@Override
+		public void entryEvicted(EntryEvent<String, V> event) {
+			invalidate(event.getKey());
+		}
+	}
+
+	/**
+	 * Write the hit/miss counts and sizes for the near caches.
+	 * @param metrics
+	 * @param nearCaches
+	 */
+	public static void writeOpenMetrics(OpenMetricsWriter metrics, List<NearCache<?>> nearCaches) {
+		if(nearCaches.isEmpty()) return;
+		metrics.family("config_nearcache_hits_total", "counter", "Lookups into the cluster maps that were served from the local near cache");
+		for(NearCache<?> nearCache : nearCaches) {
+			metrics.sample("config_nearcache_hits_total", "map", nearCache.name, nearCache.getStats().hitCount());
+		}
+		metrics.family("config_nearcache_misses_total", "counter", "Lookups into the cluster maps that were not in the local near cache");
+		for(NearCache<?> nearCache : nearCaches) {
+			metrics.sample("config_nearcache_misses_total", "map", nearCache.name, nearCache.getStats().missCount());
+		}
+		metrics.family("config_nearcache_evictions_total", "counter", "Entries evicted from the local near cache because of size or expiry");
+		for(NearCache<?> nearCache : nearCaches) {
+			metrics.sample("config_nearcache_evictions_total", "map", nearCache.name, nearCache.getStats().evictionCount());
+		}
+		metrics.family("config_nearcache_invalidations_total", "counter", "Entries invalidated in the local near cache because they changed in the cluster");
+		for(NearCache<?> nearCache : nearCaches) {
+			metrics.sample("config_nearcache_invalidations_total", "map", nearCache.name, nearCache.invalidations.get());
+		}
+		metrics.family("config_nearcache_entries", "gauge", "Entries in the local near cache");
+		for(NearCache<?> nearCache : nearCaches) {
+			metrics.sample("config_nearcache_entries", "map", nearCache.name, nearCache.size());
+		}
+	}
+
+	/**
+	 * Convenience method to get a list of near caches that skips the ones that are not configured.
+	 */
+	static List<NearCache<?>> asList(NearCache<?>... nearCaches) {
+		List<NearCache<?>> ret = new ArrayList<NearCache<?>>();
+		for(NearCache<?> nearCache : nearCaches) {
+			if(nearCache != null) ret.add(nearCache);
+		}
+		return ret;
+	}
+}
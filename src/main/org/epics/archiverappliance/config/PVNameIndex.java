@@ -0,0 +1,452 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An index of PV names used to answer glob and regex searches without matching the regex against every name.
+ * <ol>
+ * <li>Each name is given an integer id; for each trigram (3 consecutive chars) we maintain a sorted list of the ids of the names that contain the trigram.</li>
+ * <li>The names are also kept sorted so that we can answer prefix searches using a range.</li>
+ * </ol>
+ * To answer a regex search, we work out the literal strings that any matching name must contain (and the literal prefix if the regex starts with one).
+ * The candidates are the names that contain all the trigrams of these literals (or the names in the prefix range); only the candidates are matched against the regex.
+ * Regexes that have no usable literals (for example, <code>.*</code> or top level alternations) fall back to matching every name.
+ * <p>
+ * The index is maintained incrementally as names are added and removed.
+ * Ids of removed names are not reused; once more than half the ids are unused, the postings are rebuilt.
+ *
+ * @author mshankar
+ *
+ */
+public class PVNameIndex {
+	private static Logger logger = Logger.getLogger(PVNameIndex.class.getName());
+	private static final int GRAM_LENGTH = 3;
+	/** Once the candidates have been narrowed down this far, we stop intersecting postings and match the regex */
+	private static final int SMALL_ENOUGH_CANDIDATES = 64;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	// All the state below is guarded by lock
+	private final TreeSet<String> sortedNames = new TreeSet<String>();
+	private final HashMap<String, Integer> nameToId = new HashMap<String, Integer>();
+	/** Null for removed names */
+	private final ArrayList<String> idToName = new ArrayList<String>();
+	private final HashMap<String, Postings> gramPostings = new HashMap<String, Postings>();
+
+	/**
+	 * Add a name to the index; adding a name that is already in the index does nothing.
+	 * @param name
+	 */
+	public void add(String name) {
+		lock.writeLock().lock();
+		try {
+			if(nameToId.containsKey(name)) return;
+			int id = idToName.size();
+			idToName.add(name);
+			nameToId.put(name, id);
+			sortedNames.add(name);
+			for(String gram : gramsOf(name)) {
+				Postings postings = gramPostings.get(gram);
+				if(postings == null) {
+					postings = new Postings();
+					gramPostings.put(gram, postings);
+				}
+				postings.append(id);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void remove(String name) {
+		lock.writeLock().lock();
+		try {
+			Integer id = nameToId.remove(name);
+			if(id == null) return;
+			idToName.set(id, null);
+			sortedNames.remove(name);
+			for(String gram : gramsOf(name)) {
+				Postings postings = gramPostings.get(gram);
+				if(postings != null) {
+					postings.remove(id);
+					if(postings.size == 0) gramPostings.remove(gram);
+				}
+			}
+			if(idToName.size() > 1024 && nameToId.size() < idToName.size()/2) {
+				rebuild();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public boolean contains(String name) {
+		lock.readLock().lock();
+		try {
+			return nameToId.containsKey(name);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return nameToId.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the names that match (as in {@link java.util.regex.Matcher#matches()}) this regex.
+	 * @param regex - A Java regex; globs should be converted using {@link #globToRegex(String)}
+	 * @param limit - Stop after finding these many names; -1 for all the matching names.
+	 * @return The matching names, sorted.
+	 */
+	public TreeSet<String> getMatchingNames(String regex, int limit) {
+		Pattern pattern = Pattern.compile(regex);
+		RegexLiterals literals = RegexLiterals.parse(regex);
+		TreeSet<String> ret = new TreeSet<String>();
+		lock.readLock().lock();
+		try {
+			if(literals.exact) {
+				if(nameToId.containsKey(literals.prefix)) ret.add(literals.prefix);
+				return ret;
+			}
+
+			int[] candidateIds = gramCandidates(literals.literals);
+			if(candidateIds != null) {
+				logger.debug("Matching " + regex + " against " + candidateIds.length + " names using trigrams");
+				for(int candidateId : candidateIds) {
+					String name = idToName.get(candidateId);
+					if(name.startsWith(literals.prefix) && pattern.matcher(name).matches()) {
+						ret.add(name);
+					}
+				}
+				// The candidates are not in sorted order; so we apply the limit after matching.
+				while(limit != -1 && ret.size() > limit) {
+					ret.pollLast();
+				}
+				return ret;
+			}
+
+			Set<String> namesToMatch = sortedNames;
+			if(!literals.prefix.isEmpty()) {
+				namesToMatch = sortedNames.subSet(literals.prefix, true, literals.prefix + Character.MAX_VALUE, false);
+				logger.debug("Matching " + regex + " against the names starting with " + literals.prefix);
+			} else {
+				logger.debug("Matching " + regex + " against all " + sortedNames.size() + " names");
+			}
+			for(String name : namesToMatch) {
+				if(pattern.matcher(name).matches()) {
+					ret.add(name);
+					if(limit != -1 && ret.size() >= limit) break;
+				}
+			}
+			return ret;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Convert a glob (<code>*</code> and <code>?</code>) into a regex; all other characters are matched literally.
+	 * @param glob
+	 * @return
+	 */
+	public static String globToRegex(String glob) {
+		StringBuilder buf = new StringBuilder(glob.length() + 8);
+		for(int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if(c == '*') {
+				buf.append(".*");
+			} else if(c == '?') {
+				buf.append('.');
+			} else if(Character.isLetterOrDigit(c) || c == '_' || c > 127) {
+				buf.append(c);
+			} else {
+				buf.append('\\').append(c);
+			}
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * Intersect the postings for all the trigrams in the literals.
+	 * @return The ids of the names that contain all the trigrams or null if the literals are too short to use the trigrams.
+	 */
+	private int[] gramCandidates(List<String> literals) {
+		HashSet<String> grams = new HashSet<String>();
+		for(String literal : literals) {
+			grams.addAll(gramsOf(literal));
+		}
+		if(grams.isEmpty()) return null;
+		List<Postings> postingsToIntersect = new ArrayList<Postings>(grams.size());
+		for(String gram : grams) {
+			Postings postings = gramPostings.get(gram);
+			if(postings == null) return new int[0];
+			postingsToIntersect.add(postings);
+		}
+		// Start with the smallest postings; the intersection only gets smaller.
+		Collections.sort(postingsToIntersect, new Comparator<Postings>() {
+			@Override
+			public int compare(Postings p1, Postings p2) {
+				return Integer.compare(p1.size, p2.size);
+			}
+		});
+		int[] candidates = Arrays.copyOf(postingsToIntersect.get(0).ids, postingsToIntersect.get(0).size);
+		for(int i = 1; i < postingsToIntersect.size() && candidates.length > SMALL_ENOUGH_CANDIDATES; i++) {
+			candidates = postingsToIntersect.get(i).intersect(candidates);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Assign new ids to the names; this is called holding the write lock.
+	 */
+	private void rebuild() {
+		logger.debug("Rebuilding the name index for " + nameToId.size() + " names after removing " + (idToName.size() - nameToId.size()));
+		ArrayList<String> names = new ArrayList<String>(sortedNames);
+		idToName.clear();
+		nameToId.clear();
+		sortedNames.clear();
+		gramPostings.clear();
+		for(String name : names) {
+			int id = idToName.size();
+			idToName.add(name);
+			nameToId.put(name, id);
+			sortedNames.add(name);
+			for(String gram : gramsOf(name)) {
+				Postings postings = gramPostings.get(gram);
+				if(postings == null) {
+					postings = new Postings();
+					gramPostings.put(gram, postings);
+				}
+				postings.append(id);
+			}
+		}
+	}
+
+	private static HashSet<String> gramsOf(String str) {
+		HashSet<String> grams = new HashSet<String>();
+		for(int i = 0; i + GRAM_LENGTH <= str.length(); i++) {
+			grams.add(str.substring(i, i + GRAM_LENGTH));
+		}
+		return grams;
+	}
+
+	/**
+	 * A sorted list of ids; new names get increasing ids so adding is an append.
+	 */
+	private static class Postings {
+		int[] ids = new int[4];
+		int size = 0;
+
+		void append(int id) {
+			if(size == ids.length) {
+				ids = Arrays.copyOf(ids, size*2);
+			}
+			ids[size++] = id;
+		}
+
+		void remove(int id) {
+			int index = Arrays.binarySearch(ids, 0, size, id);
+			if(index < 0) return;
+			System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+			size--;
+		}
+
+		/**
+		 * @param sortedIds
+		 * @return The ids in sortedIds that are also in this list.
+		 */
+		int[] intersect(int[] sortedIds) {
+			int[] ret = new int[Math.min(size, sortedIds.length)];
+			int count = 0;
+			int i = 0, j = 0;
+			while(i < size && j < sortedIds.length) {
+				if(ids[i] < sortedIds[j]) {
+					i++;
+				} else if(ids[i] > sortedIds[j]) {
+					j++;
+				} else {
+					ret[count++] = ids[i];
+					i++;
+					j++;
+				}
+			}
+			return Arrays.copyOf(ret, count);
+		}
+	}
+
+	/**
+	 * The literal strings that any name matching a regex must contain.
+	 * We are conservative; anything we do not understand ends the current literal and constructs that can change the meaning of the whole regex (top level alternations, flags, quoting) give us no literals at all.
+	 * So do escapes that take arguments (hex, unicode and octal escapes, \k&lt;name&gt;, \cX, \p{...} etc); only the escapes in SINGLE_CHAR_ESCAPES are allowed.
+	 */
+	static class RegexLiterals {
+		/** Escapes that match a single char (or are zero width) and take no arguments; for example, \d or \b */
+		private static final String SINGLE_CHAR_ESCAPES = "dDsSwWhHvVbBAGzZ";
+
+		/** The regex has to match a name that starts with this; empty if there is no such prefix */
+		String prefix = "";
+		List<String> literals = new LinkedList<String>();
+		/** The regex is a plain string with no special chars; prefix is the string */
+		boolean exact = false;
+
+		static RegexLiterals parse(String regex) {
+			RegexLiterals ret = new RegexLiterals();
+			if(regex.contains("(?") || regex.contains("\\Q")) return ret;
+			StringBuilder run = new StringBuilder();
+			boolean atStart = true;
+			int i = 0;
+			while(i < regex.length()) {
+				char c = regex.charAt(i);
+				switch(c) {
+				case '\\':
+					if(i + 1 >= regex.length()) return new RegexLiterals();
+					char escaped = regex.charAt(i + 1);
+					if(Character.isLetterOrDigit(escaped)) {
+						// Character classes like \d are fine; for anything else (back references, escapes with arguments and so on), we give up.
+						if(SINGLE_CHAR_ESCAPES.indexOf(escaped) < 0) return new RegexLiterals();
+						atStart = ret.endRun(run, atStart);
+					} else {
+						run.append(escaped);
+					}
+					i += 2;
+					continue;
+				case '[':
+					i = skipCharClass(regex, i);
+					if(i < 0) return new RegexLiterals();
+					atStart = ret.endRun(run, atStart);
+					continue;
+				case '(':
+					i = skipGroup(regex, i);
+					if(i < 0) return new RegexLiterals();
+					atStart = ret.endRun(run, atStart);
+					continue;
+				case ')':
+				case '|':
+					return new RegexLiterals();
+				case '*':
+				case '?':
+				case '{':
+					// The previous char is optional (or we do not bother working out how many times it repeats)
+					if(run.length() > 0) run.setLength(run.length() - 1);
+					atStart = ret.endRun(run, atStart);
+					if(c == '{') {
+						int end = regex.indexOf('}', i);
+						if(end < 0) return new RegexLiterals();
+						i = end + 1;
+						continue;
+					}
+					break;
+				case '^':
+					if(i != 0) atStart = ret.endRun(run, atStart);
+					break;
+				case '+':
+				case '.':
+				case '$':
+					atStart = ret.endRun(run, atStart);
+					break;
+				default:
+					run.append(c);
+				}
+				i++;
+			}
+			if(atStart) {
+				ret.prefix = run.toString();
+				ret.exact = true;
+				return ret;
+			}
+			ret.endRun(run, atStart);
+			return ret;
+		}
+
+		/**
+		 * End the current run of literal chars.
+		 * @return The new value of atStart; the first run is also the prefix.
+		 */
+		private boolean endRun(StringBuilder run, boolean atStart) {
+			if(run.length() > 0) {
+				String literal = run.toString();
+				literals.add(literal);
+				if(atStart) prefix = literal;
+				run.setLength(0);
+			}
+			return false;
+		}
+
+		/**
+		 * @return The index after the closing ] or -1 if there is none.
+		 */
+		private static int skipCharClass(String regex, int start) {
+			int i = start + 1;
+			if(i < regex.length() && regex.charAt(i) == '^') i++;
+			// A ] right at the start is a literal ]
+			if(i < regex.length() && regex.charAt(i) == ']') i++;
+			int depth = 1;
+			while(i < regex.length()) {
+				char c = regex.charAt(i);
+				if(c == '\\') {
+					i += 2;
+					continue;
+				}
+				if(c == '[') depth++;
+				if(c == ']') {
+					depth--;
+					if(depth == 0) return i + 1;
+				}
+				i++;
+			}
+			return -1;
+		}
+
+		/**
+		 * @return The index after the matching ) or -1 if there is none.
+		 */
+		private static int skipGroup(String regex, int start) {
+			int depth = 0;
+			int i = start;
+			while(i < regex.length()) {
+				char c = regex.charAt(i);
+				if(c == '\\') {
+					i += 2;
+					continue;
+				}
+				if(c == '[') {
+					i = skipCharClass(regex, i);
+					if(i < 0) return -1;
+					continue;
+				}
+				if(c == '(') depth++;
+				if(c == ')') {
+					depth--;
+					if(depth == 0) return i + 1;
+				}
+				i++;
+			}
+			return -1;
+		}
+	}
+}
@@ -10,6 +10,7 @@ public class PVTypeInfoEvent {
 	private String pvName;
 	private PVTypeInfo typeInfo;
 	private ChangeType changeType;
+	private PVTypeInfo oldTypeInfo;
 	
 	public PVTypeInfoEvent(String pvName, PVTypeInfo typeInfo, ChangeType changeType) {
 		this.pvName = pvName;
@@ -17,6 +18,11 @@ public class PVTypeInfoEvent {
 		this.changeType = changeType;
 	}
 
+	public PVTypeInfoEvent(String pvName, PVTypeInfo typeInfo, ChangeType changeType, PVTypeInfo oldTypeInfo) {
+		this(pvName, typeInfo, changeType);
+		this.oldTypeInfo = oldTypeInfo;
+	}
+
 	public String getPvName() {
 		return pvName;
 	}
@@ -28,4 +34,11 @@ public class PVTypeInfoEvent {
 	public ChangeType getChangeType() {
 		return changeType;
 	}
+
+	/**
+	 * @return The typeinfo before the change for TYPEINFO_MODIFIED events; null otherwise.
+	 */
+	public PVTypeInfo getOldTypeInfo() {
+		return oldTypeInfo;
+	}
 }
@@ -0,0 +1,125 @@
+package org.epics.archiverappliance.config.persistence;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+import org.epics.archiverappliance.config.ConfigPersistence.BulkLoadConsumer;
+import org.epics.archiverappliance.utils.ui.JSONDecoder;
+
+/**
+ * Used by the persistence layers to implement the bulk load methods.
+ * The persistence layer fetches the JSON strings a page at a time and adds them here.
+ * The pages are parsed and decoded in parallel while the persistence layer goes on to fetch the next page.
+ * Decoded pages are handed over to the consumer in the order in which they were added, on the thread that adds the pages.
+ * We limit the number of pages in flight so that we do not hold the entire config in memory as JSON strings.
+ * @author mshankar
+ *
+ * @param <T>
+ */
+class BulkLoadDecoder<T> implements AutoCloseable {
+	private static Logger logger = Logger.getLogger(BulkLoadDecoder.class.getName());
+	private final Class<T> clazz;
+	private final JSONDecoder<T> decoder;
+	private final BulkLoadConsumer<T> consumer;
+	private final ExecutorService decodingThreads;
+	private final int maxPagesInFlight;
+	private final LinkedList<Future<LinkedHashMap<String, T>>> pagesInFlight = new LinkedList<Future<LinkedHashMap<String, T>>>();
+	private int totalDecoded = 0;
+
+	BulkLoadDecoder(Class<T> clazz, BulkLoadConsumer<T> consumer) throws IOException {
+		this.clazz = clazz;
+		this.consumer = consumer;
+		try {
+			// The decoder does all its introspection in the constructor; after that it can be shared between threads.
+			this.decoder = JSONDecoder.getDecoder(clazz);
+		} catch(Exception ex) {
+			throw new IOException("Cannot create a JSON decoder for " + clazz.getName(), ex);
+		}
+		final String threadNamePrefix = "Bulk load of " + clazz.getSimpleName() + " ";
+		int threadCount = Math.max(1, Runtime.getRuntime().availableProcessors());
+		this.maxPagesInFlight = threadCount*2;
+		this.decodingThreads = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			private int threadNumber = 0;
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, threadNamePrefix + threadNumber++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Add a page of JSON strings; the caller should not change the page after it has been added.
+	 * This may block until the oldest pages in flight have been decoded and handed over to the consumer.
+	 * @param jsonPage - Map of key to JSON string in the order in which the consumer should see them.
+	 * @throws IOException
+	 */
+	void addPage(final LinkedHashMap<String, String> jsonPage) throws IOException {
+		if(jsonPage.isEmpty()) return;
+		pagesInFlight.add(decodingThreads.submit(new Callable<LinkedHashMap<String, T>>() {
+			@Override
+			public LinkedHashMap<String, T> call() throws Exception {
+				return decodePage(jsonPage);
+			}
+		}));
+		while(pagesInFlight.size() > maxPagesInFlight) {
+			handOverOldestPage();
+		}
+	}
+
+	/**
+	 * Wait for all the pages in flight to be decoded and handed over to the consumer.
+	 * @throws IOException
+	 */
+	void finish() throws IOException {
+		while(!pagesInFlight.isEmpty()) {
+			handOverOldestPage();
+		}
+		logger.debug("Done bulk loading " + totalDecoded + " objects of type " + clazz.getName());
+	}
+
+	@Override
+	public void close() {
+		for(Future<LinkedHashMap<String, T>> pageInFlight : pagesInFlight) {
+			pageInFlight.cancel(true);
+		}
+		pagesInFlight.clear();
+		decodingThreads.shutdownNow();
+	}
+
+	private void handOverOldestPage() throws IOException {
+		Future<LinkedHashMap<String, T>> oldestPage = pagesInFlight.removeFirst();
+		LinkedHashMap<String, T> decodedPage;
+		try {
+			decodedPage = oldestPage.get();
+		} catch(InterruptedException ex) {
+			throw new IOException("Interrupted when bulk loading objects of type " + clazz.getName(), ex);
+		} catch(ExecutionException ex) {
+			throw new IOException("Exception decoding objects of type " + clazz.getName(), ex.getCause());
+		}
+		totalDecoded += decodedPage.size();
+		consumer.consume(decodedPage);
+	}
+
+	private LinkedHashMap<String, T> decodePage(LinkedHashMap<String, String> jsonPage) throws Exception {
+		LinkedHashMap<String, T> decodedPage = new LinkedHashMap<String, T>(jsonPage.size()*2);
+		for(Map.Entry<String, String> entry : jsonPage.entrySet()) {
+			String jsonStr = entry.getValue();
+			if(jsonStr == null) continue;
+			T obj = clazz.getDeclaredConstructor().newInstance();
+			decoder.decode(jsonStr, obj);
+			decodedPage.put(entry.getKey(), obj);
+		}
+		return decodedPage;
+	}
+}
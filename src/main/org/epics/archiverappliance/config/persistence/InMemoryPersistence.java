@@ -1,8 +1,10 @@
 package org.epics.archiverappliance.config.persistence;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.epics.archiverappliance.config.ConfigPersistence;
@@ -41,6 +43,16 @@ public class InMemoryPersistence implements ConfigPersistence {
 		typeInfos.remove(pvName);
 	}
 
+	@Override
+	public void getAllTypeInfos(int pageSize, BulkLoadConsumer<PVTypeInfo> consumer) throws IOException {
+		getAll(typeInfos, pageSize, consumer);
+	}
+
+	@Override
+	public void putTypeInfos(Map<String, PVTypeInfo> changes) throws IOException {
+		putAll(typeInfos, changes);
+	}
+
 
 	@Override
 	public List<String> getArchivePVRequestsKeys() throws IOException {
@@ -62,6 +74,16 @@ public class InMemoryPersistence implements ConfigPersistence {
 		archivePVRequests.remove(pvName);
 	}
 
+	@Override
+	public void getAllArchivePVRequests(int pageSize, BulkLoadConsumer<UserSpecifiedSamplingParams> consumer) throws IOException {
+		getAll(archivePVRequests, pageSize, consumer);
+	}
+
+	@Override
+	public void putArchivePVRequests(Map<String, UserSpecifiedSamplingParams> changes) throws IOException {
+		putAll(archivePVRequests, changes);
+	}
+
 	@Override
 	public List<String> getExternalDataServersKeys() throws IOException {
 		return new LinkedList<String>(externalDataServersKeys.keySet());
@@ -102,4 +124,38 @@ public class InMemoryPersistence implements ConfigPersistence {
 	public void removeAliasName(String pvName, String realName) throws IOException { 
 		aliasNamesToRealNames.remove(pvName);
 	}
+
+	@Override
+	public void getAllAliasNamesToRealNames(int pageSize, BulkLoadConsumer<String> consumer) throws IOException {
+		getAll(aliasNamesToRealNames, pageSize, consumer);
+	}
+
+	@Override
+	public void putAliasNamesToRealNames(Map<String, String> changes) throws IOException {
+		putAll(aliasNamesToRealNames, changes);
+	}
+
+	private static <T> void getAll(ConcurrentHashMap<String, T> map, int pageSize, BulkLoadConsumer<T> consumer) throws IOException {
+		LinkedHashMap<String, T> page = new LinkedHashMap<String, T>();
+		for(Map.Entry<String, T> entry : map.entrySet()) {
+			page.put(entry.getKey(), entry.getValue());
+			if(page.size() >= pageSize) {
+				consumer.consume(page);
+				page = new LinkedHashMap<String, T>();
+			}
+		}
+		if(!page.isEmpty()) {
+			consumer.consume(page);
+		}
+	}
+
+	private static <T> void putAll(ConcurrentHashMap<String, T> map, Map<String, T> changes) {
+		for(Map.Entry<String, T> entry : changes.entrySet()) {
+			if(entry.getValue() == null) {
+				map.remove(entry.getKey());
+			} else {
+				map.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
 }
@@ -1,8 +1,10 @@
 package org.epics.archiverappliance.config.persistence;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import jdbm.PrimaryTreeMap;
@@ -17,8 +19,6 @@ import org.epics.archiverappliance.config.UserSpecifiedSamplingParams;
 import org.epics.archiverappliance.config.exception.ConfigException;
 import org.epics.archiverappliance.utils.ui.JSONDecoder;
 import org.epics.archiverappliance.utils.ui.JSONEncoder;
-import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
 
 /**
  * Uses JDBM2 as a persistence layer; probably not for production installations as JDBM2 does not support concurrent access and so on.
@@ -80,6 +80,34 @@ public class JDBM2Persistence implements ConfigPersistence {
 		removeKey("TypeInfo", pvName);
 	}
 
+	@Override
+	public void getAllTypeInfos(int pageSize, BulkLoadConsumer<PVTypeInfo> consumer) throws IOException {
+		// All the typeinfos are cached in the constructor and the cache is kept up to date by putTypeInfo and deleteTypeInfo.
+		LinkedHashMap<String, PVTypeInfo> page = new LinkedHashMap<String, PVTypeInfo>();
+		for(Map.Entry<String, PVTypeInfo> entry : cachedTypeInfos.entrySet()) {
+			page.put(entry.getKey(), entry.getValue());
+			if(page.size() >= pageSize) {
+				consumer.consume(page);
+				page = new LinkedHashMap<String, PVTypeInfo>();
+			}
+		}
+		if(!page.isEmpty()) {
+			consumer.consume(page);
+		}
+	}
+
+	@Override
+	public void putTypeInfos(Map<String, PVTypeInfo> typeInfos) throws IOException {
+		for(Map.Entry<String, PVTypeInfo> entry : typeInfos.entrySet()) {
+			if(entry.getValue() == null) {
+				cachedTypeInfos.remove(entry.getKey());
+			} else {
+				cachedTypeInfos.put(entry.getKey(), entry.getValue());
+			}
+		}
+		putAllValues("TypeInfo", typeInfos, PVTypeInfo.class);
+	}
+
 	@Override
 	public List<String> getArchivePVRequestsKeys() throws IOException {
 		return getKeys("ArchivePVRequests");
@@ -100,6 +128,18 @@ public class JDBM2Persistence implements ConfigPersistence {
 		removeKey("ArchivePVRequests", pvName);
 	}
 
+	@Override
+	public void getAllArchivePVRequests(int pageSize, BulkLoadConsumer<UserSpecifiedSamplingParams> consumer) throws IOException {
+		try(BulkLoadDecoder<UserSpecifiedSamplingParams> decoder = new BulkLoadDecoder<UserSpecifiedSamplingParams>(UserSpecifiedSamplingParams.class, consumer)) {
+			getAllValues("ArchivePVRequests", pageSize, decoder, null);
+		}
+	}
+
+	@Override
+	public void putArchivePVRequests(Map<String, UserSpecifiedSamplingParams> archivePVRequests) throws IOException {
+		putAllValues("ArchivePVRequests", archivePVRequests, UserSpecifiedSamplingParams.class);
+	}
+
 	@Override
 	public List<String> getExternalDataServersKeys() throws IOException {
 		return getKeys("ExternalDataServers");
@@ -141,6 +181,16 @@ public class JDBM2Persistence implements ConfigPersistence {
 	public void removeAliasName(String pvName, String realName) throws IOException {
 		removeKey("AliasNamesToRealNames", pvName);
 	}
+
+	@Override
+	public void getAllAliasNamesToRealNames(int pageSize, BulkLoadConsumer<String> consumer) throws IOException {
+		getAllValues("AliasNamesToRealNames", pageSize, null, consumer);
+	}
+
+	@Override
+	public void putAliasNamesToRealNames(Map<String, String> aliasNamesToRealNames) throws IOException {
+		putAllValues("AliasNamesToRealNames", aliasNamesToRealNames, null);
+	}
 	
 	
 	private synchronized List<String> getKeys(String recordName) throws IOException {
@@ -158,6 +208,49 @@ public class JDBM2Persistence implements ConfigPersistence {
 	
 	
 	
+	/**
+	 * Read all the values for the recordName using one RecordManager and hand them over in pages as they fill.
+	 * Pages are sent to the decoder if one is specified; else they are handed over as is to the stringConsumer.
+	 * The RecordManager is open while the pages are consumed; so the consumers should not call back into this persistence layer.
+	 */
+	private synchronized void getAllValues(String recordName, int pageSize, BulkLoadDecoder<?> decoder, BulkLoadConsumer<String> stringConsumer) throws IOException {
+		RecordManager recMan = null;
+		int valueCount = 0;
+		try { 
+			recMan = RecordManagerFactory.createRecordManager(pathToConfigData);
+			PrimaryTreeMap<String,String> map = recMan.treeMap(recordName);
+			LinkedHashMap<String, String> page = new LinkedHashMap<String, String>();
+			for(Map.Entry<String, String> entry : map.entrySet()) {
+				page.put(entry.getKey(), entry.getValue());
+				valueCount++;
+				if(page.size() >= pageSize) {
+					handOverPage(page, decoder, stringConsumer);
+					page = new LinkedHashMap<String, String>();
+				}
+			}
+			handOverPage(page, decoder, stringConsumer);
+			if(decoder != null) {
+				decoder.finish();
+			}
+		} catch(IOException ex) {
+			throw ex;
+		} catch(Exception ex) {
+			throw new IOException(ex);
+		} finally { 
+			if(recMan != null) { try { recMan.close(); recMan = null; } catch(Exception ex) {} } 
+		}
+		logger.debug(recordName + " returns " + valueCount + " values");
+	}
+
+	private static void handOverPage(LinkedHashMap<String, String> page, BulkLoadDecoder<?> decoder, BulkLoadConsumer<String> stringConsumer) throws IOException {
+		if(page.isEmpty()) return;
+		if(decoder != null) {
+			decoder.addPage(page);
+		} else {
+			stringConsumer.consume(page);
+		}
+	}
+	
 	private synchronized <T> T getValueForKey(String recordName, String key, T obj, Class<T> clazz) throws IOException {
 		RecordManager recMan = null;
 		try { 
@@ -165,9 +258,8 @@ public class JDBM2Persistence implements ConfigPersistence {
 			PrimaryTreeMap<String,String> map = recMan.treeMap(recordName);
 			String jsonStr = map.get(key);
 			if(jsonStr != null) { 
-				JSONObject jsonObj = (JSONObject) JSONValue.parse(jsonStr);
 				JSONDecoder<T> decoder = JSONDecoder.getDecoder(clazz);
-				decoder.decode(jsonObj, obj);
+				decoder.decode(jsonStr, obj);
 				return obj;
 			}
 		} catch(Exception ex) {
@@ -203,8 +295,7 @@ public class JDBM2Persistence implements ConfigPersistence {
 			recMan = RecordManagerFactory.createRecordManager(pathToConfigData);
 			PrimaryTreeMap<String,String> map = recMan.treeMap(recordName);
 			JSONEncoder<T> encoder = JSONEncoder.getEncoder(clazz);
-			JSONObject jsonObj = encoder.encode(obj);
-			String jsonStr = jsonObj.toJSONString();
+			String jsonStr = encoder.encodeToString(obj);
 			map.put(key, jsonStr);
 		} catch(Exception ex) {
 			throw new IOException(ex);
@@ -231,12 +322,27 @@ public class JDBM2Persistence implements ConfigPersistence {
 	}
 	
 	
-	private synchronized void removeKey(String recordName, String key) throws IOException {
+	/**
+	 * Apply a batch of changes using one RecordManager; values are encoded as JSON if clazz is specified and are deleted if null.
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized <T> void putAllValues(String recordName, Map<String, ? extends Object> changes, Class<T> clazz) throws IOException {
+		if(changes.isEmpty()) return;
 		RecordManager recMan = null;
 		try { 
 			recMan = RecordManagerFactory.createRecordManager(pathToConfigData);
 			PrimaryTreeMap<String,String> map = recMan.treeMap(recordName);
-			map.remove(key);
+			JSONEncoder<T> encoder = clazz != null ? JSONEncoder.getEncoder(clazz) : null;
+			for(Map.Entry<String, ? extends Object> entry : changes.entrySet()) {
+				Object value = entry.getValue();
+				if(value == null) {
+					map.remove(entry.getKey());
+				} else if(encoder != null) {
+					map.put(entry.getKey(), encoder.encodeToString((T) value));
+				} else {
+					map.put(entry.getKey(), (String) value);
+				}
+			}
 		} catch(Exception ex) {
 			throw new IOException(ex);
 		} finally { 
@@ -244,34 +350,32 @@ public class JDBM2Persistence implements ConfigPersistence {
 		}
 	}
 	
-	/**
-	 * Optimization to make the performance test start faster.
-	 * @return
-	 * @throws IOException
-	 */
-	private synchronized <T> T preLoadTypeInfos() throws IOException {
+	private synchronized void removeKey(String recordName, String key) throws IOException {
 		RecordManager recMan = null;
 		try { 
 			recMan = RecordManagerFactory.createRecordManager(pathToConfigData);
-			PrimaryTreeMap<String,String> map = recMan.treeMap("TypeInfo");
-			List<String> pvNames = new LinkedList<String>(map.keySet());
-			JSONDecoder<PVTypeInfo> decoder = JSONDecoder.getDecoder(PVTypeInfo.class);
-			for(String pvName : pvNames) { 
-				String jsonStr = map.get(pvName);
-				if(jsonStr != null) { 
-					JSONObject jsonObj = (JSONObject) JSONValue.parse(jsonStr);
-					PVTypeInfo obj = new PVTypeInfo();
-					decoder.decode(jsonObj, obj);
-					cachedTypeInfos.put(pvName, obj);
-					if(logger.isDebugEnabled()) logger.debug("Caching typeInfo for PV " + pvName);
-				}
-			}
+			PrimaryTreeMap<String,String> map = recMan.treeMap(recordName);
+			map.remove(key);
 		} catch(Exception ex) {
 			throw new IOException(ex);
 		} finally { 
 			if(recMan != null) { try { recMan.close(); recMan = null; } catch(Exception ex) {} } 
 		}
-
-		return null;
+	}
+	
+	/**
+	 * Optimization to make the performance test start faster.
+	 * The typeInfos are decoded in parallel.
+	 * @throws IOException
+	 */
+	private void preLoadTypeInfos() throws IOException {
+		try(BulkLoadDecoder<PVTypeInfo> decoder = new BulkLoadDecoder<PVTypeInfo>(PVTypeInfo.class, new BulkLoadConsumer<PVTypeInfo>() {
+			@Override
+			public void consume(Map<String, PVTypeInfo> page) throws IOException {
+				cachedTypeInfos.putAll(page);
+			}
+		})) {
+			getAllValues("TypeInfo", 1000, decoder, null);
+		}
 	}
 }
@@ -5,8 +5,10 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
@@ -19,8 +21,6 @@ import org.epics.archiverappliance.config.UserSpecifiedSamplingParams;
 import org.epics.archiverappliance.config.exception.ConfigException;
 import org.epics.archiverappliance.utils.ui.JSONDecoder;
 import org.epics.archiverappliance.utils.ui.JSONEncoder;
-import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
 
 /**
  * Persistence layer ontop of MySQL TEXT(blobs) on InnoDB
@@ -66,6 +66,18 @@ public class MySQLPersistence implements ConfigPersistence {
 		removeKey("DELETE FROM PVTypeInfo WHERE pvName = ?;", pvName, "deleteTypeInfo");
 	}
 
+	@Override
+	public void getAllTypeInfos(int pageSize, BulkLoadConsumer<PVTypeInfo> consumer) throws IOException {
+		try(BulkLoadDecoder<PVTypeInfo> decoder = new BulkLoadDecoder<PVTypeInfo>(PVTypeInfo.class, consumer)) {
+			getAllValues("SELECT pvName AS pvName, typeInfoJSON AS typeInfoJSON FROM PVTypeInfo ORDER BY pvName;", pageSize, decoder, null, "getAllTypeInfos");
+		}
+	}
+
+	@Override
+	public void putTypeInfos(Map<String, PVTypeInfo> typeInfos) throws IOException {
+		putAllValues("INSERT INTO PVTypeInfo (pvName, typeInfoJSON) VALUES (?, ?) ON DUPLICATE KEY UPDATE typeInfoJSON = ?;", "DELETE FROM PVTypeInfo WHERE pvName = ?;", typeInfos, PVTypeInfo.class, "putTypeInfos");
+	}
+
 	@Override
 	public List<String> getArchivePVRequestsKeys() throws IOException {
 		return getKeys("SELECT pvName AS pvName FROM ArchivePVRequests ORDER BY pvName;", "getArchivePVRequestsKeys");
@@ -86,6 +98,18 @@ public class MySQLPersistence implements ConfigPersistence {
 		removeKey("DELETE FROM ArchivePVRequests WHERE pvName = ?;", pvName, "removeArchivePVRequest");
 	}
 
+	@Override
+	public void getAllArchivePVRequests(int pageSize, BulkLoadConsumer<UserSpecifiedSamplingParams> consumer) throws IOException {
+		try(BulkLoadDecoder<UserSpecifiedSamplingParams> decoder = new BulkLoadDecoder<UserSpecifiedSamplingParams>(UserSpecifiedSamplingParams.class, consumer)) {
+			getAllValues("SELECT pvName AS pvName, userParams AS userParams FROM ArchivePVRequests ORDER BY pvName;", pageSize, decoder, null, "getAllArchivePVRequests");
+		}
+	}
+
+	@Override
+	public void putArchivePVRequests(Map<String, UserSpecifiedSamplingParams> archivePVRequests) throws IOException {
+		putAllValues("INSERT INTO ArchivePVRequests (pvName, userParams) VALUES (?, ?) ON DUPLICATE KEY UPDATE userParams = ?;", "DELETE FROM ArchivePVRequests WHERE pvName = ?;", archivePVRequests, UserSpecifiedSamplingParams.class, "putArchivePVRequests");
+	}
+
 	@Override
 	public List<String> getExternalDataServersKeys() throws IOException {
 		return getKeys("SELECT serverid AS serverid FROM ExternalDataServers ORDER BY serverid;", "getExternalDataServersKeys");
@@ -128,6 +152,16 @@ public class MySQLPersistence implements ConfigPersistence {
 		removeKey("DELETE FROM PVAliases WHERE pvName = ?;", pvName, "removeAliasName");
 	}
 
+	@Override
+	public void getAllAliasNamesToRealNames(int pageSize, BulkLoadConsumer<String> consumer) throws IOException {
+		getAllValues("SELECT pvName AS pvName, realName AS realName FROM PVAliases ORDER BY pvName;", pageSize, null, consumer, "getAllAliasNamesToRealNames");
+	}
+
+	@Override
+	public void putAliasNamesToRealNames(Map<String, String> aliasNamesToRealNames) throws IOException {
+		putAllValues("INSERT INTO PVAliases (pvName, realName) VALUES (?, ?) ON DUPLICATE KEY UPDATE realName = ?;", "DELETE FROM PVAliases WHERE pvName = ?;", aliasNamesToRealNames, null, "putAliasNamesToRealNames");
+	}
+
 	
 	
 	private List<String> getKeys(String sql, String msg) throws IOException {
@@ -150,6 +184,47 @@ public class MySQLPersistence implements ConfigPersistence {
 	
 	
 	
+	/**
+	 * Stream all the (key, value) rows returned by the sql in one query and hand them over in pages.
+	 * Pages are sent to the decoder if one is specified; else they are handed over as is to the stringConsumer.
+	 * Setting the fetch size to Integer.MIN_VALUE asks the MySQL driver to stream the rows instead of reading the entire result set into memory.
+	 */
+	private void getAllValues(String sql, int pageSize, BulkLoadDecoder<?> decoder, BulkLoadConsumer<String> stringConsumer, String msg) throws IOException {
+		int rowCount = 0;
+		try(Connection conn = theDataSource.getConnection()) {
+			try(PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+				stmt.setFetchSize(Integer.MIN_VALUE);
+				try(ResultSet rs = stmt.executeQuery()) {
+					LinkedHashMap<String, String> page = new LinkedHashMap<String, String>();
+					while(rs.next()) {
+						page.put(rs.getString(1), rs.getString(2));
+						rowCount++;
+						if(page.size() >= pageSize) {
+							handOverPage(page, decoder, stringConsumer);
+							page = new LinkedHashMap<String, String>();
+						}
+					}
+					handOverPage(page, decoder, stringConsumer);
+				}
+			}
+			if(decoder != null) {
+				decoder.finish();
+			}
+		} catch(SQLException ex) {
+			throw new IOException(ex);
+		}
+		logger.debug(msg + " returns " + rowCount + " rows");
+	}
+
+	private static void handOverPage(LinkedHashMap<String, String> page, BulkLoadDecoder<?> decoder, BulkLoadConsumer<String> stringConsumer) throws IOException {
+		if(page.isEmpty()) return;
+		if(decoder != null) {
+			decoder.addPage(page);
+		} else {
+			stringConsumer.consume(page);
+		}
+	}
+
 	private <T> T getValueForKey(String sql, String key, T obj, Class<T> clazz, String msg) throws IOException {
 		if(key == null || key.equals("")) return null;
 		
@@ -159,9 +234,8 @@ public class MySQLPersistence implements ConfigPersistence {
 				try(ResultSet rs = stmt.executeQuery()) {
 					while(rs.next()) {
 						String jsonStr = rs.getString(1);
-						JSONObject jsonObj = (JSONObject) JSONValue.parse(jsonStr);
 						JSONDecoder<T> decoder = JSONDecoder.getDecoder(clazz);
-						decoder.decode(jsonObj, obj);
+						decoder.decode(jsonStr, obj);
 						return obj;
 					}
 				}
@@ -200,8 +274,7 @@ public class MySQLPersistence implements ConfigPersistence {
 		
 		try(Connection conn = theDataSource.getConnection()) {
 			JSONEncoder<T> encoder = JSONEncoder.getEncoder(clazz);
-			JSONObject jsonObj = encoder.encode(obj);
-			String jsonStr = jsonObj.toJSONString();
+			String jsonStr = encoder.encodeToString(obj);
 			
 			try(PreparedStatement stmt = conn.prepareStatement(sql)) {
 				stmt.setString(1, key);
@@ -242,6 +315,54 @@ public class MySQLPersistence implements ConfigPersistence {
 	}
 	
 	
+	/**
+	 * Apply a batch of changes as two JDBC batches (upserts and deletes) in one transaction.
+	 * Values are encoded as JSON if clazz is specified and are deleted if null.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> void putAllValues(String upsertSql, String deleteSql, Map<String, ? extends Object> changes, Class<T> clazz, String msg) throws IOException {
+		if(changes.isEmpty()) return;
+		int upserts = 0, deletes = 0;
+		try(Connection conn = theDataSource.getConnection()) {
+			boolean autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			try(PreparedStatement upsertStmt = conn.prepareStatement(upsertSql); PreparedStatement deleteStmt = conn.prepareStatement(deleteSql)) {
+				JSONEncoder<T> encoder = clazz != null ? JSONEncoder.getEncoder(clazz) : null;
+				for(Map.Entry<String, ? extends Object> entry : changes.entrySet()) {
+					String key = entry.getKey();
+					Object value = entry.getValue();
+					if(key == null || key.equals("")) throw new IOException("key cannot be null when persisting " + msg);
+					if(value == null) {
+						deleteStmt.setString(1, key);
+						deleteStmt.addBatch();
+						deletes++;
+					} else {
+						String valueStr = encoder != null ? encoder.encodeToString((T) value) : (String) value;
+						upsertStmt.setString(1, key);
+						upsertStmt.setString(2, valueStr);
+						upsertStmt.setString(3, valueStr);
+						upsertStmt.addBatch();
+						upserts++;
+					}
+				}
+				if(upserts > 0) upsertStmt.executeBatch();
+				if(deletes > 0) deleteStmt.executeBatch();
+				conn.commit();
+			} catch(Exception ex) {
+				conn.rollback();
+				throw ex;
+			} finally {
+				conn.setAutoCommit(autoCommit);
+			}
+		} catch(IOException ex) {
+			throw ex;
+		} catch(Exception ex) {
+			throw new IOException(ex);
+		}
+		logger.debug(msg + " upserted " + upserts + " and deleted " + deletes + " keys");
+	}
+	
+	
 	private void removeKey(String sql, String key, String msg) throws IOException {
 		try(Connection conn = theDataSource.getConnection()) {
 			try(PreparedStatement stmt = conn.prepareStatement(sql)) {
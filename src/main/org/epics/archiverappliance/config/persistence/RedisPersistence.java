@@ -1,8 +1,12 @@
 package org.epics.archiverappliance.config.persistence;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -13,11 +17,13 @@ import org.epics.archiverappliance.config.UserSpecifiedSamplingParams;
 import org.epics.archiverappliance.config.exception.ConfigException;
 import org.epics.archiverappliance.utils.ui.JSONDecoder;
 import org.epics.archiverappliance.utils.ui.JSONEncoder;
-import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 
 /**
  * Uses redis as a persistence layer.  
@@ -35,6 +41,10 @@ public class RedisPersistence implements ConfigPersistence {
 	private static Logger logger = Logger.getLogger(RedisPersistence.class.getName());
 	public static final String ARCHAPPL_PERSISTENCE_LAYER_REDISURL = ConfigService.ARCHAPPL_PERSISTENCE_LAYER + "_REDISURL";
 	private static String redisURL = "localhost";
+	/**
+	 * How many MGETs we send in one pipeline when bulk loading.
+	 */
+	private static final int MGETS_PER_PIPELINE = 8;
 	private JedisPool jedisPool = null;
 
 	
@@ -72,6 +82,18 @@ public class RedisPersistence implements ConfigPersistence {
 		removeKey("TypeInfo", pvName);
 	}
 
+	@Override
+	public void getAllTypeInfos(int pageSize, BulkLoadConsumer<PVTypeInfo> consumer) throws IOException {
+		try(BulkLoadDecoder<PVTypeInfo> decoder = new BulkLoadDecoder<PVTypeInfo>(PVTypeInfo.class, consumer)) {
+			getAllValues("TypeInfo", pageSize, decoder, null);
+		}
+	}
+
+	@Override
+	public void putTypeInfos(Map<String, PVTypeInfo> typeInfos) throws IOException {
+		putAllValues("TypeInfo", typeInfos, PVTypeInfo.class);
+	}
+
 	@Override
 	public List<String> getArchivePVRequestsKeys() throws IOException {
 		return getKeys("ArchivePVRequests");
@@ -92,6 +114,18 @@ public class RedisPersistence implements ConfigPersistence {
 		removeKey("ArchivePVRequests", pvName);
 	}
 
+	@Override
+	public void getAllArchivePVRequests(int pageSize, BulkLoadConsumer<UserSpecifiedSamplingParams> consumer) throws IOException {
+		try(BulkLoadDecoder<UserSpecifiedSamplingParams> decoder = new BulkLoadDecoder<UserSpecifiedSamplingParams>(UserSpecifiedSamplingParams.class, consumer)) {
+			getAllValues("ArchivePVRequests", pageSize, decoder, null);
+		}
+	}
+
+	@Override
+	public void putArchivePVRequests(Map<String, UserSpecifiedSamplingParams> archivePVRequests) throws IOException {
+		putAllValues("ArchivePVRequests", archivePVRequests, UserSpecifiedSamplingParams.class);
+	}
+
 	@Override
 	public List<String> getExternalDataServersKeys() throws IOException {
 		return getKeys("ExternalDataServers");
@@ -133,6 +167,16 @@ public class RedisPersistence implements ConfigPersistence {
 	public void removeAliasName(String pvName, String realName) throws IOException {
 		removeKey("AliasNamesToRealNames", pvName);
 	}
+
+	@Override
+	public void getAllAliasNamesToRealNames(int pageSize, BulkLoadConsumer<String> consumer) throws IOException {
+		getAllValues("AliasNamesToRealNames", pageSize, null, consumer);
+	}
+
+	@Override
+	public void putAliasNamesToRealNames(Map<String, String> aliasNamesToRealNames) throws IOException {
+		putAllValues("AliasNamesToRealNames", aliasNamesToRealNames, null);
+	}
 	
 	private List<String> getKeys(String recordName) throws IOException {
 		try(Jedis jedis = jedisPool.getResource()) {
@@ -145,13 +189,81 @@ public class RedisPersistence implements ConfigPersistence {
 		}	
 	}
 	
+	/**
+	 * Use SCAN (instead of KEYS) to get the keys for the recordName without blocking the redis server.
+	 * We then get the values using MGETs of pageSize keys; several of these are pipelined to cut down on the round trips.
+	 * Pages are sent to the decoder if one is specified; else they are handed over as is to the stringConsumer.
+	 */
+	private void getAllValues(String recordName, int pageSize, BulkLoadDecoder<?> decoder, BulkLoadConsumer<String> stringConsumer) throws IOException {
+		String prefix = recordName + "/";
+		try(Jedis jedis = jedisPool.getResource()) {
+			// SCAN can return the same key more than once.
+			LinkedHashSet<String> redisKeys = new LinkedHashSet<String>();
+			ScanParams scanParams = new ScanParams().match(prefix + "*").count(pageSize);
+			String cursor = ScanParams.SCAN_POINTER_START;
+			do {
+				ScanResult<String> scanResult = jedis.scan(cursor, scanParams);
+				redisKeys.addAll(scanResult.getResult());
+				cursor = scanResult.getStringCursor();
+			} while(!cursor.equals(ScanParams.SCAN_POINTER_START));
+			logger.debug("Scan for " + recordName + " returns " + redisKeys.size() + " keys");
+
+			List<String[]> keyPages = new ArrayList<String[]>();
+			List<String> currentKeyPage = new ArrayList<String>(pageSize);
+			for(String redisKey : redisKeys) {
+				currentKeyPage.add(redisKey);
+				if(currentKeyPage.size() >= pageSize) {
+					keyPages.add(currentKeyPage.toArray(new String[0]));
+					currentKeyPage = new ArrayList<String>(pageSize);
+				}
+			}
+			if(!currentKeyPage.isEmpty()) {
+				keyPages.add(currentKeyPage.toArray(new String[0]));
+			}
+
+			for(int pipelineStart = 0; pipelineStart < keyPages.size(); pipelineStart += MGETS_PER_PIPELINE) {
+				int pipelineEnd = Math.min(pipelineStart + MGETS_PER_PIPELINE, keyPages.size());
+				Pipeline pipeline = jedis.pipelined();
+				List<Response<List<String>>> responses = new ArrayList<Response<List<String>>>();
+				for(int i = pipelineStart; i < pipelineEnd; i++) {
+					responses.add(pipeline.mget(keyPages.get(i)));
+				}
+				pipeline.sync();
+				for(int i = pipelineStart; i < pipelineEnd; i++) {
+					String[] keyPage = keyPages.get(i);
+					List<String> values = responses.get(i - pipelineStart).get();
+					LinkedHashMap<String, String> page = new LinkedHashMap<String, String>(keyPage.length*2);
+					for(int k = 0; k < keyPage.length; k++) {
+						String value = values.get(k);
+						// The key could have been deleted after the SCAN.
+						if(value != null) {
+							page.put(keyPage[k].substring(prefix.length()), value);
+						}
+					}
+					if(page.isEmpty()) continue;
+					if(decoder != null) {
+						decoder.addPage(page);
+					} else {
+						stringConsumer.consume(page);
+					}
+				}
+			}
+			if(decoder != null) {
+				decoder.finish();
+			}
+		} catch(IOException ex) {
+			throw ex;
+		} catch(Exception ex) {
+			throw new IOException(ex);
+		}
+	}
+	
 	private <T> T getValueForKey(String recordName, String key, T obj, Class<T> clazz) throws IOException {
 		try(Jedis jedis = jedisPool.getResource()) { 
 			String jsonStr = jedis.get(recordName + "/" + key);
 			if(jsonStr != null) { 
-				JSONObject jsonObj = (JSONObject) JSONValue.parse(jsonStr);
 				JSONDecoder<T> decoder = JSONDecoder.getDecoder(clazz);
-				decoder.decode(jsonObj, obj);
+				decoder.decode(jsonStr, obj);
 				return obj;
 			}
 		} catch(Exception ex) { 
@@ -176,8 +288,7 @@ public class RedisPersistence implements ConfigPersistence {
 
 		try(Jedis jedis = jedisPool.getResource()) { 
 			JSONEncoder<T> encoder = JSONEncoder.getEncoder(clazz);
-			JSONObject jsonObj = encoder.encode(obj);
-			String jsonStr = jsonObj.toJSONString();
+			String jsonStr = encoder.encodeToString(obj);
 			jedis.set(recordName + "/" + key, jsonStr);
 		} catch(Exception ex) { 
 			throw new IOException(ex);
@@ -195,6 +306,36 @@ public class RedisPersistence implements ConfigPersistence {
 		}
 	}
 	
+	/**
+	 * Apply a batch of changes as SETs and DELs in one pipeline.
+	 * Values are encoded as JSON if clazz is specified and are deleted if null.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> void putAllValues(String recordName, Map<String, ? extends Object> changes, Class<T> clazz) throws IOException {
+		if(changes.isEmpty()) return;
+		for(String key : changes.keySet()) {
+			if(key == null || key.equals("")) throw new IOException("key cannot be null when persisting " + recordName);
+		}
+		try(Jedis jedis = jedisPool.getResource()) { 
+			JSONEncoder<T> encoder = clazz != null ? JSONEncoder.getEncoder(clazz) : null;
+			Pipeline pipeline = jedis.pipelined();
+			for(Map.Entry<String, ? extends Object> entry : changes.entrySet()) {
+				String key = entry.getKey();
+				Object value = entry.getValue();
+				if(value == null) {
+					pipeline.del(recordName + "/" + key);
+				} else if(encoder != null) {
+					pipeline.set(recordName + "/" + key, encoder.encodeToString((T) value));
+				} else {
+					pipeline.set(recordName + "/" + key, (String) value);
+				}
+			}
+			pipeline.sync();
+		} catch(Exception ex) { 
+			throw new IOException(ex);
+		}
+	}
+	
 	private void removeKey(String recordName, String key) throws IOException {
 		try(Jedis jedis = jedisPool.getResource()) { 
 			jedis.del(recordName + "/" + key);
@@ -0,0 +1,593 @@
+package org.epics.archiverappliance.config.persistence;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.epics.archiverappliance.common.LatencyHistogram;
+import org.epics.archiverappliance.common.OpenMetricsWriter;
+import org.epics.archiverappliance.config.ConfigPersistence;
+import org.epics.archiverappliance.config.PVTypeInfo;
+import org.epics.archiverappliance.config.UserSpecifiedSamplingParams;
+
+/**
+ * A write behind queue in front of another persistence layer.
+ * Archiving, pausing or changing thousands of PVs results in thousands of calls to putTypeInfo etc; if each of these is a transaction in the persistence layer, these operations are bottlenecked on the persistence layer.
+ * Here, the changes to typeInfos, archivePVRequests and aliases are queued up and written to the persistence layer in batches (using the batch write methods in {@link ConfigPersistence}) by a single background thread.
+ * Changes to the same key are coalesced; only the last change to a key is written.
+ * <p>
+ * Reads see the queued changes, so callers of this class see their own writes.
+ * The bulk load methods flush the queue before going to the persistence layer.
+ * External data servers change rarely and are written thru.
+ * <p>
+ * Queued objects are encoded when they are written; callers should not change an object after putting it.
+ * When a batch fails to be written, its changes are written one at a time so that one bad change does not hold up the rest.
+ * Changes that fail to be written are queued again and retried in the next flush.
+ * A change that still fails after {@link #MAX_WRITE_ATTEMPTS} flushes in which other changes were written is parked; parked changes are not retried but are still seen by the reads (other than the bulk loads) till they are replaced by a newer change to the same key.
+ * If nothing can be written (for example, the persistence layer is down), the changes are retried without counting this against them.
+ * Callers that need their changes to be persisted before they go on (for example, before telling the user that an archive request has been submitted) should call {@link #flush()}.
+ * Changes that are still queued when the JVM dies are lost; {@link #close()} flushes the queue and should be called on shutdown.
+ * @author mshankar
+ *
+ */
+public class WriteBehindPersistence implements ConfigPersistence {
+	private static Logger logger = Logger.getLogger(WriteBehindPersistence.class.getName());
+	public static final int MAX_WRITE_ATTEMPTS = 5;
+	private final ConfigPersistence delegate;
+	private final int batchSize;
+	private final ScheduledExecutorService flushThread;
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				flushQueues();
+			} catch(Throwable t) {
+				logger.error("Exception flushing the write behind queue; the changes will be retried in the next flush", t);
+			}
+		}
+	};
+
+	private final WriteQueue<PVTypeInfo> typeInfos = new WriteQueue<PVTypeInfo>("typeinfo") {
+		@Override
+		void write(Map<String, PVTypeInfo> batch) throws IOException {
+			delegate.putTypeInfos(batch);
+		}
+	};
+	private final WriteQueue<UserSpecifiedSamplingParams> archivePVRequests = new WriteQueue<UserSpecifiedSamplingParams>("archivePVRequests") {
+		@Override
+		void write(Map<String, UserSpecifiedSamplingParams> batch) throws IOException {
+			delegate.putArchivePVRequests(batch);
+		}
+	};
+	private final WriteQueue<String> aliasNamesToRealNames = new WriteQueue<String>("aliasNamesToRealNames") {
+		@Override
+		void write(Map<String, String> batch) throws IOException {
+			delegate.putAliasNamesToRealNames(batch);
+		}
+	};
+	@SuppressWarnings("unchecked")
+	private final List<WriteQueue<?>> allQueues = Arrays.<WriteQueue<?>>asList(typeInfos, archivePVRequests, aliasNamesToRealNames);
+
+	// All the state below is guarded by this.
+	/** When the oldest change in the pending maps was queued; 0 if there are no pending changes. */
+	private long pendingSinceMillis = 0;
+	/** When the oldest change in the maps being written was queued; 0 if nothing is being written. */
+	private long inFlightSinceMillis = 0;
+	private int pendingCount = 0;
+	private boolean earlyFlushRequested = false;
+	private long changesQueued = 0;
+	private long changesCoalesced = 0;
+	private long changesWritten = 0;
+	private long batchesWritten = 0;
+	private long flushFailures = 0;
+	private long changesParked = 0;
+	private final LatencyHistogram flushLatency = new LatencyHistogram();
+
+	/**
+	 * @param delegate - The persistence layer that we write to.
+	 * @param flushIntervalMillis - How often we flush the queue.
+	 * @param batchSize - Maximum number of changes we write in one batch; we also flush early once this many changes are queued.
+	 */
+	public WriteBehindPersistence(ConfigPersistence delegate, long flushIntervalMillis, int batchSize) {
+		this.delegate = delegate;
+		this.batchSize = batchSize;
+		this.flushThread = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Persistence write behind");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.flushThread.scheduleWithFixedDelay(flushTask, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+		logger.info("Writing changes to " + delegate.getClass().getName() + " every " + flushIntervalMillis + "(ms) in batches of " + batchSize);
+	}
+
+	/**
+	 * The durability barrier; wait till all the changes queued before this call have been written to the persistence layer.
+	 * @throws IOException - If some of the changes could not be written; these are retried in the next flush unless they have failed too many times.
+	 */
+	public void flush() throws IOException {
+		Future<Void> flushed = flushThread.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				flushQueues();
+				return null;
+			}
+		});
+		try {
+			flushed.get();
+		} catch(InterruptedException ex) {
+			throw new IOException("Interrupted waiting for the write behind queue to be flushed", ex);
+		} catch(ExecutionException ex) {
+			if(ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+			throw new IOException(ex.getCause());
+		}
+	}
+
+	/**
+	 * Flush the queue and stop the background thread.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			flushThread.shutdown();
+		}
+	}
+
+	@Override
+	public List<String> getTypeInfoKeys() throws IOException {
+		return typeInfos.mergeKeys(delegate.getTypeInfoKeys());
+	}
+
+	@Override
+	public PVTypeInfo getTypeInfo(String pvName) throws IOException {
+		synchronized(this) {
+			if(typeInfos.isQueued(pvName)) return typeInfos.getQueued(pvName);
+		}
+		return delegate.getTypeInfo(pvName);
+	}
+
+	@Override
+	public void putTypeInfo(String pvName, PVTypeInfo typeInfo) throws IOException {
+		checkValue(typeInfo, "typeinfo");
+		queue(typeInfos, pvName, typeInfo);
+	}
+
+	@Override
+	public void deleteTypeInfo(String pvName) throws IOException {
+		queue(typeInfos, pvName, null);
+	}
+
+	@Override
+	public void getAllTypeInfos(int pageSize, BulkLoadConsumer<PVTypeInfo> consumer) throws IOException {
+		flush();
+		delegate.getAllTypeInfos(pageSize, consumer);
+	}
+
+	@Override
+	public void putTypeInfos(Map<String, PVTypeInfo> changes) throws IOException {
+		for(Map.Entry<String, PVTypeInfo> change : changes.entrySet()) {
+			queue(typeInfos, change.getKey(), change.getValue());
+		}
+	}
+
+	@Override
+	public List<String> getArchivePVRequestsKeys() throws IOException {
+		return archivePVRequests.mergeKeys(delegate.getArchivePVRequestsKeys());
+	}
+
+	@Override
+	public UserSpecifiedSamplingParams getArchivePVRequest(String pvName) throws IOException {
+		synchronized(this) {
+			if(archivePVRequests.isQueued(pvName)) return archivePVRequests.getQueued(pvName);
+		}
+		return delegate.getArchivePVRequest(pvName);
+	}
+
+	@Override
+	public void putArchivePVRequest(String pvName, UserSpecifiedSamplingParams userParams) throws IOException {
+		checkValue(userParams, "archivePVRequests");
+		queue(archivePVRequests, pvName, userParams);
+	}
+
+	@Override
+	public void removeArchivePVRequest(String pvName) throws IOException {
+		queue(archivePVRequests, pvName, null);
+	}
+
+	@Override
+	public void getAllArchivePVRequests(int pageSize, BulkLoadConsumer<UserSpecifiedSamplingParams> consumer) throws IOException {
+		flush();
+		delegate.getAllArchivePVRequests(pageSize, consumer);
+	}
+
+	@Override
+	public void putArchivePVRequests(Map<String, UserSpecifiedSamplingParams> changes) throws IOException {
+		for(Map.Entry<String, UserSpecifiedSamplingParams> change : changes.entrySet()) {
+			queue(archivePVRequests, change.getKey(), change.getValue());
+		}
+	}
+
+	@Override
+	public List<String> getExternalDataServersKeys() throws IOException {
+		return delegate.getExternalDataServersKeys();
+	}
+
+	@Override
+	public String getExternalDataServer(String serverId) throws IOException {
+		return delegate.getExternalDataServer(serverId);
+	}
+
+	@Override
+	public void putExternalDataServer(String serverId, String serverInfo) throws IOException {
+		delegate.putExternalDataServer(serverId, serverInfo);
+	}
+
+	@Override
+	public void removeExternalDataServer(String serverId, String serverInfo) throws IOException {
+		delegate.removeExternalDataServer(serverId, serverInfo);
+	}
+
+	@Override
+	public List<String> getAliasNamesToRealNamesKeys() throws IOException {
+		return aliasNamesToRealNames.mergeKeys(delegate.getAliasNamesToRealNamesKeys());
+	}
+
+	@Override
+	public String getAliasNamesToRealName(String pvName) throws IOException {
+		synchronized(this) {
+			if(aliasNamesToRealNames.isQueued(pvName)) return aliasNamesToRealNames.getQueued(pvName);
+		}
+		return delegate.getAliasNamesToRealName(pvName);
+	}
+
+	@Override
+	public void putAliasNamesToRealName(String pvName, String realName) throws IOException {
+		checkValue(realName, "aliasNamesToRealNames");
+		queue(aliasNamesToRealNames, pvName, realName);
+	}
+
+	@Override
+	public void removeAliasName(String pvName, String realName) throws IOException {
+		queue(aliasNamesToRealNames, pvName, null);
+	}
+
+	@Override
+	public void getAllAliasNamesToRealNames(int pageSize, BulkLoadConsumer<String> consumer) throws IOException {
+		flush();
+		delegate.getAllAliasNamesToRealNames(pageSize, consumer);
+	}
+
+	@Override
+	public void putAliasNamesToRealNames(Map<String, String> changes) throws IOException {
+		for(Map.Entry<String, String> change : changes.entrySet()) {
+			queue(aliasNamesToRealNames, change.getKey(), change.getValue());
+		}
+	}
+
+	/**
+	 * @return The number of changes that have not yet been written to the persistence layer.
+	 */
+	public synchronized int getQueuedCount() {
+		int queuedCount = 0;
+		for(WriteQueue<?> queue : allQueues) {
+			queuedCount += queue.pending.size() + queue.inFlight.size();
+		}
+		return queuedCount;
+	}
+
+	/**
+	 * @return The number of changes that could not be written after {@link #MAX_WRITE_ATTEMPTS} attempts and are no longer retried.
+	 */
+	public synchronized int getParkedCount() {
+		int parkedCount = 0;
+		for(WriteQueue<?> queue : allQueues) {
+			parkedCount += queue.parked.size();
+		}
+		return parkedCount;
+	}
+
+	/**
+	 * @return How long the oldest change that has not yet been written to the persistence layer has been waiting; 0 if everything has been written.
+	 */
+	public synchronized long getFlushLagMillis() {
+		long oldestMillis = Math.min(pendingSinceMillis == 0 ? Long.MAX_VALUE : pendingSinceMillis, inFlightSinceMillis == 0 ? Long.MAX_VALUE : inFlightSinceMillis);
+		if(oldestMillis == Long.MAX_VALUE) return 0;
+		return Math.max(0, System.currentTimeMillis() - oldestMillis);
+	}
+
+	public void writeOpenMetrics(OpenMetricsWriter metrics) {
+		long queuedCount, parkedCount, flushLagMillis, queued, coalesced, written, batches, failures, parked;
+		synchronized(this) {
+			queuedCount = getQueuedCount();
+			parkedCount = getParkedCount();
+			flushLagMillis = getFlushLagMillis();
+			queued = changesQueued;
+			coalesced = changesCoalesced;
+			written = changesWritten;
+			batches = batchesWritten;
+			failures = flushFailures;
+			parked = changesParked;
+		}
+		metrics.gauge("config_persistence_queued_changes", "Changes to the config that have not yet been written to the persistence layer", queuedCount);
+		metrics.gauge("config_persistence_flush_lag_seconds", "How long the oldest change that has not yet been written to the persistence layer has been waiting", flushLagMillis/1000.0);
+		metrics.counter("config_persistence_changes_queued_total", "Changes to the config queued for the persistence layer", queued);
+		metrics.counter("config_persistence_changes_coalesced_total", "Queued changes that replaced an earlier change to the same key before it was written", coalesced);
+		metrics.counter("config_persistence_changes_written_total", "Changes written to the persistence layer", written);
+		metrics.counter("config_persistence_batches_written_total", "Batches written to the persistence layer", batches);
+		metrics.counter("config_persistence_flush_failures_total", "Flushes that failed and were retried", failures);
+		metrics.gauge("config_persistence_parked_changes", "Changes to the config that could not be written to the persistence layer and are no longer retried", parkedCount);
+		metrics.counter("config_persistence_changes_parked_total", "Changes to the config that were parked after failing to be written " + MAX_WRITE_ATTEMPTS + " times", parked);
+		metrics.family("config_persistence_flush_seconds", "summary", "Time taken to flush the queued changes to the persistence layer");
+		metrics.summary("config_persistence_flush_seconds", null, null, flushLatency);
+	}
+
+	private static void checkValue(Object value, String msg) throws IOException {
+		if(value == null || value.equals("")) throw new IOException("value cannot be null when persisting " + msg);
+	}
+
+	private <T> void queue(WriteQueue<T> queue, String key, T value) throws IOException {
+		if(key == null || key.equals("")) throw new IOException("key cannot be null when persisting " + queue.name);
+		boolean flushEarly = false;
+		synchronized(this) {
+			if(pendingSinceMillis == 0) pendingSinceMillis = System.currentTimeMillis();
+			boolean coalesced = queue.pending.containsKey(key);
+			queue.pending.put(key, value);
+			queue.unpark(key);
+			changesQueued++;
+			if(coalesced) {
+				changesCoalesced++;
+			} else {
+				pendingCount++;
+			}
+			if(pendingCount >= batchSize && !earlyFlushRequested) {
+				earlyFlushRequested = true;
+				flushEarly = true;
+			}
+		}
+		if(flushEarly) {
+			flushThread.execute(flushTask);
+		}
+	}
+
+	/**
+	 * Write all the pending changes; this is only called on the flush thread.
+	 * The pending changes are moved into the in flight maps (where the reads can still see them) while they are being written.
+	 * @throws IOException - If some of the changes could not be written.
+	 */
+	private void flushQueues() throws IOException {
+		synchronized(this) {
+			earlyFlushRequested = false;
+			if(pendingCount == 0) return;
+			for(WriteQueue<?> queue : allQueues) {
+				queue.startFlush();
+			}
+			inFlightSinceMillis = pendingSinceMillis;
+			pendingSinceMillis = 0;
+			pendingCount = 0;
+		}
+
+		long startNanos = System.nanoTime();
+		int writtenCount = 0;
+		IOException lastException = null;
+		for(WriteQueue<?> queue : allQueues) {
+			writtenCount += queue.writeInFlight();
+			if(queue.lastException != null) lastException = queue.lastException;
+		}
+		if(lastException == null) {
+			flushLatency.recordNanos(System.nanoTime() - startNanos);
+		}
+
+		int failedCount = 0;
+		synchronized(this) {
+			// If nothing was written, the persistence layer is probably down; we do not hold this against the changes.
+			boolean countAttempts = writtenCount > 0;
+			for(WriteQueue<?> queue : allQueues) {
+				failedCount += queue.finishFlush(countAttempts);
+			}
+			if(failedCount > 0) {
+				flushFailures++;
+				if(pendingSinceMillis == 0 || (inFlightSinceMillis != 0 && inFlightSinceMillis < pendingSinceMillis)) pendingSinceMillis = inFlightSinceMillis;
+				pendingCount = 0;
+				for(WriteQueue<?> queue : allQueues) {
+					pendingCount += queue.pending.size();
+				}
+			}
+			inFlightSinceMillis = 0;
+		}
+		if(failedCount > 0) {
+			throw new IOException(failedCount + " changes could not be written to the persistence layer", lastException);
+		}
+	}
+
+	/**
+	 * The queued changes for one of the maps in the persistence layer; a null value is a delete.
+	 * Other than writeInFlight, these methods are called holding the lock on the WriteBehindPersistence.
+	 * Only the flush thread changes the in flight, failed and skipped maps; so writeInFlight can use them without the lock.
+	 */
+	private abstract class WriteQueue<T> {
+		final String name;
+		LinkedHashMap<String, T> pending = new LinkedHashMap<String, T>();
+		LinkedHashMap<String, T> inFlight = new LinkedHashMap<String, T>();
+		/** Changes that could not be written even when written one at a time. */
+		LinkedHashMap<String, T> failed = new LinkedHashMap<String, T>();
+		/** Changes that we did not try to write as the persistence layer seems to be down. */
+		LinkedHashMap<String, T> skipped = new LinkedHashMap<String, T>();
+		LinkedHashMap<String, T> parked = new LinkedHashMap<String, T>();
+		HashMap<String, Integer> failedAttempts = new HashMap<String, Integer>();
+		IOException lastException = null;
+
+		WriteQueue(String name) {
+			this.name = name;
+		}
+
+		abstract void write(Map<String, T> batch) throws IOException;
+
+		boolean isQueued(String key) {
+			return pending.containsKey(key) || inFlight.containsKey(key) || parked.containsKey(key);
+		}
+
+		T getQueued(String key) {
+			if(pending.containsKey(key)) return pending.get(key);
+			return inFlight.containsKey(key) ? inFlight.get(key) : parked.get(key);
+		}
+
+		/**
+		 * A newer change to this key replaces any parked change; this gets a fresh set of attempts.
+		 */
+		void unpark(String key) {
+			parked.remove(key);
+			failedAttempts.remove(key);
+		}
+
+		/**
+		 * Apply the queued changes to the keys from the persistence layer.
+		 */
+		List<String> mergeKeys(List<String> persistedKeys) {
+			LinkedHashSet<String> keys = new LinkedHashSet<String>(persistedKeys);
+			synchronized(WriteBehindPersistence.this) {
+				applyChanges(keys, parked);
+				applyChanges(keys, inFlight);
+				applyChanges(keys, pending);
+			}
+			return new ArrayList<String>(keys);
+		}
+
+		private void applyChanges(LinkedHashSet<String> keys, LinkedHashMap<String, T> changes) {
+			for(Map.Entry<String, T> change : changes.entrySet()) {
+				if(change.getValue() == null) {
+					keys.remove(change.getKey());
+				} else {
+					keys.add(change.getKey());
+				}
+			}
+		}
+
+		void startFlush() {
+			inFlight = pending;
+			pending = new LinkedHashMap<String, T>();
+		}
+
+		/**
+		 * Write the in flight changes in batches; the changes that could not be written end up in the failed and skipped maps.
+		 * Once a batch fails and none of its changes can be written on their own, we stop and skip the rest.
+		 * @return The number of changes written.
+		 */
+		int writeInFlight() {
+			lastException = null;
+			int writtenCount = 0;
+			LinkedHashMap<String, T> batch = new LinkedHashMap<String, T>();
+			for(Map.Entry<String, T> change : inFlight.entrySet()) {
+				if(lastException != null && writtenCount == 0) {
+					skipped.put(change.getKey(), change.getValue());
+					continue;
+				}
+				batch.put(change.getKey(), change.getValue());
+				if(batch.size() >= batchSize) {
+					writtenCount += writeBatch(batch);
+					batch = new LinkedHashMap<String, T>();
+				}
+			}
+			if(!batch.isEmpty()) {
+				writtenCount += writeBatch(batch);
+			}
+			return writtenCount;
+		}
+
+		/**
+		 * Write a batch; if the batch fails, write its changes one at a time so that we know which ones are bad.
+		 * @return The number of changes written.
+		 */
+		private int writeBatch(LinkedHashMap<String, T> batch) {
+			try {
+				write(batch);
+				synchronized(WriteBehindPersistence.this) {
+					changesWritten += batch.size();
+					batchesWritten++;
+				}
+				logger.debug("Wrote a batch of " + batch.size() + " changes to " + name);
+				return batch.size();
+			} catch(IOException ex) {
+				logger.warn("Exception writing a batch of " + batch.size() + " changes to " + name + "; writing these changes one at a time", ex);
+				lastException = ex;
+			}
+
+			int writtenCount = 0;
+			for(Map.Entry<String, T> change : batch.entrySet()) {
+				LinkedHashMap<String, T> single = new LinkedHashMap<String, T>();
+				single.put(change.getKey(), change.getValue());
+				try {
+					write(single);
+					writtenCount++;
+				} catch(IOException ex) {
+					logger.debug("Exception writing the change to " + change.getKey() + " in " + name, ex);
+					lastException = ex;
+					failed.put(change.getKey(), change.getValue());
+				}
+			}
+			synchronized(WriteBehindPersistence.this) {
+				changesWritten += writtenCount;
+				batchesWritten += writtenCount;
+			}
+			return writtenCount;
+		}
+
+		/**
+		 * Done writing the in flight changes.
+		 * The changes that could not be written are queued again unless they have been superseded by newer changes; changes that have failed too many times are parked.
+		 * @param countAttempts - Whether this flush counts against the changes that failed.
+		 * @return The number of changes that could not be written.
+		 */
+		int finishFlush(boolean countAttempts) {
+			int failedCount = failed.size() + skipped.size();
+			LinkedHashMap<String, T> requeued = new LinkedHashMap<String, T>();
+			for(Map.Entry<String, T> change : inFlight.entrySet()) {
+				String key = change.getKey();
+				if(failed.containsKey(key)) {
+					int attempts = failedAttempts.containsKey(key) ? failedAttempts.get(key) : 0;
+					if(countAttempts) attempts++;
+					if(pending.containsKey(key)) {
+						// Superseded by a newer change.
+						failedAttempts.remove(key);
+					} else if(attempts >= MAX_WRITE_ATTEMPTS) {
+						logger.error("Parking the change to " + key + " in " + name + " after failing to write it " + attempts + " times", lastException);
+						parked.put(key, change.getValue());
+						failedAttempts.remove(key);
+						changesParked++;
+					} else {
+						failedAttempts.put(key, attempts);
+						requeued.put(key, change.getValue());
+					}
+				} else if(skipped.containsKey(key)) {
+					requeued.put(key, change.getValue());
+				} else {
+					failedAttempts.remove(key);
+				}
+			}
+			if(!requeued.isEmpty()) {
+				requeued.putAll(pending);
+				pending = requeued;
+			}
+			inFlight = new LinkedHashMap<String, T>();
+			failed = new LinkedHashMap<String, T>();
+			skipped = new LinkedHashMap<String, T>();
+			return failedCount;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package org.epics.archiverappliance.config.pubsub;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Many PubSubEvents for the same destination sent across the cluster as one message.
+ * The events are kept in the order in which they were added; the receiver unpacks them using {@link #getEvents() getEvents} and handles them one at a time.
+ * @author mshankar
+ *
+ */
+public class BatchedPubSubEvent extends PubSubEvent {
+	private static final long serialVersionUID = 2807367317390129516L;
+	public static final String BATCH_EVENT_TYPE = "Batch";
+
+	private ArrayList<String> types = new ArrayList<String>();
+	private ArrayList<String> pvNames = new ArrayList<String>();
+	private ArrayList<String> eventDatas = new ArrayList<String>();
+
+	public BatchedPubSubEvent(String destination) {
+		super(BATCH_EVENT_TYPE, destination, null);
+	}
+
+	/**
+	 * Add an event to this batch; the event should have the same destination as the batch.
+	 * @param pubSubEvent
+	 */
+	public void add(PubSubEvent pubSubEvent) {
+		types.add(pubSubEvent.getType());
+		pvNames.add(pubSubEvent.getPvName());
+		eventDatas.add(pubSubEvent.getEventData());
+	}
+
+	public int size() {
+		return types.size();
+	}
+
+	/**
+	 * @return The events in this batch in the order in which they were added; the source of these events is the source of the batch.
+	 */
+	public List<PubSubEvent> getEvents() {
+		ArrayList<PubSubEvent> events = new ArrayList<PubSubEvent>(types.size());
+		for(int i = 0; i < types.size(); i++) {
+			PubSubEvent pubSubEvent = new PubSubEvent(types.get(i), this.getDestination(), pvNames.get(i));
+			pubSubEvent.setSource(this.getSource());
+			pubSubEvent.setEventData(eventDatas.get(i));
+			events.add(pubSubEvent);
+		}
+		return events;
+	}
+
+	@Override
+	public String generateEventDescription() {
+		return super.generateEventDescription() + "/" + size() + " events";
+	}
+}
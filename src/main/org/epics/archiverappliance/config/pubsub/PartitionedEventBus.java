@@ -0,0 +1,133 @@
+package org.epics.archiverappliance.config.pubsub;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.epics.archiverappliance.common.OpenMetricsWriter;
+import org.epics.archiverappliance.config.PVTypeInfoEvent;
+
+import com.google.common.eventbus.EventBus;
+
+/**
+ * An asynchronous event bus that delivers events on several threads.
+ * Events are partitioned by PV name; all the events for a PV are delivered on the same thread in the order in which they were posted.
+ * Events for different PVs are delivered in parallel; so subscribers can see events for different PVs at the same time.
+ * Events that do not have a PV name are delivered on the first thread.
+ * <p>
+ * Each partition is a regular synchronous EventBus with its own thread and queue; subscribers are registered with all the partitions.
+ * @author mshankar
+ *
+ */
+public class PartitionedEventBus extends EventBus {
+	private static Logger logger = Logger.getLogger(PartitionedEventBus.class.getName());
+	private final EventBus[] partitions;
+	private final ThreadPoolExecutor[] partitionThreads;
+	private final AtomicLong eventsPosted = new AtomicLong(0);
+	private final AtomicLong eventsDelivered = new AtomicLong(0);
+
+	public PartitionedEventBus(final String name, int partitionCount) {
+		super(name);
+		partitionCount = Math.max(1, partitionCount);
+		this.partitions = new EventBus[partitionCount];
+		this.partitionThreads = new ThreadPoolExecutor[partitionCount];
+		for(int i = 0; i < partitionCount; i++) {
+			final String partitionName = name + " " + i;
+			partitions[i] = new EventBus(partitionName);
+			partitionThreads[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					return new Thread(r, partitionName);
+				}
+			});
+		}
+	}
+
+	@Override
+	public void register(Object object) {
+		for(EventBus partition : partitions) {
+			partition.register(object);
+		}
+	}
+
+	@Override
+	public void unregister(Object object) {
+		for(EventBus partition : partitions) {
+			partition.unregister(object);
+		}
+	}
+
+	@Override
+	public void post(final Object event) {
+		final int partition = getPartition(event);
+		eventsPosted.incrementAndGet();
+		try {
+			partitionThreads[partition].execute(new Runnable() {
+				@Override
+				public void run() {
+					partitions[partition].post(event);
+					eventsDelivered.incrementAndGet();
+				}
+			});
+		} catch(RejectedExecutionException ex) {
+			logger.warn("Dropping event " + event + " as the event bus has been shut down");
+		}
+	}
+
+	private int getPartition(Object event) {
+		if(partitions.length == 1) return 0;
+		String pvName = null;
+		if(event instanceof PubSubEvent) {
+			pvName = ((PubSubEvent) event).getPvName();
+		} else if(event instanceof PVTypeInfoEvent) {
+			pvName = ((PVTypeInfoEvent) event).getPvName();
+		}
+		if(pvName == null) return 0;
+		return (pvName.hashCode() & 0x7fffffff) % partitions.length;
+	}
+
+	/**
+	 * @return The number of events waiting to be delivered across all the partitions.
+	 */
+	public int getQueueDepth() {
+		int queueDepth = 0;
+		for(ThreadPoolExecutor partitionThread : partitionThreads) {
+			queueDepth += partitionThread.getQueue().size();
+		}
+		return queueDepth;
+	}
+
+	public int getPartitionCount() {
+		return partitions.length;
+	}
+
+	/**
+	 * Stop accepting events; events that have already been posted are still delivered.
+	 */
+	public void shutdown() {
+		for(ThreadPoolExecutor partitionThread : partitionThreads) {
+			partitionThread.shutdown();
+		}
+	}
+
+	/**
+	 * Write the metrics for the event bus if it is a PartitionedEventBus.
+	 * @param metrics
+	 * @param eventBus
+	 */
+	public static void writeOpenMetrics(OpenMetricsWriter metrics, EventBus eventBus) {
+		if(!(eventBus instanceof PartitionedEventBus)) return;
+		PartitionedEventBus partitionedEventBus = (PartitionedEventBus) eventBus;
+		metrics.counter("config_eventbus_events_posted_total", "Events posted to the event bus", partitionedEventBus.eventsPosted.get());
+		metrics.counter("config_eventbus_events_delivered_total", "Events delivered to the subscribers of the event bus", partitionedEventBus.eventsDelivered.get());
+		metrics.gauge("config_eventbus_queue_depth", "Events waiting to be delivered", partitionedEventBus.getQueueDepth());
+		metrics.family("config_eventbus_partition_queue_depth", "gauge", "Events waiting to be delivered by partition");
+		for(int i = 0; i < partitionedEventBus.partitionThreads.length; i++) {
+			metrics.sample("config_eventbus_partition_queue_depth", "partition", Integer.toString(i), partitionedEventBus.partitionThreads[i].getQueue().size());
+		}
+	}
+}
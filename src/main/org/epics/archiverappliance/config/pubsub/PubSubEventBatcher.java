@@ -0,0 +1,169 @@
+package org.epics.archiverappliance.config.pubsub;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+import org.epics.archiverappliance.common.OpenMetricsWriter;
+
+/**
+ * Coalesces the PubSubEvents that are published into the cluster into {@link BatchedPubSubEvent}s; one per destination.
+ * A batch is published when it has maxBatchSize events or when it is flushMillis old, whichever comes first.
+ * Events for a destination are published in the order in which they were added; a batch with only one event is published as is.
+ * Batches that are ready go into a queue and are published outside the batcher's lock; only one thread publishes from the queue at a time so that the batches go out in order.
+ * @author mshankar
+ *
+ */
+public class PubSubEventBatcher implements AutoCloseable {
+	private static Logger logger = Logger.getLogger(PubSubEventBatcher.class.getName());
+
+	/**
+	 * Publishes a message into the cluster; this is typically the Hazelcast topic.
+	 */
+	public interface Publisher {
+		public void publish(PubSubEvent pubSubEvent);
+	}
+
+	private final Publisher publisher;
+	private final int maxBatchSize;
+	private final ScheduledExecutorService flusher;
+	// Guarded by this
+	private final LinkedHashMap<String, BatchedPubSubEvent> pendingBatches = new LinkedHashMap<String, BatchedPubSubEvent>();
+	private int pendingEvents = 0;
+	// Batches waiting to be published in the order in which they are to be published; guarded by this.
+	private final ArrayDeque<BatchedPubSubEvent> readyBatches = new ArrayDeque<BatchedPubSubEvent>();
+	// Held by the thread that is publishing the ready batches.
+	private final ReentrantLock publishLock = new ReentrantLock();
+
+	private final AtomicLong eventsAdded = new AtomicLong(0);
+	private final AtomicLong messagesPublished = new AtomicLong(0);
+	private final AtomicLong publishFailures = new AtomicLong(0);
+
+	public PubSubEventBatcher(Publisher publisher, int maxBatchSize, long flushMillis) {
+		this.publisher = publisher;
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+		this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "PubSub batch flusher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.flusher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Add an event to the batch for its destination.
+	 * The source of the event should have been set; events from different sources should not be added to the same batcher.
+	 * @param pubSubEvent
+	 */
+	public void add(PubSubEvent pubSubEvent) {
+		eventsAdded.incrementAndGet();
+		String destination = pubSubEvent.getDestination();
+		synchronized(this) {
+			BatchedPubSubEvent batch = pendingBatches.get(destination);
+			if(batch == null) {
+				batch = new BatchedPubSubEvent(destination);
+				batch.setSource(pubSubEvent.getSource());
+				pendingBatches.put(destination, batch);
+			}
+			batch.add(pubSubEvent);
+			pendingEvents++;
+			if(batch.size() < maxBatchSize) return;
+			pendingBatches.remove(destination);
+			pendingEvents -= batch.size();
+			readyBatches.add(batch);
+		}
+		publishReadyBatches();
+	}
+
+	/**
+	 * Publish all the pending batches.
+	 */
+	public void flush() {
+		synchronized(this) {
+			if(pendingBatches.isEmpty() && readyBatches.isEmpty()) return;
+			readyBatches.addAll(pendingBatches.values());
+			pendingBatches.clear();
+			pendingEvents = 0;
+		}
+		publishReadyBatches();
+	}
+
+	/**
+	 * Publish the ready batches unless some other thread is already publishing them.
+	 * We check the queue again after letting go of the publish lock so that a batch added just before we let go is not left behind.
+	 */
+	private void publishReadyBatches() {
+		while(publishLock.tryLock()) {
+			try {
+				BatchedPubSubEvent batch = nextReadyBatch();
+				while(batch != null) {
+					publish(batch);
+					batch = nextReadyBatch();
+				}
+			} finally {
+				publishLock.unlock();
+			}
+			synchronized(this) {
+				if(readyBatches.isEmpty()) return;
+			}
+		}
+	}
+
+	private synchronized BatchedPubSubEvent nextReadyBatch() {
+		return readyBatches.poll();
+	}
+
+	private void publish(BatchedPubSubEvent batch) {
+		try {
+			if(batch.size() == 1) {
+				publisher.publish(batch.getEvents().get(0));
+			} else {
+				logger.debug("Publishing a batch of " + batch.size() + " events for " + batch.getDestination());
+				publisher.publish(batch);
+			}
+			messagesPublished.incrementAndGet();
+		} catch(Exception ex) {
+			publishFailures.incrementAndGet();
+			logger.error("Exception publishing " + batch.size() + " events for " + batch.getDestination() + " into the cluster", ex);
+		}
+	}
+
+	public synchronized int getPendingEvents() {
+		return pendingEvents;
+	}
+
+	public long getEventsAdded() {
+		return eventsAdded.get();
+	}
+
+	public long getMessagesPublished() {
+		return messagesPublished.get();
+	}
+
+	@Override
+	public void close() {
+		flusher.shutdown();
+		flush();
+	}
+
+	public void writeOpenMetrics(OpenMetricsWriter metrics) {
+		metrics.counter("config_pubsub_events_total", "Events published into the cluster", eventsAdded.get());
+		metrics.counter("config_pubsub_messages_total", "Messages published into the cluster; each message carries a batch of events", messagesPublished.get());
+		metrics.counter("config_pubsub_publish_failures_total", "Exceptions publishing messages into the cluster", publishFailures.get());
+		metrics.gauge("config_pubsub_pending_events", "Events waiting to be published into the cluster", getPendingEvents());
+	}
+}
@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A VectorValue that holds its elements in a little endian ByteBuffer instead of a list of boxed numbers.
+ * Elements are decoded from the buffer only when they are asked for; use {@link #getElementAsDouble(int)} to get at them without boxing.
+ * The list returned by {@link #getValues()} is a view that boxes the elements as they are accessed.
+ * The buffer is owned by this object; callers should not change it after handing it over.
+ * @author mshankar
+ *
+ * @param <T>
+ */
+public abstract class PrimitiveVectorValue<T extends Number> extends VectorValue<T> {
+	protected final ByteBuffer buf;
+	private final int elementCount;
+
+	protected PrimitiveVectorValue(ByteBuffer buf, int elementSize) {
+		super(null);
+		this.buf = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+		this.elementCount = this.buf.remaining()/elementSize;
+	}
+
+	@Override
+	public abstract T getValue(int index);
+
+	@Override
+	public abstract double getElementAsDouble(int index);
+
+	@Override
+	public abstract String getStringValue(int index);
+
+	@Override
+	public T getValue() {
+		return getValue(0);
+	}
+
+	@Override
+	public int getElementCount() {
+		return elementCount;
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public List getValues() {
+		return new ElementList();
+	}
+
+	/**
+	 * @return The elements as a little endian ByteBuffer that is ready to read.
+	 */
+	@Override
+	public ByteBuffer getValueAsBytes() {
+		return buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	@Override
+	public int hashCode() {
+		return getValues().hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(obj != null && obj.getClass() == this.getClass()) {
+			return buf.equals(((PrimitiveVectorValue<?>) obj).buf);
+		}
+		if(!(obj instanceof VectorValue)) return false;
+		VectorValue<?> other = (VectorValue<?>) obj;
+		return getValues().equals(other.getValues());
+	}
+
+	@Override
+	public String toString() {
+		return toJSONString();
+	}
+
+	@Override
+	public String toJSONString() {
+		StringBuilder ret = new StringBuilder(elementCount*8 + 2);
+		ret.append('[');
+		for(int i = 0; i < elementCount; i++) {
+			if(i != 0) ret.append(',');
+			ret.append(getStringValue(i));
+		}
+		ret.append(']');
+		return ret.toString();
+	}
+
+	private class ElementList extends AbstractList<T> implements RandomAccess {
+		@Override
+		public T get(int index) {
+			return getValue(index);
+		}
+
+		@Override
+		public int size() {
+			return elementCount;
+		}
+	}
+
+	public static class OfDouble extends PrimitiveVectorValue<Double> {
+		public OfDouble(ByteBuffer buf) {
+			super(buf, 8);
+		}
+
+		public OfDouble(double[] vals) {
+			this(toBytes(vals));
+		}
+
+		@Override
+		public Double getValue(int index) {
+			return getElementAsDouble(index);
+		}
+
+		@Override
+		public double getElementAsDouble(int index) {
+			return buf.getDouble(checkIndex(index)*8);
+		}
+
+		@Override
+		public String getStringValue(int index) {
+			return Double.toString(getElementAsDouble(index));
+		}
+
+		public static ByteBuffer toBytes(double[] vals) {
+			ByteBuffer ret = ByteBuffer.allocate(vals.length*8).order(ByteOrder.LITTLE_ENDIAN);
+			ret.asDoubleBuffer().put(vals);
+			return ret;
+		}
+	}
+
+	public static class OfFloat extends PrimitiveVectorValue<Float> {
+		public OfFloat(ByteBuffer buf) {
+			super(buf, 4);
+		}
+
+		public OfFloat(float[] vals) {
+			this(toBytes(vals));
+		}
+
+		@Override
+		public Float getValue(int index) {
+			return buf.getFloat(checkIndex(index)*4);
+		}
+
+		@Override
+		public double getElementAsDouble(int index) {
+			return buf.getFloat(checkIndex(index)*4);
+		}
+
+		@Override
+		public String getStringValue(int index) {
+			return Float.toString(buf.getFloat(checkIndex(index)*4));
+		}
+
+		public static ByteBuffer toBytes(float[] vals) {
+			ByteBuffer ret = ByteBuffer.allocate(vals.length*4).order(ByteOrder.LITTLE_ENDIAN);
+			ret.asFloatBuffer().put(vals);
+			return ret;
+		}
+	}
+
+	public static class OfInt extends PrimitiveVectorValue<Integer> {
+		public OfInt(ByteBuffer buf) {
+			super(buf, 4);
+		}
+
+		public OfInt(int[] vals) {
+			this(toBytes(vals));
+		}
+
+		@Override
+		public Integer getValue(int index) {
+			return buf.getInt(checkIndex(index)*4);
+		}
+
+		@Override
+		public double getElementAsDouble(int index) {
+			return buf.getInt(checkIndex(index)*4);
+		}
+
+		@Override
+		public String getStringValue(int index) {
+			return Integer.toString(buf.getInt(checkIndex(index)*4));
+		}
+
+		public static ByteBuffer toBytes(int[] vals) {
+			ByteBuffer ret = ByteBuffer.allocate(vals.length*4).order(ByteOrder.LITTLE_ENDIAN);
+			ret.asIntBuffer().put(vals);
+			return ret;
+		}
+	}
+
+	public static class OfShort extends PrimitiveVectorValue<Short> {
+		public OfShort(ByteBuffer buf) {
+			super(buf, 2);
+		}
+
+		public OfShort(short[] vals) {
+			this(toBytes(vals));
+		}
+
+		@Override
+		public Short getValue(int index) {
+			return buf.getShort(checkIndex(index)*2);
+		}
+
+		@Override
+		public double getElementAsDouble(int index) {
+			return buf.getShort(checkIndex(index)*2);
+		}
+
+		@Override
+		public String getStringValue(int index) {
+			return Short.toString(buf.getShort(checkIndex(index)*2));
+		}
+
+		public static ByteBuffer toBytes(short[] vals) {
+			ByteBuffer ret = ByteBuffer.allocate(vals.length*2).order(ByteOrder.LITTLE_ENDIAN);
+			ret.asShortBuffer().put(vals);
+			return ret;
+		}
+	}
+
+	public static class OfByte extends PrimitiveVectorValue<Byte> {
+		public OfByte(ByteBuffer buf) {
+			super(buf, 1);
+		}
+
+		public OfByte(byte[] vals) {
+			this(ByteBuffer.wrap(vals));
+		}
+
+		@Override
+		public Byte getValue(int index) {
+			return buf.get(checkIndex(index));
+		}
+
+		@Override
+		public double getElementAsDouble(int index) {
+			return buf.get(checkIndex(index));
+		}
+
+		@Override
+		public String getStringValue(int index) {
+			return Byte.toString(buf.get(checkIndex(index)));
+		}
+	}
+
+	/**
+	 * The ByteBuffer only checks the byte offset against the limit; so we check the element index ourselves.
+	 */
+	protected int checkIndex(int index) {
+		if(index < 0 || index >= elementCount) throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for a vector of " + elementCount + " elements");
+		return index;
+	}
+}
@@ -43,6 +43,16 @@ public class VectorValue <T extends Number> implements SampleValue {
 		return values.get(index);
 	}
 
+	/**
+	 * Get an element as a double.
+	 * Subclasses that hold their elements in primitive form (see {@link PrimitiveVectorValue}) do this without boxing.
+	 * @param index
+	 * @return
+	 */
+	public double getElementAsDouble(int index) {
+		return values.get(index).doubleValue();
+	}
+
 	/* (non-Javadoc)
 	 * The toString for vectors generates a JSON vector...
 	 * @see java.lang.Object#toString()
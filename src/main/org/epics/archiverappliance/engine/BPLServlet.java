@@ -33,6 +33,7 @@ import org.epics.archiverappliance.engine.bpl.PVStatusAction;
 import org.epics.archiverappliance.engine.bpl.PauseArchivingPV;
 import org.epics.archiverappliance.engine.bpl.PausePVsOnShutdown;
 import org.epics.archiverappliance.engine.bpl.ResumeArchivingPV;
+import org.epics.archiverappliance.engine.bpl.StartArchivingPVs;
 import org.epics.archiverappliance.engine.bpl.reports.ApplianceMetrics;
 import org.epics.archiverappliance.engine.bpl.reports.ApplianceMetricsDetails;
 import org.epics.archiverappliance.engine.bpl.reports.ConnectedPVCountForAppliance;
@@ -42,9 +43,11 @@ import org.epics.archiverappliance.engine.bpl.reports.DroppedEventsTimestampRepo
 import org.epics.archiverappliance.engine.bpl.reports.DroppedEventsTypeChangeReport;
 import org.epics.archiverappliance.engine.bpl.reports.EventRateReport;
 import org.epics.archiverappliance.engine.bpl.reports.InstanceReportDetails;
+import org.epics.archiverappliance.engine.bpl.reports.LatencyHistogramsReport;
 import org.epics.archiverappliance.engine.bpl.reports.ListAllChannels;
 import org.epics.archiverappliance.engine.bpl.reports.LostConnectionsReport;
 import org.epics.archiverappliance.engine.bpl.reports.NeverConnectedPVsAction;
+import org.epics.archiverappliance.engine.bpl.reports.OpenMetrics;
 import org.epics.archiverappliance.engine.bpl.reports.PVDetails;
 import org.epics.archiverappliance.engine.bpl.reports.SilentPVReport;
 import org.epics.archiverappliance.engine.bpl.reports.StorageRateReport;
@@ -89,6 +92,8 @@ public class BPLServlet extends HttpServlet {
 		getActions.put("/getVersion", GetVersion.class);
 		getActions.put("/getArchivedWaveforms", WaveformPVsAction.class);
 		getActions.put("/getArchiveChannelObjectDetails", ArchiveChannelObjectDetailsAction.class);
+		getActions.put("/getLatencyHistograms", LatencyHistogramsReport.class);
+		getActions.put("/metrics", OpenMetrics.class);
 	}
 
 	@Override
@@ -103,6 +108,7 @@ public class BPLServlet extends HttpServlet {
 		postActions.put("/status", PVStatusAction.class);
 		postActions.put("/pauseArchivingPV", PauseArchivingPV.class);
 		postActions.put("/resumeArchivingPV", ResumeArchivingPV.class);
+		postActions.put("/startArchivingPVs", StartArchivingPVs.class);
 	}
 	
 	@Override
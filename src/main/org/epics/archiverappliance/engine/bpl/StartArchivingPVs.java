@@ -0,0 +1,58 @@
+package org.epics.archiverappliance.engine.bpl;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.epics.archiverappliance.common.BPLAction;
+import org.epics.archiverappliance.config.ConfigService;
+import org.epics.archiverappliance.utils.ui.MimeTypeConstants;
+import org.json.simple.JSONValue;
+
+/**
+ * Start archiving many PVs in one call; this is used by the archive PV workflow in mgmt to register the PVs assigned to this appliance in bulk.
+ * The PVTypeInfo for these PVs should already be in the cluster.
+ * Returns the status for each PV; mgmt retries the PVs that failed.
+ * @author mshankar
+ *
+ */
+public class StartArchivingPVs implements BPLAction {
+	private static Logger logger = Logger.getLogger(StartArchivingPVs.class.getName());
+	@Override
+	public void execute(HttpServletRequest req, HttpServletResponse resp, ConfigService configService) throws IOException {
+		String pvNamesStr = req.getParameter("pv");
+		if(pvNamesStr == null || pvNamesStr.equals("")) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		
+		String[] pvNames = pvNamesStr.split(",");
+		logger.info("Starting to archive " + pvNames.length + " PVs");
+		configService.prefetchPVInfos(Arrays.asList(pvNames));
+
+		LinkedList<HashMap<String, Object>> statuses = new LinkedList<HashMap<String, Object>>();
+		for(String pvName : pvNames) { 
+			HashMap<String, Object> infoValues = new HashMap<String, Object>();
+			infoValues.put("pvName", pvName);
+			statuses.add(infoValues);
+			try {
+				configService.getEngineContext().startArchivingPV(pvName);
+				infoValues.put("status", "ok");
+			} catch(Exception ex) {
+				logger.error("Exception beginning archiving pv " + pvName, ex);
+				infoValues.put("status", "failed");
+				infoValues.put("validation", ex.getMessage());
+			}
+		}
+		resp.setContentType(MimeTypeConstants.APPLICATION_JSON);
+		try(PrintWriter out = resp.getWriter()) {
+			out.println(JSONValue.toJSONString(statuses));
+		}
+	}
+}
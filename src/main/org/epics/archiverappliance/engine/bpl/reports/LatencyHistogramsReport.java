@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.engine.bpl.reports;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.epics.archiverappliance.common.BPLAction;
+import org.epics.archiverappliance.config.ConfigService;
+import org.epics.archiverappliance.utils.ui.MimeTypeConstants;
+import org.json.simple.JSONValue;
+
+/**
+ * Latency histograms (from the time the monitor arrives to the time the sample is in the short term store) for this appliance.
+ * Use <code>groupBy=dbrtype</code> or <code>groupBy=samplingmethod</code> to break these down by the class of PV.
+ * Use <code>buckets=true</code> to include the raw bucket counts.
+ * @author mshankar
+ *
+ */
+public class LatencyHistogramsReport implements BPLAction {
+
+	@Override
+	public void execute(HttpServletRequest req, HttpServletResponse resp, ConfigService configService) throws IOException {
+		String groupBy = req.getParameter("groupBy");
+		boolean includeBuckets = Boolean.parseBoolean(req.getParameter("buckets"));
+		resp.setContentType(MimeTypeConstants.APPLICATION_JSON);
+		try (PrintWriter out = resp.getWriter()) {
+			out.println(JSONValue.toJSONString(configService.getEngineContext().getEngineLatencies().getSummaries(groupBy, includeBuckets)));
+		}
+	}
+}
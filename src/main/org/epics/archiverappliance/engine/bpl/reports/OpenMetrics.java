@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.engine.bpl.reports;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.epics.archiverappliance.common.BPLAction;
+import org.epics.archiverappliance.common.OpenMetricsWriter;
+import org.epics.archiverappliance.config.ConfigService;
+import org.epics.archiverappliance.config.NearCache;
+import org.epics.archiverappliance.config.pubsub.PartitionedEventBus;
+import org.epics.archiverappliance.engine.model.ScanScheduler;
+import org.epics.archiverappliance.engine.pv.EngineContext;
+import org.epics.archiverappliance.engine.pv.EngineCounters;
+import org.epics.archiverappliance.engine.pv.EngineLatencies;
+import org.epics.archiverappliance.engine.pv.JCACommandThread;
+
+/**
+ * Engine metrics in the Prometheus text format.
+ * Everything here comes from counters that are maintained as we go; so the cost of a scrape does not depend on the number of PVs.
+ * @author mshankar
+ *
+ */
+public class OpenMetrics implements BPLAction {
+
+	@Override
+	public void execute(HttpServletRequest req, HttpServletResponse resp, ConfigService configService) throws IOException {
+		resp.setContentType(OpenMetricsWriter.CONTENT_TYPE);
+		EngineContext engineContext = configService.getEngineContext();
+		EngineCounters engineCounters = engineContext.getEngineCounters();
+		try (PrintWriter out = resp.getWriter()) {
+			OpenMetricsWriter metrics = new OpenMetricsWriter(out, "engine");
+			int totalChannels = engineContext.getChannelList().size();
+			int connectedChannels = engineCounters.getConnectedChannelCount();
+			metrics.gauge("engine_pvs", "PVs being archived by this engine", totalChannels);
+			metrics.gauge("engine_connected_pvs", "PVs that are currently connected", connectedChannels);
+			metrics.gauge("engine_disconnected_pvs", "PVs that are currently disconnected", totalChannels - connectedChannels);
+			metrics.gauge("engine_meta_channels", "Channels for the extra fields of the PVs", engineCounters.getMetaChannelCount());
+			metrics.counter("engine_events_total", "Events added to the sample buffers", engineCounters.getEventCount());
+			metrics.counter("engine_event_bytes_total", "Size of the events added to the sample buffers", engineCounters.getStorageBytes());
+			metrics.gauge("engine_event_rate", "Events per second over the last minute or two", engineCounters.getEventRate());
+			metrics.gauge("engine_data_rate_bytes", "Bytes per second over the last minute or two", engineCounters.getDataRate());
+
+			metrics.family("engine_lost_events_total", "counter", "Events lost by reason");
+			for(EngineCounters.LostEventReason reason : EngineCounters.LostEventReason.values()) {
+				metrics.sample("engine_lost_events_total", "reason", reason.toString().toLowerCase(), engineCounters.getLostEventCount(reason));
+			}
+
+			metrics.counter("engine_writer_seconds_total", "Time spent writing the sample buffers to the short term store", engineContext.getTotalSecondsConsumedByWritter());
+			metrics.counter("engine_writer_runs_total", "Number of times the sample buffers were written to the short term store", engineContext.getCountOfWritesByWritter());
+
+			metrics.family("engine_latency_seconds", "summary", "Time from the arrival of a monitor to the stage");
+			for(EngineLatencies.Stage stage : EngineLatencies.Stage.values()) {
+				metrics.summary("engine_latency_seconds", "stage", stage.toString().toLowerCase(), engineContext.getEngineLatencies().getApplianceHistogram(stage));
+			}
+
+			metrics.family("engine_jca_command_queue_depth", "gauge", "Commands waiting for the JCA command thread");
+			for(int threadNum = 0; threadNum < engineContext.getJCACommandThreadCount(); threadNum++) {
+				JCACommandThread commandThread = engineContext.getJCACommandThread(threadNum);
+				metrics.sample("engine_jca_command_queue_depth", "thread", Integer.toString(threadNum), commandThread.getQueueDepth());
+			}
+
+			metrics.family("engine_scans_total", "counter", "Scans for the PVs archived using SCAN by scan period");
+			for(ScanScheduler.ScanGroup scanGroup : engineContext.getScanScheduler().getScanGroups()) {
+				metrics.sample("engine_scans_total", "period_ms", Long.toString(scanGroup.getPeriodMillis()), scanGroup.getScans());
+			}
+			metrics.family("engine_missed_scans_total", "counter", "Missed scans for the PVs archived using SCAN by scan period");
+			for(ScanScheduler.ScanGroup scanGroup : engineContext.getScanScheduler().getScanGroups()) {
+				metrics.sample("engine_missed_scans_total", "period_ms", Long.toString(scanGroup.getPeriodMillis()), scanGroup.getMissedScans());
+			}
+
+			NearCache.writeOpenMetrics(metrics, configService.getNearCaches());
+			PartitionedEventBus.writeOpenMetrics(metrics, configService.getEventBus());
+			if(configService.getPubSubEventBatcher() != null) {
+				configService.getPubSubEventBatcher().writeOpenMetrics(metrics);
+			}
+			metrics.jvmMetrics();
+		}
+	}
+}
@@ -9,20 +9,21 @@ package org.epics.archiverappliance.engine.epics;
 
 import java.text.DecimalFormat;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.epics.archiverappliance.common.LatencyHistogram;
 import org.epics.archiverappliance.config.ConfigService;
 import org.epics.archiverappliance.engine.metadata.MetaGet;
-import org.epics.archiverappliance.engine.model.ArchiveChannel;
+import org.epics.archiverappliance.engine.model.ScanScheduler;
 import org.epics.archiverappliance.engine.pv.EngineContext;
+import org.epics.archiverappliance.engine.pv.EngineCounters;
+import org.epics.archiverappliance.engine.pv.EngineLatencies;
+import org.epics.archiverappliance.engine.pv.JCACommandThread;
 import org.epics.archiverappliance.engine.pv.PVContext;
-import org.epics.archiverappliance.engine.pv.PVMetrics;
 import org.json.simple.JSONAware;
 import org.json.simple.JSONValue;
 
@@ -116,6 +117,29 @@ public class EngineMetrics implements JSONAware {
 		addDetailedStatus(details, "PVs pending computation of meta info", Integer.toString(MetaGet.getPendingMetaGetsSize()));
 		addDetailedStatus(details, "Total number of reference counted channels", Integer.toString(PVContext.getChannelCount()));
 		addDetailedStatus(details, "Total number of CAJ channels", Integer.toString(context.getCAJChannelCount()));
+		for(int threadNum = 0; threadNum < context.getJCACommandThreadCount(); threadNum++) {
+			JCACommandThread commandThread = context.getJCACommandThread(threadNum);
+			addDetailedStatus(details, "JCA command thread " + threadNum + " queue depth (current/max)", commandThread.getQueueDepth() + "/" + commandThread.getMaxQueueDepth());
+			addDetailedStatus(details, "JCA command thread " + threadNum + " time in queue", commandThread.getWaitTimeHistogram());
+		}
+		for(Map.Entry<String, String> dispatcherMetric : JCAEventDispatcherBasedOnPVName.getMetrics().entrySet()) {
+			addDetailedStatus(details, dispatcherMetric.getKey(), dispatcherMetric.getValue());
+		}
+		for(ScanScheduler.ScanGroup scanGroup : context.getScanScheduler().getScanGroups()) {
+			String scanGroupName = "Scan period " + twoSignificantDigits.format(scanGroup.getPeriodMillis()/1000.0) + "s";
+			addDetailedStatus(details, scanGroupName + " channels", Integer.toString(scanGroup.getChannelCount()));
+			addDetailedStatus(details, scanGroupName + " scans", Long.toString(scanGroup.getScans()));
+			addDetailedStatus(details, scanGroupName + " average lateness (ms)", twoSignificantDigits.format(scanGroup.getAverageLatenessMillis()));
+			addDetailedStatus(details, scanGroupName + " max lateness (ms)", Long.toString(scanGroup.getMaxLatenessMillis()));
+			addDetailedStatus(details, scanGroupName + " missed scans", Long.toString(scanGroup.getMissedScans()));
+		}
+		for(EngineLatencies.Stage stage : EngineLatencies.Stage.values()) {
+			LatencyHistogram histogram = context.getEngineLatencies().getApplianceHistogram(stage);
+			if(histogram.getCount() == 0) continue;
+			addDetailedStatus(details, "Latency " + stage + " p50/p99/max (ms)", twoSignificantDigits.format(histogram.getPercentileMicros(50)/1000.0) 
+					+ "/" + twoSignificantDigits.format(histogram.getPercentileMicros(99)/1000.0) 
+					+ "/" + twoSignificantDigits.format(histogram.getMaxMicros()/1000.0));
+		}
 		
 		return JSONValue.toJSONString(details);
 	}
@@ -129,58 +153,31 @@ public class EngineMetrics implements JSONAware {
 	}
 	
 	
+	/**
+	 * Compute the engine metrics from the counters that the channels maintain as they connect, disconnect and archive samples.
+	 * This does not go thru the channels; so this is cheap enough to call often.
+	 * Paused PVs are removed from the engine; so these are not part of the channel list.
+	 * @param engineContext
+	 * @param configService
+	 * @return
+	 */
 	public static EngineMetrics computeEngineMetrics(EngineContext engineContext, ConfigService configService) {
-        EngineMetrics engineMetrics = new EngineMetrics();
-        // Event rate is in events/sec
-        double eventRate = 0.0;
-        // Data rate is in bytes/sec
-        double dataRate = 0.0;
-        int connectedChannels = 0;
-        int disconnectedChannels = 0;
-        int totalChannels = 0;
-        
+		EngineMetrics engineMetrics = new EngineMetrics();
+		EngineCounters engineCounters = engineContext.getEngineCounters();
 		Set<String> pausedPVs = configService.getPausedPVsInThisAppliance();
-        
-        Iterator<Entry<String, ArchiveChannel>> it=engineContext.getChannelList().entrySet().iterator();
-        while(it.hasNext()){
-        	Entry<String, ArchiveChannel> tempEntry=it.next();
-        	ArchiveChannel channel=tempEntry.getValue();
-        	String pvName = channel.getName();
-        	try { 
-	        	if(pausedPVs.contains(pvName)) {
-	        		// Skipping paused PV.
-	        		continue;
-	        	}
+		int totalChannels = engineContext.getChannelList().size();
+		int connectedChannels = engineCounters.getConnectedChannelCount();
 
-	        	PVMetrics pvMetrics = channel.getPVMetrics();
-	        	totalChannels++;
-	        	if(pvMetrics==null) {
-					disconnectedChannels++;
-					continue;
-				}
-				if(!pvMetrics.isConnected()) { 
-					disconnectedChannels++;
-				} else { 
-					connectedChannels++;
-				}
-				eventRate += pvMetrics.getEventRate();
-				dataRate += pvMetrics.getStorageRate();
-        	} catch(Exception ex) { 
-        		logger.error("Exception computing engine metrics for PV " + channel.getName(), ex);
-        	}
-        }
-		engineMetrics.setEventRate(eventRate);
-		engineMetrics.setDataRate(dataRate);
+		// Event rate is in events/sec
+		engineMetrics.setEventRate(engineCounters.getEventRate());
+		// Data rate is in bytes/sec
+		engineMetrics.setDataRate(engineCounters.getDataRate());
 
 		engineMetrics.setPvCount(totalChannels);
 		engineMetrics.setConnectedPVCount(connectedChannels);
-		engineMetrics.setDisconnectedPVCount(disconnectedChannels);
+		engineMetrics.setDisconnectedPVCount(totalChannels - connectedChannels);
 		engineMetrics.setPausedPVCount(pausedPVs.size());
-		int totalchannelCount = engineContext.getChannelList().size();
-		for(ArchiveChannel archiveChannel : engineContext.getChannelList().values()) { 
-			totalchannelCount += archiveChannel.getMetaChannelCount();
-		}
-		engineMetrics.setTotalEPICSChannels(totalchannelCount);
+		engineMetrics.setTotalEPICSChannels(totalChannels + engineCounters.getMetaChannelCount());
 		engineMetrics.setSecondsConsumedByWritter(engineContext.getAverageSecondsConsumedByWritter());
 
 		return engineMetrics;
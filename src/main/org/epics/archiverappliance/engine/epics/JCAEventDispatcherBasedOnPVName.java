@@ -17,28 +17,249 @@ import gov.aps.jca.event.MonitorListener;
 import gov.aps.jca.event.PutEvent;
 import gov.aps.jca.event.PutListener;
 
+import java.text.DecimalFormat;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.log4j.Logger;
 
 /**
  * Attempt to distribute the load of serializing the event across multiple threads
- * All events that have a Channel as the source are sent to a thread based on the hash of the pv name.
+ * All events that have a Channel as the source are queued in a per PV queue based on the pv name (so all the fields of a PV share a queue and are processed in order).
+ * Each PV queue is assigned to a thread based on the hash of the pv name.
+ * If a thread runs out of work, it steals a whole PV queue from a busy thread; the PV then stays with the new thread.
+ * Monitor events are dropped if the thread that owns the PV already has too many events queued; these are counted in the PV's metrics.
+ * The PV queue is removed once all the channels that use it have been destroyed (see {@link #channelDestroyed(String)}) and its events have been processed.
  * Everything else uses one thread similar to QueuedEventDispacther.
+ *
+ * JCA/CAJ instantiate the dispatcher using the default constructor; so the configuration is passed in using {@link #configure(Properties)} before the context is created.
  * @author mshankar
  *
  */
 public class JCAEventDispatcherBasedOnPVName extends AbstractEventDispatcher {
-	ExecutorService allOtherEventsHandler = null;
-	ExecutorService[] pvNameEventsHandlers = new ExecutorService[Math.max(Runtime.getRuntime().availableProcessors()/4, 4)];
-	int numThreads =  pvNameEventsHandlers.length;
 	private static Logger logger = Logger.getLogger(JCAEventDispatcherBasedOnPVName.class.getName());
+	/** Maximum number of events processed from a PV queue before moving on to the next PV */
+	private static final int MAX_EVENTS_PER_TURN = 100;
+	/** Idle threads wake up this often to check if there is work to steal */
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static volatile int configuredThreadCount = Math.max(Runtime.getRuntime().availableProcessors()/4, 4);
+	private static volatile int configuredMaxQueuedEventsPerThread = 10000;
+	private static final CopyOnWriteArrayList<JCAEventDispatcherBasedOnPVName> dispatchers = new CopyOnWriteArrayList<JCAEventDispatcherBasedOnPVName>();
+
+	ExecutorService allOtherEventsHandler = null;
+	private final Shard[] shards;
+	private final int numThreads;
+	private final int maxQueuedEventsPerThread;
+	private final ConcurrentHashMap<String, PVEventQueue> pvQueues = new ConcurrentHashMap<String, PVEventQueue>();
+	private volatile boolean running = true;
+
+	/**
+	 * Listeners that want to know when a monitor event is dropped because the dispatcher is too far behind.
+	 */
+	public interface DroppedEventListener {
+		public void monitorEventDropped(MonitorEvent ev);
+	}
+
+	/**
+	 * Set the configuration for dispatchers that are created after this call.
+	 * @param props - the installation properties
+	 */
+	public static void configure(Properties props) {
+		if(props == null) return;
+		configuredThreadCount = Integer.parseInt(props.getProperty("org.epics.archiverappliance.engine.epics.JCAEventDispatcherBasedOnPVName.threads", Integer.toString(configuredThreadCount)));
+		configuredMaxQueuedEventsPerThread = Integer.parseInt(props.getProperty("org.epics.archiverappliance.engine.epics.JCAEventDispatcherBasedOnPVName.maxQueuedEventsPerThread", Integer.toString(configuredMaxQueuedEventsPerThread)));
+	}
+
+	/**
+	 * The events for a PV, in order.
+	 * This is a ring buffer so that we do not allocate anything per event; all access is synchronized on the queue.
+	 */
+	private static class PVEventQueue {
+		private final String pvName;
+		private Object[] events = new Object[4];
+		private List<?>[] listeners = new List<?>[4];
+		private long[] enqueueNanos = new long[4];
+		private int head = 0;
+		private int size = 0;
+		/** The thread that processes this PV; this changes if the queue is stolen */
+		private Shard owner;
+		/** True if this queue is in a thread's ready list or is being processed */
+		private boolean scheduled = false;
+		/** The channels (the PV and its fields) that have sent us events and have not been destroyed */
+		private final HashSet<String> channelNames = new HashSet<String>(4);
+		/** Once removed from pvQueues, events go into a new queue for this PV */
+		private boolean removed = false;
+
+		PVEventQueue(String pvName, Shard owner) {
+			this.pvName = pvName;
+			this.owner = owner;
+		}
+
+		void add(Object event, List<?> eventListeners, long nanos) {
+			if(size == events.length) {
+				grow();
+			}
+			int tail = (head + size) % events.length;
+			events[tail] = event;
+			listeners[tail] = eventListeners;
+			enqueueNanos[tail] = nanos;
+			size++;
+		}
+
+		void removeHead() {
+			events[head] = null;
+			listeners[head] = null;
+			head = (head + 1) % events.length;
+			size--;
+		}
+
+		private void grow() {
+			int newCapacity = events.length*2;
+			Object[] newEvents = new Object[newCapacity];
+			List<?>[] newListeners = new List<?>[newCapacity];
+			long[] newEnqueueNanos = new long[newCapacity];
+			for(int i = 0; i < size; i++) {
+				int index = (head + i) % events.length;
+				newEvents[i] = events[index];
+				newListeners[i] = listeners[index];
+				newEnqueueNanos[i] = enqueueNanos[index];
+			}
+			events = newEvents;
+			listeners = newListeners;
+			enqueueNanos = newEnqueueNanos;
+			head = 0;
+		}
+	}
+
+	/**
+	 * One thread and the PV queues that have work for it.
+	 */
+	private class Shard implements Runnable {
+		private final int shardNum;
+		private final ConcurrentLinkedDeque<PVEventQueue> ready = new ConcurrentLinkedDeque<PVEventQueue>();
+		private final AtomicInteger pendingEvents = new AtomicInteger(0);
+		private volatile int maxPendingEvents = 0;
+		private final AtomicLong dispatchedEvents = new AtomicLong(0);
+		private final AtomicLong totalLatencyNanos = new AtomicLong(0);
+		private volatile long maxLatencyNanos = 0;
+		private final AtomicLong droppedEvents = new AtomicLong(0);
+		private final AtomicLong stolenQueues = new AtomicLong(0);
+		private volatile boolean idle = false;
+		private Thread thread;
+
+		Shard(int shardNum) {
+			this.shardNum = shardNum;
+		}
+
+		@Override
+		public void run() {
+			while(running) {
+				PVEventQueue queue = ready.pollFirst();
+				if(queue == null) queue = steal();
+				if(queue == null) {
+					idle = true;
+					// Check again after advertising that we are idle so that we do not miss a wakeup.
+					queue = ready.pollFirst();
+					if(queue == null) queue = steal();
+					if(queue == null) {
+						LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+						idle = false;
+						continue;
+					}
+					idle = false;
+				}
+				process(queue);
+			}
+		}
+
+		private void process(PVEventQueue queue) {
+			for(int i = 0; i < MAX_EVENTS_PER_TURN; i++) {
+				Object event;
+				List<?> eventListeners;
+				long enqueuedAt;
+				synchronized(queue) {
+					if(queue.size == 0) {
+						queue.scheduled = false;
+						removeIfUnused(queue);
+						return;
+					}
+					event = queue.events[queue.head];
+					eventListeners = queue.listeners[queue.head];
+					enqueuedAt = queue.enqueueNanos[queue.head];
+					queue.removeHead();
+					pendingEvents.decrementAndGet();
+				}
+				long latencyNanos = System.nanoTime() - enqueuedAt;
+				dispatchedEvents.incrementAndGet();
+				totalLatencyNanos.addAndGet(latencyNanos);
+				if(latencyNanos > maxLatencyNanos) maxLatencyNanos = latencyNanos;
+				fire(event, eventListeners);
+			}
+			synchronized(queue) {
+				if(queue.size == 0) {
+					queue.scheduled = false;
+					removeIfUnused(queue);
+					return;
+				}
+			}
+			// Give the other PVs on this thread a chance.
+			ready.addLast(queue);
+		}
+
+		/**
+		 * Take a whole PV queue from the end of another thread's ready list.
+		 */
+		private PVEventQueue steal() {
+			for(int i = 1; i < numThreads; i++) {
+				Shard victim = shards[(shardNum + i) % numThreads];
+				PVEventQueue queue = victim.ready.pollLast();
+				if(queue != null) {
+					synchronized(queue) {
+						victim.pendingEvents.addAndGet(-queue.size);
+						pendingEvents.addAndGet(queue.size);
+						queue.owner = this;
+					}
+					stolenQueues.incrementAndGet();
+					return queue;
+				}
+			}
+			return null;
+		}
+
+		private void schedule(PVEventQueue queue) {
+			ready.addLast(queue);
+			if(idle) {
+				LockSupport.unpark(thread);
+			} else {
+				// We are busy; wake up an idle thread so that it can steal this.
+				for(Shard shard : shards) {
+					if(shard.idle) {
+						LockSupport.unpark(shard.thread);
+						break;
+					}
+				}
+			}
+		}
+	}
 
 	public JCAEventDispatcherBasedOnPVName() {
 		super();
+		numThreads = Math.max(configuredThreadCount, 1);
+		maxQueuedEventsPerThread = configuredMaxQueuedEventsPerThread;
 		allOtherEventsHandler = Executors.newFixedThreadPool(1, new ThreadFactory() {
 			@Override
 			public Thread newThread(Runnable r) {
@@ -46,27 +267,39 @@ public class JCAEventDispatcherBasedOnPVName extends AbstractEventDispatcher {
 				return t;
 			}
 		});
-		
+
+		shards = new Shard[numThreads];
 		for (int i = 0; i < numThreads; i++) {
-			final int tnum = i;
-			pvNameEventsHandlers[i] = Executors.newFixedThreadPool(1, new ThreadFactory() {
-				@Override
-				public Thread newThread(Runnable r) {
-					Thread t = new Thread(r, "PVNameDispatcherPVNameEvents " + tnum);
-					return t;
-				}
-			});
+			shards[i] = new Shard(i);
 		}
+		for (int i = 0; i < numThreads; i++) {
+			Thread t = new Thread(shards[i], "PVNameDispatcherPVNameEvents " + i);
+			t.setDaemon(true);
+			shards[i].thread = t;
+			t.start();
+		}
+		dispatchers.add(this);
+		logger.debug("Created dispatcher with " + numThreads + " threads and at most " + maxQueuedEventsPerThread + " queued events per thread");
 	}
-	
+
+	@Override
+	public void dispose() {
+		running = false;
+		for(Shard shard : shards) {
+			LockSupport.unpark(shard.thread);
+		}
+		allOtherEventsHandler.shutdown();
+		dispatchers.remove(this);
+	}
+
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	public void dispatch(ContextMessageEvent arg0, List arg1) {
-		try { 
+		try {
 			allOtherEventsHandler.submit(new Runnable() {
 				ContextMessageEvent arg0;
 				List<ContextMessageListener> arg1;
-				public Runnable initialize(ContextMessageEvent arg0, List<ContextMessageListener> arg1) { 
+				public Runnable initialize(ContextMessageEvent arg0, List<ContextMessageListener> arg1) {
 					this.arg0 = arg0;
 					this.arg1 = arg1;
 					return this;
@@ -74,15 +307,15 @@ public class JCAEventDispatcherBasedOnPVName extends AbstractEventDispatcher {
 				@Override
 				public void run() {
 					for(ContextMessageListener listener : arg1) {
-						try { 
+						try {
 							listener.contextMessage(arg0);
-						} catch(Throwable t) { 
+						} catch(Throwable t) {
 							logger.warn("Exception dispatching context message event", t);
 						}
 					}
 				}
 			}.initialize(arg0, (List<ContextMessageListener>) arg1));
-		} catch(Throwable t) { 
+		} catch(Throwable t) {
 			logger.warn("Exception dispatching context message event", t);
 		}
 	}
@@ -90,11 +323,11 @@ public class JCAEventDispatcherBasedOnPVName extends AbstractEventDispatcher {
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	public void dispatch(ContextExceptionEvent arg0, List arg1) {
-		try { 
+		try {
 			allOtherEventsHandler.submit(new Runnable() {
 				ContextExceptionEvent arg0;
 				List<ContextExceptionListener> arg1;
-				public Runnable initialize(ContextExceptionEvent arg0, List<ContextExceptionListener> arg1) { 
+				public Runnable initialize(ContextExceptionEvent arg0, List<ContextExceptionListener> arg1) {
 					this.arg0 = arg0;
 					this.arg1 = arg1;
 					return this;
@@ -102,174 +335,226 @@ public class JCAEventDispatcherBasedOnPVName extends AbstractEventDispatcher {
 				@Override
 				public void run() {
 					for(ContextExceptionListener listener : arg1) {
-						try { 
+						try {
 							listener.contextException(arg0);
-						} catch(Throwable t) { 
-							logger.warn("Exception dispatching context exception event", t);		
+						} catch(Throwable t) {
+							logger.warn("Exception dispatching context exception event", t);
 						}
 					}
 				}
 			}.initialize(arg0, (List<ContextExceptionListener>) arg1));
-		} catch(Throwable t) { 
-			logger.warn("Exception dispatching context exception event", t);		
+		} catch(Throwable t) {
+			logger.warn("Exception dispatching context exception event", t);
 		}
 	}
 
-	
-	@SuppressWarnings({ "rawtypes", "unchecked" })
+
+	@SuppressWarnings("rawtypes")
 	@Override
 	public void dispatch(ConnectionEvent arg0, List arg1) {
-		String pvName = ((Channel)arg0.getSource()).getName();
-		String pvNameOnly = pvName.split("\\.")[0];
-		int threadId =  Math.abs(pvNameOnly.hashCode()) % numThreads;
-		try { 
-			pvNameEventsHandlers[threadId].submit(new Runnable() {
-				ConnectionEvent arg0;
-				List<ConnectionListener> arg1;
-				public Runnable initialize(ConnectionEvent arg0, List<ConnectionListener> arg1) { 
-					this.arg0 = arg0;
-					this.arg1 = arg1;
-					return this;
-				}
-				@Override
-				public void run() {
-					for(ConnectionListener listener : arg1) {
-						try { 
-							listener.connectionChanged(arg0);
-						} catch(Throwable t) { 
-							logger.warn("Exception dispatching connection event", t);		
-						}
-					}
-				}
-			}.initialize(arg0, (List<ConnectionListener>) arg1));
-		} catch(Throwable t) { 
-			logger.warn("Exception dispatching connection event", t);		
-		}
+		enqueue((Channel)arg0.getSource(), arg0, arg1);
 	}
 
-	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@SuppressWarnings("rawtypes")
 	@Override
 	public void dispatch(AccessRightsEvent arg0, List arg1) {
-		String pvName = ((Channel)arg0.getSource()).getName();
-		String pvNameOnly = pvName.split("\\.")[0];
-		int threadId =  Math.abs(pvNameOnly.hashCode()) % numThreads;
-		try { 
-			pvNameEventsHandlers[threadId].submit(new Runnable() {
-				AccessRightsEvent arg0;
-				List<AccessRightsListener> arg1;
-				public Runnable initialize(AccessRightsEvent arg0, List<AccessRightsListener> arg1) { 
-					this.arg0 = arg0;
-					this.arg1 = arg1;
-					return this;
-				}
-				@Override
-				public void run() {
-					for(AccessRightsListener listener : arg1) {
-						try { 
-							listener.accessRightsChanged(arg0);
-						} catch(Throwable t) { 
-							logger.warn("Exception dispatching access rights event", t);		
-						}
-					}
-				}
-			}.initialize(arg0, (List<AccessRightsListener>) arg1));
-		} catch(Throwable t) { 
-			logger.warn("Exception dispatching access rights event", t);		
-		}
-
+		enqueue((Channel)arg0.getSource(), arg0, arg1);
 	}
 
-	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@SuppressWarnings("rawtypes")
 	@Override
 	public void dispatch(MonitorEvent arg0, List arg1) {
-		String pvName = ((Channel)arg0.getSource()).getName();
-		String pvNameOnly = pvName.split("\\.")[0];
-		int threadId =  Math.abs(pvNameOnly.hashCode()) % numThreads;
-		try { 
-			pvNameEventsHandlers[threadId].submit(new Runnable() {
-				MonitorEvent arg0;
-				List<MonitorListener> arg1;
-				public Runnable initialize(MonitorEvent arg0, List<MonitorListener> arg1) { 
-					this.arg0 = arg0;
-					this.arg1 = arg1;
-					return this;
-				}
-				@Override
-				public void run() {
-					for(MonitorListener listener : arg1) {
-						try { 
-							listener.monitorChanged(arg0);
-						} catch(Throwable t) { 
-							logger.warn("Exception dispatching monitor event", t);		
-						}
-					}
-				}
-			}.initialize(arg0, (List<MonitorListener>) arg1));
-		} catch(Throwable t) { 
-			logger.warn("Exception dispatching monitor event", t);		
-		}
+		enqueue((Channel)arg0.getSource(), arg0, arg1);
 	}
-	
 
-	@SuppressWarnings({ "rawtypes", "unchecked" })
+
+	@SuppressWarnings("rawtypes")
 	@Override
 	public void dispatch(GetEvent arg0, List arg1) {
-		String pvName = ((Channel)arg0.getSource()).getName();
-		String pvNameOnly = pvName.split("\\.")[0];
-		int threadId =  Math.abs(pvNameOnly.hashCode()) % numThreads;
-		try { 
-			pvNameEventsHandlers[threadId].submit(new Runnable() {
-				GetEvent arg0;
-				List<GetListener> arg1;
-				public Runnable initialize(GetEvent arg0, List<GetListener> arg1) { 
-					this.arg0 = arg0;
-					this.arg1 = arg1;
-					return this;
-				}
-				@Override
-				public void run() {
-					for(GetListener listener : arg1) {
-						try { 
-							listener.getCompleted(arg0);
-						} catch(Throwable t) { 
-							logger.warn("Exception dispatching get event", t);		
+		enqueue((Channel)arg0.getSource(), arg0, arg1);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public void dispatch(PutEvent arg0, List arg1) {
+		enqueue((Channel)arg0.getSource(), arg0, arg1);
+	}
+
+	private void enqueue(Channel channel, Object event, List<?> eventListeners) {
+		try {
+			enqueue(channel.getName(), channel.getConnectionState() == Channel.ConnectionState.CLOSED, event, eventListeners);
+		} catch(Throwable t) {
+			logger.warn("Exception dispatching event", t);
+		}
+	}
+
+	/**
+	 * Add the event to the queue for the PV. Only monitor events are dropped; everything else is always queued.
+	 * @param channelName - The name of the channel that is the source of this event.
+	 * @param channelClosed - Events from channels that have been destroyed are processed but do not keep the queue around.
+	 */
+	void enqueue(String channelName, boolean channelClosed, Object event, List<?> eventListeners) {
+		try {
+			PVEventQueue queue;
+			Shard owner = null;
+			boolean dropped = false;
+			boolean needsScheduling = false;
+			do {
+				queue = getQueue(channelName);
+				synchronized(queue) {
+					// If we raced with the removal of this queue, we try again with a new queue for the PV.
+					if(queue.removed) continue;
+					if(!channelClosed) queue.channelNames.add(channelName);
+					owner = queue.owner;
+					if(event instanceof MonitorEvent && owner.pendingEvents.get() >= maxQueuedEventsPerThread) {
+						dropped = true;
+						removeIfUnused(queue);
+					} else {
+						queue.add(event, eventListeners, System.nanoTime());
+						int pending = owner.pendingEvents.incrementAndGet();
+						if(pending > owner.maxPendingEvents) owner.maxPendingEvents = pending;
+						if(!queue.scheduled) {
+							queue.scheduled = true;
+							needsScheduling = true;
 						}
 					}
 				}
-			}.initialize(arg0, (List<GetListener>) arg1));
-		} catch(Throwable t) { 
-			logger.warn("Exception dispatching get event", t);		
+			} while(owner == null);
+			if(dropped) {
+				owner.droppedEvents.incrementAndGet();
+				for(Object listener : eventListeners) {
+					if(listener instanceof DroppedEventListener) {
+						((DroppedEventListener) listener).monitorEventDropped((MonitorEvent) event);
+					}
+				}
+			} else if(needsScheduling) {
+				owner.schedule(queue);
+			}
+		} catch(Throwable t) {
+			logger.warn("Exception dispatching event", t);
 		}
 	}
 
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	@Override
-	public void dispatch(PutEvent arg0, List arg1) {
-		String pvName = ((Channel)arg0.getSource()).getName();
-		String pvNameOnly = pvName.split("\\.")[0];
-		int threadId =  Math.abs(pvNameOnly.hashCode()) % numThreads;
-		try { 
-			pvNameEventsHandlers[threadId].submit(new Runnable() {
-				PutEvent arg0;
-				List<PutListener> arg1;
-				public Runnable initialize(PutEvent arg0, List<PutListener> arg1) { 
-					this.arg0 = arg0;
-					this.arg1 = arg1;
-					return this;
+	private PVEventQueue getQueue(String channelName) {
+		String pvNameOnly = pvNameOnly(channelName);
+		PVEventQueue queue = pvQueues.get(pvNameOnly);
+		if(queue == null) {
+			PVEventQueue newQueue = new PVEventQueue(pvNameOnly, shards[Math.abs(pvNameOnly.hashCode() % numThreads)]);
+			queue = pvQueues.putIfAbsent(pvNameOnly, newQueue);
+			if(queue == null) queue = newQueue;
+		}
+		return queue;
+	}
+
+	private static String pvNameOnly(String channelName) {
+		int dotIndex = channelName.indexOf('.');
+		return dotIndex == -1 ? channelName : channelName.substring(0, dotIndex);
+	}
+
+	/**
+	 * Remove the queue once all its channels have been destroyed and it has no more events; call this holding the lock on the queue.
+	 */
+	private void removeIfUnused(PVEventQueue queue) {
+		if(!queue.removed && queue.channelNames.isEmpty() && queue.size == 0 && !queue.scheduled) {
+			queue.removed = true;
+			pvQueues.remove(queue.pvName, queue);
+		}
+	}
+
+	/**
+	 * Forget the channel; the PV queue is removed once all the channels for the PV (the PV and its fields) are destroyed and their events have been processed.
+	 * @param channelName
+	 */
+	void removeChannel(String channelName) {
+		PVEventQueue queue = pvQueues.get(pvNameOnly(channelName));
+		if(queue == null) return;
+		synchronized(queue) {
+			queue.channelNames.remove(channelName);
+			removeIfUnused(queue);
+		}
+	}
+
+	/**
+	 * Call this when a channel is destroyed so that the dispatchers can let go of the PV's queue.
+	 * @param channelName
+	 */
+	public static void channelDestroyed(String channelName) {
+		for(JCAEventDispatcherBasedOnPVName dispatcher : dispatchers) {
+			dispatcher.removeChannel(channelName);
+		}
+	}
+
+	/**
+	 * @return The number of PVs for which we have a queue; used in the tests.
+	 */
+	int getPVQueueCount() {
+		return pvQueues.size();
+	}
+
+	private static void fire(Object event, List<?> eventListeners) {
+		if(event instanceof MonitorEvent) {
+			for(Object listener : eventListeners) {
+				try {
+					((MonitorListener) listener).monitorChanged((MonitorEvent) event);
+				} catch(Throwable t) {
+					logger.warn("Exception dispatching monitor event", t);
 				}
-				@Override
-				public void run() {
-					for(PutListener listener : arg1) {
-						try { 
-							listener.putCompleted(arg0);
-						} catch(Throwable t) { 
-							logger.warn("Exception dispatching put event", t);		
-						}
-					}
+			}
+		} else if(event instanceof ConnectionEvent) {
+			for(Object listener : eventListeners) {
+				try {
+					((ConnectionListener) listener).connectionChanged((ConnectionEvent) event);
+				} catch(Throwable t) {
+					logger.warn("Exception dispatching connection event", t);
+				}
+			}
+		} else if(event instanceof AccessRightsEvent) {
+			for(Object listener : eventListeners) {
+				try {
+					((AccessRightsListener) listener).accessRightsChanged((AccessRightsEvent) event);
+				} catch(Throwable t) {
+					logger.warn("Exception dispatching access rights event", t);
 				}
-			}.initialize(arg0, (List<PutListener>) arg1));
-		} catch(Throwable t) { 
-			logger.warn("Exception dispatching put event", t);		
+			}
+		} else if(event instanceof GetEvent) {
+			for(Object listener : eventListeners) {
+				try {
+					((GetListener) listener).getCompleted((GetEvent) event);
+				} catch(Throwable t) {
+					logger.warn("Exception dispatching get event", t);
+				}
+			}
+		} else if(event instanceof PutEvent) {
+			for(Object listener : eventListeners) {
+				try {
+					((PutListener) listener).putCompleted((PutEvent) event);
+				} catch(Throwable t) {
+					logger.warn("Exception dispatching put event", t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the queue depth, latency and drops for each thread of each dispatcher as a list of name/value pairs for the metrics pages.
+	 * @return
+	 */
+	public static Map<String, String> getMetrics() {
+		DecimalFormat twoSignificantDigits = new DecimalFormat("###,###,###,###,###,###.##");
+		LinkedHashMap<String, String> metrics = new LinkedHashMap<String, String>();
+		int dispatcherNum = 0;
+		for(JCAEventDispatcherBasedOnPVName dispatcher : dispatchers) {
+			for(Shard shard : dispatcher.shards) {
+				String shardName = "CA event dispatcher " + dispatcherNum + " thread " + shard.shardNum;
+				long dispatchedEvents = shard.dispatchedEvents.get();
+				double averageLatencyMillis = dispatchedEvents > 0 ? shard.totalLatencyNanos.get()/(dispatchedEvents*1000000.0) : 0.0;
+				metrics.put(shardName + " queue depth (current/max)", shard.pendingEvents.get() + "/" + shard.maxPendingEvents);
+				metrics.put(shardName + " latency (avg/max ms)", twoSignificantDigits.format(averageLatencyMillis) + "/" + twoSignificantDigits.format(shard.maxLatencyNanos/1000000.0));
+				metrics.put(shardName + " events (dispatched/dropped)", dispatchedEvents + "/" + shard.droppedEvents.get());
+				metrics.put(shardName + " PV queues stolen", Long.toString(shard.stolenQueues.get()));
+			}
+			dispatcherNum++;
 		}
+		return metrics;
 	}
 }
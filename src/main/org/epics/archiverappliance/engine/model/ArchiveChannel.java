@@ -32,6 +32,8 @@ import org.epics.archiverappliance.data.SampleValue;
 import org.epics.archiverappliance.engine.membuf.ArrayListEventStream;
 import org.epics.archiverappliance.engine.pv.EPICS_V3_PV;
 import org.epics.archiverappliance.engine.pv.EngineContext;
+import org.epics.archiverappliance.engine.pv.EngineCounters;
+import org.epics.archiverappliance.engine.pv.EngineLatencies;
 import org.epics.archiverappliance.engine.pv.PV;
 import org.epics.archiverappliance.engine.pv.PVFactory;
 import org.epics.archiverappliance.engine.pv.PVListener;
@@ -128,6 +130,11 @@ abstract public class ArchiveChannel {
 	 */
 	protected DBRTimeEvent latestDBRTimeEvent = null;
 
+	/**
+	 * The System.nanoTime() when the latest DBRTimeEvent arrived from the control system; used for the latency histograms.
+	 */
+	private volatile long latestDBRTimeEventArrivalNanos = 0;
+
 	/**
 	 * The last DBRTimeEvent written to the archive.
 	 */
@@ -138,6 +145,17 @@ abstract public class ArchiveChannel {
 	 */
 	final protected PVMetrics pvMetrics;
 
+	/**
+	 * The engine wide counters; we add this channel's state to these as it changes.
+	 */
+	final private EngineCounters engineCounters;
+	private final Object engineCountersLock = new Object();
+	private boolean countedAsConnected = false;
+	private int countedMetaChannels = 0;
+	/** Set on pvConnected and cleared on pvDisconnected; the PV itself is marked connected only after it has subscribed */
+	private volatile boolean pvConnectedNotified = false;
+	final private EngineLatencies engineLatencies;
+
 	/**
 	 * the last time stamp when this pv was archived
 	 */
@@ -228,7 +246,9 @@ abstract public class ArchiveChannel {
 		this.enablement = enablement;
 		this.last_archived_timestamp = last_archived_timestamp;
 		this.pvMetrics = new PVMetrics(name, controlPVname, System.currentTimeMillis() / 1000, archdbrtype);
-		this.buffer = new SampleBuffer(name, buffer_capacity, archdbrtype,this.pvMetrics);
+		this.engineCounters = configservice.getEngineContext().getEngineCounters();
+		this.engineLatencies = configservice.getEngineContext().getEngineLatencies();
+		this.buffer = new SampleBuffer(name, buffer_capacity, archdbrtype,this.pvMetrics, this.engineCounters);
 		this.JCACommandThreadID =  commandThreadID;
 
 		this.pv = PVFactory.createPV(name, configservice, false, archdbrtype, commandThreadID, usePVAccess, false);
@@ -240,6 +260,7 @@ abstract public class ArchiveChannel {
 				if (is_running) {
 					try {
 						final DBRTimeEvent temptimeevent = pv.getDBRTimeEvent();
+						latestDBRTimeEventArrivalNanos = pv.getDBRTimeEventArrivalNanos();
 
 						if (enablement != Enablement.Passive)
 							handleEnablement(temptimeevent);
@@ -257,6 +278,8 @@ abstract public class ArchiveChannel {
 					if (is_running)
 						pvMetrics.setConnectionLastLostEpochSeconds(System.currentTimeMillis()/1000);
 					
+					pvConnectedNotified = false;
+					refreshEngineCounters();
 					handleDisconnected();
 				} catch (Exception e) {
 					logger.error("exception in pvDisconnected of PVListener", e);
@@ -268,6 +291,8 @@ abstract public class ArchiveChannel {
 				logger.debug("Connected to PV " + name);
 				pvMetrics.setHostName(pv.getHostName());
 				pvMetrics.setConnectionEstablishedEpochSeconds(System.currentTimeMillis() / 1000);
+				pvConnectedNotified = true;
+				refreshEngineCounters();
 			}
 
 			@Override
@@ -280,6 +305,11 @@ abstract public class ArchiveChannel {
 				switch(reason) { 
 				case TYPE_CHANGE:
 					pvMetrics.incrementInvalidTypeLostEventCount();
+					engineCounters.addLostEvent(EngineCounters.LostEventReason.TYPE_CHANGE);
+					break;
+				case DISPATCHER_QUEUE_FULL:
+					pvMetrics.incrementDispatcherQueueFullLostEventCount();
+					engineCounters.addLostEvent(EngineCounters.LostEventReason.DISPATCHER_QUEUE_FULL);
 					break;
 				default:
 					logger.warn("Dropping sample for an unaccounted reason for pv" + name + " " + reason);	
@@ -384,6 +414,7 @@ abstract public class ArchiveChannel {
 		PV metaPV = PVFactory.createPV(pvNameForField, configservice, false, metaFieldDBRType, this.JCACommandThreadID, usePVAccess, useDBEProperties);
 		metaPV.setMetaFieldParentPV(this.pv, isRuntimeOnly);
 		this.metaPVs.put(fieldName, metaPV);
+		refreshEngineCounters();
 	}
 
 	/**
@@ -437,6 +468,7 @@ abstract public class ArchiveChannel {
 		enabled = true;
 		need_first_sample = true;
 		pvMetrics.setEnable(true);
+		refreshEngineCounters();
 		pv.start();
 	}
 
@@ -455,6 +487,40 @@ abstract public class ArchiveChannel {
 		enabled = false;
 		pv.stop();
 		pvMetrics.setEnable(false);
+		pvConnectedNotified = false;
+		refreshEngineCounters();
+	}
+
+	/**
+	 * Update the engine wide counters with the current state of this channel.
+	 * This is called when the channel starts, stops, connects, disconnects or adds a meta field.
+	 * Only running channels are counted; so a channel must be stopped before it is removed from the engine.
+	 * The channel counts as connected from the pvConnected notification to the pvDisconnected notification.
+	 */
+	public void refreshEngineCounters() {
+		synchronized (engineCountersLock) {
+			boolean running = is_running;
+			boolean connected = running && pvConnectedNotified;
+			int metaChannels = running ? metaPVs.size() : 0;
+			if (connected != countedAsConnected) {
+				engineCounters.addConnectedChannels(connected ? 1 : -1);
+			}
+			if (connected && metaChannels > 0 && (!countedAsConnected || metaChannels > countedMetaChannels)) {
+				engineCounters.addToMetaChannelsPendingStartup(this);
+			} else if (!connected) {
+				engineCounters.removeFromMetaChannelsPendingStartup(this);
+			}
+			if (running && !connected) {
+				engineCounters.addToDisconnectedChannels(this);
+			} else {
+				engineCounters.removeFromDisconnectedChannels(this);
+			}
+			if (metaChannels != countedMetaChannels) {
+				engineCounters.addMetaChannels(metaChannels - countedMetaChannels);
+			}
+			countedAsConnected = connected;
+			countedMetaChannels = metaChannels;
+		}
 	}
 
 
@@ -606,6 +672,14 @@ abstract public class ArchiveChannel {
 	 * @throws Exception
 	 */
 	final protected boolean addValueToBuffer(final DBRTimeEvent timeevent) throws Exception {
+		return addValueToBuffer(timeevent, this.latestDBRTimeEventArrivalNanos);
+	}
+
+	/**
+	 * Add given sample to buffer; the engine latencies for this sample are measured from startNanos.
+	 * For samples picked up by a scan, this is the time of the scan.
+	 */
+	final protected boolean addValueToBuffer(final DBRTimeEvent timeevent, long startNanos) throws Exception {
 		// TODO See if this is repeated information.
 		this.pvMetrics.setElementCount(timeevent.getSampleValue().getElementCount());
 		this.pvMetrics.setSecondsOfLastEvent(System.currentTimeMillis() / 1000);
@@ -614,6 +688,7 @@ abstract public class ArchiveChannel {
 			if (isfutureorpastOrSame(timeevent)) {
 				if(!isSameTimeStamp(timeevent)) {
 					this.pvMetrics.addTimestampWrongEventCount(timeevent.getEventTimeStamp());
+					this.engineCounters.addLostEvent(EngineCounters.LostEventReason.TIMESTAMP_WRONG);
 				} else { 
 					// Don't incremement the TimestampWrongEventCount count if we get the same timestamp
 					// This happens because of our SCAN implementation which picks off the latest value every sampling period.
@@ -628,6 +703,7 @@ abstract public class ArchiveChannel {
 			// If the nanos part of the TS is incorrect, Java throws an IllegalArgumentException. We count that as a sample lost to an incorrect timestamp.
 			Timestamp incorrectTs = TimeUtils.convertFromEpochSeconds(timeevent.getEpochSeconds(), 0);
 			this.pvMetrics.addTimestampWrongEventCount(incorrectTs);
+			this.engineCounters.addLostEvent(EngineCounters.LostEventReason.TIMESTAMP_WRONG);
 			return false;
 		}
 
@@ -638,10 +714,12 @@ abstract public class ArchiveChannel {
 		}
 		this.pvMetrics.addConnectionLostRegainedFields(timeevent);
 
-		boolean incrementEventCounts = buffer.add(timeevent);
+		boolean incrementEventCounts = buffer.add(timeevent, startNanos);
 		if(incrementEventCounts) {
 			this.pvMetrics.addEventCounts();
 			this.pvMetrics.addStorageSize(timeevent);
+			this.engineCounters.addEvent(timeevent.getRawForm().len);
+			this.engineLatencies.record(EngineLatencies.Stage.MONITOR_TO_SAMPLE_BUFFER, this.pvMetrics.getArchDBRTypes(), this.pvMetrics.isMonitor(), startNanos);
 		}
 
 		if (SampleBuffer.isInErrorState())
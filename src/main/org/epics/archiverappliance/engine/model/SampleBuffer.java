@@ -11,6 +11,7 @@ import org.apache.log4j.Logger;
 import org.epics.archiverappliance.config.ArchDBRTypes;
 import org.epics.archiverappliance.data.DBRTimeEvent;
 import org.epics.archiverappliance.engine.membuf.ArrayListEventStream;
+import org.epics.archiverappliance.engine.pv.EngineCounters;
 import org.epics.archiverappliance.engine.pv.PVMetrics;
 import org.epics.archiverappliance.retrieval.RemotableEventStreamDesc;
 
@@ -38,6 +39,11 @@ public class SampleBuffer {
 	 * previous ArrayListEventStream
 	 */
 	private ArrayListEventStream previousSamples;
+	/**
+	 * The System.nanoTime() when the oldest sample in the current/previous ArrayListEventStream arrived; 0 if not known.
+	 */
+	private long currentSamplesOldestArrivalNanos = 0;
+	private long previousSamplesOldestArrivalNanos = 0;
 	/** Statistics */
 	final private BufferStats stats = new BufferStats();
 
@@ -54,6 +60,10 @@ public class SampleBuffer {
 	 * pVMetrics kept for this sample buffer
 	 */
 	private PVMetrics pVMetrics;
+	/**
+	 * engine wide counters; we count the events lost in this buffer here as well
+	 */
+	private EngineCounters engineCounters;
 
 	/** Logger for overrun messages */
 	final private static ThrottledLogger overrun_msg = new ThrottledLogger(
@@ -77,10 +87,11 @@ public class SampleBuffer {
 
 	/** Create sample buffer of given capacity */
 	public SampleBuffer(final String channel_name, final int capacity,
-			ArchDBRTypes archdbrtype, PVMetrics pVMetrics) {
+			ArchDBRTypes archdbrtype, PVMetrics pVMetrics, EngineCounters engineCounters) {
 		this.channel_name = channel_name;
 		this.archdbrtype = archdbrtype;
 		this.pVMetrics = pVMetrics;
+		this.engineCounters = engineCounters;
 		RemotableEventStreamDesc desc = new RemotableEventStreamDesc(
 				archdbrtype, channel_name, (short) 0);
 
@@ -135,6 +146,8 @@ public class SampleBuffer {
 		synchronized (this) {
 			previousSamples = currentSamples;
 			currentSamples = new ArrayListEventStream(capacity, desc);
+			previousSamplesOldestArrivalNanos = currentSamplesOldestArrivalNanos;
+			currentSamplesOldestArrivalNanos = 0;
 
 		}
 	}
@@ -146,6 +159,13 @@ public class SampleBuffer {
 		return previousSamples;
 	}
 
+	/**
+	 * @return The System.nanoTime() when the oldest sample in the previous ArrayListEventStream arrived from the control system; 0 if not known.
+	 */
+	public synchronized long getPreviousSamplesOldestArrivalNanos() {
+		return previousSamplesOldestArrivalNanos;
+	}
+
 	/** @return Queue capacity, i.e. maximum queue size. */
 	public int getCapacity() {
 
@@ -176,12 +196,23 @@ public class SampleBuffer {
 	 * @return - true if we need to increment the event count.
 	 * @throws Exception
 	 */
-	@SuppressWarnings("nls")
 	public boolean add(final DBRTimeEvent value)  {
+		return add(value, System.nanoTime());
+	}
+
+	/**
+	 * Add a sample to the queue, maybe dropping older samples
+	 * 
+	 * @param arrivalNanos - The System.nanoTime() when this sample arrived from the control system; 0 if not known.
+	 * @return - true if we need to increment the event count.
+	 */
+	@SuppressWarnings("nls")
+	public boolean add(final DBRTimeEvent value, long arrivalNanos)  {
 		boolean retval = true;
 		
 		if(this.archdbrtype != value.getDBRType()) { 
 			pVMetrics.incrementInvalidTypeLostEventCount();
+			engineCounters.addLostEvent(EngineCounters.LostEventReason.TYPE_CHANGE);
 			return false;
 		}
 		
@@ -208,6 +239,7 @@ public class SampleBuffer {
 				currentSamples.remove(0);
 				//}
 				pVMetrics.addSampleBufferFullLostEventCount();
+				engineCounters.addLostEvent(EngineCounters.LostEventReason.SAMPLE_BUFFER_FULL);
 				// }
 				if (start_of_overruns == null)
 					start_of_overruns = Integer.valueOf(stats.getOverruns());
@@ -220,6 +252,8 @@ public class SampleBuffer {
 			}
 			
 			
+				if (currentSamplesOldestArrivalNanos == 0)
+					currentSamplesOldestArrivalNanos = arrivalNanos;
 				currentSamples.add(value);
 			}
 				return retval;
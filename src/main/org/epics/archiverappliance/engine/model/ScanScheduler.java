@@ -0,0 +1,382 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.engine.model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.epics.archiverappliance.config.ConfigService;
+
+/**
+ * Scheduler for the channels that are archived using SCAN.
+ * Channels with the same scan period are grouped together; each group is split into a few buckets whose start times are spread out over the period.
+ * The buckets are placed in a hashed timing wheel; a single ticker thread advances the wheel and hands the buckets that are due to a small pool of workers.
+ * If a bucket is still being processed when it is due again, we skip that scan and count it as a missed scan.
+ * We also keep track of how late the scans are; both these are reported per scan period.
+ *
+ * @author mshankar
+ *
+ */
+public class ScanScheduler {
+	private static final Logger logger = Logger.getLogger(ScanScheduler.class.getName());
+	private static final int WHEEL_SIZE = 1024;
+
+	private final long tickMillis;
+	private final int bucketsPerPeriod;
+	private final int workerThreads;
+	private final ArrayList<LinkedList<ScanBucket>> wheel = new ArrayList<LinkedList<ScanBucket>>(WHEEL_SIZE);
+	private final ConcurrentHashMap<Long, ScanGroup> groups = new ConcurrentHashMap<Long, ScanGroup>();
+	private final ConcurrentHashMap<ScannedArchiveChannel, ScanBucket> channelToBucket = new ConcurrentHashMap<ScannedArchiveChannel, ScanBucket>();
+	private final long startNanos = System.nanoTime();
+	private long currentTick = 0;
+	private ExecutorService workers = null;
+	private Thread ticker = null;
+	private volatile boolean running = true;
+
+	public ScanScheduler(ConfigService configService) {
+		this.tickMillis = Long.parseLong(configService.getInstallationProperties().getProperty("org.epics.archiverappliance.engine.scan.TickMillis", "10"));
+		this.bucketsPerPeriod = Integer.parseInt(configService.getInstallationProperties().getProperty("org.epics.archiverappliance.engine.scan.BucketsPerPeriod", "16"));
+		this.workerThreads = Integer.parseInt(configService.getInstallationProperties().getProperty("org.epics.archiverappliance.engine.scan.WorkerThreads", "4"));
+		for(int i = 0; i < WHEEL_SIZE; i++) {
+			wheel.add(new LinkedList<ScanBucket>());
+		}
+	}
+
+	/**
+	 * Channels with the same scan period.
+	 */
+	public class ScanGroup {
+		private final long periodMillis;
+		private final long periodTicks;
+		private final ScanBucket[] buckets;
+		private final AtomicLong scans = new AtomicLong(0);
+		private final AtomicLong missedScans = new AtomicLong(0);
+		private final AtomicLong totalLatenessMillis = new AtomicLong(0);
+		private volatile long maxLatenessMillis = 0;
+
+		private ScanGroup(long periodMillis) {
+			this.periodMillis = periodMillis;
+			this.periodTicks = Math.max(periodMillis/tickMillis, 1);
+			// There is no point in having more buckets than ticks in a period.
+			this.buckets = new ScanBucket[(int) Math.min(bucketsPerPeriod, periodTicks)];
+			long firstTick = currentTickForScheduling() + 1;
+			for(int i = 0; i < buckets.length; i++) {
+				buckets[i] = new ScanBucket(this, firstTick + (periodTicks*i)/buckets.length);
+			}
+		}
+
+		public long getPeriodMillis() {
+			return periodMillis;
+		}
+
+		public int getChannelCount() {
+			int count = 0;
+			for(ScanBucket bucket : buckets) {
+				count += bucket.channels.size();
+			}
+			return count;
+		}
+
+		public long getScans() {
+			return scans.get();
+		}
+
+		public long getMissedScans() {
+			return missedScans.get();
+		}
+
+		public double getAverageLatenessMillis() {
+			long scanCount = scans.get();
+			return scanCount > 0 ? ((double) totalLatenessMillis.get())/scanCount : 0.0;
+		}
+
+		public long getMaxLatenessMillis() {
+			return maxLatenessMillis;
+		}
+
+		/**
+		 * @return The number of channels in each bucket; used in the tests.
+		 */
+		int[] getBucketChannelCounts() {
+			int[] counts = new int[buckets.length];
+			for(int i = 0; i < buckets.length; i++) {
+				counts[i] = buckets[i].channels.size();
+			}
+			return counts;
+		}
+
+		/**
+		 * @return The tick at which each bucket is due next; used in the tests.
+		 */
+		long[] getBucketDeadlineTicks() {
+			synchronized(ScanScheduler.this) {
+				long[] deadlineTicks = new long[buckets.length];
+				for(int i = 0; i < buckets.length; i++) {
+					deadlineTicks[i] = buckets[i].deadlineTick;
+				}
+				return deadlineTicks;
+			}
+		}
+
+		long getPeriodTicks() {
+			return periodTicks;
+		}
+
+		private void recordScan(long latenessMillis, int channelCount) {
+			scans.addAndGet(channelCount);
+			totalLatenessMillis.addAndGet(latenessMillis*channelCount);
+			if(latenessMillis > maxLatenessMillis) {
+				maxLatenessMillis = latenessMillis;
+			}
+		}
+	}
+
+	/**
+	 * A subset of the channels in a group; all the channels in a bucket are scanned together by a worker.
+	 */
+	private class ScanBucket implements Runnable {
+		private final ScanGroup group;
+		private final CopyOnWriteArrayList<ScannedArchiveChannel> channels = new CopyOnWriteArrayList<ScannedArchiveChannel>();
+		private final AtomicBoolean inProgress = new AtomicBoolean(false);
+		private long deadlineTick;
+		/** True if this bucket is in the wheel or is being dispatched by the ticker */
+		private boolean scheduled = false;
+
+		private ScanBucket(ScanGroup group, long deadlineTick) {
+			this.group = group;
+			this.deadlineTick = deadlineTick;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for(ScannedArchiveChannel channel : channels) {
+					channel.run();
+				}
+			} finally {
+				inProgress.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Start scanning this channel.
+	 * @param channel
+	 * @param periodMillis
+	 */
+	public void addChannel(ScannedArchiveChannel channel, long periodMillis) {
+		startIfNeeded();
+		ScanGroup group = groups.get(periodMillis);
+		if(group == null) {
+			synchronized(this) {
+				group = groups.get(periodMillis);
+				if(group == null) {
+					group = new ScanGroup(periodMillis);
+					groups.put(periodMillis, group);
+				}
+			}
+		}
+		ScanBucket bucket = group.buckets[Math.abs(channel.getName().hashCode() % group.buckets.length)];
+		ScanBucket previousBucket = channelToBucket.put(channel, bucket);
+		if(previousBucket != null) {
+			previousBucket.channels.remove(channel);
+		}
+		bucket.channels.add(channel);
+		synchronized(this) {
+			if(!bucket.scheduled) {
+				placeInWheel(bucket);
+			}
+		}
+	}
+
+	/**
+	 * Stop scanning this channel.
+	 * @param channel
+	 */
+	public void removeChannel(ScannedArchiveChannel channel) {
+		ScanBucket bucket = channelToBucket.remove(channel);
+		if(bucket != null) {
+			bucket.channels.remove(channel);
+		}
+	}
+
+	/**
+	 * @return The groups of channels by scan period; used for metrics.
+	 */
+	public List<ScanGroup> getScanGroups() {
+		return new ArrayList<ScanGroup>(groups.values());
+	}
+
+	/**
+	 * @return The group for this scan period; null if no channel has been scanned at this period. Used in the tests.
+	 */
+	ScanGroup getScanGroup(long periodMillis) {
+		return groups.get(periodMillis);
+	}
+
+	/**
+	 * @return The number of buckets in the wheel; buckets that have no channels are taken out of the wheel when they are next due. Used in the tests.
+	 */
+	synchronized int getScheduledBucketCount() {
+		int count = 0;
+		for(LinkedList<ScanBucket> slot : wheel) {
+			count += slot.size();
+		}
+		return count;
+	}
+
+	public void shutdown() {
+		running = false;
+		synchronized(this) {
+			if(ticker != null) {
+				ticker.interrupt();
+			}
+			if(workers != null) {
+				workers.shutdown();
+			}
+		}
+	}
+
+	private synchronized void startIfNeeded() {
+		if(ticker != null || !running) return;
+		workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+			private int threadNumber = 1;
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Engine scan worker " + threadNumber++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		ticker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				tick();
+			}
+		}, "Engine scan scheduler");
+		ticker.setDaemon(true);
+		ticker.start();
+		logger.info("Started the scan scheduler with a tick of " + tickMillis + "(ms), " + bucketsPerPeriod + " buckets per period and " + workerThreads + " workers");
+	}
+
+	private long elapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+
+	private synchronized long currentTickForScheduling() {
+		return currentTick;
+	}
+
+	private void placeInWheel(ScanBucket bucket) {
+		if(bucket.deadlineTick <= currentTick) {
+			// This bucket was empty for a while; move it to its next slot while keeping its phase within the period.
+			bucket.deadlineTick += ((currentTick - bucket.deadlineTick)/bucket.group.periodTicks + 1)*bucket.group.periodTicks;
+		}
+		wheel.get((int) (bucket.deadlineTick % WHEEL_SIZE)).add(bucket);
+		bucket.scheduled = true;
+	}
+
+	/**
+	 * The ticker thread; we process every tick, even if we fall behind.
+	 */
+	private void tick() {
+		List<ScanBucket> dueBuckets = new ArrayList<ScanBucket>();
+		while(running) {
+			long nextTickMillis;
+			synchronized(this) {
+				nextTickMillis = (currentTick + 1)*tickMillis;
+			}
+			long sleepMillis = nextTickMillis - elapsedMillis();
+			if(sleepMillis > 0) {
+				try {
+					Thread.sleep(sleepMillis);
+				} catch(InterruptedException ex) {
+					continue;
+				}
+			}
+
+			long nowMillis = elapsedMillis();
+			synchronized(this) {
+				long targetTick = nowMillis/tickMillis;
+				while(currentTick < targetTick) {
+					currentTick++;
+					Iterator<ScanBucket> it = wheel.get((int) (currentTick % WHEEL_SIZE)).iterator();
+					while(it.hasNext()) {
+						ScanBucket bucket = it.next();
+						if(bucket.deadlineTick > currentTick) continue; // Due in a later rotation of the wheel.
+						it.remove();
+						if(bucket.channels.isEmpty()) {
+							// Added back when a channel is added to this bucket.
+							bucket.scheduled = false;
+							continue;
+						}
+						dueBuckets.add(bucket);
+					}
+				}
+			}
+
+			for(ScanBucket bucket : dueBuckets) {
+				dispatch(bucket, nowMillis);
+			}
+
+			synchronized(this) {
+				for(ScanBucket bucket : dueBuckets) {
+					// Fixed rate; but if we have fallen behind by more than a period, we skip the missed scans.
+					bucket.deadlineTick += bucket.group.periodTicks;
+					if(bucket.deadlineTick <= currentTick) {
+						long periodsBehind = (currentTick - bucket.deadlineTick)/bucket.group.periodTicks + 1;
+						recordMissedScans(bucket, periodsBehind);
+						bucket.deadlineTick += periodsBehind*bucket.group.periodTicks;
+					}
+					placeInWheel(bucket);
+				}
+			}
+			dueBuckets.clear();
+		}
+		logger.info("Scan scheduler has been shutdown");
+	}
+
+	private void recordMissedScans(ScanBucket bucket, long missedScansPerChannel) {
+		bucket.group.missedScans.addAndGet(missedScansPerChannel*bucket.channels.size());
+		for(ScannedArchiveChannel channel : bucket.channels) {
+			channel.getPVMetrics().addMissedScans(missedScansPerChannel);
+		}
+	}
+
+	private void dispatch(ScanBucket bucket, long nowMillis) {
+		ScanGroup group = bucket.group;
+		if(!bucket.inProgress.compareAndSet(false, true)) {
+			// The previous scan for this bucket has not finished yet.
+			recordMissedScans(bucket, 1);
+			return;
+		}
+		long latenessMillis = Math.max(nowMillis - bucket.deadlineTick*tickMillis, 0);
+		group.recordScan(latenessMillis, bucket.channels.size());
+		for(ScannedArchiveChannel channel : bucket.channels) {
+			channel.getPVMetrics().addScan(latenessMillis);
+		}
+		try {
+			workers.execute(bucket);
+		} catch(RejectedExecutionException ex) {
+			bucket.inProgress.set(false);
+			if(running) logger.error("Unable to schedule scan for period " + group.periodMillis, ex);
+		}
+	}
+}
@@ -15,6 +15,7 @@ import org.epics.archiverappliance.Writer;
 import org.epics.archiverappliance.config.ArchDBRTypes;
 import org.epics.archiverappliance.config.ConfigService;
 import org.epics.archiverappliance.data.DBRTimeEvent;
+import org.epics.archiverappliance.data.PrimitiveVectorValue;
 import org.epics.archiverappliance.data.SampleValue;
 import org.epics.archiverappliance.data.ScalarStringSampleValue;
 import org.epics.archiverappliance.data.ScalarValue;
@@ -79,6 +80,8 @@ public class ScannedArchiveChannel extends ArchiveChannel implements Runnable {
 
 		if (!isEnabled())
 			return;
+		// The latencies for scanned samples start at the scan; the wait for the scan is not engine latency.
+		long scanNanos = System.nanoTime();
 		try {
 			synchronized (this) { // Have anything?
 				if (latestDBRTimeEvent == null) {
@@ -102,7 +105,7 @@ public class ScannedArchiveChannel extends ArchiveChannel implements Runnable {
 			}
 			// unlocked, should have 'value'
 
-			addValueToBuffer(latestDBRTimeEvent);
+			addValueToBuffer(latestDBRTimeEvent, scanNanos);
 		} catch (Exception e) {
 			logger.error("exception duing run for pv " + this.getName(), e);
 		}
@@ -128,12 +131,18 @@ public class ScannedArchiveChannel extends ArchiveChannel implements Runnable {
 			if (!(val2 instanceof VectorValue))
 				return false;
 
-			VectorValue<?> vv1 = (VectorValue<?>) val1;
-			VectorValue<?> vv2 = (VectorValue<?>) val2;
-			final Object values1[] = vv1.getValues().toArray();
-			final Object values2[] = vv2.getValues().toArray();
-			if (!Arrays.equals(values1, values2))
-				return false;
+			if (val1 instanceof PrimitiveVectorValue && val1.getClass() == val2.getClass()) {
+				// This compares the underlying buffers without boxing the elements.
+				if (!val1.equals(val2))
+					return false;
+			} else {
+				VectorValue<?> vv1 = (VectorValue<?>) val1;
+				VectorValue<?> vv2 = (VectorValue<?>) val2;
+				final Object values1[] = vv1.getValues().toArray();
+				final Object values2[] = vv2.getValues().toArray();
+				if (!Arrays.equals(values1, values2))
+					return false;
+			}
 
 		}
 
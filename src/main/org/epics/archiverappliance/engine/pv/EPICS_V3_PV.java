@@ -24,6 +24,7 @@ import org.epics.archiverappliance.config.MetaInfo;
 import org.epics.archiverappliance.data.DBRTimeEvent;
 import org.epics.archiverappliance.data.ScalarStringSampleValue;
 import org.epics.archiverappliance.engine.ArchiveEngine;
+import org.epics.archiverappliance.engine.epics.JCAEventDispatcherBasedOnPVName;
 
 import com.cosylab.epics.caj.CAJChannel;
 
@@ -52,7 +53,7 @@ import gov.aps.jca.event.MonitorListener;
  * @version Initial version:CSS
  * @version 4-Jun-2012, Luofeng Li:added codes to support for the new archiver
  */
-public class EPICS_V3_PV implements PV, ControllingPV, ConnectionListener, MonitorListener {
+public class EPICS_V3_PV implements PV, ControllingPV, ConnectionListener, MonitorListener, JCAEventDispatcherBasedOnPVName.DroppedEventListener {
 	private static final Logger logger = Logger.getLogger(EPICS_V3_PV.class.getName());
 	
 	/**
@@ -169,6 +170,7 @@ public class EPICS_V3_PV implements PV, ControllingPV, ConnectionListener, Monit
 	
 	/**the current DBRTimeEvent*/
 	private DBRTimeEvent dbrtimeevent;
+	private long dbrtimeeventArrivalNanos = 0;
 	
 	/**the ArchDBRTypes of this pv*/
 	private ArchDBRTypes archDBRType = null;
@@ -229,6 +231,11 @@ public class EPICS_V3_PV implements PV, ControllingPV, ConnectionListener, Monit
 		return dbrtimeevent;
 	}
 
+	@Override
+	public long getDBRTimeEventArrivalNanos() {
+		return dbrtimeeventArrivalNanos;
+	}
+
 	/***
     *get  the meta info for this pv 
     * @return MetaInfo 
@@ -622,9 +629,19 @@ public class EPICS_V3_PV implements PV, ControllingPV, ConnectionListener, Monit
 		subscribe();
 	}
 	
+	/** JCAEventDispatcherBasedOnPVName.DroppedEventListener interface. */
+	@Override
+	public void monitorEventDropped(MonitorEvent ev) {
+		if (!running || subscription == null) {
+			return;
+		}
+		fireDroppedSample(PVListener.DroppedReason.DISPATCHER_QUEUE_FULL);
+	}
+	
 	/** MonitorListener interface. */
 	@Override
 	public void monitorChanged(final MonitorEvent ev) {
+		long arrivalNanos = System.nanoTime();
 		// final Logger log = Activator.getLogger();
 		// This runs in a CA thread.
 		// Ignore values that arrive after stop()
@@ -677,6 +694,7 @@ public class EPICS_V3_PV implements PV, ControllingPV, ConnectionListener, Monit
 					}
 				}
 				dbrtimeevent = con.newInstance(dbr);
+				dbrtimeeventArrivalNanos = arrivalNanos;
 				totalMetaInfo.computeRate(dbrtimeevent);
 				dbr = null;
 			} catch (Exception e) {
@@ -70,6 +70,7 @@ public class EPICS_V4_PV implements PV, ChannelGetRequester, ChannelRequester, M
 	
 	/**the current DBRTimeEvent*/
 	private DBRTimeEvent dbrtimeevent;
+	private long dbrtimeeventArrivalNanos = 0;
 	
 	/**the ArchDBRTypes of this pv*/
 	private ArchDBRTypes archDBRType = null;
@@ -211,6 +212,11 @@ public class EPICS_V4_PV implements PV, ChannelGetRequester, ChannelRequester, M
 		return this.dbrtimeevent;
 	}
 
+	@Override
+	public long getDBRTimeEventArrivalNanos() {
+		return this.dbrtimeeventArrivalNanos;
+	}
+
 	@Override
 	public ArchDBRTypes getArchDBRTypes() {
 		return archDBRType;
@@ -351,6 +357,7 @@ public class EPICS_V4_PV implements PV, ChannelGetRequester, ChannelRequester, M
 
 				try { 
 					dbrtimeevent = con.newInstance(totalPVStructure);
+					dbrtimeeventArrivalNanos = System.nanoTime();
 					totalMetaInfo.computeRate(dbrtimeevent);
 
 					if (isarchiveFieldsField) { 
@@ -42,6 +42,7 @@ import org.epics.archiverappliance.engine.ArchiveEngine;
 import org.epics.archiverappliance.engine.metadata.MetaCompletedListener;
 import org.epics.archiverappliance.engine.metadata.MetaGet;
 import org.epics.archiverappliance.engine.model.ArchiveChannel;
+import org.epics.archiverappliance.engine.model.ScanScheduler;
 import org.epics.archiverappliance.engine.writer.WriterRunnable;
 import org.epics.archiverappliance.mgmt.policy.PolicyConfig.SamplingMethod;
 import org.epics.archiverappliance.utils.ui.GetUrlContent;
@@ -71,6 +72,12 @@ public class EngineContext {
 	private boolean isWriteThreadStarted = false;
 	/**the thread pool to schedule all the runnable of the engine*/
 	private ScheduledThreadPoolExecutor scheduler = null;
+	/**schedules the scans for the channels archived using SCAN*/
+	private final ScanScheduler scanScheduler;
+	/**counters maintained by the channels as they connect, disconnect and archive samples*/
+	private final EngineCounters engineCounters = new EngineCounters();
+	/**latency histograms for the samples as they go thru the engine*/
+	private final EngineLatencies engineLatencies;
 	/**the writing period*/
 	private double write_period;
 	/**the channel list of channels for  all pvs,but  without the channels created for the meta fields*/
@@ -112,6 +119,8 @@ public class EngineContext {
 	
 	private double sampleBufferCapacityAdjustment = 1.0;
 	
+	private PVFactory.PVCreator pvCreatorForTestingPurposesOnly = null;
+	
 
 	/***
 	 * 
@@ -139,6 +148,20 @@ public class EngineContext {
 			return 0;
 		return totalTimeConsumedByWritter / (double) countOfWrittingByWritter;
 	}
+
+	/**
+	 * @return the total time in seconds consumed by the writer since the engine started
+	 */
+	public double getTotalSecondsConsumedByWritter() {
+		return totalTimeConsumedByWritter;
+	}
+
+	/**
+	 * @return the number of times the writer has written out the sample buffers
+	 */
+	public long getCountOfWritesByWritter() {
+		return countOfWrittingByWritter;
+	}
 /**
  * This EngineContext should always be singleton
  * @param configService the config service to initialize the engine context
@@ -155,6 +178,8 @@ public class EngineContext {
 		}
 		
 		writer = new WriterRunnable(configService);
+		scanScheduler = new ScanScheduler(configService);
+		engineLatencies = new EngineLatencies(configService);
 		channelList = new ConcurrentHashMap<String, ArchiveChannel>();
 		logger.debug("Registering EngineContext for events");
 		this.configService = configService;
@@ -172,6 +197,7 @@ public class EngineContext {
 					if (scheduler != null) {
 						scheduler.shutdown();
 					}
+					scanScheduler.shutdown();
 					
 					Iterator<Entry<String, ArchiveChannel>> itChannel = channelList.entrySet().iterator();
 					while (itChannel.hasNext()) {
@@ -292,6 +318,18 @@ public class EngineContext {
 		long tomorrowAfternoon = ((currentEpochSeconds/(24*60*60)) + 1)*24*60*60 + 22*60*60;
 		logger.info("Starting the metadata updater from " + TimeUtils.convertToHumanReadableString(tomorrowAfternoon));
 		miscTasksScheduler.scheduleAtFixedRate(new MetadataUpdater(), tomorrowAfternoon-currentEpochSeconds, 24*60*60, TimeUnit.SECONDS);
+
+		// The event and data rates in the engine metrics are computed over these windows.
+		miscTasksScheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				engineCounters.rotateRateWindow();
+			}
+		}, EngineCounters.RATE_WINDOW_MILLIS, EngineCounters.RATE_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+	}
+	
+	public int getJCACommandThreadCount() {
+		return this.command_threads.length;
 	}
 	
 	public JCACommandThread getJCACommandThread(int jcaCommandThreadId) {
@@ -350,6 +388,27 @@ public class EngineContext {
 		}
 	}
 
+	/**
+	 * @return the counters maintained by the channels as they connect, disconnect and archive samples
+	 */
+	public EngineCounters getEngineCounters() {
+		return engineCounters;
+	}
+
+	/**
+	 * @return the latency histograms for the samples as they go thru the engine
+	 */
+	public EngineLatencies getEngineLatencies() {
+		return engineLatencies;
+	}
+
+	/**
+	 * @return the scheduler for the channels archived using SCAN
+	 */
+	public ScanScheduler getScanScheduler() {
+		return scanScheduler;
+	}
+
 /**
  * 
  * @return  the scheduler for the whole engine
@@ -463,7 +522,7 @@ public class EngineContext {
 		@Override
 		public void run() {
 			try { 
-				// We run thru all the channels - if a channel has not reconnected in disconnectCheckTimeoutInMinutes, we pause and resume the channel.
+				// We run thru all the disconnected channels - if a channel has not reconnected in disconnectCheckTimeoutInMinutes, we pause and resume the channel.
 				if(EngineContext.this.configService.isShuttingDown()) {
 					logger.debug("Skipping checking for disconnected channels as the system is shutting down.");
 					return;
@@ -473,26 +532,30 @@ public class EngineContext {
 				LinkedList<String> needToStartMetaChannelPVNames = new LinkedList<String>();
 				int totalChannels = EngineContext.this.channelList.size();
 				long disconnectTimeoutInSeconds = EngineContext.this.disconnectCheckTimeoutInMinutes*60;
-				for(ArchiveChannel channel : EngineContext.this.channelList.values()) {
-					if(!channel.isConnected()) {
-						logger.debug(channel.getName() + " is not connected. See if we have requested for it some time back and have still not connected.");
-						if(disconnectTimeoutInSeconds > 0 && channel.getSecondsElapsedSinceSearchRequest() > disconnectTimeoutInSeconds) { 
-							disconnectedPVNames.add(channel.getName());
-						} else {
-							if(disconnectTimeoutInSeconds > 0) { 
-								logger.debug(channel.getName() + " is not connected but we still have some time to go before attempting pause/resume " + channel.getSecondsElapsedSinceSearchRequest() + " and disconnectTimeoutInSeconds " + disconnectTimeoutInSeconds);
-							} else { 
-								logger.debug("The pause/resume on disconnect has been turned off. Not attempting reconnect using pause/resume for PV " + channel.getName());
-							}
-						}
-					} else { 
-						// Channel is connected.
-						logger.debug(channel.getName() + " is connected. Seeing if we need to start up the meta channels for the fields.");
-						if(channel.metaChannelsNeedStartingUp()) { 
-							needToStartMetaChannelPVNames.add(channel.getName());
+				for(ArchiveChannel channel : EngineContext.this.engineCounters.getDisconnectedChannels()) {
+					logger.debug(channel.getName() + " is not connected. See if we have requested for it some time back and have still not connected.");
+					if(disconnectTimeoutInSeconds > 0 && channel.getSecondsElapsedSinceSearchRequest() > disconnectTimeoutInSeconds) { 
+						disconnectedPVNames.add(channel.getName());
+					} else {
+						if(disconnectTimeoutInSeconds > 0) { 
+							logger.debug(channel.getName() + " is not connected but we still have some time to go before attempting pause/resume " + channel.getSecondsElapsedSinceSearchRequest() + " and disconnectTimeoutInSeconds " + disconnectTimeoutInSeconds);
+						} else { 
+							logger.debug("The pause/resume on disconnect has been turned off. Not attempting reconnect using pause/resume for PV " + channel.getName());
 						}
 					}
 				}
+				
+				// The channels add themselves to this list when they connect; we only need to look at these for meta channels that need starting up.
+				// A channel that has just connected may still be subscribing; we look at it again in the next run. Channels take themselves off this list when they disconnect.
+				for(ArchiveChannel channel : EngineContext.this.engineCounters.getChannelsWithMetaChannelsPendingStartup()) {
+					if(!channel.isConnected()) continue;
+					logger.debug(channel.getName() + " is connected. Seeing if we need to start up the meta channels for the fields.");
+					if(channel.metaChannelsNeedStartingUp()) { 
+						needToStartMetaChannelPVNames.add(channel.getName());
+					} else {
+						EngineContext.this.engineCounters.removeFromMetaChannelsPendingStartup(channel);
+					}
+				}
 
 				int disconnectedChannels = disconnectedPVNames.size();
 
@@ -575,7 +638,13 @@ public class EngineContext {
 	}
 	
 	
-	private void startArchivingPV(String pvName) throws Exception {
+	/**
+	 * Start archiving a PV whose PVTypeInfo has been determined and has settled in the cluster.
+	 * This is called for the StartArchivingPV events and for the bulk registrations from the archive PV workflow.
+	 * @param pvName
+	 * @throws Exception
+	 */
+	public void startArchivingPV(String pvName) throws Exception {
 		PVTypeInfo typeInfo = configService.getTypeInfoForPV(pvName);
 		if(typeInfo == null) {
 			logger.error("Unable to find pvTypeInfo for PV" + pvName + ". This is an error; this method should be called after the pvTypeInfo has been determined and settled in the DHT");
@@ -619,6 +688,20 @@ public class EngineContext {
 		this.startMiscTasksScheduler(configService);
 	}
 	
+	/**
+	 * @param pvCreator
+	 * Create the PVs for archive channels using this instead of CA/PVAccess.
+	 * This is to be used only for unit testing and benchmarking purposes; set this before archiving any PVs.
+	 */
+	public void setPVCreatorForTestingPurposesOnly(PVFactory.PVCreator pvCreator) { 
+		logger.error("Replacing the PV factory - this should be done only in the unit tests and benchmarks.");
+		this.pvCreatorForTestingPurposesOnly = pvCreator;
+	}
+	
+	public PVFactory.PVCreator getPVCreatorForTestingPurposesOnly() { 
+		return pvCreatorForTestingPurposesOnly;
+	}
+	
 	
 	/**
 	 * Go thru all the contexts and return channels whose names match this
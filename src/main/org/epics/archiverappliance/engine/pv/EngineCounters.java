@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.engine.pv;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.epics.archiverappliance.engine.model.ArchiveChannel;
+
+/**
+ * Engine wide counters that are maintained as the channels connect, disconnect and archive samples.
+ * This lets us compute the engine metrics without going thru all the channels.
+ * The channels report their state changes (start, stop, connect and disconnect) using {@link ArchiveChannel#refreshEngineCounters()}.
+ *
+ * @author mshankar
+ *
+ */
+public class EngineCounters {
+	/** We compute the event and data rates over a window of at least this many milliseconds; the engine calls {@link #rotateRateWindow()} this often */
+	public static final long RATE_WINDOW_MILLIS = 60*1000;
+
+	/**
+	 * The reasons for which we lose events; these match the lost event counts in PVMetrics.
+	 */
+	public enum LostEventReason { TIMESTAMP_WRONG, SAMPLE_BUFFER_FULL, TYPE_CHANGE, DISPATCHER_QUEUE_FULL };
+
+	private final LongAdder connectedChannels = new LongAdder();
+	private final LongAdder metaChannels = new LongAdder();
+	private final LongAdder events = new LongAdder();
+	private final LongAdder storageBytes = new LongAdder();
+	private final LongAdder[] lostEvents = new LongAdder[LostEventReason.values().length];
+	/** Channels that are running but not connected; the disconnect checker only has to look at these */
+	private final ConcurrentHashMap<String, ArchiveChannel> disconnectedChannels = new ConcurrentHashMap<String, ArchiveChannel>();
+	/** Connected channels whose meta channels may need to be started up */
+	private final ConcurrentHashMap<String, ArchiveChannel> metaChannelsPendingStartup = new ConcurrentHashMap<String, ArchiveChannel>();
+
+	private long previousSnapshotMillis = System.currentTimeMillis();
+	private long previousSnapshotEvents = 0;
+	private long previousSnapshotBytes = 0;
+	private long currentSnapshotMillis = previousSnapshotMillis;
+	private long currentSnapshotEvents = 0;
+	private long currentSnapshotBytes = 0;
+
+	public EngineCounters() {
+		for(int i = 0; i < lostEvents.length; i++) {
+			lostEvents[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Called by a channel when its connection state changes.
+	 * @param connectedDelta - +1 if the channel is now connected, -1 if it is no longer connected.
+	 */
+	public void addConnectedChannels(long connectedDelta) {
+		connectedChannels.add(connectedDelta);
+	}
+
+	public void addMetaChannels(long metaChannelsDelta) {
+		metaChannels.add(metaChannelsDelta);
+	}
+
+	/**
+	 * Called for every sample that is added to a sample buffer.
+	 * @param bytes - Size of the sample
+	 */
+	public void addEvent(long bytes) {
+		events.increment();
+		storageBytes.add(bytes);
+	}
+
+	public void addLostEvent(LostEventReason reason) {
+		lostEvents[reason.ordinal()].increment();
+	}
+
+	public void addToDisconnectedChannels(ArchiveChannel channel) {
+		disconnectedChannels.put(channel.getName(), channel);
+	}
+
+	public void removeFromDisconnectedChannels(ArchiveChannel channel) {
+		disconnectedChannels.remove(channel.getName(), channel);
+	}
+
+	public void addToMetaChannelsPendingStartup(ArchiveChannel channel) {
+		metaChannelsPendingStartup.put(channel.getName(), channel);
+	}
+
+	public void removeFromMetaChannelsPendingStartup(ArchiveChannel channel) {
+		metaChannelsPendingStartup.remove(channel.getName(), channel);
+	}
+
+	public int getConnectedChannelCount() {
+		return connectedChannels.intValue();
+	}
+
+	public int getMetaChannelCount() {
+		return metaChannels.intValue();
+	}
+
+	/**
+	 * @return The number of events added to the sample buffers since the engine started
+	 */
+	public long getEventCount() {
+		return events.sum();
+	}
+
+	/**
+	 * @return The size of the events added to the sample buffers since the engine started
+	 */
+	public long getStorageBytes() {
+		return storageBytes.sum();
+	}
+
+	public long getLostEventCount(LostEventReason reason) {
+		return lostEvents[reason.ordinal()].sum();
+	}
+
+	/**
+	 * @return Channels that are running but not connected.
+	 */
+	public Collection<ArchiveChannel> getDisconnectedChannels() {
+		return disconnectedChannels.values();
+	}
+
+	public int getDisconnectedChannelCount() {
+		return disconnectedChannels.size();
+	}
+
+	/**
+	 * @return Connected channels whose meta channels may need to be started up.
+	 */
+	public Collection<ArchiveChannel> getChannelsWithMetaChannelsPendingStartup() {
+		return metaChannelsPendingStartup.values();
+	}
+
+	/**
+	 * @return The event rate in events/sec over the last minute or two
+	 */
+	public synchronized double getEventRate() {
+		return rate(events.sum() - previousSnapshotEvents, System.currentTimeMillis() - previousSnapshotMillis);
+	}
+
+	/**
+	 * @return The data rate in bytes/sec over the last minute or two
+	 */
+	public synchronized double getDataRate() {
+		return rate(storageBytes.sum() - previousSnapshotBytes, System.currentTimeMillis() - previousSnapshotMillis);
+	}
+
+	/**
+	 * Start a new rate window; this is called by the engine every {@link #RATE_WINDOW_MILLIS}.
+	 * The rates are computed from the start of the previous window; so they always cover the last minute or two, however often they are read.
+	 */
+	public synchronized void rotateRateWindow() {
+		previousSnapshotMillis = currentSnapshotMillis;
+		previousSnapshotEvents = currentSnapshotEvents;
+		previousSnapshotBytes = currentSnapshotBytes;
+		currentSnapshotMillis = System.currentTimeMillis();
+		currentSnapshotEvents = events.sum();
+		currentSnapshotBytes = storageBytes.sum();
+	}
+
+	private static double rate(long count, long elapsedMillis) {
+		if(elapsedMillis <= 0) return 0.0;
+		return count*1000.0/elapsedMillis;
+	}
+}
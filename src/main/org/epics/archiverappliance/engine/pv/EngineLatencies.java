@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.engine.pv;
+
+import java.text.DecimalFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.epics.archiverappliance.common.LatencyHistogram;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.config.ConfigService;
+
+/**
+ * Latency histograms for the path a sample takes thru the engine.
+ * All the stages are measured from the time the monitor arrived from the control system; for samples picked up by a SCAN, they are measured from the time of the scan.
+ * <ol>
+ * <li>MONITOR_TO_SAMPLE_BUFFER - recorded for each sample accepted by the sample buffer.</li>
+ * <li>MONITOR_TO_WRITER - recorded once for each sample buffer written out; this is for the oldest sample in the buffer when the writer picks up the buffer.</li>
+ * <li>MONITOR_TO_STS - recorded once for each sample buffer written out; this is for the oldest sample in the buffer when the short term store has accepted the buffer.</li>
+ * </ol>
+ * In addition to the histograms for the appliance, we also maintain histograms by DBR type and sampling method.
+ * These can be turned off using <code>org.epics.archiverappliance.engine.pv.EngineLatencies.perPVClass</code>.
+ *
+ * @author mshankar
+ *
+ */
+public class EngineLatencies {
+	public enum Stage { MONITOR_TO_SAMPLE_BUFFER, MONITOR_TO_WRITER, MONITOR_TO_STS };
+
+	private final boolean perPVClass;
+	private final LatencyHistogram[] applianceHistograms = new LatencyHistogram[Stage.values().length];
+	private final LatencyHistogram[][] dbrTypeHistograms = new LatencyHistogram[Stage.values().length][ArchDBRTypes.values().length];
+	private final LatencyHistogram[][] samplingMethodHistograms = new LatencyHistogram[Stage.values().length][2];
+
+	public EngineLatencies(ConfigService configService) {
+		this.perPVClass = Boolean.parseBoolean(configService.getInstallationProperties().getProperty("org.epics.archiverappliance.engine.pv.EngineLatencies.perPVClass", "true"));
+		for(Stage stage : Stage.values()) {
+			applianceHistograms[stage.ordinal()] = new LatencyHistogram();
+			for(ArchDBRTypes dbrType : ArchDBRTypes.values()) {
+				dbrTypeHistograms[stage.ordinal()][dbrType.ordinal()] = new LatencyHistogram();
+			}
+			samplingMethodHistograms[stage.ordinal()][0] = new LatencyHistogram();
+			samplingMethodHistograms[stage.ordinal()][1] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Record the latency for a sample.
+	 * @param stage
+	 * @param dbrType - Can be null if not known
+	 * @param isMonitor - true if the PV is archived using MONITOR; false for SCAN
+	 * @param startNanos - The System.nanoTime() when the monitor arrived or, for scanned samples, when the scan ran; samples where we do not know this are skipped.
+	 */
+	public void record(Stage stage, ArchDBRTypes dbrType, boolean isMonitor, long startNanos) {
+		if(startNanos == 0) return;
+		long latencyNanos = System.nanoTime() - startNanos;
+		applianceHistograms[stage.ordinal()].recordNanos(latencyNanos);
+		if(perPVClass) {
+			if(dbrType != null) {
+				dbrTypeHistograms[stage.ordinal()][dbrType.ordinal()].recordNanos(latencyNanos);
+			}
+			samplingMethodHistograms[stage.ordinal()][isMonitor ? 1 : 0].recordNanos(latencyNanos);
+		}
+	}
+
+	public LatencyHistogram getApplianceHistogram(Stage stage) {
+		return applianceHistograms[stage.ordinal()];
+	}
+
+	/**
+	 * Get a summary of the histograms for the report.
+	 * @param groupBy - One of appliance, dbrtype or samplingmethod
+	 * @param includeBuckets - Include the bucket counts
+	 * @return A list of summaries; one for each stage and group that has samples.
+	 */
+	public LinkedList<Map<String, Object>> getSummaries(String groupBy, boolean includeBuckets) {
+		LinkedList<Map<String, Object>> ret = new LinkedList<Map<String, Object>>();
+		for(Stage stage : Stage.values()) {
+			if("dbrtype".equals(groupBy)) {
+				for(ArchDBRTypes dbrType : ArchDBRTypes.values()) {
+					addSummary(ret, stage, dbrType.toString(), dbrTypeHistograms[stage.ordinal()][dbrType.ordinal()], includeBuckets);
+				}
+			} else if("samplingmethod".equals(groupBy)) {
+				addSummary(ret, stage, "SCAN", samplingMethodHistograms[stage.ordinal()][0], includeBuckets);
+				addSummary(ret, stage, "MONITOR", samplingMethodHistograms[stage.ordinal()][1], includeBuckets);
+			} else {
+				addSummary(ret, stage, "appliance", applianceHistograms[stage.ordinal()], includeBuckets);
+			}
+		}
+		return ret;
+	}
+
+	private static void addSummary(LinkedList<Map<String, Object>> summaries, Stage stage, String group, LatencyHistogram histogram, boolean includeBuckets) {
+		if(histogram.getCount() == 0) return;
+		DecimalFormat twoSignificantDigits = new DecimalFormat("###,###,###,###,###,###.##");
+		LinkedHashMap<String, Object> summary = new LinkedHashMap<String, Object>();
+		summary.put("stage", stage.toString());
+		summary.put("group", group);
+		summary.put("count", Long.toString(histogram.getCount()));
+		summary.put("meanMillis", twoSignificantDigits.format(histogram.getMeanMicros()/1000.0));
+		summary.put("p50Millis", twoSignificantDigits.format(histogram.getPercentileMicros(50)/1000.0));
+		summary.put("p90Millis", twoSignificantDigits.format(histogram.getPercentileMicros(90)/1000.0));
+		summary.put("p99Millis", twoSignificantDigits.format(histogram.getPercentileMicros(99)/1000.0));
+		summary.put("maxMillis", twoSignificantDigits.format(histogram.getMaxMicros()/1000.0));
+		if(includeBuckets) {
+			summary.put("bucketsMicros", histogram.getBuckets());
+		}
+		summaries.add(summary);
+	}
+}
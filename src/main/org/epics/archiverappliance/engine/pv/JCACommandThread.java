@@ -15,7 +15,10 @@ import gov.aps.jca.event.ContextExceptionListener;
 import gov.aps.jca.event.ContextMessageListener;
 
 import java.io.ByteArrayInputStream;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.log4j.Logger;
 import org.epics.archiverappliance.config.ConfigService;
@@ -31,6 +34,8 @@ import org.epics.archiverappliance.engine.model.ContextErrorHandler;
  * few requests to queue up, then periodically pumps them out with only a final
  * 'flush'
  * </ol>
+ * The thread blocks on the queue and wakes up as soon as a command is added; it then drains all the queued commands and calls 'flush' once for the batch.
+ * If there are no commands, we still flush every DELAY_MILLIS.
  * 
  * @author Kay Kasemir
  * @version Initial version:CSS
@@ -39,10 +44,20 @@ import org.epics.archiverappliance.engine.model.ContextErrorHandler;
 @SuppressWarnings("nls")
 public class JCACommandThread extends Thread {
 	/**
-	 * Delay between queue inspection. Longer delay results in bigger 'batches',
-	 * which is probably good, but also increases the latency.
+	 * If there are no commands, we still flush this often.
 	 */
 	final private static long DELAY_MILLIS = 100;
+	
+	/**
+	 * Maximum number of commands we execute before a flush.
+	 */
+	final private static int MAX_BATCH_SIZE = 1000;
+	
+	/**
+	 * Upper bounds (in milliseconds) of the buckets in the histogram of the time commands spend in the queue. 
+	 * The last bucket is for everything else.
+	 */
+	final private static long[] WAIT_TIME_BUCKETS_MILLIS = { 1, 10, 100, 1000, 10000 };
 
 	private static final Logger logger = Logger.getLogger(JCACommandThread.class.getName());
 
@@ -52,18 +67,31 @@ public class JCACommandThread extends Thread {
 	/** The Java CA Library instance. */
 	private JCALibrary jca = null;
 
+	/**
+	 * A command and the time it was added to the queue.
+	 */
+	private static class QueuedCommand {
+		final Runnable command;
+		final long queuedAtNanos;
+		QueuedCommand(Runnable command) {
+			this.command = command;
+			this.queuedAtNanos = System.nanoTime();
+		}
+	}
+
 	/**
 	 * Command queue.
-	 * <p>
-	 * SYNC on access
 	 */
-	final private LinkedList<Runnable> command_queue = new LinkedList<Runnable>();
+	final private LinkedBlockingQueue<QueuedCommand> command_queue = new LinkedBlockingQueue<QueuedCommand>();
 
 	/** Maximum size that command_queue reached at runtime */
-	private int max_size_reached = 0;
+	private volatile int max_size_reached = 0;
+
+	/** Histogram of the time commands spend in the queue; see WAIT_TIME_BUCKETS_MILLIS */
+	final private AtomicLongArray wait_time_histogram = new AtomicLongArray(WAIT_TIME_BUCKETS_MILLIS.length + 1);
 
 	/** Flag to tell thread to run or quit */
-	private boolean run = false;
+	private volatile boolean run = false;
 	
 	private ConfigService configService;
 
@@ -176,40 +204,43 @@ public class JCACommandThread extends Thread {
 	 * @param command
 	 */
 	public void addCommand(final Runnable command) {
-		synchronized (command_queue) {
-			// New maximum queue length (+1 for the one about to get added)
-			if (command_queue.size() >= max_size_reached)
-				max_size_reached = command_queue.size() + 1;
-			command_queue.addLast(command);
-		}
-	}
-
-	/** @return Oldest queued command or <code>null</code> */
-	private Runnable getCommand() {
-		synchronized (command_queue) {
-			if (command_queue.size() > 0)
-				return command_queue.removeFirst();
-		}
-		return null;
+		command_queue.add(new QueuedCommand(command));
+		// New maximum queue length; this is approximate as we do not lock here.
+		int size = command_queue.size();
+		if (size > max_size_reached)
+			max_size_reached = size;
 	}
 
 	@Override
 	public void run() {
 		initContext();
 
+		final ArrayList<QueuedCommand> batch = new ArrayList<QueuedCommand>();
 		while (run) {
-			// Execute all the commands currently queued...
-			Runnable command = getCommand();
-			while (command != null) { // Execute one command
+			// Wait for a command; we wake up as soon as one is added.
+			try {
+				QueuedCommand first = command_queue.poll(DELAY_MILLIS, TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					// ...and pick up all the other commands currently queued.
+					command_queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+				}
+			} catch (InterruptedException ex) { /* don't even ignore */
+				logger.error("exception when thread waiting for commands in JCACommandThread",
+						ex);
+			}
+			
+			for (QueuedCommand queuedCommand : batch) { // Execute one command
+				recordWaitTime(queuedCommand);
 				try {
-					command.run();
+					queuedCommand.command.run();
 				} catch (Throwable ex) {
 					logger.error("exception when command runs  in JCACommandThread",
 							ex);
 				}
-				// Get next command
-				command = getCommand();
 			}
+			batch.clear();
+			
 			// Flush.
 			// Once, after executing all the accumulated commands.
 			// Even when the command queue was empty,
@@ -220,14 +251,44 @@ public class JCACommandThread extends Thread {
 				logger.error("exception when flushing io  in JCACommandThread",
 						ex);
 			}
-			// Then wait.
-			try {
-				Thread.sleep(DELAY_MILLIS);
-			} catch (InterruptedException ex) { /* don't even ignore */
-				logger.error("exception when thread sleeping in JCACommandThread",
-						ex);
+		}
+	}
+	
+	private void recordWaitTime(QueuedCommand queuedCommand) {
+		long waitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedCommand.queuedAtNanos);
+		int bucket = 0;
+		while (bucket < WAIT_TIME_BUCKETS_MILLIS.length && waitMillis >= WAIT_TIME_BUCKETS_MILLIS[bucket]) {
+			bucket++;
+		}
+		wait_time_histogram.incrementAndGet(bucket);
+	}
+	
+	/** @return Number of commands currently in the queue */
+	public int getQueueDepth() {
+		return command_queue.size();
+	}
+	
+	/** @return Maximum size that the queue reached at runtime */
+	public int getMaxQueueDepth() {
+		return max_size_reached;
+	}
+	
+	/**
+	 * Histogram of the time commands have spent in the queue as a string; for example <code>&lt;1ms: 2000, &lt;10ms: 30, ... </code>
+	 * @return
+	 */
+	public String getWaitTimeHistogram() {
+		StringBuilder buf = new StringBuilder();
+		for (int bucket = 0; bucket < wait_time_histogram.length(); bucket++) {
+			if (bucket > 0) buf.append(", ");
+			if (bucket < WAIT_TIME_BUCKETS_MILLIS.length) {
+				buf.append("<").append(WAIT_TIME_BUCKETS_MILLIS[bucket]).append("ms: ");
+			} else {
+				buf.append(">=").append(WAIT_TIME_BUCKETS_MILLIS[WAIT_TIME_BUCKETS_MILLIS.length - 1]).append("ms: ");
 			}
+			buf.append(wait_time_histogram.get(bucket));
 		}
+		return buf.toString();
 	}
 
 	void destoryContext() {
@@ -88,6 +88,12 @@ public interface PV
      */
 	DBRTimeEvent getDBRTimeEvent();
 
+	/**
+	 * The System.nanoTime() when the monitor for the current DBRTimeEvent arrived; used to measure the latency thru the engine.
+	 * @return 0 if we do not know when the monitor arrived
+	 */
+	long getDBRTimeEventArrivalNanos();
+
    /***
     * get the archive DBR types for this pv
     * @return ArchDBRTypes
@@ -4,6 +4,14 @@ import org.epics.archiverappliance.config.ArchDBRTypes;
 import org.epics.archiverappliance.config.ConfigService;
 
 public class PVFactory {
+	/**
+	 * Creates the PVs for the archive channels in place of the CA/PVAccess PVs.
+	 * This lets the unit tests and benchmarks drive the engine without a control system; see {@link EngineContext#setPVCreatorForTestingPurposesOnly}.
+	 */
+	public interface PVCreator { 
+		public PV createPV(String name, ConfigService configservice, ArchDBRTypes archDBRTypes, int jcaCommandThreadId);
+	}
+
 	/**
 	 * This is the constructor used by the MetaGet's - this is the initial step in adding a PV to the archiver where we determine some facts about the PV for the policies
 	 * @param name
@@ -31,6 +39,10 @@ public class PVFactory {
 	 * @return
 	 */
 	public static PV createPV(final String name, ConfigService configservice, boolean isControlPV, ArchDBRTypes archDBRTypes, int jcaCommandThreadId, boolean usePVAccess, boolean useDBEProperties) {
+		EngineContext engineContext = configservice.getEngineContext();
+		if(engineContext != null && engineContext.getPVCreatorForTestingPurposesOnly() != null) { 
+			return engineContext.getPVCreatorForTestingPurposesOnly().createPV(name, configservice, archDBRTypes, jcaCommandThreadId);
+		}
 		if(usePVAccess) { 
 			return new EPICS_V4_PV(name, configservice, isControlPV, archDBRTypes, jcaCommandThreadId);			
 		} else { 
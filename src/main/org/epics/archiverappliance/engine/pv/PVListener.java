@@ -40,7 +40,8 @@ public interface PVListener
     public void pvValueUpdate(PV pv);
     
     public enum DroppedReason { 
-    	TYPE_CHANGE  
+    	TYPE_CHANGE,
+    	DISPATCHER_QUEUE_FULL
     };
     /**
      * Notification of a sample being dropped for some reason from within the PV.
@@ -98,6 +98,16 @@ public class PVMetrics {
 	 */
 	private long invalidTypeLostEventCount = 0;
 	
+	/**how many events were dropped because the CA event dispatcher had too many events queued?*/
+	private long dispatcherQueueFullLostEventCount = 0;
+	
+	/**how many scans were made for this PV and how late were they (only for PVs archived using SCAN)?*/
+	private long scanCount = 0;
+	private long totalScanLatenessMillis = 0;
+	private long maxScanLatenessMillis = 0;
+	/**how many scans were skipped because the scan scheduler fell behind?*/
+	private long missedScanCount = 0;
+	
 	/**
 	 * This is the timestamp of the last event from the IOC regardless of whether the timestamp is accurate or not 
 	 * Note this may not be what's written out into the archive that we used to compare against to enforce monotonically increasing eventstreams
@@ -161,6 +171,34 @@ public class PVMetrics {
 		invalidTypeLostEventCount++;
 	}
 	
+	public void incrementDispatcherQueueFullLostEventCount() {
+		dispatcherQueueFullLostEventCount++;
+	}
+	
+	public long getDispatcherQueueFullLostEventCount() {
+		return dispatcherQueueFullLostEventCount;
+	}
+	
+	/**
+	 * Called by the scan scheduler each time this PV is scanned.
+	 * @param latenessMillis - How late was this scan compared to when it was due?
+	 */
+	public void addScan(long latenessMillis) {
+		scanCount++;
+		totalScanLatenessMillis += latenessMillis;
+		if(latenessMillis > maxScanLatenessMillis) {
+			maxScanLatenessMillis = latenessMillis;
+		}
+	}
+	
+	/**
+	 * Called by the scan scheduler when it skips scans for this PV.
+	 * @param count
+	 */
+	public void addMissedScans(long count) {
+		missedScanCount += count;
+	}
+	
 	/**
 	 * If the PV changes DBR_Type, we do not add it to the sample buffer. This keeps track of how many event were lost because of a type change.
 	 * @return
@@ -501,7 +539,13 @@ public class PVMetrics {
 		addDetailedStatus(statuses, "Timestamp of last event from the IOC - correct or not.", this.getLastEventFromIOCTimeStampStr());
 		addDetailedStatus(statuses, "How many events lost because the sample buffer is full so far?", Long.toString(this.sampleBufferFullLostEventCount));
 		addDetailedStatus(statuses, "How many events lost because the DBR_Type of the PV has changed from what it used to be?", Long.toString(this.invalidTypeLostEventCount));
-		addDetailedStatus(statuses, "How many events lost totally so far?", Long.toString(this.timestampWrongEventCount + this.sampleBufferFullLostEventCount + this.invalidTypeLostEventCount));
+		addDetailedStatus(statuses, "How many events lost because the CA event dispatcher was too far behind?", Long.toString(this.dispatcherQueueFullLostEventCount));
+		addDetailedStatus(statuses, "How many events lost totally so far?", Long.toString(this.timestampWrongEventCount + this.sampleBufferFullLostEventCount + this.invalidTypeLostEventCount + this.dispatcherQueueFullLostEventCount));
+		if (!this.isMonitor) {
+			addDetailedStatus(statuses, "Average scan lateness (ms)", scanCount > 0 ? twoSignificantDigits.format(((double) totalScanLatenessMillis) / scanCount) : "0");
+			addDetailedStatus(statuses, "Max scan lateness (ms)", Long.toString(maxScanLatenessMillis));
+			addDetailedStatus(statuses, "How many scans were missed because the scan scheduler fell behind?", Long.toString(missedScanCount));
+		}
 		if (storageSize > 0 && eventCounts > 0) {
 			addDetailedStatus(statuses, "Average bytes per event", twoSignificantDigits.format(((double) this.storageSize) / this.eventCounts));
 		}
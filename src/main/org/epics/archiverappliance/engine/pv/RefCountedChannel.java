@@ -9,6 +9,7 @@ package org.epics.archiverappliance.engine.pv;
 
 
 import org.apache.log4j.Logger;
+import org.epics.archiverappliance.engine.epics.JCAEventDispatcherBasedOnPVName;
 
 
 import gov.aps.jca.Channel;
@@ -60,6 +61,7 @@ public class RefCountedChannel
     {
         if (refs != 0)
             throw new Error("Channel destroyed while referenced " + refs + " times");
+        String channelName = channel.getName();
         try
         {
             channel.destroy();
@@ -69,6 +71,8 @@ public class RefCountedChannel
    //     	Activator.getLogger().log(Level.WARNING, "Channel.destroy failed", ex); //$NON-NLS-1$
         	logger.warn("exception when  dispose RefCountedChannel",ex);
         }
+        // Let the dispatcher drop its queue for this channel.
+        JCAEventDispatcherBasedOnPVName.channelDestroyed(channelName);
         channel = null;
     }
 }
@@ -21,6 +21,8 @@ import org.epics.archiverappliance.engine.membuf.ArrayListEventStream;
 import org.epics.archiverappliance.engine.model.ArchiveChannel;
 import org.epics.archiverappliance.engine.model.SampleBuffer;
 import org.epics.archiverappliance.engine.model.YearListener;
+import org.epics.archiverappliance.engine.pv.EngineLatencies;
+import org.epics.archiverappliance.engine.pv.PVMetrics;
 
 /**
  * WriterRunnable is scheduled by the executor in the engine context every writing period.
@@ -147,8 +149,7 @@ public class WriterRunnable implements Runnable {
 				ArchiveChannel tempChannel = channelList.get(channelNname);
 				tempChannel.setlastRotateLogsEpochSeconds(System
 						.currentTimeMillis() / 1000);
-				tempChannel.getWriter().appendData(basicContext, channelNname,
-						previousSamples);
+				appendData(basicContext, tempChannel, buffer, previousSamples);
 			}
 		} catch (IOException e) {
 			throw (e);
@@ -193,8 +194,7 @@ public class WriterRunnable implements Runnable {
 					ArchiveChannel tempChannel = channelList.get(channelNname);
 					tempChannel.setlastRotateLogsEpochSeconds(System
 							.currentTimeMillis() / 1000);
-					tempChannel.getWriter().appendData(basicContext,
-							channelNname, previousSamples);
+					appendData(basicContext, tempChannel, buffer, previousSamples);
 				}
 			} catch (IOException e) {
 				throw (e);
@@ -210,6 +210,20 @@ public class WriterRunnable implements Runnable {
 
 
 	}
+
+	/**
+	 * Write the samples to the channel's writer; we also record the latency for the oldest sample in the buffer before and after the write.
+	 * For scanned PVs, the sample buffer has the time of the scan and not the arrival of the monitor; so the wait for the scan is not included.
+	 */
+	private void appendData(BasicContext basicContext, ArchiveChannel channel, SampleBuffer buffer, ArrayListEventStream samples) throws IOException {
+		EngineLatencies engineLatencies = configservice.getEngineContext().getEngineLatencies();
+		PVMetrics pvMetrics = channel.getPVMetrics();
+		long oldestArrivalNanos = buffer.getPreviousSamplesOldestArrivalNanos();
+		engineLatencies.record(EngineLatencies.Stage.MONITOR_TO_WRITER, pvMetrics.getArchDBRTypes(), pvMetrics.isMonitor(), oldestArrivalNanos);
+		channel.getWriter().appendData(basicContext, buffer.getChannelName(), samples);
+		engineLatencies.record(EngineLatencies.Stage.MONITOR_TO_STS, pvMetrics.getArchDBRTypes(), pvMetrics.isMonitor(), oldestArrivalNanos);
+	}
+
 	/**
 	 * flush out the sample buffer to the short term storage before shutting down the engine
 	 * @throws Exception  error occurs during writing the sample buffer to the short term storage
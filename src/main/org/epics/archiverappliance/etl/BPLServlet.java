@@ -28,6 +28,7 @@ import org.epics.archiverappliance.etl.bpl.PauseArchivingPV;
 import org.epics.archiverappliance.etl.bpl.reports.ApplianceMetrics;
 import org.epics.archiverappliance.etl.bpl.reports.ApplianceMetricsDetails;
 import org.epics.archiverappliance.etl.bpl.reports.InstanceReportDetails;
+import org.epics.archiverappliance.etl.bpl.reports.OpenMetrics;
 import org.epics.archiverappliance.etl.bpl.reports.PVDetails;
 import org.epics.archiverappliance.etl.bpl.reports.PVsByStorageConsumed;
 import org.epics.archiverappliance.etl.bpl.reports.StorageDetailsForAppliance;
@@ -57,6 +58,7 @@ public class BPLServlet extends HttpServlet {
 		getActions.put("/deletePV", DeletePV.class);
 		getActions.put("/getProcessMetrics", ProcessMetricsReport.class);
 		getActions.put("/getVersion", GetVersion.class);
+		getActions.put("/metrics", OpenMetrics.class);
 	}
 
 
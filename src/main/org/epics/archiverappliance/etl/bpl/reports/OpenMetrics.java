@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.etl.bpl.reports;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.epics.archiverappliance.common.BPLAction;
+import org.epics.archiverappliance.common.OpenMetricsWriter;
+import org.epics.archiverappliance.common.TimeUtils;
+import org.epics.archiverappliance.config.ConfigService;
+import org.epics.archiverappliance.config.NearCache;
+import org.epics.archiverappliance.config.pubsub.PartitionedEventBus;
+import org.epics.archiverappliance.etl.common.ETLMetricsForLifetime;
+
+/**
+ * ETL metrics in the Prometheus text format; these are per lifetime (that is, per transition from one store to the next).
+ * @author mshankar
+ *
+ */
+public class OpenMetrics implements BPLAction {
+
+	@Override
+	public void execute(HttpServletRequest req, HttpServletResponse resp, ConfigService configService) throws IOException {
+		resp.setContentType(OpenMetricsWriter.CONTENT_TYPE);
+		List<ETLMetricsForLifetime> metricsForLifetimes = configService.getETLLookup().getApplianceMetrics();
+		try (PrintWriter out = resp.getWriter()) {
+			OpenMetricsWriter metrics = new OpenMetricsWriter(out, "etl");
+			if(metricsForLifetimes != null && !metricsForLifetimes.isEmpty()) {
+				long currentEpochSeconds = TimeUtils.getCurrentEpochSeconds();
+				metrics.family("etl_runs_total", "counter", "ETL jobs run for a PV by lifetime");
+				for(ETLMetricsForLifetime metricsForLifetime : metricsForLifetimes) {
+					metrics.sample("etl_runs_total", "lifetime", Integer.toString(metricsForLifetime.getLifeTimeId()), metricsForLifetime.getTotalETLRuns());
+				}
+				metrics.family("etl_seconds_total", "counter", "Time spent in ETL by lifetime");
+				for(ETLMetricsForLifetime metricsForLifetime : metricsForLifetimes) {
+					metrics.sample("etl_seconds_total", "lifetime", Integer.toString(metricsForLifetime.getLifeTimeId()), metricsForLifetime.getTimeForOverallETLInMilliSeconds()/1000.0);
+				}
+				metrics.family("etl_source_bytes_total", "counter", "Bytes moved out of the source store by lifetime");
+				for(ETLMetricsForLifetime metricsForLifetime : metricsForLifetimes) {
+					metrics.sample("etl_source_bytes_total", "lifetime", Integer.toString(metricsForLifetime.getLifeTimeId()), metricsForLifetime.getTotalSrcBytes());
+				}
+				metrics.family("etl_last_run_seconds", "gauge", "Approximate time taken by the last ETL run by lifetime");
+				for(ETLMetricsForLifetime metricsForLifetime : metricsForLifetimes) {
+					metrics.sample("etl_last_run_seconds", "lifetime", Integer.toString(metricsForLifetime.getLifeTimeId()), metricsForLifetime.getApproximateLastGlobalETLTimeInMillis()/1000.0);
+				}
+				metrics.family("etl_lag_seconds", "gauge", "Time since an ETL job last completed by lifetime");
+				for(ETLMetricsForLifetime metricsForLifetime : metricsForLifetimes) {
+					long lastETLCompleteEpochSeconds = metricsForLifetime.getLastETLCompleteEpochSeconds();
+					if(lastETLCompleteEpochSeconds == 0) continue;
+					metrics.sample("etl_lag_seconds", "lifetime", Integer.toString(metricsForLifetime.getLifeTimeId()), currentEpochSeconds - lastETLCompleteEpochSeconds);
+				}
+				metrics.family("etl_weekly_usage_percent", "gauge", "Percentage of time spent in ETL over the last week by lifetime");
+				for(ETLMetricsForLifetime metricsForLifetime : metricsForLifetimes) {
+					metrics.sample("etl_weekly_usage_percent", "lifetime", Integer.toString(metricsForLifetime.getLifeTimeId()), metricsForLifetime.getWeeklyETLUsageInPercent());
+				}
+			}
+			NearCache.writeOpenMetrics(metrics, configService.getNearCaches());
+			PartitionedEventBus.writeOpenMetrics(metrics, configService.getEventBus());
+			if(configService.getPubSubEventBatcher() != null) {
+				configService.getPubSubEventBatcher().writeOpenMetrics(metrics);
+			}
+			metrics.jvmMetrics();
+		}
+	}
+}
@@ -33,6 +33,7 @@ public class ETLMetricsForLifetime implements StorageMetricsContext {
 	long timeinMillSecond4runPostProcessors;
 	long totalSrcBytes;
 	
+	long lastETLCompleteEpochSeconds = 0;
 	private long approximateLastGlobalETLTimeInMillis = 0;
 	private long lastTimeGlobalETLTimeWasUpdatedInEpochSeconds = 0;
 	private long[] weeklyETLUsageInMillis = new long[7];
@@ -60,6 +61,13 @@ public class ETLMetricsForLifetime implements StorageMetricsContext {
 		return timeForOverallETLInMilliSeconds;
 	}
 
+	/**
+	 * @return When the most recent ETL job for this lifetime completed; 0 if we have not run any ETL jobs yet.
+	 */
+	public long getLastETLCompleteEpochSeconds() {
+		return lastETLCompleteEpochSeconds;
+	}
+
 	public long getStartOfMetricsMeasurementInEpochSeconds() {
 		return startOfMetricsMeasurementInEpochSeconds;
 	}
@@ -115,6 +115,7 @@ public class ETLPVLookupItems {
 		lastETLCompleteEpochSeconds = pvETLEndEpochMilliSeconds/1000;
 		metricsForLifetime.timeForOverallETLInMilliSeconds += lastETLTimeWeSpentInETLInMilliSeconds;
 		metricsForLifetime.totalETLRuns = Math.max(numberofTimesWeETLed, metricsForLifetime.totalETLRuns);
+		metricsForLifetime.lastETLCompleteEpochSeconds = Math.max(lastETLCompleteEpochSeconds, metricsForLifetime.lastETLCompleteEpochSeconds);
 		metricsForLifetime.updateApproximateGlobalLastETLTime(lastETLTimeWeSpentInETLInMilliSeconds);
 	}
 
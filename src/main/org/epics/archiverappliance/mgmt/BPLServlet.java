@@ -78,6 +78,7 @@ import org.epics.archiverappliance.mgmt.bpl.reports.InstanceReportDetails;
 import org.epics.archiverappliance.mgmt.bpl.reports.LostConnectionsReport;
 import org.epics.archiverappliance.mgmt.bpl.reports.NeverConnectedPVsAction;
 import org.epics.archiverappliance.mgmt.bpl.reports.NeverConnectedPVsForThisAppliance;
+import org.epics.archiverappliance.mgmt.bpl.reports.OpenMetrics;
 import org.epics.archiverappliance.mgmt.bpl.reports.PVDetails;
 import org.epics.archiverappliance.mgmt.bpl.reports.PVsByStorageConsumed;
 import org.epics.archiverappliance.mgmt.bpl.reports.PausedPVsReport;
@@ -176,6 +177,7 @@ public class BPLServlet extends HttpServlet {
 		addAction("/webAppReady", WebappReady.class);
 		addAction("/getProcessMetrics", ProcessMetricsReport.class);
 		addAction("/getProcessMetricsDataForAppliance", ProcessMetricsChartData.class);
+		addAction("/metrics", OpenMetrics.class);
 		addAction("/refreshPVDataFromChannelArchivers", RefreshPVDataFromChannelArchivers.class);
 		addAction("/getMatchingPVsForThisAppliance", GetMatchingPVsForAppliance.class);
 	}
@@ -1,11 +1,15 @@
 package org.epics.archiverappliance.mgmt;
 
 import java.io.IOException;
+import java.net.URLEncoder;
 import java.sql.Timestamp;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -13,15 +17,25 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
+import org.epics.archiverappliance.common.OpenMetricsWriter;
+import org.epics.archiverappliance.config.ApplianceInfo;
 import org.epics.archiverappliance.config.ConfigService;
 import org.epics.archiverappliance.config.ConfigService.WAR_FILE;
 import org.epics.archiverappliance.config.MetaInfo;
+import org.epics.archiverappliance.config.PVTypeInfo;
+import org.epics.archiverappliance.config.UserSpecifiedSamplingParams;
 import org.epics.archiverappliance.config.pubsub.PubSubEvent;
 import org.epics.archiverappliance.mgmt.archivepv.ArchivePVState;
 import org.epics.archiverappliance.mgmt.archivepv.ArchivePVState.ArchivePVStateMachine;
+import org.epics.archiverappliance.mgmt.archivepv.CapacityPlanningBPL;
+import org.epics.archiverappliance.mgmt.archivepv.CapacityPlanningBPL.CapacityPlanningBatch;
+import org.epics.archiverappliance.mgmt.policy.PolicyConfig;
+import org.epics.archiverappliance.utils.ui.GetUrlContent;
 import org.epics.archiverappliance.utils.ui.JSONDecoder;
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 
@@ -41,6 +55,8 @@ public class MgmtRuntimeState {
 	private ConcurrentSkipListSet<WAR_FILE> componentsThatHaveCompletedStartup = new ConcurrentSkipListSet<WAR_FILE>();
 	/**
 	 * Throttle the archive PV workflow to this many PV's at a time. 
+	 * This is the number of PVs that are in flight; that is, PVs whose metainfo has been requested and that have not yet finished the workflow.
+	 * New requests are admitted as the PVs in flight finish.
 	 * This seems to control the resource consumption during archive requests well
 	 * Since we are throttling the workflow; we can have this many invalid archive PV requests in the system.
 	 * Use the abortArchivingPV BPL to clean up requests for PVs that will never connect.
@@ -48,6 +64,22 @@ public class MgmtRuntimeState {
 	private static final int DEFAULT_ARCHIVE_PV_WORKFLOW_BATCH_SIZE = 1000;
 	
 	private int archivePVWorkflowBatchSize = DEFAULT_ARCHIVE_PV_WORKFLOW_BATCH_SIZE;
+	/**
+	 * Each run of the workflow moves a PV thru at most this many states; this is enough to go from METAINFO_OBTAINED to TYPEINFO_STABLE and from ABORTED/ARCHIVING to FINISHED.
+	 */
+	private static final int MAX_STEPS_PER_RUN = 5;
+	/**
+	 * Give up on registering a batch with an engine if we cannot connect or the engine stops responding for these many seconds; these PVs are then registered one at a time.
+	 */
+	private int engineRegistrationConnectTimeoutSeconds = 10;
+	private int engineRegistrationSocketTimeoutSeconds = 120;
+
+	private final AtomicLong pvsCompleted = new AtomicLong(0);
+	private final AtomicLong pvsAborted = new AtomicLong(0);
+	private final AtomicLong engineRegistrationBatches = new AtomicLong(0);
+	private final AtomicLong engineRegistrationFailures = new AtomicLong(0);
+	private final AtomicLong workflowRuns = new AtomicLong(0);
+	private volatile long lastWorkflowRunMillis = 0;
 
 	/**
 	 * Initiate archive PV workflow for PV.
@@ -106,6 +138,16 @@ public class MgmtRuntimeState {
 			this.archivePVWorkflowBatchSize = Integer.parseInt(installationProperties.getProperty(batchSizeName));
 			configlogger.info("Setting the archive PV workflow batch size to " + this.archivePVWorkflowBatchSize);
 		}
+		String connectTimeoutName = "org.epics.archiverappliance.mgmt.MgmtRuntimeState.engineRegistrationConnectTimeoutSeconds";
+		if(installationProperties.containsKey(connectTimeoutName)) { 
+			this.engineRegistrationConnectTimeoutSeconds = Integer.parseInt(installationProperties.getProperty(connectTimeoutName));
+			configlogger.info("Setting the connect timeout for registering PVs with the engines to " + this.engineRegistrationConnectTimeoutSeconds);
+		}
+		String socketTimeoutName = "org.epics.archiverappliance.mgmt.MgmtRuntimeState.engineRegistrationSocketTimeoutSeconds";
+		if(installationProperties.containsKey(socketTimeoutName)) { 
+			this.engineRegistrationSocketTimeoutSeconds = Integer.parseInt(installationProperties.getProperty(socketTimeoutName));
+			configlogger.info("Setting the socket timeout for registering PVs with the engines to " + this.engineRegistrationSocketTimeoutSeconds);
+		}
 	}
 	
 	public void finishedPVWorkflow(String pvName) throws IOException {
@@ -217,26 +259,10 @@ public class MgmtRuntimeState {
 			
 			@Override
 			public void run() {
-				logger.info("Running the archive PV workflow");
-				LinkedList<ArchivePVState> archivePVStates = new LinkedList<ArchivePVState>(currentPVRequests.values());
-				Collections.sort(archivePVStates, new Comparator<ArchivePVState>() {
-					@Override
-					public int compare(ArchivePVState state0, ArchivePVState state1) {
-						if(state0.getStartOfWorkflow().equals(state1.getStartOfWorkflow())) { 
-							return state0.getPvName().compareTo(state1.getPvName());
-						} else { 
-							return state0.getStartOfWorkflow().compareTo(state1.getStartOfWorkflow());
-						}
-					}
-				});
-				int totRequests = archivePVStates.size();
-				int maxRequestsToProcess = Math.min(archivePVWorkflowBatchSize, totRequests);
-				int pvCount = 0;
-				while(pvCount < maxRequestsToProcess) { 
-					ArchivePVState runWorkFlowForPV = archivePVStates.pop();
-					logger.debug("Running the next step in the workflow for PV " + runWorkFlowForPV.getPvName());
-					runWorkFlowForPV.nextStep();
-					pvCount++;
+				try { 
+					runArchivePVWorkflow();
+				} catch(Throwable t) { 
+					logger.error("Exception running the archive PV workflow", t);
 				}
 			}
 		}, initialDelayInSeconds, 10, TimeUnit.SECONDS);
@@ -244,6 +270,258 @@ public class MgmtRuntimeState {
 		logger.info("Done starting archive requests");
 	}
 	
+	/**
+	 * One run of the archive PV workflow.
+	 * We admit new requests (in the order in which they were made) as long as we have fewer than archivePVWorkflowBatchSize PVs in flight.
+	 * The policies for all the PVs whose metainfo has been obtained are computed in one batch and capacity planning uses one set of appliance totals for the run.
+	 * Each PV is moved thru as many states as it can in this run.
+	 * The PVs whose typeinfo is stable are then registered with their engines using one call per appliance.
+	 */
+	private void runArchivePVWorkflow() { 
+		long startMillis = System.currentTimeMillis();
+		LinkedList<ArchivePVState> archivePVStates = new LinkedList<ArchivePVState>(currentPVRequests.values());
+		Collections.sort(archivePVStates, new Comparator<ArchivePVState>() {
+			@Override
+			public int compare(ArchivePVState state0, ArchivePVState state1) {
+				if(state0.getStartOfWorkflow().equals(state1.getStartOfWorkflow())) { 
+					return state0.getPvName().compareTo(state1.getPvName());
+				} else { 
+					return state0.getStartOfWorkflow().compareTo(state1.getStartOfWorkflow());
+				}
+			}
+		});
+
+		int pvsInFlight = 0;
+		for(ArchivePVState pvState : archivePVStates) { 
+			if(pvState.getCurrentState() != ArchivePVStateMachine.START) pvsInFlight++;
+		}
+		int pvsToAdmit = Math.max(0, archivePVWorkflowBatchSize - pvsInFlight);
+		LinkedList<ArchivePVState> pvsToProcess = new LinkedList<ArchivePVState>();
+		LinkedList<String> pvNamesWithTypeInfos = new LinkedList<String>();
+		boolean needCapacityPlanning = false;
+		for(ArchivePVState pvState : archivePVStates) { 
+			switch(pvState.getCurrentState()) { 
+			case START:
+				if(pvsToAdmit <= 0) continue;
+				pvsToAdmit--;
+				break;
+			case METAINFO_OBTAINED:
+				needCapacityPlanning = true;
+				break;
+			case POLICY_COMPUTED:
+			case TYPEINFO_STABLE:
+				pvNamesWithTypeInfos.add(pvState.getPvName());
+				break;
+			default:
+				break;
+			}
+			pvsToProcess.add(pvState);
+		}
+		logger.info("Running the archive PV workflow for " + pvsToProcess.size() + " of " + archivePVStates.size() + " PVs with " + pvsInFlight + " PVs in flight");
+		if(pvsToProcess.isEmpty()) return;
+
+		if(!pvNamesWithTypeInfos.isEmpty()) { 
+			configService.prefetchPVInfos(pvNamesWithTypeInfos);
+		}
+		computePoliciesInBatch(pvsToProcess);
+
+		CapacityPlanningBatch capacityPlanningBatch = null;
+		if(needCapacityPlanning) { 
+			try { 
+				capacityPlanningBatch = CapacityPlanningBPL.startBatch(configService);
+			} catch(IOException ex) { 
+				logger.error("Exception fetching the capacity planning metrics for the batch; capacity planning will fetch these for each PV", ex);
+			}
+		}
+		try { 
+			for(ArchivePVState pvState : pvsToProcess) { 
+				runStepsForPV(pvState);
+			}
+		} finally { 
+			if(capacityPlanningBatch != null) { 
+				capacityPlanningBatch.close();
+			}
+		}
+
+		registerWithEnginesInBatch(pvsToProcess);
+		workflowRuns.incrementAndGet();
+		lastWorkflowRunMillis = System.currentTimeMillis() - startMillis;
+		logger.info("Done running the archive PV workflow in " + lastWorkflowRunMillis + "(ms)");
+	}
+
+	/**
+	 * Move the PV thru the workflow as long as it changes state.
+	 * We stop at TYPEINFO_STABLE; these PVs are registered with the engine in a batch.
+	 * @param pvState
+	 */
+	private void runStepsForPV(ArchivePVState pvState) { 
+		for(int step = 0; step < MAX_STEPS_PER_RUN; step++) { 
+			ArchivePVStateMachine stateBefore = pvState.getCurrentState();
+			if(stateBefore == ArchivePVStateMachine.TYPEINFO_STABLE || stateBefore == ArchivePVStateMachine.FINISHED) return;
+			logger.debug("Running the next step in the workflow for PV " + pvState.getPvName());
+			pvState.nextStep();
+			ArchivePVStateMachine stateAfter = pvState.getCurrentState();
+			if(stateAfter == stateBefore) return;
+			if(stateAfter == ArchivePVStateMachine.FINISHED) { 
+				if(stateBefore == ArchivePVStateMachine.ABORTED) { 
+					pvsAborted.incrementAndGet();
+				} else { 
+					pvsCompleted.incrementAndGet();
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Register the PVs whose typeinfo is stable with their engines; we make one call per appliance.
+	 * PVs that the engine could not start archiving stay in TYPEINFO_STABLE and are retried in the next run.
+	 * If the call to an appliance fails altogether (or times out), we fall back to registering these PVs one at a time.
+	 * @param pvStates
+	 */
+	void registerWithEnginesInBatch(List<ArchivePVState> pvStates) { 
+		HashMap<String, LinkedList<ArchivePVState>> pvsForAppliance = new HashMap<String, LinkedList<ArchivePVState>>();
+		HashMap<String, PVTypeInfo> typeInfos = new HashMap<String, PVTypeInfo>();
+		for(ArchivePVState pvState : pvStates) { 
+			if(pvState.getCurrentState() != ArchivePVStateMachine.TYPEINFO_STABLE) continue;
+			PVTypeInfo typeInfo = configService.getTypeInfoForPV(pvState.getPvName());
+			if(typeInfo == null || typeInfo.getApplianceIdentity() == null) { 
+				logger.error("Cannot find the typeinfo for PV " + pvState.getPvName() + " in state TYPEINFO_STABLE");
+				continue;
+			}
+			typeInfos.put(pvState.getPvName(), typeInfo);
+			if(!pvsForAppliance.containsKey(typeInfo.getApplianceIdentity())) { 
+				pvsForAppliance.put(typeInfo.getApplianceIdentity(), new LinkedList<ArchivePVState>());
+			}
+			pvsForAppliance.get(typeInfo.getApplianceIdentity()).add(pvState);
+		}
+
+		for(String applianceIdentity : pvsForAppliance.keySet()) { 
+			LinkedList<ArchivePVState> pvsForThisAppliance = pvsForAppliance.get(applianceIdentity);
+			HashMap<String, ArchivePVState> pvStatesByName = new HashMap<String, ArchivePVState>();
+			String startArchivingURL = null;
+			try { 
+				ApplianceInfo applianceInfo = configService.getAppliance(applianceIdentity);
+				if(applianceInfo == null) throw new IOException("Cannot find appliance " + applianceIdentity);
+				LinkedList<String> pvNames = new LinkedList<String>();
+				for(ArchivePVState pvState : pvsForThisAppliance) { 
+					pvNames.add(URLEncoder.encode(pvState.getPvName(), "UTF-8"));
+					pvStatesByName.put(pvState.getPvName(), pvState);
+				}
+				startArchivingURL = applianceInfo.getEngineURL() + "/startArchivingPVs";
+				JSONArray statuses = GetUrlContent.postStringListAndGetContentAsJSONArray(startArchivingURL, "pv", pvNames, engineRegistrationConnectTimeoutSeconds, engineRegistrationSocketTimeoutSeconds);
+				if(statuses == null) throw new IOException("Invalid response from " + startArchivingURL);
+				engineRegistrationBatches.incrementAndGet();
+				int pvsStarted = 0;
+				for(Object statusObj : statuses) { 
+					JSONObject status = (JSONObject) statusObj;
+					String pvName = (String) status.get("pvName");
+					ArchivePVState pvState = pvStatesByName.get(pvName);
+					if(pvState == null) continue;
+					if("ok".equals(status.get("status"))) { 
+						pvState.startedArchivingInBatch(typeInfos.get(pvName));
+						runStepsForPV(pvState);
+						pvsStarted++;
+					} else { 
+						engineRegistrationFailures.incrementAndGet();
+						logger.error("Engine on appliance " + applianceIdentity + " could not start archiving PV " + pvName + ": " + status.get("validation"));
+					}
+				}
+				logger.info("Engine on appliance " + applianceIdentity + " started archiving " + pvsStarted + " of " + pvsForThisAppliance.size() + " PVs");
+			} catch(Exception ex) { 
+				engineRegistrationFailures.incrementAndGet();
+				logger.error("Exception registering " + pvsForThisAppliance.size() + " PVs using " + startArchivingURL + "; registering these one at a time", ex);
+				for(ArchivePVState pvState : pvsForThisAppliance) { 
+					if(pvState.getCurrentState() == ArchivePVStateMachine.TYPEINFO_STABLE) { 
+						pvState.nextStep();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The number of PVs in the archive PV workflow in each state.
+	 */
+	public LinkedHashMap<ArchivePVStateMachine, Integer> getPVsInWorkflowByState() { 
+		LinkedHashMap<ArchivePVStateMachine, Integer> ret = new LinkedHashMap<ArchivePVStateMachine, Integer>();
+		for(ArchivePVStateMachine state : ArchivePVStateMachine.values()) { 
+			ret.put(state, 0);
+		}
+		for(ArchivePVState pvState : currentPVRequests.values()) { 
+			ret.put(pvState.getCurrentState(), ret.get(pvState.getCurrentState()) + 1);
+		}
+		return ret;
+	}
+
+	public long getPVsCompleted() {
+		return pvsCompleted.get();
+	}
+
+	public long getPVsAborted() {
+		return pvsAborted.get();
+	}
+
+	public long getEngineRegistrationBatches() {
+		return engineRegistrationBatches.get();
+	}
+
+	public long getEngineRegistrationFailures() {
+		return engineRegistrationFailures.get();
+	}
+
+	public long getLastWorkflowRunMillis() {
+		return lastWorkflowRunMillis;
+	}
+
+	public void writeOpenMetrics(OpenMetricsWriter metrics) { 
+		metrics.gauge("mgmt_pvs_in_workflow", "PVs in the archive PV workflow", getPVsPendingInWorkflow());
+		metrics.family("mgmt_archive_workflow_pvs", "gauge", "PVs in the archive PV workflow by state");
+		for(Map.Entry<ArchivePVStateMachine, Integer> entry : getPVsInWorkflowByState().entrySet()) { 
+			metrics.sample("mgmt_archive_workflow_pvs", "state", entry.getKey().toString(), entry.getValue());
+		}
+		metrics.counter("mgmt_archive_workflow_completed_total", "PVs that have finished the archive PV workflow and are being archived", pvsCompleted.get());
+		metrics.counter("mgmt_archive_workflow_aborted_total", "PVs whose archive requests were aborted", pvsAborted.get());
+		metrics.counter("mgmt_archive_workflow_engine_batches_total", "Batches of PVs registered with the engines", engineRegistrationBatches.get());
+		metrics.counter("mgmt_archive_workflow_engine_failures_total", "Failures registering PVs with the engines", engineRegistrationFailures.get());
+		metrics.counter("mgmt_archive_workflow_runs_total", "Runs of the archive PV workflow", workflowRuns.get());
+		metrics.gauge("mgmt_archive_workflow_last_run_seconds", "Time taken by the last run of the archive PV workflow", lastWorkflowRunMillis/1000.0);
+	}
+	
+	/**
+	 * Compute the policies for the PVs that are about to move out of the METAINFO_OBTAINED state in one call. 
+	 * The policies are computed in parallel; any PV whose policy is not computed here has it computed as part of its next step.
+	 * @param archivePVStates
+	 */
+	private void computePoliciesInBatch(List<ArchivePVState> archivePVStates) { 
+		LinkedHashMap<String, MetaInfo> pvNamesAndMetaInfos = new LinkedHashMap<String, MetaInfo>();
+		HashMap<String, UserSpecifiedSamplingParams> userSpecs = new HashMap<String, UserSpecifiedSamplingParams>();
+		for(ArchivePVState pvState : archivePVStates) { 
+			if(pvState.getCurrentState() != ArchivePVStateMachine.METAINFO_OBTAINED) continue;
+			MetaInfo metaInfo = pvState.getMetaInfo();
+			if(metaInfo == null || metaInfo.getArchDBRTypes() == null) continue;
+			UserSpecifiedSamplingParams userSpec = configService.getUserSpecifiedSamplingParams(pvState.getPvName());
+			if(userSpec == null) continue;
+			pvNamesAndMetaInfos.put(pvState.getPvName(), metaInfo);
+			userSpecs.put(pvState.getPvName(), userSpec);
+		}
+		if(pvNamesAndMetaInfos.size() <= 1) return;
+
+		try { 
+			long startMillis = System.currentTimeMillis();
+			LinkedHashMap<String, PolicyConfig> policies = configService.computePoliciesForPVs(pvNamesAndMetaInfos, userSpecs);
+			for(ArchivePVState pvState : archivePVStates) { 
+				PolicyConfig policy = policies.get(pvState.getPvName());
+				if(policy != null) { 
+					pvState.policyPrecomputed(policy);
+				}
+			}
+			logger.info("Computed policies for " + policies.size() + " PVs in " + (System.currentTimeMillis() - startMillis) + "(ms)");
+		} catch(Exception ex) { 
+			logger.error("Exception computing policies for " + pvNamesAndMetaInfos.size() + " PVs", ex);
+		}
+	}
+	
 	public boolean haveChildComponentsStartedUp() { 
 		return componentsThatHaveCompletedStartup.contains(WAR_FILE.ENGINE) 
 				&& componentsThatHaveCompletedStartup.contains(WAR_FILE.ETL) 
@@ -41,6 +41,7 @@ public class ArchivePVState {
 	private Timestamp metaInfoRequestedSubmitted = null;
 	private String myIdentity;
 	private MetaInfo metaInfo = null;
+	private PolicyConfig precomputedPolicy = null;
 
 	public ArchivePVState(String pvName, ConfigService configService) {
 		this.pvName = pvName;
@@ -92,8 +93,11 @@ public class ArchivePVState {
 					}
 					
 
-					logger.debug("About to compute policy for " + pvName);
-					PolicyConfig thePolicy = configService.computePolicyForPV(pvName, metaInfo, userSpec);
+					PolicyConfig thePolicy = precomputedPolicy;
+					if(thePolicy == null) { 
+						logger.debug("About to compute policy for " + pvName);
+						thePolicy = configService.computePolicyForPV(pvName, metaInfo, userSpec);
+					}
 					if(thePolicy.getSamplingMethod() == SamplingMethod.DONT_ARCHIVE) {
 						logger.error("According to the policy, we must not archive pv as the sampling method is DONT_ARCHIVE for PV " + pvName);
 						currentState = ArchivePVStateMachine.ABORTED;
@@ -294,6 +298,18 @@ public class ArchivePVState {
 		this.currentState = ArchivePVStateMachine.METAINFO_OBTAINED;
 	}
 	
+	/**
+	 * The workflow computes the policies for all the PVs in the METAINFO_OBTAINED state in one batch and hands them over here.
+	 * @param policy
+	 */
+	public void policyPrecomputed(PolicyConfig policy) { 
+		this.precomputedPolicy = policy;
+	}
+	
+	public MetaInfo getMetaInfo() { 
+		return metaInfo;
+	}
+	
 	public void errorGettingMetaInfo() { 
 		abortReason = "Error getting meta info";
 		this.currentState = ArchivePVStateMachine.ABORTED;
@@ -303,6 +319,15 @@ public class ArchivePVState {
 		this.currentState = ArchivePVStateMachine.ARCHIVING;
 	}
 
+	/**
+	 * The workflow registers the PVs in the TYPEINFO_STABLE state with their engines in batches; the engine has confirmed that it has started archiving this PV.
+	 * @param typeInfo
+	 */
+	public void startedArchivingInBatch(PVTypeInfo typeInfo) {
+		registerAliasesIfAny(typeInfo);
+		this.currentState = ArchivePVStateMachine.ARCHIVING;
+	}
+
 	/**
 	 * If the user specified params has any aliases specified, we register the alias now.
 	 * @param typeInfo
@@ -387,6 +412,15 @@ public class ArchivePVState {
 	/**
 	 * @return The current archiving state machine state
 	 */
+	/**
+	 * Put the PV in this state without going thru the workflow.
+	 * This is to be used only for unit testing purposes.
+	 * @param state
+	 */
+	public void setCurrentStateForTestingPurposesOnly(ArchivePVStateMachine state) {
+		this.currentState = state;
+	}
+
 	public ArchivePVStateMachine getCurrentState() {
 		return currentState;
 	}
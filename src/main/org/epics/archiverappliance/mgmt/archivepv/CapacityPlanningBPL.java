@@ -41,6 +41,48 @@ public class CapacityPlanningBPL {
          */
         private static float percentageLimitation=80;
         private static Logger configlogger = Logger.getLogger("config." + CapacityPlanningBPL.class.getName());
+        private static volatile CapacityPlanningBatch currentBatch = null;
+
+        /**
+         * Place a batch of PVs using the same appliance totals.
+         * The appliance totals are updated asynchronously as the typeinfos of the placed PVs make their way thru the cluster.
+         * Within a batch, we take a copy of the totals once and add the PVs placed in the batch to it so that the later PVs in the batch take them into account right away.
+         * Call pickApplianceForPV for each PV as usual and close the batch when done; batches are not meant to be used from more than one thread.
+         */
+        public static class CapacityPlanningBatch implements AutoCloseable {
+                private final ConcurrentHashMap<ApplianceInfo, CapacityPlanningData> cpApplianceMetrics;
+                private int pvsPlaced = 0;
+
+                private CapacityPlanningBatch(ConcurrentHashMap<ApplianceInfo, CapacityPlanningData> cpApplianceMetrics) {
+                        this.cpApplianceMetrics = cpApplianceMetrics;
+                        for(CapacityPlanningData cpData : cpApplianceMetrics.values()) {
+                                cpData.startBatch();
+                        }
+                }
+
+                private void placed(String pvName, ApplianceInfo applianceInfo, PVTypeInfo pvTypeInfo, ConfigService configService) throws IOException {
+                        pvsPlaced++;
+                        CapacityPlanningData cpData = cpApplianceMetrics.get(applianceInfo);
+                        if(cpData != null) {
+                                cpData.addPVToBatch(pvName, pvTypeInfo, configService);
+                        }
+                }
+
+                @Override
+                public void close() {
+                        currentBatch = null;
+                        for(CapacityPlanningData cpData : cpApplianceMetrics.values()) {
+                                cpData.endBatch();
+                        }
+                        logger.debug("Placed " + pvsPlaced + " PVs in the capacity planning batch");
+                }
+        }
+
+        public static CapacityPlanningBatch startBatch(ConfigService configService) throws IOException {
+                CapacityPlanningBatch batch = new CapacityPlanningBatch(CapacityPlanningData.getMetricsForAppliances(configService).cpApplianceMetrics);
+                currentBatch = batch;
+                return batch;
+        }
  
    /***
     * get the appliance for this pv.
@@ -53,6 +95,15 @@ public class CapacityPlanningBPL {
     * in this case, this method will return the ApplianceInfo of the local  appliance
     */
         public static ApplianceInfo pickApplianceForPV(String pvName, ConfigService configService,PVTypeInfo pvTypeInfo) throws IOException {
+                ApplianceInfo applianceInfo = pickApplianceForPVUsingMetrics(pvName, configService, pvTypeInfo);
+                CapacityPlanningBatch batch = currentBatch;
+                if(batch != null) {
+                        batch.placed(pvName, applianceInfo, pvTypeInfo, configService);
+                }
+                return applianceInfo;
+        }
+
+        private static ApplianceInfo pickApplianceForPVUsingMetrics(String pvName, ConfigService configService,PVTypeInfo pvTypeInfo) throws IOException {
              
                 try{
                 String [] dataStores=pvTypeInfo.getDataStores();
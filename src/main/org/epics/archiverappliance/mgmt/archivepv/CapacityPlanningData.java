@@ -10,6 +10,7 @@ import org.epics.archiverappliance.common.TimeUtils;
 import org.epics.archiverappliance.config.ApplianceAggregateInfo;
 import org.epics.archiverappliance.config.ApplianceInfo;
 import org.epics.archiverappliance.config.ConfigService;
+import org.epics.archiverappliance.config.PVTypeInfo;
 import org.epics.archiverappliance.utils.ui.GetUrlContent;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -44,6 +45,12 @@ public class CapacityPlanningData {
 	private String identity;
 	private boolean isAvailible=true;
 	private static CPStaticData cachedCPStaticData = null;
+	/**
+	 * While a batch of PVs is being placed, we fetch the difference once per batch and add the PVs placed in the batch to it.
+	 * Both of these are guarded by this.
+	 */
+	private boolean inBatch = false;
+	private ApplianceAggregateInfo batchAggregateDifference = null;
 	
 	
 	
@@ -104,7 +111,7 @@ public class CapacityPlanningData {
 				etlMetrics.put(etlMetric.identity, etlMetric);
 			}
 			
-			applianceAggregateInfoAsOfLastFetch = configService.getAggregatedApplianceInfo(applianceInfo).clone();
+			applianceAggregateInfoAsOfLastFetch = configService.refreshAggregatedApplianceInfo(applianceInfo);
 		} catch(Exception e) {
 			logger.error("Exception in CapacityPlanningMetricsPerApplianceForPV", e);
 			throw new IOException(e);
@@ -161,16 +168,50 @@ public class CapacityPlanningData {
 	
 	/**
 	 * Return the difference between the appliance aggregate info as of "now" and from the time we last fetched the static data.
+	 * The mgmt webapp maintains the aggregate info for all appliances as the typeinfos change; so this does not make any remote calls.
 	 * @param configService
 	 * @param applianceInfo
 	 * @return
 	 * @throws IOException
 	 */
 	public ApplianceAggregateInfo getApplianceAggregateDifferenceFromLastFetch(ConfigService configService) throws IOException {
+		synchronized(this) {
+			if(inBatch) {
+				if(batchAggregateDifference == null) {
+					batchAggregateDifference = fetchApplianceAggregateDifference(configService);
+				}
+				return batchAggregateDifference.clone();
+			}
+		}
+		return fetchApplianceAggregateDifference(configService);
+	}
+
+	private ApplianceAggregateInfo fetchApplianceAggregateDifference(ConfigService configService) throws IOException {
 		ApplianceAggregateInfo freshData = configService.getAggregatedApplianceInfo(configService.getAppliance(identity));
 		return freshData.getDifference(applianceAggregateInfoAsOfLastFetch);
 	}
 
+	synchronized void startBatch() {
+		inBatch = true;
+		batchAggregateDifference = null;
+	}
+
+	/**
+	 * A PV in the current batch was placed on this appliance; add it to the difference so that the rest of the batch takes it into account.
+	 */
+	synchronized void addPVToBatch(String pvName, PVTypeInfo typeInfo, ConfigService configService) throws IOException {
+		if(!inBatch) return;
+		if(batchAggregateDifference == null) {
+			batchAggregateDifference = fetchApplianceAggregateDifference(configService);
+		}
+		batchAggregateDifference.addInfoForPV(pvName, typeInfo, configService);
+	}
+
+	synchronized void endBatch() {
+		inBatch = false;
+		batchAggregateDifference = null;
+	}
+
 	public float getPercentageTimeForWritter() {
 		return percentageTimeForWritterAfterPVadded;
 	}
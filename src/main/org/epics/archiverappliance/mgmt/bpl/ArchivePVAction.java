@@ -151,6 +151,8 @@ public class ArchivePVAction implements BPLAction {
 				logger.debug("Calling archivePV for pv " + pv);
 				archivePV(out, pv, samplingPeriodSpecified, samplingMethod, samplingPeriod, controllingPV, policyName, null, skipCapacityPlanning, configService, fieldsAsPartOfStream);
 			}
+			// Make sure the archive requests are persisted before we tell the user that they have been submitted.
+			configService.flushPersistenceWrites();
 			out.println("]");
 		}
 	}
@@ -373,6 +375,7 @@ public class ArchivePVAction implements BPLAction {
 											fieldsAsPartOfStream);
 				}
 				
+				configService.flushPersistenceWrites();
 				out.println("]");
 				out.flush();
 			}
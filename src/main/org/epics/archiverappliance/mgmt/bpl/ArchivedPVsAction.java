@@ -43,6 +43,7 @@ public class ArchivedPVsAction implements BPLAction {
 		logger.info("Determining PVs that are archived ");
 		LinkedList<String> pvNames = PVsMatchingParameter.getPVNamesFromPostBody(req, configService);
 		LinkedList<String> archivedPVs = new LinkedList<String>();
+		configService.prefetchPVInfos(pvNames);
 		for(String pvName : pvNames) {
 			PVTypeInfo typeInfo = null;
 			logger.debug("Check for the name as it came in from the user " + pvName);
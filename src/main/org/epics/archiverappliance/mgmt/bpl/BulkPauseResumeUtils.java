@@ -1,6 +1,7 @@
 package org.epics.archiverappliance.mgmt.bpl;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -44,6 +45,7 @@ public class BulkPauseResumeUtils {
 		List<HashMap<String, String>> retVal = new LinkedList<HashMap<String, String>>();
 		HashMap<String, HashMap<String, String>> retValMap = new HashMap<String, HashMap<String, String>>();
 		HashMap<String, LinkedList<String>> pvsByAppliance = new HashMap<String, LinkedList<String>>();
+		configService.prefetchPVInfos(pvNames);
 		for(String pvName : pvNames) { 
 			String realName = configService.getRealNameForAlias(pvName);
 			if(realName != null) pvName = realName;
@@ -84,51 +86,58 @@ public class BulkPauseResumeUtils {
 			}
 		}
 
+		// Make bulk pause/resume calls to the ETL and engine of all the appliances in parallel.
+		String bplUrl = askingToPausePV ? "/pauseArchivingPV" : "/resumeArchivingPV";
+		List<String> etlURLs = new ArrayList<String>();
+		List<String> engineURLs = new ArrayList<String>();
+		List<LinkedList<String>> pvsForAppliances = new ArrayList<LinkedList<String>>();
 		for(String appliance : pvsByAppliance.keySet()) { 
-			logger.debug("Optimization; make bulk pause/resume calls to the engine and ETL " + appliance);
 			ApplianceInfo applianceInfo = configService.getAppliance(appliance);
-			String bplUrl = askingToPausePV ? "/pauseArchivingPV" : "/resumeArchivingPV";
-			
-			if(askingToPausePV) { 
-				String ETLPauseURL = applianceInfo.getEtlURL() + bplUrl; 
-				logger.info("Bulk pause/resume ETL using URL " + ETLPauseURL + " for " + pvsByAppliance.get(appliance).size() + " pvs");
-				JSONArray etlResponse = GetUrlContent.postStringListAndGetContentAsJSONArray(ETLPauseURL, "pv", pvsByAppliance.get(appliance));
-				for(Object statusObj : etlResponse) { 
-					@SuppressWarnings("unchecked")
-					HashMap<String, String> response = (HashMap<String, String>) statusObj;
-					String pvName = response.get("pvName");
-					logger.debug("Combining etl reponse for " + pvName);
-					HashMap<String, String> mainResponse = retValMap.get(pvName);
-					if(mainResponse != null) { 
-						for(String key : response.keySet()) {
-							mainResponse.put("etl_" + key, response.get(key));
-						}
-					} else { 
-						logger.error("Cannot find the main response object for pv " + pvName);
-					}
-				}
-			}
-			
+			etlURLs.add(applianceInfo.getEtlURL() + bplUrl);
+			engineURLs.add(applianceInfo.getEngineURL() + bplUrl);
+			pvsForAppliances.add(pvsByAppliance.get(appliance));
+			logger.info("Bulk pause/resume appliance " + appliance + " for " + pvsByAppliance.get(appliance).size() + " pvs");
+		}
 
-			String enginePauseURL = applianceInfo.getEngineURL() + bplUrl;
-			logger.info("Bulk pause/resume engine using URL " + enginePauseURL  + " for " + pvsByAppliance.get(appliance).size() + " pvs");
-			JSONArray engineResponse = GetUrlContent.postStringListAndGetContentAsJSONArray(enginePauseURL, "pv", pvsByAppliance.get(appliance));			
-			for(Object statusObj : engineResponse) { 
-				@SuppressWarnings("unchecked")
-				HashMap<String, String> response = (HashMap<String, String>) statusObj;
-				String pvName = response.get("pvName");
-				logger.debug("Combining engine reponse for " + pvName);
-				HashMap<String, String> mainResponse = retValMap.get(pvName);
-				if(mainResponse != null) { 
-					for(String key : response.keySet()) {
-						mainResponse.put("engine_" + key, response.get(key));
-					}
-				} else { 
-					logger.error("Cannot find the main response object for pv " + pvName);
-				}
+		if(askingToPausePV) { 
+			List<JSONArray> etlResponses = GetUrlContent.postStringListsAndGetContentsAsJSONArrays(etlURLs, "pv", pvsForAppliances);
+			for(int i = 0; i < etlURLs.size(); i++) {
+				combineResponses("etl_", etlURLs.get(i), etlResponses.get(i), pvsForAppliances.get(i), retValMap);
 			}
 		}
+
+		List<JSONArray> engineResponses = GetUrlContent.postStringListsAndGetContentsAsJSONArrays(engineURLs, "pv", pvsForAppliances);
+		for(int i = 0; i < engineURLs.size(); i++) {
+			combineResponses("engine_", engineURLs.get(i), engineResponses.get(i), pvsForAppliances.get(i), retValMap);
+		}
 		return retVal;
 	}
 
+	/**
+	 * Add the statuses from the ETL/engine of one appliance to the main response using the prefix.
+	 * If the appliance did not respond, we add a validation message for each of its PVs instead.
+	 */
+	private static void combineResponses(String prefix, String url, JSONArray componentResponse, LinkedList<String> pvNames, HashMap<String, HashMap<String, String>> retValMap) {
+		if(componentResponse == null) {
+			logger.error("Did not get a response from " + url + " for " + pvNames.size() + " pvs");
+			for(String pvName : pvNames) {
+				retValMap.get(pvName).put(prefix + "validation", "No response from " + url);
+			}
+			return;
+		}
+		for(Object statusObj : componentResponse) { 
+			@SuppressWarnings("unchecked")
+			HashMap<String, String> response = (HashMap<String, String>) statusObj;
+			String pvName = response.get("pvName");
+			logger.debug("Combining " + prefix + " reponse for " + pvName);
+			HashMap<String, String> mainResponse = retValMap.get(pvName);
+			if(mainResponse != null) { 
+				for(String key : response.keySet()) {
+					mainResponse.put(prefix + key, response.get(key));
+				}
+			} else { 
+				logger.error("Cannot find the main response object for pv " + pvName);
+			}
+		}
+	}
 }
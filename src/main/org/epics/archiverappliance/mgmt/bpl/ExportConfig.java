@@ -17,6 +17,7 @@ import org.epics.archiverappliance.utils.ui.MimeTypeConstants;
 /**
  * Export the archiving configuration (PVTypeInfo's) as a JSON file. 
  * Used for export and import of configuration.
+ * The configuration for each appliance is streamed to the response as it is read; so we do not hold the entire configuration in memory.
  * @author mshankar
  *
  */
@@ -34,7 +35,8 @@ public class ExportConfig implements BPLAction {
 
 		resp.setContentType(MimeTypeConstants.APPLICATION_JSON);
 		try(PrintWriter out = resp.getWriter()) {
-			GetUrlContent.combineJSONArraysAndPrintln(exportPVTypeInfoURLs, out);
+			int exportedCount = GetUrlContent.streamJSONArraysAndPrintln(exportPVTypeInfoURLs, out);
+			logger.info("Exported the configuration for " + exportedCount + " PVs");
 		}
 	}
 }
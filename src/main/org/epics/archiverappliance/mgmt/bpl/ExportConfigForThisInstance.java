@@ -2,6 +2,8 @@ package org.epics.archiverappliance.mgmt.bpl;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -16,11 +18,14 @@ import org.epics.archiverappliance.utils.ui.MimeTypeConstants;
 /**
  * Export the archiving configuration (PVTypeInfo's) for this instance as a JSON file. 
  * Used for export and import of configuration.
+ * The typeinfos are fetched a page at a time and streamed to the response; so memory use does not depend on the number of PVs.
  * @author mshankar
  *
  */
 public class ExportConfigForThisInstance implements BPLAction {
 	private static Logger logger = Logger.getLogger(ExportConfigForThisInstance.class.getName());
+	private static final int EXPORT_PAGE_SIZE = 1000;
+
 	@Override
 	public void execute(HttpServletRequest req, HttpServletResponse resp,ConfigService configService) throws IOException {
 		String identity = configService.getMyApplianceInfo().getIdentity();
@@ -30,19 +35,39 @@ public class ExportConfigForThisInstance implements BPLAction {
 		try(PrintWriter out = resp.getWriter()) {
 			out.println("[");
 			JSONEncoder<PVTypeInfo> typeInfoEncoder = JSONEncoder.getEncoder(PVTypeInfo.class);
-			boolean first = true;
+			int exportedCount = 0;
+			ArrayList<String> page = new ArrayList<String>(EXPORT_PAGE_SIZE);
 			for(String pvName : configService.getPVsForThisAppliance()) {
-				PVTypeInfo typeInfo = configService.getTypeInfoForPV(pvName);
-				if(typeInfo != null) {
-					if(first) { first = false; } else { out.println(","); }
-					typeInfoEncoder.encodeAndPrint(typeInfo, out);
-				} else {
-					logger.error("Not exporting configuration for pv " + pvName + " in appliance " + identity);
+				page.add(pvName);
+				if(page.size() >= EXPORT_PAGE_SIZE) {
+					exportedCount = exportPage(page, exportedCount, typeInfoEncoder, configService, out);
+					page.clear();
 				}
 			}
+			exportedCount = exportPage(page, exportedCount, typeInfoEncoder, configService, out);
 			out.println("]");
+			logger.info("Exported the configuration for " + exportedCount + " PVs in appliance " + identity);
 		} catch(Exception ex) {
 			throw new IOException(ex);
 		}
 	}
+
+	/**
+	 * Fetch the typeinfos for a page of PVs in one bulk lookup and print them out.
+	 * @return The number of typeinfos exported so far.
+	 */
+	private static int exportPage(List<String> page, int exportedCount, JSONEncoder<PVTypeInfo> typeInfoEncoder, ConfigService configService, PrintWriter out) throws Exception {
+		configService.prefetchPVInfos(page);
+		for(String pvName : page) {
+			PVTypeInfo typeInfo = configService.getTypeInfoForPV(pvName);
+			if(typeInfo != null) {
+				if(exportedCount > 0) { out.println(","); }
+				typeInfoEncoder.encodeAndPrint(typeInfo, out);
+				exportedCount++;
+			} else {
+				logger.error("Not exporting configuration for pv " + pvName + " in appliance " + configService.getMyApplianceInfo().getIdentity());
+			}
+		}
+		return exportedCount;
+	}
 }
@@ -11,6 +11,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.log4j.Logger;
 import org.epics.archiverappliance.common.BPLAction;
 import org.epics.archiverappliance.config.ConfigService;
+import org.epics.archiverappliance.config.PVNameIndex;
 import org.epics.archiverappliance.utils.ui.MimeTypeConstants;
 import org.json.simple.JSONValue;
 
@@ -44,25 +45,15 @@ public class GetMatchingPVsForAppliance implements BPLAction {
 		}
 		
 		if(req.getParameter("pv") != null) { 
-			nameToMatch = req.getParameter("pv");
-			nameToMatch = nameToMatch.replace("*", ".*");
-			nameToMatch = nameToMatch.replace("?", ".");
+			nameToMatch = PVNameIndex.globToRegex(req.getParameter("pv"));
 			logger.debug("Finding PV's for glob (converted to regex)" + nameToMatch);			
 		}
 		
-
-		Set<String> pvNamesMatchingRegex = configService.getPVsForApplianceMatchingRegex(nameToMatch);
-		
 		LinkedList<String> pvNames = new LinkedList<String>();
-		if(limit == -1) { 
+		if(nameToMatch != null) { 
+			// The name index stops looking once it has found limit names.
+			Set<String> pvNamesMatchingRegex = configService.getPVsForApplianceMatchingRegex(nameToMatch, limit);
 			pvNames.addAll(pvNamesMatchingRegex);
-		} else {
-			int pvCount = 0;
-			for(String matchedName : pvNamesMatchingRegex) { 
-				pvNames.add(matchedName);
-				pvCount++;
-				if(pvCount >= limit) break;
-			}
 		}
 
 		
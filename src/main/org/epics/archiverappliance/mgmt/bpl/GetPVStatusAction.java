@@ -9,8 +9,10 @@ package org.epics.archiverappliance.mgmt.bpl;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -84,15 +86,21 @@ public class GetPVStatusAction implements BPLAction {
 			}
 		}
 		
+		// Ask the engines in parallel; engines that fail or do not respond in time are treated as down.
+		List<String> engineStatusURLs = new ArrayList<String>();
+		List<LinkedList<String>> pvNamesForEngines = new ArrayList<LinkedList<String>>();
 		for(String engineURL : pvNamesToAskEngineForStatus.keySet()) { 
-			LinkedList<String> pvNamesToAskEngine = pvNamesToAskEngineForStatus.get(engineURL);
-			JSONArray engineStatuses = null;
-			boolean instanceDown = false;
-			try { 
-				engineStatuses = GetUrlContent.postStringListAndGetContentAsJSONArray(engineURL + "/status", "pv", pvNamesToAskEngine);
-			} catch(IOException ex) { 
-				instanceDown = true;
-				logger.warn("Exception getting status from engine " + engineURL, ex);
+			engineStatusURLs.add(engineURL + "/status");
+			pvNamesForEngines.add(pvNamesToAskEngineForStatus.get(engineURL));
+		}
+		List<JSONArray> engineStatusesForEngines = GetUrlContent.postStringListsAndGetContentsAsJSONArrays(engineStatusURLs, "pv", pvNamesForEngines);
+
+		for(int engineIndex = 0; engineIndex < engineStatusURLs.size(); engineIndex++) { 
+			LinkedList<String> pvNamesToAskEngine = pvNamesForEngines.get(engineIndex);
+			JSONArray engineStatuses = engineStatusesForEngines.get(engineIndex);
+			boolean instanceDown = engineStatuses == null;
+			if(instanceDown) { 
+				logger.warn("Did not get the status of " + pvNamesToAskEngine.size() + " PVs from engine " + engineStatusURLs.get(engineIndex));
 			}
 			// Convert list of statuses from engine to hashmap
 			HashMap<String, JSONObject> computedEngineStatueses = new HashMap<String, JSONObject>();
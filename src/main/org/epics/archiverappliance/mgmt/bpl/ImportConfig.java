@@ -2,11 +2,12 @@ package org.epics.archiverappliance.mgmt.bpl;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -17,30 +18,33 @@ import org.epics.archiverappliance.config.ApplianceInfo;
 import org.epics.archiverappliance.config.ConfigService;
 import org.epics.archiverappliance.config.PVTypeInfo;
 import org.epics.archiverappliance.utils.ui.GetUrlContent;
+import org.epics.archiverappliance.utils.ui.JSONArrayStreamReader;
 import org.epics.archiverappliance.utils.ui.JSONDecoder;
 import org.epics.archiverappliance.utils.ui.MimeTypeConstants;
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 
 /**
  * Import configuration from an exported file
  * Send the exported file as the body of the POST.
+ * The file is parsed as it is read and the PVs are sent to their appliances in batches of IMPORT_BATCH_SIZE; so we hold at most one batch per appliance in memory.
  * @author mshankar
  *
  */
 public class ImportConfig implements BPLAction {
 	private static Logger logger = Logger.getLogger(ImportConfig.class.getName());
+	public static final int IMPORT_BATCH_SIZE = 1000;
+
 	@Override
 	public void execute(HttpServletRequest req, HttpServletResponse resp, ConfigService configService) throws IOException {
 		logger.info("Importing configuration using POST");
 
 		HashMap<String, LinkedList<JSONObject>> pvsForAppliances = new HashMap<String, LinkedList<JSONObject>>();
-		try(InputStream is = new BufferedInputStream(req.getInputStream())) {
+		LinkedHashMap<String, JSONObject> responses = new LinkedHashMap<String, JSONObject>();
+		try(JSONArrayStreamReader reader = new JSONArrayStreamReader(new InputStreamReader(new BufferedInputStream(req.getInputStream())))) {
 			JSONDecoder<PVTypeInfo> typeInfoDecoder = JSONDecoder.getDecoder(PVTypeInfo.class);
-			JSONArray unmarshalledConfiguration = (JSONArray) JSONValue.parse(new InputStreamReader(is));
-			for(Object configObj : unmarshalledConfiguration) {
-				JSONObject configJSON = (JSONObject) configObj;
+			JSONObject configJSON = reader.next();
+			while(configJSON != null) {
 				PVTypeInfo unmarshalledTypeInfo = new PVTypeInfo();
 				typeInfoDecoder.decode(configJSON, unmarshalledTypeInfo);
 				String pvName = unmarshalledTypeInfo.getPvName();
@@ -49,36 +53,51 @@ public class ImportConfig implements BPLAction {
 				ApplianceInfo applianceInfo = configService.getAppliance(applianceIdentity);
 				if(applianceInfo == null) {
 					logger.error("Unable to determine appliance information for appliance " + applianceIdentity + " when importing configuration for " + pvName);
-					continue;
-				}
-				LinkedList<JSONObject> pvsForAppliance = pvsForAppliances.get(applianceIdentity);
-				if(pvsForAppliance == null) {
-					pvsForAppliance = new LinkedList<JSONObject>();
-					pvsForAppliances.put(applianceIdentity, pvsForAppliance);
+				} else {
+					LinkedList<JSONObject> pvsForAppliance = pvsForAppliances.get(applianceIdentity);
+					if(pvsForAppliance == null) {
+						pvsForAppliance = new LinkedList<JSONObject>();
+						pvsForAppliances.put(applianceIdentity, pvsForAppliance);
+					}
+					pvsForAppliance.add(configJSON);
+					if(pvsForAppliance.size() >= IMPORT_BATCH_SIZE) {
+						importBatch(applianceInfo, pvsForAppliances.remove(applianceIdentity), responses);
+					}
 				}
-				pvsForAppliance.add(configJSON);
+				configJSON = reader.next();
 			}
+			logger.info("Read the configuration for " + reader.getElementsRead() + " PVs");
 		} catch(Exception ex) {
 			throw new IOException(ex);
 		}
-		
-		
-		LinkedList<JSONObject> responses = new LinkedList<JSONObject>();
+
 		for(String applianceIdentity : pvsForAppliances.keySet()) {
-			LinkedList<JSONObject> pvsForAppliance = pvsForAppliances.get(applianceIdentity);
-			if(pvsForAppliance.size() > 1) {
-				ApplianceInfo applianceInfo = configService.getAppliance(applianceIdentity);
-				String importConfigURL = applianceInfo.getMgmtURL() + "/importConfigForAppliance";
-				JSONObject response = GetUrlContent.postDataAndGetContentAsJSONObject(importConfigURL, pvsForAppliance);
-				responses.add(response);
-			} else {
-				logger.warn("No pvs when importing configuration for appliance " + applianceIdentity);
-			}
+			importBatch(configService.getAppliance(applianceIdentity), pvsForAppliances.get(applianceIdentity), responses);
 		}
-		
+
 		resp.setContentType(MimeTypeConstants.APPLICATION_JSON);
 		try(PrintWriter out = resp.getWriter()) {
-			out.println(JSONValue.toJSONString(responses));
+			out.println(JSONValue.toJSONString(new LinkedList<JSONObject>(responses.values())));
+		}
+	}
+
+	/**
+	 * Send a batch of PVs to the appliance and combine the PVs that had errors into one response per appliance.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void importBatch(ApplianceInfo applianceInfo, LinkedList<JSONObject> pvsForAppliance, LinkedHashMap<String, JSONObject> responses) throws IOException {
+		String importConfigURL = applianceInfo.getMgmtURL() + "/importConfigForAppliance";
+		logger.debug("Importing the configuration for " + pvsForAppliance.size() + " PVs into appliance " + applianceInfo.getIdentity());
+		JSONObject response = GetUrlContent.postDataAndGetContentAsJSONObject(importConfigURL, pvsForAppliance);
+		if(response == null) {
+			logger.error("Invalid response from " + importConfigURL + " when importing the configuration for " + pvsForAppliance.size() + " PVs");
+			return;
+		}
+		JSONObject combinedResponse = responses.get(applianceInfo.getIdentity());
+		if(combinedResponse == null) {
+			responses.put(applianceInfo.getIdentity(), response);
+		} else if(response.get("errorPVs") != null) {
+			((List<Object>) combinedResponse.get("errorPVs")).addAll((List<Object>) response.get("errorPVs"));
 		}
 	}
 }
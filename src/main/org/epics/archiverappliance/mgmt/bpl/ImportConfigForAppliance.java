@@ -2,10 +2,10 @@ package org.epics.archiverappliance.mgmt.bpl;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 
 import javax.servlet.http.HttpServletRequest;
@@ -16,16 +16,18 @@ import org.epics.archiverappliance.common.BPLAction;
 import org.epics.archiverappliance.config.ApplianceInfo;
 import org.epics.archiverappliance.config.ConfigService;
 import org.epics.archiverappliance.config.PVTypeInfo;
+import org.epics.archiverappliance.config.exception.AlreadyRegisteredException;
 import org.epics.archiverappliance.mgmt.archivepv.ArchivePVState;
+import org.epics.archiverappliance.utils.ui.JSONArrayStreamReader;
 import org.epics.archiverappliance.utils.ui.JSONDecoder;
 import org.epics.archiverappliance.utils.ui.MimeTypeConstants;
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 
 /**
  * Import configuration from an exported file for this appliance...
  * Send the exported file as the body of the POST.
+ * The file is parsed as it is read and the PVs are added to the cluster in batches of {@link ImportConfig#IMPORT_BATCH_SIZE}.
  * @author mshankar
  *
  */
@@ -39,11 +41,11 @@ public class ImportConfigForAppliance implements BPLAction {
 		logger.info("Importing configuration for appliance " + myIdentity + " using POST");
 
 		LinkedList<String> errorPVs = new LinkedList<String>();
-		try(InputStream is = new BufferedInputStream(req.getInputStream())) {
+		try(JSONArrayStreamReader reader = new JSONArrayStreamReader(new InputStreamReader(new BufferedInputStream(req.getInputStream())))) {
 			JSONDecoder<PVTypeInfo> typeInfoDecoder = JSONDecoder.getDecoder(PVTypeInfo.class);
-			JSONArray unmarshalledConfiguration = (JSONArray) JSONValue.parse(new InputStreamReader(is));
-			for(Object configObj : unmarshalledConfiguration) {
-				JSONObject configJSON = (JSONObject) configObj;
+			LinkedHashMap<String, PVTypeInfo> batch = new LinkedHashMap<String, PVTypeInfo>();
+			JSONObject configJSON = reader.next();
+			while(configJSON != null) {
 				PVTypeInfo unmarshalledTypeInfo = new PVTypeInfo();
 				typeInfoDecoder.decode(configJSON, unmarshalledTypeInfo);
 				String pvName = unmarshalledTypeInfo.getPvName();
@@ -52,24 +54,25 @@ public class ImportConfigForAppliance implements BPLAction {
 				if(!myIdentity.equals(applianceIdentity)) {
 					logger.error("Trying to import PV belonging to another appliance " + pvName);
 					errorPVs.add(pvName);
-					continue;
-				}
-				// We now have a valid PVTypeInfo for this PV.
-				PVTypeInfo existingTypeInfo = configService.getTypeInfoForPV(pvName);
-				if(existingTypeInfo != null) {
-					logger.error("PV is already being archived " + pvName);
+				} else if(batch.containsKey(pvName)) {
+					logger.error("PV is specified more than once " + pvName);
 					errorPVs.add(pvName);
-					continue;
+				} else {
+					batch.put(pvName, unmarshalledTypeInfo);
+					if(batch.size() >= ImportConfig.IMPORT_BATCH_SIZE) {
+						importBatch(batch, configService, myApplianceInfo, errorPVs);
+						batch.clear();
+					}
 				}
-				
-				configService.registerPVToAppliance(pvName, myApplianceInfo);
-				configService.updateTypeInfoForPV(pvName, unmarshalledTypeInfo);
-				ArchivePVState.startArchivingPV(pvName, configService, myApplianceInfo);
+				configJSON = reader.next();
 			}
+			importBatch(batch, configService, myApplianceInfo, errorPVs);
+			logger.info("Imported the configuration for " + (reader.getElementsRead() - errorPVs.size()) + " PVs into appliance " + myIdentity);
+			configService.flushPersistenceWrites();
 		} catch(Exception ex) {
 			throw new IOException(ex);
 		}
-		
+
 		HashMap<String, Object> status = new HashMap<String, Object>();
 		status.put("appliance", myIdentity);
 		status.put("errorPVs", errorPVs);
@@ -78,4 +81,37 @@ public class ImportConfigForAppliance implements BPLAction {
 			out.println(JSONValue.toJSONString(status));
 		}
 	}
+
+	/**
+	 * Add a batch of PVs to the cluster; the typeinfos are added using one bulk put.
+	 * PVs that are already being archived are added to errorPVs.
+	 */
+	private static void importBatch(LinkedHashMap<String, PVTypeInfo> batch, ConfigService configService, ApplianceInfo myApplianceInfo, LinkedList<String> errorPVs) throws IOException {
+		if(batch.isEmpty()) return;
+		configService.prefetchPVInfos(batch.keySet());
+		LinkedHashMap<String, PVTypeInfo> newTypeInfos = new LinkedHashMap<String, PVTypeInfo>();
+		for(String pvName : batch.keySet()) {
+			// We now have a valid PVTypeInfo for this PV.
+			PVTypeInfo existingTypeInfo = configService.getTypeInfoForPV(pvName);
+			if(existingTypeInfo != null) {
+				logger.error("PV is already being archived " + pvName);
+				errorPVs.add(pvName);
+				continue;
+			}
+			try {
+				configService.registerPVToAppliance(pvName, myApplianceInfo);
+			} catch(AlreadyRegisteredException ex) {
+				logger.error("PV is already registered to appliance " + ex.getCurrentlyRegisteredAppliance().getIdentity() + " " + pvName);
+				errorPVs.add(pvName);
+				continue;
+			}
+			newTypeInfos.put(pvName, batch.get(pvName));
+		}
+
+		configService.updateTypeInfosForPVs(newTypeInfos);
+		for(String pvName : newTypeInfos.keySet()) {
+			ArchivePVState.startArchivingPV(pvName, configService, myApplianceInfo);
+		}
+		logger.debug("Imported a batch of " + newTypeInfos.size() + " of " + batch.size() + " PVs");
+	}
 }
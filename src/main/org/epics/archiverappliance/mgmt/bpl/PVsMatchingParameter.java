@@ -1,19 +1,23 @@
 package org.epics.archiverappliance.mgmt.bpl;
 
 import java.io.BufferedInputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 
-import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.apache.log4j.Logger;
 import org.epics.archiverappliance.config.ApplianceInfo;
 import org.epics.archiverappliance.config.ConfigService;
+import org.epics.archiverappliance.config.PVNameIndex;
+import org.epics.archiverappliance.utils.ui.GetUrlContent;
 import org.epics.archiverappliance.utils.ui.MimeTypeConstants;
 import org.json.simple.JSONArray;
 import org.json.simple.parser.JSONParser;
@@ -49,22 +53,8 @@ public class PVsMatchingParameter {
 			String[] pvs = req.getParameter("pv").split(",");
 			for(String pv : pvs) { 
 				if(pv.contains("*") || pv.contains("?")) {
-					WildcardFileFilter matcher = new WildcardFileFilter(pv); 
-					for(String pvName : configService.getAllPVs()) {
-						if(matcher.accept((new File(pvName)))) {
-							pvNames.add(pvName);
-							if(limit != -1 && pvNames.size() >= limit) { 
-								return pvNames;
-							}
-						}
-					}
-					for(String pvName : configService.getAllAliases()) {
-						if(matcher.accept((new File(pvName)))) {
-							pvNames.add(pvName);
-							if(limit != -1 && pvNames.size() >= limit) { 
-								return pvNames;
-							}
-						}
+					if(addMatchingPVsInCluster(configService, PVNameIndex.globToRegex(pv), limit, pvNames)) { 
+						return pvNames;
 					}
 				} else {
 					ApplianceInfo info = configService.getApplianceForPV(pv);
@@ -86,22 +76,8 @@ public class PVsMatchingParameter {
 		} else { 
 			if(req.getParameter("regex") != null) { 
 				String regex = req.getParameter("regex");
-				Pattern pattern = Pattern.compile(regex);
-				for(String pvName : configService.getAllPVs()) {
-					if(pattern.matcher(pvName).matches()) { 
-						pvNames.add(pvName);
-						if(limit != -1 && pvNames.size() >= limit) { 
-							return pvNames;
-						}
-					}
-				}
-				for(String pvName : configService.getAllAliases()) {
-					if(pattern.matcher(pvName).matches()) { 
-						pvNames.add(pvName);
-						if(limit != -1 && pvNames.size() >= limit) { 
-							return pvNames;
-						}
-					}
+				if(addMatchingPVsInCluster(configService, regex, limit, pvNames)) { 
+					return pvNames;
 				}
 			} else { 
 				for(String pvName : configService.getAllPVs()) {
@@ -121,6 +97,95 @@ public class PVsMatchingParameter {
 		return pvNames;
 	}
 	
+	/**
+	 * Add the PVs and aliases in the cluster that match this regex to pvNames.
+	 * Each appliance looks up its own PVs using its name index; we ask the other appliances in parallel. 
+	 * For the appliances that do not answer, we fall back to matching the regex against the names in the cluster wide maps.
+	 * @param configService
+	 * @param regex
+	 * @param limit - The limit on the total size of pvNames; -1 for no limit.
+	 * @param pvNames
+	 * @return true if we have reached the limit.
+	 */
+	private static boolean addMatchingPVsInCluster(ConfigService configService, String regex, int limit, LinkedList<String> pvNames) {
+		int remaining = (limit == -1) ? -1 : limit - pvNames.size();
+		ApplianceInfo myApplianceInfo = configService.getMyApplianceInfo();
+		LinkedList<String> urlStrs = new LinkedList<String>();
+		LinkedList<String> urlAppliances = new LinkedList<String>();
+		for(ApplianceInfo applianceInfo : configService.getAppliancesInCluster()) { 
+			if(applianceInfo.getIdentity().equals(myApplianceInfo.getIdentity())) continue;
+			try { 
+				urlStrs.add(applianceInfo.getMgmtURL() + "/getMatchingPVsForThisAppliance"
+						+ "?regex=" + URLEncoder.encode(regex, "UTF-8")
+						+ "&limit=" + Integer.toString(remaining));
+				urlAppliances.add(applianceInfo.getIdentity());
+			} catch(UnsupportedEncodingException ex) { 
+				throw new RuntimeException(ex);
+			}
+		}
+		List<JSONArray> otherAppliances = GetUrlContent.getURLContentsAsJSONArrays(urlStrs);
+
+		for(String pvName : configService.getPVsForApplianceMatchingRegex(regex, remaining)) { 
+			pvNames.add(pvName);
+			if(limit != -1 && pvNames.size() >= limit) { 
+				return true;
+			}
+		}
+		HashSet<String> missingAppliances = new HashSet<String>();
+		for(int i = 0; i < urlStrs.size(); i++) { 
+			JSONArray matchingNames = otherAppliances.get(i);
+			if(matchingNames == null) { 
+				logger.warn("Did not get the matching PVs from " + urlStrs.get(i) + "; using the cluster wide maps for this appliance instead");
+				missingAppliances.add(urlAppliances.get(i));
+				continue;
+			}
+			for(Object pvName : matchingNames) { 
+				pvNames.add((String) pvName);
+				if(limit != -1 && pvNames.size() >= limit) { 
+					return true;
+				}
+			}
+		}
+		if(!missingAppliances.isEmpty()) { 
+			return addMatchingPVsFromClusterMaps(configService, regex, missingAppliances, limit, pvNames);
+		}
+		return false;
+	}
+	
+	/**
+	 * Add the PVs and aliases that match this regex and belong to one of these appliances to pvNames.
+	 * This goes thru all the PVs in the cluster; so we only use this for appliances that did not answer.
+	 * @return true if we have reached the limit.
+	 */
+	private static boolean addMatchingPVsFromClusterMaps(ConfigService configService, String regex, HashSet<String> appliances, int limit, LinkedList<String> pvNames) {
+		Pattern pattern = Pattern.compile(regex);
+		for(String pvName : configService.getAllPVs()) {
+			if(pattern.matcher(pvName).matches() && isOnAppliance(configService, pvName, appliances)) { 
+				pvNames.add(pvName);
+				if(limit != -1 && pvNames.size() >= limit) { 
+					return true;
+				}
+			}
+		}
+		for(String aliasName : configService.getAllAliases()) {
+			if(pattern.matcher(aliasName).matches()) { 
+				String realName = configService.getRealNameForAlias(aliasName);
+				if(realName != null && isOnAppliance(configService, realName, appliances)) { 
+					pvNames.add(aliasName);
+					if(limit != -1 && pvNames.size() >= limit) { 
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+	
+	private static boolean isOnAppliance(ConfigService configService, String pvName, HashSet<String> appliances) { 
+		ApplianceInfo applianceInfo = configService.getApplianceForPV(pvName);
+		return applianceInfo != null && appliances.contains(applianceInfo.getIdentity());
+	}
+	
 	
 	public static LinkedList<String> getPVNamesFromPostBody(HttpServletRequest req, ConfigService configService) throws IOException {
 		LinkedList<String> pvNames = new LinkedList<String>();
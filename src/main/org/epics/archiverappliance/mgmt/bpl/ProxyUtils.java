@@ -1,11 +1,13 @@
 package org.epics.archiverappliance.mgmt.bpl;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.epics.archiverappliance.config.ApplianceInfo;
 import org.epics.archiverappliance.config.ConfigService;
 import org.epics.archiverappliance.utils.ui.GetUrlContent;
+import org.json.simple.JSONObject;
 
 /**
  * Small utility class to proxy mgmt BPL to appliance other than this appliance. 
@@ -28,11 +30,11 @@ public class ProxyUtils {
 			}
 		}
 		
-		for(String otherURL : otherURLs) { 
-			try { 
-				GetUrlContent.getURLContentAsJSONObject(otherURL);
-			} catch(Throwable t) { 
-				logger.error("Exception getting content of URL " + otherURL, t);
+		if(otherURLs.isEmpty()) return;
+		List<JSONObject> responses = GetUrlContent.getURLContentsAsJSONObjects(otherURLs);
+		for(int i = 0; i < otherURLs.size(); i++) { 
+			if(responses.get(i) == null) { 
+				logger.error("No response from " + otherURLs.get(i));
 			}
 		}
 	}
@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map;
 
@@ -40,7 +41,17 @@ public class ApplianceMetrics implements BPLAction {
 		resp.setContentType(MimeTypeConstants.APPLICATION_JSON);
 		try (PrintWriter out = resp.getWriter()) {
 			LinkedList<Map<String, String>> result = new LinkedList<Map<String, String>>();
+			// Ask all the appliances for their metrics in parallel; the results are in the same order as the URLs.
+			LinkedList<ApplianceInfo> appliances = new LinkedList<ApplianceInfo>();
+			LinkedList<String> metricsURLs = new LinkedList<String>();
 			for(ApplianceInfo info : configService.getAppliancesInCluster()) {
+				appliances.add(info);
+				metricsURLs.add(info.getEngineURL() + "/getApplianceMetrics");
+				metricsURLs.add(info.getEtlURL() + "/getApplianceMetrics");
+				metricsURLs.add(info.getRetrievalURL() + "/getApplianceMetrics");
+			}
+			Iterator<JSONObject> allMetrics = GetUrlContent.getURLContentsAsJSONObjects(metricsURLs).iterator();
+			for(ApplianceInfo info : appliances) {
 				HashMap<String, String> applianceInfo = new HashMap<String, String>();
 				result.add(applianceInfo);
 				applianceInfo.put("instance", info.getIdentity());
@@ -51,12 +62,9 @@ public class ApplianceMetrics implements BPLAction {
 				}
 				applianceInfo.put("pvCount", Integer.toString(pvCount));
 
-				logger.debug("Asking for appliance metrics from engine using " + info.getEngineURL() + "/getApplianceMetrics");
-				JSONObject engineMetrics = GetUrlContent.getURLContentAsJSONObject(info.getEngineURL() + "/getApplianceMetrics"); 
-				logger.debug("Asking for appliance metrics from ETL using " + info.getEtlURL() + "/getApplianceMetrics");
-				JSONObject etlMetrics = GetUrlContent.getURLContentAsJSONObject(info.getEtlURL() + "/getApplianceMetrics");
-				logger.debug("Asking for appliance metrics from retrieval using " + info.getRetrievalURL() + "/getApplianceMetrics");
-				JSONObject retrievalMetrics = GetUrlContent.getURLContentAsJSONObject(info.getRetrievalURL() + "/getApplianceMetrics");
+				JSONObject engineMetrics = allMetrics.next();
+				JSONObject etlMetrics = allMetrics.next();
+				JSONObject retrievalMetrics = allMetrics.next();
 				if(engineMetrics != null && etlMetrics != null && retrievalMetrics != null) {
 					logger.debug("All of the components are working for " + info.getIdentity());
 					applianceInfo.put("status", "Working");
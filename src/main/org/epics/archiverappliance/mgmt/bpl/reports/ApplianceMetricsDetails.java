@@ -24,7 +24,10 @@ import org.epics.archiverappliance.config.ApplianceAggregateInfo;
 import org.epics.archiverappliance.config.ApplianceInfo;
 import org.epics.archiverappliance.config.ConfigService;
 import org.epics.archiverappliance.config.PVTypeInfo;
+import org.epics.archiverappliance.mgmt.MgmtRuntimeState;
+import org.epics.archiverappliance.mgmt.archivepv.ArchivePVState.ArchivePVStateMachine;
 import org.epics.archiverappliance.mgmt.archivepv.CapacityPlanningData;
+import org.epics.archiverappliance.mgmt.policy.ExecutePolicyPool;
 import org.epics.archiverappliance.utils.ui.GetUrlContent;
 import org.epics.archiverappliance.utils.ui.MimeTypeConstants;
 import org.json.simple.JSONArray;
@@ -77,7 +80,18 @@ public class ApplianceMetricsDetails implements BPLAction {
 			
 			logger.debug("Computing local stats " + info.getEngineURL() + applianceDetailsURLSnippet);
 
-			addDetailedStatus(result, "PVs in archive workflow", Integer.toString(configService.getMgmtRuntimeState().getPVsPendingInWorkflow()));
+			MgmtRuntimeState mgmtRuntimeState = configService.getMgmtRuntimeState();
+			addDetailedStatus(result, "PVs in archive workflow", Integer.toString(mgmtRuntimeState.getPVsPendingInWorkflow()));
+			LinkedHashMap<ArchivePVStateMachine, Integer> pvsInWorkflowByState = mgmtRuntimeState.getPVsInWorkflowByState();
+			addDetailedStatus(result, "PVs in archive workflow waiting for metainfo", Integer.toString(pvsInWorkflowByState.get(ArchivePVStateMachine.START) + pvsInWorkflowByState.get(ArchivePVStateMachine.METAINFO_REQUESTED)));
+			addDetailedStatus(result, "PVs in archive workflow waiting for the engine", Integer.toString(pvsInWorkflowByState.get(ArchivePVStateMachine.TYPEINFO_STABLE) + pvsInWorkflowByState.get(ArchivePVStateMachine.ARCHIVE_REQUEST_SUBMITTED)));
+			addDetailedStatus(result, "PVs that completed the archive workflow", noSignificantDigits.format(mgmtRuntimeState.getPVsCompleted()));
+			addDetailedStatus(result, "PVs aborted in the archive workflow", noSignificantDigits.format(mgmtRuntimeState.getPVsAborted()));
+			addDetailedStatus(result, "Archive workflow last run (ms)", noSignificantDigits.format(mgmtRuntimeState.getLastWorkflowRunMillis()));
+			ExecutePolicyPool executePolicyPool = configService.getExecutePolicyPool();
+			addDetailedStatus(result, "Policies computed", noSignificantDigits.format(executePolicyPool.getPoliciesComputed()));
+			addDetailedStatus(result, "Policy computation time (ms, mean)", twoSignificantDigits.format(executePolicyPool.getPolicyLatency().getMeanMicros()/1000.0));
+			addDetailedStatus(result, "Policy computation time (ms, max)", twoSignificantDigits.format(executePolicyPool.getPolicyLatency().getMaxMicros()/1000.0));
 
 			CapacityPlanningData capacityPlanningMetrics = CapacityPlanningData.getMetricsForAppliances(configService).cpApplianceMetrics.get(configService.getMyApplianceInfo());
 			ApplianceAggregateInfo applianceAggregateDifferenceFromLastFetch = capacityPlanningMetrics.getApplianceAggregateDifferenceFromLastFetch(configService);
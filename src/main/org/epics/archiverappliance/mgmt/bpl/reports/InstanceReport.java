@@ -5,6 +5,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.management.ManagementFactory;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map;
 
@@ -33,7 +34,17 @@ public class InstanceReport implements BPLAction {
 		resp.setContentType(MimeTypeConstants.APPLICATION_JSON);
 		try (PrintWriter out = resp.getWriter()) {
 			LinkedList<Map<String, String>> result = new LinkedList<Map<String, String>>();
+			// Ask all the appliances for their metrics in parallel; the results are in the same order as the URLs.
+			LinkedList<ApplianceInfo> appliances = new LinkedList<ApplianceInfo>();
+			LinkedList<String> metricsURLs = new LinkedList<String>();
 			for(ApplianceInfo info : configService.getAppliancesInCluster()) {
+				appliances.add(info);
+				metricsURLs.add(info.getEngineURL() + "/getApplianceMetrics");
+				metricsURLs.add(info.getEtlURL() + "/getApplianceMetrics");
+				metricsURLs.add(info.getRetrievalURL() + "/getApplianceMetrics");
+			}
+			Iterator<JSONObject> allMetrics = GetUrlContent.getURLContentsAsJSONObjects(metricsURLs).iterator();
+			for(ApplianceInfo info : appliances) {
 				HashMap<String, String> applianceInfo = new HashMap<String, String>();
 				result.add(applianceInfo);
 				applianceInfo.put("instance", info.getIdentity());
@@ -44,9 +55,9 @@ public class InstanceReport implements BPLAction {
 				applianceInfo.put("pvCount", Integer.toString(pvCount));
 
 				// The getApplianceMetrics here is not a typo. We redisplay some of the appliance metrics in this page.
-				JSONObject engineMetrics = GetUrlContent.getURLContentAsJSONObject(info.getEngineURL() + "/getApplianceMetrics"); 
-				JSONObject etlMetrics = GetUrlContent.getURLContentAsJSONObject(info.getEtlURL() + "/getApplianceMetrics");
-				JSONObject retrievalMetrics = GetUrlContent.getURLContentAsJSONObject(info.getRetrievalURL() + "/getApplianceMetrics");
+				JSONObject engineMetrics = allMetrics.next();
+				JSONObject etlMetrics = allMetrics.next();
+				JSONObject retrievalMetrics = allMetrics.next();
 				if(engineMetrics != null && etlMetrics != null && retrievalMetrics != null) {
 					logger.debug("All of the components are working for " + info.getIdentity());
 					applianceInfo.put("status", "Working");
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.mgmt.bpl.reports;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.epics.archiverappliance.common.BPLAction;
+import org.epics.archiverappliance.common.OpenMetricsWriter;
+import org.epics.archiverappliance.config.ConfigService;
+import org.epics.archiverappliance.config.NearCache;
+import org.epics.archiverappliance.config.pubsub.PartitionedEventBus;
+
+/**
+ * Metrics for the mgmt webapp of this appliance in the Prometheus text format.
+ * Each of the engine, ETL and retrieval webapps have their own <code>/bpl/metrics</code>; these are meant to be scraped individually.
+ * 
+ * @epics.BPLAction - Get the metrics for the mgmt webapp of this appliance in the Prometheus text format.
+ * @epics.BPLActionEnd
+ * 
+ * @author mshankar
+ *
+ */
+public class OpenMetrics implements BPLAction {
+
+	@Override
+	public void execute(HttpServletRequest req, HttpServletResponse resp, ConfigService configService) throws IOException {
+		resp.setContentType(OpenMetricsWriter.CONTENT_TYPE);
+		try (PrintWriter out = resp.getWriter()) {
+			OpenMetricsWriter metrics = new OpenMetricsWriter(out, "mgmt");
+			configService.getMgmtRuntimeState().writeOpenMetrics(metrics);
+			metrics.gauge("mgmt_components_started", "1 if all the components in this appliance have started up", configService.getMgmtRuntimeState().haveChildComponentsStartedUp() ? 1 : 0);
+			NearCache.writeOpenMetrics(metrics, configService.getNearCaches());
+			PartitionedEventBus.writeOpenMetrics(metrics, configService.getEventBus());
+			if(configService.getPubSubEventBatcher() != null) {
+				configService.getPubSubEventBatcher().writeOpenMetrics(metrics);
+			}
+			if(configService.getPersistenceWriteBehind() != null) {
+				configService.getPersistenceWriteBehind().writeOpenMetrics(metrics);
+			}
+			configService.getExecutePolicyPool().writeOpenMetrics(metrics);
+			metrics.jvmMetrics();
+		}
+	}
+}
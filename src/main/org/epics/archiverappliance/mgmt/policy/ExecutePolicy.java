@@ -10,6 +10,7 @@ import org.apache.log4j.Logger;
 import org.epics.archiverappliance.config.ConfigService;
 import org.epics.archiverappliance.config.StoragePluginURLParser;
 import org.epics.archiverappliance.mgmt.policy.PolicyConfig.SamplingMethod;
+import org.python.core.PyCode;
 import org.python.core.PyDictionary;
 import org.python.core.PyList;
 import org.python.core.PySystemState;
@@ -42,12 +43,16 @@ import org.python.util.PythonInterpreter;
 public class ExecutePolicy implements AutoCloseable {
 	private static Logger logger = Logger.getLogger(ExecutePolicy.class.getName());
 	private PythonInterpreter interp;
+	/** The call to determinePolicy is compiled once per interpreter instead of once per PV */
+	private PyCode determinePolicyCode;
+	private long createdMillis = System.currentTimeMillis();
 	public ExecutePolicy(ConfigService configService) throws IOException { 
 		interp = new PythonInterpreter(null, new PySystemState());
 		// Load the policies.py into the interpreter.
 		try(InputStream is = configService.getPolicyText()) { 
 			interp.execfile(is);
 		}
+		determinePolicyCode = interp.compile("pvPolicy = determinePolicy(pvInfo)");
 	}
 
 	@Override
@@ -66,7 +71,7 @@ public class ExecutePolicy implements AutoCloseable {
 		pvInfoDict.put("pvName", pvName);
 		pvInfoDict.putAll(pvInfo);
 		interp.set("pvInfo", pvInfoDict);
-		interp.exec("pvPolicy = determinePolicy(pvInfo)");
+		interp.exec(determinePolicyCode);
 		PyDictionary policy = (PyDictionary) interp.get("pvPolicy");
 		PolicyConfig policyConfig = new PolicyConfig();
 		Double samplingPeriod = (Double) policy.get("samplingPeriod");
@@ -106,6 +111,13 @@ public class ExecutePolicy implements AutoCloseable {
 		return policyConfig;
 	}
 	
+	/**
+	 * @return The time (in epoch millis) when the policies.py was loaded into this interpreter.
+	 */
+	public long getCreatedMillis() {
+		return createdMillis;
+	}
+	
 	public HashMap<String, String> getPolicyList()  throws IOException {
 		logger.debug("Getting the list of policies.");
 		interp.exec("pvPolicies = getPolicyList()");
@@ -0,0 +1,343 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.mgmt.policy;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+import org.epics.archiverappliance.common.LatencyHistogram;
+import org.epics.archiverappliance.common.OpenMetricsWriter;
+import org.epics.archiverappliance.config.ConfigService;
+
+/**
+ * A pool of {@link ExecutePolicy} interpreters that have already loaded the policies.py.
+ * An ExecutePolicy cannot be used by more than one thread at a time; each caller borrows an interpreter for the duration of its call.
+ * We create up to maxInterpreters interpreters on demand; callers wait if all of them are in use.
+ * Interpreters older than refreshMillis are closed (instead of being reused) so that changes to the policies.py are picked up.
+ * Callers waiting for an interpreter are served in the order in which they arrived; only the caller at the head of the queue can take an interpreter (or create the replacement for a stale one).
+ * <p>
+ * Policies for many PVs are computed in one call using {@link #computePoliciesForPVs(LinkedHashMap) computePoliciesForPVs}; the PVs are split across the interpreters and evaluated in parallel.
+ *
+ * @author mshankar
+ *
+ */
+public class ExecutePolicyPool implements AutoCloseable {
+	private static Logger logger = Logger.getLogger(ExecutePolicyPool.class.getName());
+	private static final long BORROW_TIMEOUT_SECS = 5*60;
+
+	private final ConfigService configService;
+	private final int maxInterpreters;
+	private final long refreshMillis;
+	private final ExecutorService batchThreads;
+	// The state below is guarded by lock; each waiting caller has its own Condition in waiters.
+	private final ReentrantLock lock = new ReentrantLock(true);
+	private final ArrayDeque<Condition> waiters = new ArrayDeque<Condition>();
+	private final ArrayDeque<ExecutePolicy> idleInterpreters = new ArrayDeque<ExecutePolicy>();
+	private int interpreterCount = 0;
+	private boolean closed = false;
+
+	private final AtomicLong interpretersCreated = new AtomicLong(0);
+	private final AtomicLong policiesComputed = new AtomicLong(0);
+	private final AtomicLong policyFailures = new AtomicLong(0);
+	private final AtomicLong batchesComputed = new AtomicLong(0);
+	private final AtomicLong borrowWaits = new AtomicLong(0);
+	private final LatencyHistogram policyLatency = new LatencyHistogram();
+
+	public ExecutePolicyPool(ConfigService configService, int maxInterpreters, long refreshMillis) {
+		this.configService = configService;
+		this.maxInterpreters = Math.max(1, maxInterpreters);
+		this.refreshMillis = refreshMillis;
+		this.batchThreads = Executors.newFixedThreadPool(this.maxInterpreters, new ThreadFactory() {
+			private int threadNumber = 0;
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Policy execution " + threadNumber++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Compute the policy for one PV.
+	 * @param pvName
+	 * @param pvInfo - The dictionary passed to determinePolicy in policies.py
+	 * @return
+	 * @throws IOException
+	 */
+	public PolicyConfig computePolicyForPV(String pvName, HashMap<String, Object> pvInfo) throws IOException {
+		ExecutePolicy executePolicy = borrow();
+		try {
+			long startNanos = System.nanoTime();
+			PolicyConfig policyConfig = executePolicy.computePolicyForPV(pvName, pvInfo);
+			policyLatency.recordNanos(System.nanoTime() - startNanos);
+			policiesComputed.incrementAndGet();
+			return policyConfig;
+		} catch(IOException | RuntimeException ex) {
+			policyFailures.incrementAndGet();
+			throw ex;
+		} finally {
+			giveBack(executePolicy);
+		}
+	}
+
+	/**
+	 * Compute the policies for many PVs in one call.
+	 * The PVs are split into one chunk per interpreter and the chunks are evaluated in parallel.
+	 * A failure to compute the policy for a PV is logged and the PV is left out of the result; the caller can retry it using {@link #computePolicyForPV(String, HashMap) computePolicyForPV}.
+	 * @param pvInfos - Map of PV name to the dictionary passed to determinePolicy in policies.py
+	 * @return Map of PV name to the computed policy in the same order as pvInfos.
+	 * @throws IOException
+	 */
+	public LinkedHashMap<String, PolicyConfig> computePoliciesForPVs(LinkedHashMap<String, HashMap<String, Object>> pvInfos) throws IOException {
+		LinkedHashMap<String, PolicyConfig> ret = new LinkedHashMap<String, PolicyConfig>();
+		if(pvInfos.isEmpty()) return ret;
+		batchesComputed.incrementAndGet();
+		int chunkCount = Math.min(maxInterpreters, pvInfos.size());
+		int chunkSize = (pvInfos.size() + chunkCount - 1)/chunkCount;
+		List<Future<LinkedHashMap<String, PolicyConfig>>> chunks = new ArrayList<Future<LinkedHashMap<String, PolicyConfig>>>(chunkCount);
+		LinkedHashMap<String, HashMap<String, Object>> chunk = new LinkedHashMap<String, HashMap<String, Object>>();
+		for(Map.Entry<String, HashMap<String, Object>> entry : pvInfos.entrySet()) {
+			chunk.put(entry.getKey(), entry.getValue());
+			if(chunk.size() >= chunkSize) {
+				chunks.add(submitChunk(chunk));
+				chunk = new LinkedHashMap<String, HashMap<String, Object>>();
+			}
+		}
+		if(!chunk.isEmpty()) chunks.add(submitChunk(chunk));
+
+		for(Future<LinkedHashMap<String, PolicyConfig>> chunkResult : chunks) {
+			try {
+				ret.putAll(chunkResult.get());
+			} catch(InterruptedException ex) {
+				throw new IOException("Interrupted computing policies for " + pvInfos.size() + " PVs", ex);
+			} catch(ExecutionException ex) {
+				throw new IOException("Exception computing policies for " + pvInfos.size() + " PVs", ex.getCause());
+			}
+		}
+		logger.debug("Computed policies for " + ret.size() + " of " + pvInfos.size() + " PVs using " + chunks.size() + " interpreters");
+		return ret;
+	}
+
+	private Future<LinkedHashMap<String, PolicyConfig>> submitChunk(final LinkedHashMap<String, HashMap<String, Object>> chunk) {
+		return batchThreads.submit(new Callable<LinkedHashMap<String, PolicyConfig>>() {
+			@Override
+			public LinkedHashMap<String, PolicyConfig> call() throws Exception {
+				LinkedHashMap<String, PolicyConfig> chunkResult = new LinkedHashMap<String, PolicyConfig>();
+				ExecutePolicy executePolicy = borrow();
+				try {
+					for(Map.Entry<String, HashMap<String, Object>> entry : chunk.entrySet()) {
+						String pvName = entry.getKey();
+						long startNanos = System.nanoTime();
+						try {
+							chunkResult.put(pvName, executePolicy.computePolicyForPV(pvName, entry.getValue()));
+							policyLatency.recordNanos(System.nanoTime() - startNanos);
+							policiesComputed.incrementAndGet();
+						} catch(Exception ex) {
+							policyFailures.incrementAndGet();
+							logger.error("Exception executing policy for pv " + pvName, ex);
+						}
+					}
+				} finally {
+					giveBack(executePolicy);
+				}
+				return chunkResult;
+			}
+		});
+	}
+
+	public HashMap<String, String> getPolicyList() throws IOException {
+		ExecutePolicy executePolicy = borrow();
+		try {
+			return executePolicy.getPolicyList();
+		} finally {
+			giveBack(executePolicy);
+		}
+	}
+
+	public List<String> getFieldsArchivedAsPartOfStream() throws IOException {
+		ExecutePolicy executePolicy = borrow();
+		try {
+			return executePolicy.getFieldsArchivedAsPartOfStream();
+		} finally {
+			giveBack(executePolicy);
+		}
+	}
+
+	/**
+	 * Get an idle interpreter, creating one if we have not reached maxInterpreters.
+	 * Otherwise, wait in line for one to be returned or closed.
+	 */
+	private ExecutePolicy borrow() throws IOException {
+		long remainingNanos = TimeUnit.SECONDS.toNanos(BORROW_TIMEOUT_SECS);
+		ExecutePolicy executePolicy = null;
+		ExecutePolicy staleInterpreter = null;
+		lock.lock();
+		try {
+			Condition myTurn = null;
+			try {
+				while(true) {
+					if(closed) throw new IOException("The policy interpreters have been shut down");
+					if(myTurn == null ? waiters.isEmpty() : waiters.peekFirst() == myTurn) {
+						executePolicy = idleInterpreters.pollFirst();
+						if(executePolicy != null && isStale(executePolicy)) {
+							// Replace the stale interpreter right away so that we do not lose our place in line.
+							staleInterpreter = executePolicy;
+							executePolicy = null;
+							interpreterCount--;
+						}
+						if(executePolicy != null) break;
+						if(interpreterCount < maxInterpreters) {
+							interpreterCount++;
+							break;
+						}
+					}
+					if(myTurn == null) {
+						myTurn = lock.newCondition();
+						waiters.addLast(myTurn);
+						borrowWaits.incrementAndGet();
+					}
+					if(remainingNanos <= 0) throw new IOException("Timeout waiting for a policy interpreter");
+					try {
+						remainingNanos = myTurn.awaitNanos(remainingNanos);
+					} catch(InterruptedException ex) {
+						throw new IOException("Interrupted waiting for a policy interpreter", ex);
+					}
+				}
+			} finally {
+				if(myTurn != null) {
+					waiters.remove(myTurn);
+					// There may be more interpreters available for the caller behind us.
+					signalNextWaiter();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		if(staleInterpreter != null) staleInterpreter.close();
+		if(executePolicy != null) return executePolicy;
+
+		try {
+			logger.info("Creating a new policy interpreter");
+			executePolicy = new ExecutePolicy(configService);
+			interpretersCreated.incrementAndGet();
+			return executePolicy;
+		} catch(IOException | RuntimeException ex) {
+			lock.lock();
+			try {
+				interpreterCount--;
+				signalNextWaiter();
+			} finally {
+				lock.unlock();
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Return the interpreter to the pool; interpreters older than refreshMillis are closed instead.
+	 * Whoever needs an interpreter next creates a new one with the latest policies.py
+	 */
+	private void giveBack(ExecutePolicy executePolicy) {
+		boolean discard;
+		lock.lock();
+		try {
+			discard = closed || isStale(executePolicy);
+			if(discard) {
+				interpreterCount--;
+			} else {
+				idleInterpreters.offerFirst(executePolicy);
+			}
+			signalNextWaiter();
+		} finally {
+			lock.unlock();
+		}
+		if(discard) executePolicy.close();
+	}
+
+	private boolean isStale(ExecutePolicy executePolicy) {
+		return System.currentTimeMillis() - executePolicy.getCreatedMillis() > refreshMillis;
+	}
+
+	/**
+	 * Wake up the caller at the head of the line; call this holding the lock.
+	 */
+	private void signalNextWaiter() {
+		Condition next = waiters.peekFirst();
+		if(next != null) next.signal();
+	}
+
+	@Override
+	public void close() {
+		ArrayList<ExecutePolicy> toClose;
+		lock.lock();
+		try {
+			closed = true;
+			toClose = new ArrayList<ExecutePolicy>(idleInterpreters);
+			idleInterpreters.clear();
+			for(Condition waiter : waiters) {
+				waiter.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+		batchThreads.shutdownNow();
+		for(ExecutePolicy executePolicy : toClose) {
+			executePolicy.close();
+		}
+	}
+
+	public long getPoliciesComputed() {
+		return policiesComputed.get();
+	}
+
+	public long getInterpretersCreated() {
+		return interpretersCreated.get();
+	}
+
+	public LatencyHistogram getPolicyLatency() {
+		return policyLatency;
+	}
+
+	public void writeOpenMetrics(OpenMetricsWriter metrics) {
+		int interpreters, idle;
+		lock.lock();
+		try {
+			interpreters = interpreterCount;
+			idle = idleInterpreters.size();
+		} finally {
+			lock.unlock();
+		}
+		metrics.gauge("mgmt_policy_interpreters", "Policy interpreters that have loaded the policies.py", interpreters);
+		metrics.gauge("mgmt_policy_interpreters_idle", "Policy interpreters that are not being used", idle);
+		metrics.counter("mgmt_policy_interpreters_created_total", "Policy interpreters created; these are recreated periodically to pick up changes to the policies.py", interpretersCreated.get());
+		metrics.counter("mgmt_policy_interpreter_waits_total", "Times we had to wait for a policy interpreter because all of them were in use", borrowWaits.get());
+		metrics.counter("mgmt_policies_computed_total", "Policies computed for PVs", policiesComputed.get());
+		metrics.counter("mgmt_policy_failures_total", "Exceptions computing the policy for a PV", policyFailures.get());
+		metrics.counter("mgmt_policy_batches_total", "Batches of PVs whose policies were computed in one call", batchesComputed.get());
+		metrics.family("mgmt_policy_seconds", "summary", "Time taken to compute the policy for a PV");
+		metrics.summary("mgmt_policy_seconds", null, null, policyLatency);
+	}
+}
@@ -29,6 +29,7 @@ import org.epics.archiverappliance.retrieval.bpl.SearchForPVsRegex;
 import org.epics.archiverappliance.retrieval.bpl.reports.ApplianceMetrics;
 import org.epics.archiverappliance.retrieval.bpl.reports.ApplianceMetricsDetails;
 import org.epics.archiverappliance.retrieval.bpl.reports.InstanceReportDetails;
+import org.epics.archiverappliance.retrieval.bpl.reports.OpenMetrics;
 
 /**
  * The main business logic servlet for retrieval. All BPLActions are registered here.
@@ -50,6 +51,7 @@ public class BPLServlet extends HttpServlet {
 		getActions.put("/getClientConfig", GetClientConfiguration.class);
 		getActions.put("/getMetadata", GetPVMetaData.class);
 		getActions.put("/areWeArchivingPV", AreWeArchivingPV.class);
+		getActions.put("/metrics", OpenMetrics.class);
 	}
 	
 	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
@@ -20,18 +20,23 @@ import java.sql.Timestamp;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -131,16 +136,87 @@ public class DataRetrievalServlet  extends HttpServlet {
 	
 	@Override
 	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		final RetrievalCancellation cancellation = new RetrievalCancellation(req.getPathInfo() + "?" + req.getQueryString());
+		RetrievalState retrievalState = configService.getRetrievalRuntimeState();
+		if(!req.isAsyncSupported() || retrievalState == null) {
+			processRequest(req, resp, cancellation);
+			return;
+		}
 		
+		// We process the request in the retrieval executor; this frees up the container thread while we wait on the stores.
+		final AsyncContext asyncContext = req.startAsync();
+		asyncContext.setTimeout(retrievalState.getRetrievalRequestTimeoutSeconds()*1000L);
+		asyncContext.addListener(new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent event) throws IOException {
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException {
+				cancellation.cancel("Request timed out");
+			}
+
+			@Override
+			public void onError(AsyncEvent event) throws IOException {
+				cancellation.cancel("Error processing request " + (event.getThrowable() != null ? event.getThrowable().toString() : ""));
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) throws IOException {
+			}
+		});
+		
+		try {
+			retrievalState.getRetrievalRequestExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						processRequest((HttpServletRequest) asyncContext.getRequest(), (HttpServletResponse) asyncContext.getResponse(), cancellation);
+					} catch(Throwable t) {
+						if(!cancellation.cancelIfClientAbort(t)) {
+							logger.error("Exception processing retrieval request", t);
+						}
+					} finally {
+						try {
+							asyncContext.complete();
+						} catch(IllegalStateException ex) {
+							logger.debug("Request has already been completed; most likely it timed out", ex);
+						}
+					}
+				}
+			});
+		} catch(RejectedExecutionException ex) {
+			String msg = "Too many retrieval requests are being processed. Please try again later.";
+			logger.error(msg);
+			retrievalState.incrementRejectedRequests();
+			resp.addHeader(MimeResponse.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, msg);
+			asyncContext.complete();
+		}
+	}
+	
+	private void processRequest(HttpServletRequest req, HttpServletResponse resp, RetrievalCancellation cancellation) throws ServletException, IOException {
 		String[] pathnameSplit = req.getPathInfo().split("/");
 		String requestName = (pathnameSplit[pathnameSplit.length - 1].split("\\."))[0];
+		RetrievalState retrievalState = configService.getRetrievalRuntimeState();
+		long requestStartNanos = System.nanoTime();
 		
 		if (requestName.equals("getData")) {
 			logger.info("User requesting data for single PV");
-			doGetSinglePV(req, resp);
+			try {
+				doGetSinglePV(req, resp, cancellation);
+			} finally {
+				cancellation.releaseReservation();
+				if(retrievalState != null) retrievalState.getSinglePVRequestLatency().recordNanos(System.nanoTime() - requestStartNanos);
+			}
 		} else if (requestName.equals("getDataForPVs")) {
 			logger.info("User requesting data for multiple PVs");
-			doGetMultiPV(req, resp);
+			try {
+				doGetMultiPV(req, resp, cancellation);
+			} finally {
+				cancellation.releaseReservation();
+				if(retrievalState != null) retrievalState.getMultiPVRequestLatency().recordNanos(System.nanoTime() - requestStartNanos);
+			}
 		} else {
 			String msg = "\"" + requestName + "\" is not a valid API method.";
 			resp.setHeader(MimeResponse.ACCESS_CONTROL_ALLOW_ORIGIN, msg);
@@ -151,7 +227,7 @@ public class DataRetrievalServlet  extends HttpServlet {
 		
 	}
 	
-	private void doGetSinglePV(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+	private void doGetSinglePV(HttpServletRequest req, HttpServletResponse resp, RetrievalCancellation cancellation) throws ServletException, IOException {
 		
 		PoorMansProfiler pmansProfiler = new PoorMansProfiler();
 		String pvName = req.getParameter("pv");
@@ -401,9 +477,18 @@ public class DataRetrievalServlet  extends HttpServlet {
 			return;
 		}
 		
+		long memoryEstimate = estimateMemoryConsumption(pvName, typeInfo, requestTimes, req, postProcessor);
+		RetrievalAdmissionController.Reservation reservation = admitRequest(pvName, memoryEstimate, retainsMemory(postProcessor) ? memoryEstimate : 0, resp);
+		if(reservation == null) {
+			// We have already sent a 503 to the client.
+			return;
+		}
+		// This is released in processRequest once we are done with this request.
+		cancellation.holdReservation(reservation);
+		
 		try(BasicContext retrievalContext = new BasicContext(typeInfo.getDBRType(), pvNameFromRequest); 
-				MergeDedupConsumer mergeDedupCountingConsumer = createMergeDedupConsumer(resp, extension, useChunkedEncoding);
-				RetrievalExecutorResult executorResult = determineExecutorForPostProcessing(pvName, typeInfo, requestTimes, req, postProcessor)
+				MergeDedupConsumer mergeDedupCountingConsumer = createMergeDedupConsumer(resp, extension, useChunkedEncoding, cancellation);
+				RetrievalExecutorResult executorResult = determineExecutorForPostProcessing(pvName, memoryEstimate, requestTimes)
 				) {
 			HashMap<String, String> engineMetadata = null;
 			if(fetchLatestMetadata) { 
@@ -413,6 +498,7 @@ public class DataRetrievalServlet  extends HttpServlet {
 			
 
 			LinkedList<Future<RetrievalResult>> retrievalResultFutures = resolveAllDataSources(pvName, typeInfo, postProcessor, applianceForPV, retrievalContext, executorResult, req, resp);
+			cancellation.addFutures(retrievalResultFutures);
 			pmansProfiler.mark("After data source resolution");
 			
 
@@ -420,11 +506,16 @@ public class DataRetrievalServlet  extends HttpServlet {
 			String currentlyProcessingPV = null;
 
 			List<Future<EventStream>> eventStreamFutures = getEventStreamFuturesFromRetrievalResults(executorResult, retrievalResultFutures);
+			cancellation.addFutures(eventStreamFutures);
 
 			logger.debug("Done with the RetrievalResult's; moving onto the individual event stream from each source for " + pvName);
 			pmansProfiler.mark("After retrieval results");
 
 			for(Future<EventStream> future : eventStreamFutures) {
+				if(cancellation.isCancelled()) {
+					discardEventStream(future);
+					continue;
+				}
 				EventStreamDesc sourceDesc = null;
 				try(EventStream eventStream = future.get()) {
 					sourceDesc = null; // Reset it for each loop iteration.
@@ -448,6 +539,7 @@ public class DataRetrievalServlet  extends HttpServlet {
 						logger.debug("Switching to new PV " + pvName + " In some mime responses we insert special headers at the beginning of the response. Calling the hook for that");
 						currentlyProcessingPV = pvName;
 						mergeDedupCountingConsumer.processingPV(currentlyProcessingPV, start, end, (eventStream != null) ? sourceDesc : null);
+						mergeDedupCountingConsumer.setBulkTransferAllowed(isBulkTransferAllowed(postProcessor));
 					}
 
 
@@ -459,8 +551,7 @@ public class DataRetrievalServlet  extends HttpServlet {
 							resp.flushBuffer();
 						}
 					} catch(Exception ex) {
-						if(ex != null && ex.toString() != null && ex.toString().contains("ClientAbortException")) {
-							// We check for ClientAbortException etc this way to avoid including tomcat jars in the build path.
+						if(cancellation.cancelIfClientAbort(ex)) {
 							logger.debug("Exception when consuming and flushing data from " + sourceDesc.getSource(), ex);
 						} else { 
 							logger.error("Exception when consuming and flushing data from " + sourceDesc.getSource() + "-->" + ex.toString(), ex);
@@ -468,8 +559,7 @@ public class DataRetrievalServlet  extends HttpServlet {
 					}
 					pmansProfiler.mark("After event stream " + eventStream.getDescription().getSource());
 				} catch(Exception ex) { 
-					if(ex != null && ex.toString() != null && ex.toString().contains("ClientAbortException")) {
-						// We check for ClientAbortException etc this way to avoid including tomcat jars in the build path.
+					if(cancellation.cancelIfClientAbort(ex)) {
 						logger.debug("Exception when consuming and flushing data from " + (sourceDesc != null ? sourceDesc.getSource() : "N/A"), ex);
 					} else { 
 						logger.error("Exception when consuming and flushing data from " + (sourceDesc != null ? sourceDesc.getSource() : "N/A") + "-->" + ex.toString(), ex);
@@ -505,8 +595,7 @@ public class DataRetrievalServlet  extends HttpServlet {
 					+ " skipping " + mergeDedupCountingConsumer.skippedEventsForAllPVs + " events"
 					+ " deduping involved " + mergeDedupCountingConsumer.comparedEventsForAllPVs + " compares.");
 		} catch(Exception ex) {
-			if(ex != null && ex.toString() != null && ex.toString().contains("ClientAbortException")) {
-				// We check for ClientAbortException etc this way to avoid including tomcat jars in the build path.
+			if(cancellation.cancelIfClientAbort(ex)) {
 				logger.debug("Exception when retrieving data ", ex);
 			} else { 
 				logger.error("Exception when retrieving data " + "-->" + ex.toString(), ex);
@@ -520,13 +609,15 @@ public class DataRetrievalServlet  extends HttpServlet {
 		}
 	}
 	
-	private void doGetMultiPV(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+	private void doGetMultiPV(HttpServletRequest req, HttpServletResponse resp, RetrievalCancellation cancellation) throws ServletException, IOException {
 		
 		PoorMansProfiler pmansProfiler = new PoorMansProfiler();
 		
 		// Gets the list of PVs specified by the `pv` parameter
 		// String arrays might be inefficient for retrieval. In any case, they are sorted, which is essential later on.
 		List<String> pvNames = Arrays.asList(req.getParameterValues("pv"));
+		// We hold onto the PV names as they were requested; these are passed as is to other appliances in the cluster.
+		List<String> pvNamesAsRequested = new ArrayList<String>(pvNames);
 	
 		// Ensuring that the AA has finished starting up before requests are accepted.
 		if(configService.getStartupState() != STARTUP_SEQUENCE.STARTUP_COMPLETE) { 
@@ -709,6 +800,8 @@ public class DataRetrievalServlet  extends HttpServlet {
 		}
 		
 		List<PVTypeInfo> typeInfos  = new ArrayList<PVTypeInfo>(pvNames.size());
+		// One bulk lookup into the cluster for all the PVs instead of one per PV.
+		configService.prefetchPVInfos(pvNames);
 		for (int i = 0; i < pvNames.size(); i++) {
 			typeInfos.add(PVNames.determineAppropriatePVTypeInfo(pvNames.get(i), configService));
 		}
@@ -782,45 +875,6 @@ public class DataRetrievalServlet  extends HttpServlet {
 			}
 		}
 		
-		/*
-		 * Retrieving the external appliances if the current appliance has not got the PV assigned to it, and
-		 * storing the associated information of the PVs in that appliance.
-		 */
-		Map<String, ArrayList<PVInfoForClusterRetrieval>> applianceToPVs = new HashMap<String, ArrayList<PVInfoForClusterRetrieval>>();
-		for (int i = 0; i < pvNames.size(); i++) {
-			if (!applianceForPVs.get(i).equals(configService.getMyApplianceInfo())) {
-				
-				ArrayList<PVInfoForClusterRetrieval> appliancePVs = 
-						applianceToPVs.get(applianceForPVs.get(i).getMgmtURL());
-				appliancePVs = (appliancePVs == null) ? new ArrayList<>() : appliancePVs;
-				PVInfoForClusterRetrieval pvInfoForRetrieval = new PVInfoForClusterRetrieval(pvNames.get(i), typeInfos.get(i), 
-						postProcessors.get(i), applianceForPVs.get(i));
-				appliancePVs.add(pvInfoForRetrieval);
-				applianceToPVs.put(applianceForPVs.get(i).getRetrievalURL(), appliancePVs);
-			}
-		}
-
-		List<List<Future<EventStream>>> listOfEventStreamFuturesLists = new ArrayList<List<Future<EventStream>>>();
-		Set<String> retrievalURLs = applianceToPVs.keySet();
-		if (retrievalURLs.size() > 0) {
-			// Get list of PVs and redirect them to appropriate appliance to be retrieved.
-			String retrievalURL;
-			ArrayList<PVInfoForClusterRetrieval> pvInfos;
-			while (!((retrievalURL = retrievalURLs.iterator().next()) != null)) {
-				// Get array list of PVs for appliance
-				pvInfos = applianceToPVs.get(retrievalURL);
-				try {
-					List<List<Future<EventStream>>> resultFromForeignAppliances
-						= retrieveEventStreamFromForeignAppliance(req, resp, pvInfos, requestTimes, 
-								useChunkedEncoding, retrievalURL + "/../data/getDataForPVs.raw", start, end);
-					listOfEventStreamFuturesLists.addAll(resultFromForeignAppliances);
-				} catch (Exception ex) {
-					logger.error("Failed to retrieve " + StringUtils.join(pvNames, ", ") + " from " + retrievalURL + ".");
-					return;
-				}
-			}
-		}
-
 		pmansProfiler.mark("After Appliance Info");
 		
 		// Setting post processor for PVs, taking into account whether there is a field in the PV name
@@ -854,6 +908,66 @@ public class DataRetrievalServlet  extends HttpServlet {
 			}
 		}
 		
+		// Reserve memory for the PVs on this appliance; the other appliances in the cluster do their own admission control.
+		List<Long> memoryEstimates = new ArrayList<Long>(pvNames.size());
+		long totalMemoryEstimate = 0;
+		long memoryToReserve = 0;
+		for (int i = 0; i < pvNames.size(); i++) {
+			if (!applianceForPVs.get(i).equals(configService.getMyApplianceInfo())) {
+				memoryEstimates.add(0L);
+				continue;
+			}
+			long memoryEstimate = estimateMemoryConsumption(pvNames.get(i), typeInfos.get(i), requestTimes, req, postProcessors.get(i));
+			memoryEstimates.add(memoryEstimate);
+			totalMemoryEstimate += memoryEstimate;
+			if(retainsMemory(postProcessors.get(i))) {
+				memoryToReserve += memoryEstimate;
+			}
+		}
+		RetrievalAdmissionController.Reservation reservation = admitRequest(StringUtils.join(pvNames, ", "), totalMemoryEstimate, memoryToReserve, resp);
+		if(reservation == null) {
+			// We have already sent a 503 to the client.
+			return;
+		}
+		// This is released in processRequest once we are done with this request.
+		cancellation.holdReservation(reservation);
+		
+		/*
+		 * PVs that are archived on other appliances in the cluster are grouped by appliance and we make one getDataForPVs call per appliance.
+		 * These calls are executed in parallel while we retrieve data for the PVs on this appliance.
+		 * The same PV may be requested more than once (for example, with different post processors); so we make sure the PV names in each call are unique.
+		 * The PVs for an appliance are split into more than one call if needed to keep the URL of each call within the request header limits.
+		 */
+		HashMap<Integer, Future<ForeignPVsEventStreams>> foreignPVFutures = new HashMap<Integer, Future<ForeignPVsEventStreams>>();
+		LinkedHashMap<String, ArrayList<PVInfoForClusterRetrieval>> applianceToPVs = new LinkedHashMap<String, ArrayList<PVInfoForClusterRetrieval>>();
+		HashMap<String, ArrayList<Integer>> applianceToPVIndices = new HashMap<String, ArrayList<Integer>>();
+		HashMap<String, HashSet<String>> applianceToPVNames = new HashMap<String, HashSet<String>>();
+		HashMap<String, Integer> applianceToPVParamLengths = new HashMap<String, Integer>();
+		for (int i = 0; i < pvNames.size(); i++) {
+			if (!applianceForPVs.get(i).equals(configService.getMyApplianceInfo())) {
+				String batchKey = ForeignAppliancePVsFetcher.assignBatch(applianceForPVs.get(i).getRetrievalURL(), pvNames.get(i), pvNamesAsRequested.get(i), applianceToPVNames, applianceToPVParamLengths);
+				if(!applianceToPVs.containsKey(batchKey)) {
+					applianceToPVs.put(batchKey, new ArrayList<PVInfoForClusterRetrieval>());
+					applianceToPVIndices.put(batchKey, new ArrayList<Integer>());
+				}
+				applianceToPVs.get(batchKey).add(new PVInfoForClusterRetrieval(pvNamesAsRequested.get(i), typeInfos.get(i), postProcessors.get(i), applianceForPVs.get(i)));
+				applianceToPVIndices.get(batchKey).add(i);
+			}
+		}
+
+		for (String batchKey : applianceToPVs.keySet()) {
+			ArrayList<PVInfoForClusterRetrieval> pvInfos = applianceToPVs.get(batchKey);
+			ArrayList<String> pvNamesInBatch = new ArrayList<String>(pvInfos.size());
+			for(Integer pvIndex : applianceToPVIndices.get(batchKey)) {
+				pvNamesInBatch.add(pvNames.get(pvIndex));
+			}
+			Future<ForeignPVsEventStreams> foreignPVsFuture = retrieveEventStreamFromForeignAppliance(req, pvInfos, pvNamesInBatch, start);
+			cancellation.addFuture(foreignPVsFuture);
+			for(Integer pvIndex : applianceToPVIndices.get(batchKey)) {
+				foreignPVFutures.put(pvIndex, foreignPVsFuture);
+			}
+		}
+		
 		/*
 		 * MergeDedupConsumer is what writes PB data in its respective format to the HTML response.
 		 * The response, after the MergeDedupConsumer is created, contains the following:
@@ -866,10 +980,11 @@ public class DataRetrievalServlet  extends HttpServlet {
 		 */
 		MergeDedupConsumer mergeDedupCountingConsumer;
 		try {
-			mergeDedupCountingConsumer = createMergeDedupConsumer(resp, extension, useChunkedEncoding);
+			mergeDedupCountingConsumer = createMergeDedupConsumer(resp, extension, useChunkedEncoding, cancellation);
 		} catch (ServletException se) {
 			String msg = "Exception when retrieving data " + "-->" + se.toString();
 			logger.error(msg, se);
+			closeEventStreamsFromForeignAppliances(foreignPVFutures.values());
 			resp.addHeader(MimeResponse.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
 			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, msg);
 			return;
@@ -881,17 +996,25 @@ public class DataRetrievalServlet  extends HttpServlet {
 		 * thread service is what retrieves the data, and the BasicContext is the context in which it 
 		 * works.
 		 */
+		List<List<Future<EventStream>>> listOfEventStreamFuturesLists = new ArrayList<List<Future<EventStream>>>();
 		List<HashMap<String, String>> engineMetadatas = new ArrayList<HashMap<String, String>>();
 		try {
 			List<BasicContext> retrievalContexts = new ArrayList<BasicContext>(pvNames.size());
 			List<RetrievalExecutorResult> executorResults = new ArrayList<RetrievalExecutorResult>(pvNames.size());
 			for (int i = 0; i < pvNames.size(); i++) {
+				if(foreignPVFutures.containsKey(i)) {
+					// Data for this PV is being fetched from another appliance.
+					if(fetchLatestMetadata) engineMetadatas.add(null);
+					retrievalContexts.add(null);
+					executorResults.add(null);
+					continue;
+				}
 				if(fetchLatestMetadata) {
 					// Make a call to the engine to fetch the latest metadata.
 					engineMetadatas.add(fetchLatestMedataFromEngine(pvNames.get(i), applianceForPVs.get(i)));
 				}
 				retrievalContexts.add(new BasicContext(typeInfos.get(i).getDBRType(), pvNamesFromRequests.get(i)));
-				executorResults.add(determineExecutorForPostProcessing(pvNames.get(i), typeInfos.get(i), requestTimes, req, postProcessors.get(i)));
+				executorResults.add(determineExecutorForPostProcessing(pvNames.get(i), memoryEstimates.get(i), requestTimes));
 			}
 			
 			/*
@@ -900,21 +1023,30 @@ public class DataRetrievalServlet  extends HttpServlet {
 			 */
 			List<LinkedList<Future<RetrievalResult>>> listOfRetrievalResultFuturesLists = new ArrayList<LinkedList<Future<RetrievalResult>>>();
 			for (int i = 0; i < pvNames.size(); i++) {
+				if(foreignPVFutures.containsKey(i)) {
+					listOfRetrievalResultFuturesLists.add(null);
+					continue;
+				}
 				listOfRetrievalResultFuturesLists.add(resolveAllDataSources(pvNames.get(i), typeInfos.get(i), postProcessors.get(i), 
 						applianceForPVs.get(i), retrievalContexts.get(i), executorResults.get(i), req, resp));
+				cancellation.addFutures(listOfRetrievalResultFuturesLists.get(i));
 			}
 			pmansProfiler.mark("After data source resolution");
 
 			for (int i = 0; i < pvNames.size(); i++) {
+				if(foreignPVFutures.containsKey(i)) {
+					listOfEventStreamFuturesLists.add(new LinkedList<Future<EventStream>>());
+					continue;
+				}
 				// Data is retrieved here
 				List<Future<EventStream>> eventStreamFutures = getEventStreamFuturesFromRetrievalResults(executorResults.get(i),
 						listOfRetrievalResultFuturesLists.get(i));
+				cancellation.addFutures(eventStreamFutures);
 				listOfEventStreamFuturesLists.add(eventStreamFutures);
 			}
 			
 		} catch(Exception ex) {
-			if(ex != null && ex.toString() != null && ex.toString().contains("ClientAbortException")) {
-				// We check for ClientAbortException etc this way to avoid including tomcat jars in the build path.
+			if(cancellation.cancelIfClientAbort(ex)) {
 				logger.debug("Exception when retrieving data ", ex);
 			} else { 
 				logger.error("Exception when retrieving data " + "-->" + ex.toString(), ex);
@@ -937,10 +1069,29 @@ public class DataRetrievalServlet  extends HttpServlet {
 				HashMap<String, String> engineMetadata = fetchLatestMetadata ? engineMetadatas.get(i) : null;
 				PostProcessor postProcessor = postProcessors.get(i);
 				
+				if(cancellation.isCancelled()) {
+					// Nobody is listening anymore; we still need to close any event streams that we have already retrieved.
+					for(Future<EventStream> future : eventStreamFutures) {
+						discardEventStream(future);
+					}
+					continue;
+				}
+				
+				if(foreignPVFutures.containsKey(i)) {
+					// Any post processing for this PV has already been done by the other appliance.
+					consumeEventStreamsFromForeignAppliance(pvName, applianceForPVs.get(i), foreignPVFutures.get(i), mergeDedupCountingConsumer, start, end, resp);
+					pmansProfiler.mark("After writing eventstreams from other appliance for " + pvName);
+					continue;
+				}
+				
 				logger.debug("Done with the RetrievalResults; moving onto the individual event stream "
 						+ "from each source for " + StringUtils.join(pvNames, ", "));
 				pmansProfiler.mark("After retrieval results");
 				for(Future<EventStream> future : eventStreamFutures) {
+					if(cancellation.isCancelled()) {
+						discardEventStream(future);
+						continue;
+					}
 					EventStreamDesc sourceDesc = null;
 					
 					// Gets the result of a data retrieval
@@ -975,6 +1126,7 @@ public class DataRetrievalServlet  extends HttpServlet {
 							 * whether it is divided up or not.
 							 */
 							mergeDedupCountingConsumer.processingPV(currentlyProcessingPV, start, end, (eventStream != null) ? sourceDesc : null);
+							mergeDedupCountingConsumer.setBulkTransferAllowed(isBulkTransferAllowed(postProcessor));
 						}
 	
 	
@@ -989,8 +1141,7 @@ public class DataRetrievalServlet  extends HttpServlet {
 								resp.flushBuffer();
 							}
 						} catch(Exception ex) {
-							if(ex != null && ex.toString() != null && ex.toString().contains("ClientAbortException")) {
-								// We check for ClientAbortException etc this way to avoid including tomcat jars in the build path.
+							if(cancellation.cancelIfClientAbort(ex)) {
 								logger.debug("Exception when consuming and flushing data from " + sourceDesc.getSource(), ex);
 							} else { 
 								logger.error("Exception when consuming and flushing data from " + sourceDesc.getSource() + "-->" + ex.toString(), ex);
@@ -998,8 +1149,7 @@ public class DataRetrievalServlet  extends HttpServlet {
 						}
 						pmansProfiler.mark("After event stream " + eventStream.getDescription().getSource());
 					} catch(Exception ex) {
-						if(ex != null && ex.toString() != null && ex.toString().contains("ClientAbortException")) {
-							// We check for ClientAbortException etc this way to avoid including tomcat jars in the build path.
+						if(cancellation.cancelIfClientAbort(ex)) {
 							logger.debug("Exception when consuming and flushing data from " + (sourceDesc != null ? sourceDesc.getSource() : "N/A"), ex);
 						} else { 
 							logger.error("Exception when consuming and flushing data from " + (sourceDesc != null ? sourceDesc.getSource() : "N/A") + "-->" + ex.toString(), ex);
@@ -1007,8 +1157,6 @@ public class DataRetrievalServlet  extends HttpServlet {
 					}
 				}
 				
-				// TODO Go through data from other appliances here
-					
 				if(postProcessor instanceof PostProcessorWithConsolidatedEventStream) { 
 					try(EventStream eventStream = ((PostProcessorWithConsolidatedEventStream) postProcessor).getConsolidatedEventStream()) {
 						EventStreamDesc sourceDesc = eventStream.getDescription();
@@ -1033,12 +1181,13 @@ public class DataRetrievalServlet  extends HttpServlet {
 				pmansProfiler.mark("After writing all eventstreams to response");
 			}
 		} catch(Exception ex) {
-			if(ex != null && ex.toString() != null && ex.toString().contains("ClientAbortException")) {
-				// We check for ClientAbortException etc this way to avoid including tomcat jars in the build path.
+			if(cancellation.cancelIfClientAbort(ex)) {
 				logger.debug("Exception when retrieving data ", ex);
 			} else { 
 				logger.error("Exception when retrieving data " + "-->" + ex.toString(), ex);
 			}
+		} finally {
+			closeEventStreamsFromForeignAppliances(foreignPVFutures.values());
 		}
 		
 		long s2 = System.currentTimeMillis();
@@ -1132,16 +1281,31 @@ public class DataRetrievalServlet  extends HttpServlet {
 	}
 
 
+	/**
+	 * Can we copy data from the stores as is into the response for this PV?
+	 * We do this only if the data is not being post processed; the merge dedup consumer additionally checks that the response is a raw response.
+	 * This can be turned off using the <code>org.epics.archiverappliance.retrieval.UseBulkTransferForRaw</code> property in archappl.properties.
+	 * @param postProcessor
+	 * @return
+	 */
+	private boolean isBulkTransferAllowed(PostProcessor postProcessor) {
+		if(!(postProcessor instanceof DefaultRawPostProcessor)) {
+			return false;
+		}
+		return Boolean.parseBoolean(configService.getInstallationProperties().getProperty("org.epics.archiverappliance.retrieval.UseBulkTransferForRaw", "true"));
+	}
+
 	/**
 	 * Create a merge dedup consumer that will merge/dedup multiple event streams.
 	 * This basically makes sure that we are serving up events in monotonically increasing timestamp order.
 	 * @param resp
 	 * @param extension
 	 * @param useChunkedEncoding
+	 * @param cancellation
 	 * @return
 	 * @throws ServletException
 	 */
-	private MergeDedupConsumer createMergeDedupConsumer(HttpServletResponse resp, String extension, boolean useChunkedEncoding) throws ServletException {
+	private MergeDedupConsumer createMergeDedupConsumer(HttpServletResponse resp, String extension, boolean useChunkedEncoding, RetrievalCancellation cancellation) throws ServletException {
 		MergeDedupConsumer mergeDedupCountingConsumer = null;
 		MimeMappingInfo mimemappinginfo = mimeresponses.get(extension);
 		if(mimemappinginfo == null) {
@@ -1163,8 +1327,10 @@ public class DataRetrievalServlet  extends HttpServlet {
 						resp.addHeader(kv.getKey(), kv.getValue());
 					}
 				}
-				OutputStream os = resp.getOutputStream();
+				// Failures writing to the response cancel the request.
+				OutputStream os = cancellation.wrap(resp.getOutputStream());
 				mergeDedupCountingConsumer = new MergeDedupConsumer(mimeresponse, os);
+				mergeDedupCountingConsumer.setCancellation(cancellation);
 			} catch(Exception ex) {
 				throw new ServletException(ex);
 			}
@@ -1322,24 +1488,74 @@ public class DataRetrievalServlet  extends HttpServlet {
 	
 	
 	/**
-	 * Determine the thread pool to be used for post processing based on some characteristics of the request
-	 * The plugins will yield a list of callables that could potentially be evaluated in parallel 
-	 * Whether we evaluate in parallel is made here.
+	 * Get the memory consumption estimate from the post processor for this PV.
+	 * There is a lot of work done by the PostProcessors in estimateMemoryConsumption so we call this only once per PV.
 	 * @param pvName
+	 * @param typeInfo
+	 * @param requestTimes
+	 * @param req
 	 * @param postProcessor
 	 * @return
 	 */
-	private static RetrievalExecutorResult determineExecutorForPostProcessing(String pvName, PVTypeInfo typeInfo, LinkedList<TimeSpan> requestTimes, HttpServletRequest req, PostProcessor postProcessor) {
+	private static long estimateMemoryConsumption(String pvName, PVTypeInfo typeInfo, LinkedList<TimeSpan> requestTimes, HttpServletRequest req, PostProcessor postProcessor) {
 		long memoryConsumption = postProcessor.estimateMemoryConsumption(pvName, typeInfo, requestTimes.getFirst().getStartTime(), requestTimes.getLast().getEndTime(), req);
 		double memoryConsumptionInMB = (double)memoryConsumption/(1024*1024);
 		DecimalFormat twoSignificantDigits = new DecimalFormat("###,###,###,###,###,###.##");
 		logger.debug("Memory consumption estimate from postprocessor for pv " + pvName + " is " + memoryConsumption + "(bytes) ~= " + twoSignificantDigits.format(memoryConsumptionInMB) + "(MB)");
-		
+		return memoryConsumption;
+	}
+	
+	/**
+	 * Raw data is streamed out as it is read; the other post processors hold on to data (at least for a bin) before sending it out.
+	 * @param postProcessor
+	 * @return
+	 */
+	private static boolean retainsMemory(PostProcessor postProcessor) {
+		return !(postProcessor instanceof DefaultRawPostProcessor);
+	}
+	
+	/**
+	 * Reserve memory for this request from the admission controller.
+	 * If the request is rejected, we send a 503 with a Retry-After header and return null.
+	 * @param requestDescription
+	 * @param sizeEstimate
+	 * @param memoryToReserve
+	 * @param resp
+	 * @return
+	 * @throws IOException
+	 */
+	private RetrievalAdmissionController.Reservation admitRequest(String requestDescription, long sizeEstimate, long memoryToReserve, HttpServletResponse resp) throws IOException {
+		RetrievalAdmissionController admissionController = configService.getRetrievalRuntimeState().getAdmissionController();
+		RetrievalAdmissionController.Reservation reservation = null;
+		try {
+			reservation = admissionController.admit(requestDescription, sizeEstimate, memoryToReserve);
+		} catch(InterruptedException ex) {
+			logger.warn("Interrupted waiting for admission for " + requestDescription);
+			Thread.currentThread().interrupt();
+		}
+		if(reservation == null) {
+			String msg = "The server is busy processing other retrieval requests. Please try again later.";
+			resp.addHeader(MimeResponse.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+			resp.addHeader("Retry-After", Integer.toString(admissionController.getRetryAfterSeconds()));
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, msg);
+		}
+		return reservation;
+	}
+	
+	/**
+	 * Determine the thread pool to be used for post processing based on some characteristics of the request
+	 * The plugins will yield a list of callables that could potentially be evaluated in parallel 
+	 * Whether we evaluate in parallel is made here.
+	 * @param pvName
+	 * @param memoryConsumption - The estimate from the post processor
+	 * @param requestTimes
+	 * @return
+	 */
+	private static RetrievalExecutorResult determineExecutorForPostProcessing(String pvName, long memoryConsumption, LinkedList<TimeSpan> requestTimes) {
 		// For now, we only use the current thread to execute in serial.
 		// Once we get the unit tests for the post processors in a more rigorous shape, we can start using the ForkJoinPool.
 		// There are some complexities in using the ForkJoinPool - in this case, we need to convert to using synchronized versions of the SummaryStatistics and DescriptiveStatistics
 		// We also still have the issue where we can add a sample twice because of the non-transactional nature of ETL.
-		// However, there is a lot of work done by the PostProcessors in estimateMemoryConsumption so leave this call in place.
 		return new RetrievalExecutorResult(new CurrentThreadExecutorService(), requestTimes);
 	}
 	
@@ -1449,50 +1665,108 @@ public class DataRetrievalServlet  extends HttpServlet {
 	}
 	
 	/**
-	 * If multiple pvs are hosted on another appliance, a retrieval request is made to that appliance and
-	 * the event stream is returned.
+	 * If multiple pvs are hosted on another appliance, one retrieval request is made to that appliance for all of these PVs.
+	 * This is executed asynchronously; the future completes once the other appliance starts sending its response and the data is read as it is consumed.
 	 * @param req
-	 * @param resp
-	 * @param requestTimes 
-	 * @param pvInfo
-	 * @param useChunkedEncoding
-	 * @param dataRetrievalURLForPV
+	 * @param pvInfos - PVs hosted on the appliance; all of these are expected to be hosted on the same appliance.
+	 * @param pvNames - The names of these PVs as they appear in the response.
+	 * @param start
+	 * @return
+	 */
+	private Future<ForeignPVsEventStreams> retrieveEventStreamFromForeignAppliance(
+			HttpServletRequest req, ArrayList<PVInfoForClusterRetrieval> pvInfos, List<String> pvNames, Timestamp start) {
+		ArrayList<String> pvsInRequest = new ArrayList<String>(pvInfos.size());
+		for(PVInfoForClusterRetrieval pvInfo : pvInfos) {
+			pvsInRequest.add(pvInfo.getPVName());
+		}
+		String dataRetrievalURL = pvInfos.get(0).getApplianceInfo().getRetrievalURL() + "/../data/getDataForPVs.raw";
+		logger.debug("Retrieving data for " + pvsInRequest.size() + " pvs from " + dataRetrievalURL);
+		Map<String, String[]> otherParams = new HashMap<String, String[]>(req.getParameterMap());
+		RetrievalState retrievalState = configService.getRetrievalRuntimeState();
+		return retrievalState.getClusterRetrievalExecutor().submit(new ForeignAppliancePVsFetcher(dataRetrievalURL, pvsInRequest, pvNames, otherParams, start, 
+				retrievalState.getClusterRetrievalConnectTimeoutSeconds(), retrievalState.getClusterRetrievalSocketTimeoutSeconds()));
+	}
+	
+	/**
+	 * Send the data for a PV fetched from another appliance in the cluster into the merge dedup consumer.
+	 * If we cannot get the data from the other appliance, we log an error and move on to the next PV.
+	 * The events are sent to the response as they are read from the other appliance.
+	 * @param pvName
+	 * @param applianceForPV
+	 * @param foreignPVsFuture
+	 * @param mergeDedupCountingConsumer
 	 * @param start
 	 * @param end
-	 * @throws IOException
-	 * @throws ExecutionException 
-	 * @throws InterruptedException 
+	 * @param resp
+	 * @throws Exception
 	 */
-	private List<List<Future<EventStream>>> retrieveEventStreamFromForeignAppliance(
-			HttpServletRequest req, HttpServletResponse resp,
-			ArrayList<PVInfoForClusterRetrieval> pvInfos, LinkedList<TimeSpan> requestTimes,
-			boolean useChunkedEncoding, String dataRetrievalURLForPV,
-			Timestamp start, Timestamp end) 
-					throws IOException, InterruptedException, ExecutionException {
-		
-		// Get the executors for the PVs in other clusters
-		List<RetrievalExecutorResult> executorResults = new ArrayList<RetrievalExecutorResult>(pvInfos.size());
-		for (int i = 0; i < pvInfos.size(); i++) {
-			PVInfoForClusterRetrieval pvInfo = pvInfos.get(i);
-			executorResults.add(determineExecutorForPostProcessing(pvInfo.getPVName(), 
-					pvInfo.getTypeInfo(), requestTimes, req, pvInfo.getPostProcessor()));
+	private void consumeEventStreamsFromForeignAppliance(String pvName, ApplianceInfo applianceForPV, Future<ForeignPVsEventStreams> foreignPVsFuture, 
+			MergeDedupConsumer mergeDedupCountingConsumer, Timestamp start, Timestamp end, HttpServletResponse resp) throws Exception {
+		ForeignPVsEventStreams foreignPVsEventStreams = null;
+		try {
+			foreignPVsEventStreams = foreignPVsFuture.get();
+		} catch(ExecutionException ex) {
+			logger.error("Exception fetching data for pv " + pvName + " from appliance " + applianceForPV.getIdentity(), ex.getCause());
+			return;
 		}
 		
-		// Get list of lists of futures of retrieval results. Basically, this is setting up the data sources for retrieval.
-		List<LinkedList<Future<RetrievalResult>>> listOfRetrievalResultsFutures = new ArrayList<LinkedList<Future<RetrievalResult>>>();
-		for (int i = 0; i < pvInfos.size(); i++) {
-			PVInfoForClusterRetrieval pvInfo = pvInfos.get(i);
-			listOfRetrievalResultsFutures.add(resolveAllDataSources(pvInfo.getPVName(), pvInfo.getTypeInfo(), pvInfo.getPostProcessor(), 
-					pvInfo.getApplianceInfo(), new BasicContext(), executorResults.get(i), req, resp));
+		EventStream eventStream = foreignPVsEventStreams.nextEventStreamForPV(pvName);
+		if(eventStream == null) {
+			logger.debug("No data for pv " + pvName + " from appliance " + applianceForPV.getIdentity());
+			return;
 		}
 		
-		// Now the data is being retrieved, producing a list of lists of futures of event streams.
-		List<List<Future<EventStream>>> listOfEventStreamFutures = new ArrayList<List<Future<EventStream>>>();
-		for (int i = 0; i < pvInfos.size(); i++) {
-			listOfEventStreamFutures.add(getEventStreamFuturesFromRetrievalResults(executorResults.get(i), listOfRetrievalResultsFutures.get(i)));
+		boolean processingPV = false;
+		while(eventStream != null) {
+			try(EventStream strm = eventStream) {
+				if(!processingPV) {
+					processingPV = true;
+					mergeDedupCountingConsumer.processingPV(pvName, start, end, strm.getDescription());
+					mergeDedupCountingConsumer.setBulkTransferAllowed(false);
+				}
+				mergeDedupCountingConsumer.consumeEventStream(strm);
+				resp.flushBuffer();
+			}
+			eventStream = foreignPVsEventStreams.nextEventStreamForPV(pvName);
+		}
+	}
+
+	/**
+	 * Close the responses from the other appliances in the cluster; any fetches that are still pending are cancelled.
+	 * @param foreignPVFutures - The same future can appear more than once here.
+	 */
+	private static void closeEventStreamsFromForeignAppliances(Collection<Future<ForeignPVsEventStreams>> foreignPVFutures) {
+		for(Future<ForeignPVsEventStreams> future : new HashSet<Future<ForeignPVsEventStreams>>(foreignPVFutures)) {
+			if(future.cancel(true) || !future.isDone()) {
+				continue;
+			}
+			try {
+				future.get().close();
+			} catch(ExecutionException ex) {
+				// We have already logged this when consuming the data.
+			} catch(Exception ex) {
+				logger.debug("Exception closing the response from another appliance", ex);
+			}
+		}
+	}
+
+	/**
+	 * Once a request has been cancelled, we cancel the event stream futures that are still pending.
+	 * Event streams that have already been retrieved are closed without reading from them.
+	 * @param future
+	 */
+	private static void discardEventStream(Future<EventStream> future) {
+		if(future.cancel(true) || !future.isDone()) {
+			return;
+		}
+		try {
+			EventStream eventStream = future.get();
+			if(eventStream != null) {
+				eventStream.close();
+			}
+		} catch(Exception ex) {
+			logger.debug("Exception closing event stream for a cancelled request", ex);
 		}
-		
-		return listOfEventStreamFutures;
 	}
 
 	/**
@@ -1618,10 +1892,10 @@ public class DataRetrievalServlet  extends HttpServlet {
                     this.postProcessor = postProcessor; 
                     this.applianceInfo = applianceInfo; 
                      
-                    assert(this.pvName == null); 
-                    assert(this.typeInfo == null); 
-                    assert(this.postProcessor == null); 
-                    assert(this.applianceInfo == null); 
+                    assert(this.pvName != null); 
+                    assert(this.typeInfo != null); 
+                    assert(this.postProcessor != null); 
+                    assert(this.applianceInfo != null); 
             } 
              
             public String getPVName() { 
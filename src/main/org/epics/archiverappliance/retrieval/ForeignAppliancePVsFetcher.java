@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.retrieval;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.log4j.Logger;
+
+/**
+ * Fetches data for a batch of PVs that are hosted on another appliance in the cluster using one getDataForPVs.raw call.
+ * This returns once the peer has started sending its response; the data itself is read from the response as it is sent to the client (see {@link ForeignPVsEventStreams}).
+ * The PV names in the batch are expected to be unique; otherwise we cannot tell the data for one PV apart from the other.
+ * The connect and socket timeouts make sure that a peer that has hung does not hold up the request (and a cluster retrieval thread) forever.
+ * The PVs are passed as pv parameters in the GET URL; use {@link #assignBatch} to split the PVs for a peer into batches whose URLs fit in the peer's request header limits.
+ *
+ * @author mshankar
+ *
+ */
+class ForeignAppliancePVsFetcher implements Callable<ForeignPVsEventStreams> {
+	private static Logger logger = Logger.getLogger(ForeignAppliancePVsFetcher.class.getName());
+	/**
+	 * Upper bound on the length of the pv parameters in one GET URL.
+	 * Tomcat's default maxHttpHeaderSize is 8KB; this leaves room for the other parameters and headers.
+	 */
+	static final int MAX_PV_PARAMS_LENGTH = 4096;
+	private String dataRetrievalURL;
+	private List<String> pvsInRequest;
+	private List<String> pvNames;
+	private Map<String, String[]> otherParams;
+	private Timestamp start;
+	private int connectTimeoutSeconds;
+	private int socketTimeoutSeconds;
+
+	/**
+	 * @param dataRetrievalURL - The getDataForPVs.raw URL for the peer appliance
+	 * @param pvsInRequest - The pv parameters as they were passed in by the client; these include post processor and field information.
+	 * @param pvNames - The names of these PVs as they appear in the response; in the same order as pvsInRequest.
+	 * @param otherParams - The other parameters in the request (from, to etc); these are passed along as is.
+	 * @param start - The start time of the request
+	 * @param connectTimeoutSeconds - Timeout for connecting to the peer.
+	 * @param socketTimeoutSeconds - Timeout for the peer to send us some data once we are reading from the response.
+	 */
+	ForeignAppliancePVsFetcher(String dataRetrievalURL, List<String> pvsInRequest, List<String> pvNames, Map<String, String[]> otherParams, Timestamp start, int connectTimeoutSeconds, int socketTimeoutSeconds) {
+		this.dataRetrievalURL = dataRetrievalURL;
+		this.pvsInRequest = pvsInRequest;
+		this.pvNames = pvNames;
+		this.otherParams = otherParams;
+		this.start = start;
+		this.connectTimeoutSeconds = connectTimeoutSeconds;
+		this.socketTimeoutSeconds = socketTimeoutSeconds;
+	}
+
+	@Override
+	public ForeignPVsEventStreams call() throws Exception {
+		String getURL = buildURL();
+		logger.debug("Fetching data for " + pvsInRequest.size() + " pvs using " + getURL);
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(connectTimeoutSeconds*1000)
+				.setConnectionRequestTimeout(connectTimeoutSeconds*1000)
+				.setSocketTimeout(socketTimeoutSeconds*1000)
+				.build();
+		CloseableHttpClient httpclient = HttpClients.custom().setDefaultRequestConfig(requestConfig).build();
+		CloseableHttpResponse response = null;
+		try {
+			HttpGet getMethod = new HttpGet(getURL);
+			getMethod.addHeader("Connection", "close"); // https://www.nuxeo.com/blog/using-httpclient-properly-avoid-closewait-tcp-connections/
+			response = httpclient.execute(getMethod);
+			if(response.getStatusLine().getStatusCode() != 200) {
+				throw new IOException("Invalid status code " + response.getStatusLine().getStatusCode() + " when fetching data from " + getURL);
+			}
+			HttpEntity entity = response.getEntity();
+			if(entity == null) {
+				throw new IOException("HTTP response did not have an entity associated with it when fetching data from " + getURL);
+			}
+			InputStream is = new BufferedInputStream(entity.getContent());
+			// The response is closed by ForeignPVsEventStreams once the data has been consumed.
+			ForeignPVsEventStreams streams = new ForeignPVsEventStreams(dataRetrievalURL, pvNames, httpclient, response, is, start);
+			if(Thread.currentThread().isInterrupted()) {
+				// The request was cancelled while we were waiting on the peer; nobody is going to close these streams.
+				streams.close();
+				throw new InterruptedException("Request cancelled when fetching data from " + getURL);
+			}
+			return streams;
+		} catch(Exception ex) {
+			if(response != null) {
+				try { response.close(); } catch(Throwable t) { }
+			}
+			httpclient.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Pick the batch for this PV among the batches for the peer at retrievalURL and add the PV to it.
+	 * The PV names in a batch are unique and the pv parameters of a batch stay under {@link #MAX_PV_PARAMS_LENGTH}; a PV whose parameter is longer than that gets a batch by itself.
+	 * @param retrievalURL - The retrieval URL of the peer
+	 * @param pvName - The name of the PV as it appears in the response
+	 * @param pvInRequest - The pv parameter as it was passed in by the client
+	 * @param batchPVNames - The PV names in each batch, indexed by batch key
+	 * @param batchParamLengths - The length of the pv parameters in each batch, indexed by batch key
+	 * @return The batch key; this is retrievalURL#n
+	 * @throws UnsupportedEncodingException
+	 */
+	static String assignBatch(String retrievalURL, String pvName, String pvInRequest, Map<String, HashSet<String>> batchPVNames, Map<String, Integer> batchParamLengths) throws UnsupportedEncodingException {
+		int paramLength = "&pv=".length() + URLEncoder.encode(pvInRequest, "UTF-8").length();
+		int batch = 0;
+		String batchKey = retrievalURL + "#" + batch;
+		while(batchPVNames.containsKey(batchKey) 
+				&& (batchPVNames.get(batchKey).contains(pvName) || batchParamLengths.get(batchKey) + paramLength > MAX_PV_PARAMS_LENGTH)) {
+			batch++;
+			batchKey = retrievalURL + "#" + batch;
+		}
+		if(!batchPVNames.containsKey(batchKey)) {
+			batchPVNames.put(batchKey, new HashSet<String>());
+			batchParamLengths.put(batchKey, 0);
+		}
+		batchPVNames.get(batchKey).add(pvName);
+		batchParamLengths.put(batchKey, batchParamLengths.get(batchKey) + paramLength);
+		return batchKey;
+	}
+
+	String buildURL() throws Exception {
+		StringBuilder buf = new StringBuilder();
+		buf.append(new URI(dataRetrievalURL).normalize().toString());
+		boolean first = true;
+		for(String pv : pvsInRequest) {
+			buf.append(first ? "?" : "&").append("pv=").append(URLEncoder.encode(pv, "UTF-8"));
+			first = false;
+		}
+		for(Map.Entry<String, String[]> param : otherParams.entrySet()) {
+			if(param.getKey().equals("pv")) continue;
+			for(String value : param.getValue()) {
+				buf.append("&").append(URLEncoder.encode(param.getKey(), "UTF-8")).append("=").append(URLEncoder.encode(value, "UTF-8"));
+			}
+		}
+		return buf.toString();
+	}
+}
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.retrieval;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.log4j.Logger;
+import org.epics.archiverappliance.Event;
+import org.epics.archiverappliance.EventStream;
+import org.epics.archiverappliance.EventStreamDesc;
+import org.epics.archiverappliance.common.TimeUtils;
+import org.epics.archiverappliance.retrieval.client.RetrievalEventProcessor;
+
+import edu.stanford.slac.archiverappliance.PBOverHTTP.InputStreamBackedEventStream;
+
+/**
+ * The response from a getDataForPVs.raw call to another appliance in the cluster.
+ * The events are decoded from the response only as they are consumed; so we hold on to only one event at a time.
+ * The peer sends the data for the PVs in the order in which they were requested; we hand out the data for each PV as one event stream per year as the raw protocol requires a header whenever the year changes.
+ * Data for a PV that is not consumed (for example, if we gave up on the PV partway) is skipped.
+ *
+ * @author mshankar
+ *
+ */
+class ForeignPVsEventStreams implements RetrievalEventProcessor, AutoCloseable {
+	private static Logger logger = Logger.getLogger(ForeignPVsEventStreams.class.getName());
+	private String dataRetrievalURL;
+	private HashMap<String, Integer> pvPositions = new HashMap<String, Integer>();
+	private CloseableHttpClient httpclient;
+	private CloseableHttpResponse response;
+	private InputStreamBackedEventStream strm;
+	private Iterator<Event> events = null;
+	private RemotableEventStreamDesc currentDesc = null;
+	private Event pendingEvent = null;
+	private RemotableEventStreamDesc pendingDesc = null;
+	private int eventCount = 0;
+	private long startMs = System.currentTimeMillis();
+	private boolean closed = false;
+
+	/**
+	 * @param dataRetrievalURL - Used for logging
+	 * @param pvNames - The names of the PVs in the order in which they were requested.
+	 * @param httpclient - This is closed when we are done with the response; can be null.
+	 * @param response - The response from the peer; this is closed when we are done; can be null.
+	 * @param is - The content of the response.
+	 * @param start - The start time of the request
+	 * @throws IOException
+	 */
+	ForeignPVsEventStreams(String dataRetrievalURL, List<String> pvNames, CloseableHttpClient httpclient, CloseableHttpResponse response, InputStream is, Timestamp start) throws IOException {
+		this.dataRetrievalURL = dataRetrievalURL;
+		this.httpclient = httpclient;
+		this.response = response;
+		for(int i = 0; i < pvNames.size(); i++) {
+			pvPositions.put(pvNames.get(i), i);
+		}
+		this.strm = new InputStreamBackedEventStream(is, start, this);
+		if(strm.getDescription() == null) {
+			logger.debug("Empty response when fetching data from " + dataRetrievalURL);
+		} else {
+			events = strm.iterator();
+		}
+		advance();
+	}
+
+	@Override
+	public void newPVOnStream(EventStreamDesc desc) {
+		currentDesc = (RemotableEventStreamDesc) desc;
+	}
+
+	/**
+	 * Read the next event from the response into pendingEvent.
+	 * If the peer fails partway (or times out), we log an error and treat this as the end of the response.
+	 */
+	private void advance() {
+		pendingEvent = null;
+		pendingDesc = null;
+		try {
+			while(events != null && events.hasNext()) {
+				Event e = events.next();
+				if(e == null) continue;
+				pendingEvent = e;
+				pendingDesc = currentDesc;
+				eventCount++;
+				return;
+			}
+		} catch(RuntimeException ex) {
+			logger.error("Exception reading data from " + dataRetrievalURL, ex);
+		}
+		events = null;
+	}
+
+	/**
+	 * Get the next year's worth of data for this PV.
+	 * Data for PVs that come before this PV in the request and have not been consumed are skipped.
+	 * @param pvName - The name of the PV as it appears in the response.
+	 * @return null if we have no more data for this PV.
+	 */
+	EventStream nextEventStreamForPV(String pvName) {
+		Integer position = pvPositions.get(pvName);
+		while(pendingEvent != null && !pendingDesc.getPvName().equals(pvName)) {
+			Integer pendingPosition = pvPositions.get(pendingDesc.getPvName());
+			if(position != null && pendingPosition != null && pendingPosition > position) {
+				// The data for this PV is done; we have moved on to the next PV.
+				return null;
+			}
+			logger.debug("Skipping data for pv " + pendingDesc.getPvName() + " from " + dataRetrievalURL);
+			advance();
+		}
+		if(pendingEvent == null) return null;
+		short year = TimeUtils.computeYearForEpochSeconds(pendingEvent.getEpochSeconds());
+		RemotableEventStreamDesc desc = new RemotableEventStreamDesc(pendingDesc);
+		desc.setYear(year);
+		return new YearEventStream(desc, TimeUtils.getStartOfYearInSeconds(year), TimeUtils.getStartOfYearInSeconds(year + 1));
+	}
+
+	@Override
+	public void close() {
+		if(closed) return;
+		closed = true;
+		events = null;
+		pendingEvent = null;
+		pendingDesc = null;
+		// Closing the response without consuming the entity aborts the connection; so the peer stops sending data.
+		if(response != null) {
+			try { response.close(); } catch(Throwable t) { logger.debug("Exception closing response from " + dataRetrievalURL, t); }
+		}
+		if(httpclient != null) {
+			try { httpclient.close(); } catch(Throwable t) { logger.debug("Exception closing http client for " + dataRetrievalURL, t); }
+		}
+		strm.close();
+		logger.info("Fetched " + eventCount + " events for " + pvPositions.size() + " pvs from " + dataRetrievalURL + " in " + (System.currentTimeMillis() - startMs) + "(ms)");
+	}
+
+	/**
+	 * The events for one PV for one year.
+	 * Closing this skips any events in this stream that have not been consumed.
+	 */
+	private class YearEventStream implements EventStream {
+		private RemotableEventStreamDesc desc;
+		private long yearStartEpochSeconds;
+		private long nextYearStartEpochSeconds;
+
+		YearEventStream(RemotableEventStreamDesc desc, long yearStartEpochSeconds, long nextYearStartEpochSeconds) {
+			this.desc = desc;
+			this.yearStartEpochSeconds = yearStartEpochSeconds;
+			this.nextYearStartEpochSeconds = nextYearStartEpochSeconds;
+		}
+
+		@Override
+		public EventStreamDesc getDescription() {
+			return desc;
+		}
+
+		private boolean hasMoreEvents() {
+			if(pendingEvent == null || !pendingDesc.getPvName().equals(desc.getPvName())) return false;
+			long epochSeconds = pendingEvent.getEpochSeconds();
+			return epochSeconds >= yearStartEpochSeconds && epochSeconds < nextYearStartEpochSeconds;
+		}
+
+		@Override
+		public Iterator<Event> iterator() {
+			return new Iterator<Event>() {
+				@Override
+				public boolean hasNext() {
+					return hasMoreEvents();
+				}
+
+				@Override
+				public Event next() {
+					if(!hasMoreEvents()) throw new NoSuchElementException();
+					// The input stream iterator creates a new event for each line; so we do not need to clone these.
+					Event e = pendingEvent;
+					advance();
+					return e;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public void close() {
+			while(hasMoreEvents()) {
+				advance();
+			}
+		}
+	}
+}
@@ -18,6 +18,7 @@ import org.epics.archiverappliance.EventStreamDesc;
 import org.epics.archiverappliance.common.TimeUtils;
 import org.epics.archiverappliance.retrieval.mimeresponses.ExceptionCommunicator;
 import org.epics.archiverappliance.retrieval.mimeresponses.MimeResponse;
+import org.epics.archiverappliance.retrieval.mimeresponses.PBRAWResponse;
 
 import com.google.protobuf.InvalidProtocolBufferException;
 
@@ -41,6 +42,10 @@ class MergeDedupConsumer implements EventStreamConsumer, AutoCloseable {
 	Event firstEvent = null;
 	MimeResponse mimeresponse = null;
 	String pvName = null;
+	boolean bulkTransferAllowed = false;
+	int bulkTransferredStreams = 0;
+	long bulkTransferredBytes = 0;
+	RetrievalCancellation cancellation = null;
 
 	int totalEventsForAllPVs = 0;
 	int skippedEventsForAllPVs = 0;
@@ -61,6 +66,9 @@ class MergeDedupConsumer implements EventStreamConsumer, AutoCloseable {
 		while(true) {
 			try {
 				mimeresponse.swicthingToStream(strm);
+				if(transferInBulkIfPossible(strm)) {
+					return;
+				}
 				consumeEventStreamAndOutputToMimeResponse(strm);
 				return;
 			} catch(ChangeInYearsException ex) {
@@ -104,10 +112,56 @@ class MergeDedupConsumer implements EventStreamConsumer, AutoCloseable {
 		resetForNextPV();
 	}
 	
+	/**
+	 * Enable/disable bulk transfers for the current PV.
+	 * This should be enabled only if the data is not being post processed and we are generating a raw response.
+	 * @param bulkTransferAllowed
+	 */
+	public void setBulkTransferAllowed(boolean bulkTransferAllowed) {
+		this.bulkTransferAllowed = bulkTransferAllowed;
+	}
+	
+	/**
+	 * If the request is cancelled, we stop consuming events at the next event.
+	 * @param cancellation
+	 */
+	public void setCancellation(RetrievalCancellation cancellation) {
+		this.cancellation = cancellation;
+	}
+	
+	/**
+	 * If the entire stream is after the last event we have sent, there is nothing to merge/dedup.
+	 * In this case, we can copy the serialized events as is into the response.
+	 * @param strm
+	 * @return true if the stream was transferred in bulk.
+	 * @throws Exception
+	 */
+	private boolean transferInBulkIfPossible(EventStream strm) throws Exception {
+		if(!bulkTransferAllowed || !haveIpushedTheFirstEvent || !(strm instanceof RetrievalBulkStream) || !(mimeresponse instanceof PBRAWResponse)) {
+			return false;
+		}
+		if(cancellation != null) cancellation.checkCancelled();
+		RetrievalBulkStream bulkStream = (RetrievalBulkStream) strm;
+		if(!bulkStream.canTransferInBulk() || !bulkStream.getFirstEventTimeStamp().after(timestampOfLastEvent)) {
+			return false;
+		}
+		long bytesTransferred = ((PBRAWResponse) mimeresponse).transferInBulk(bulkStream);
+		if(bytesTransferred < 0) {
+			return false;
+		}
+		if(logger.isDebugEnabled()) logger.debug("Transferred " + bytesTransferred + " bytes in bulk from " + ((strm.getDescription() != null ) ? strm.getDescription().getSource() : "Unknown") + " for pv " + pvName);
+		bulkTransferredStreams++;
+		bulkTransferredBytes += bytesTransferred;
+		timestampOfLastEvent = bulkStream.getLastEventTimeStamp();
+		startDeduping();
+		return true;
+	}
+	
 	private void consumeEventStreamAndOutputToMimeResponse(EventStream strm) throws Exception {
 		try {
 			int eventsInCurrentStream = 0;
 			for(Event e : strm) {
+				if(cancellation != null) cancellation.checkCancelled();
 				try {
 					eventsInCurrentStream++;
 					
@@ -191,6 +245,8 @@ class MergeDedupConsumer implements EventStreamConsumer, AutoCloseable {
 		totalEvents = 0;
 		skippedEvents = 0;
 		comparedEvents = 0;
+		bulkTransferredStreams = 0;
+		bulkTransferredBytes = 0;
 		timestampOfLastEvent = new Timestamp(Long.MIN_VALUE);
 		amIDeduping = false;
 		firstEvent = null;
@@ -202,7 +258,8 @@ class MergeDedupConsumer implements EventStreamConsumer, AutoCloseable {
 			logger.info("Found a total of " + totalEvents 
 					+ " skipping " + skippedEvents + " events"
 					+ " deduping involved " + comparedEvents + " compares for PV "
-					+ pvName);
+					+ pvName
+					+ (bulkTransferredStreams > 0 ? (" and transferred " + bulkTransferredStreams + " streams (" + bulkTransferredBytes + " bytes) in bulk") : ""));
 		}
 		totalEventsForAllPVs += totalEvents;
 		skippedEventsForAllPVs += skippedEvents;
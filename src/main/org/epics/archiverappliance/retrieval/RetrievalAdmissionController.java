@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.retrieval;
+
+import java.text.DecimalFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+import org.epics.archiverappliance.common.OpenMetricsWriter;
+
+/**
+ * Admission control for retrieval requests based on the memory estimates from the post processors.
+ * Each request reserves its estimated memory from a global budget before it starts; requests that do not fit wait for a while and are then rejected.
+ * Requests are split into two lanes - small interactive requests and bulk requests (for example, exports of large time ranges).
+ * The bulk lane has a limit on the number of concurrent requests; so bulk requests cannot crowd out interactive ones.
+ *
+ * Raw retrievals are streamed out as they are read and do not hold on to their data; these do not reserve any memory but are still assigned a lane based on their size.
+ *
+ * @author mshankar
+ *
+ */
+public class RetrievalAdmissionController {
+	private static Logger logger = Logger.getLogger(RetrievalAdmissionController.class.getName());
+
+	public enum Lane { INTERACTIVE, BULK };
+
+	private long memoryBudgetBytes;
+	private long interactiveCutoffBytes;
+	private int maxQueuedRequestsPerLane;
+	private long maxWaitMillis;
+	private long reservedBytes = 0;
+	private LaneState[] lanes = new LaneState[Lane.values().length];
+
+	/**
+	 * Book keeping for a lane. All access is synchronized on the controller.
+	 */
+	private static class LaneState {
+		int maxConcurrentRequests;
+		int runningRequests = 0;
+		int waitingRequests = 0;
+		long admittedRequests = 0;
+		long queuedRequests = 0;
+		long rejectedRequests = 0;
+		long totalWaitMillis = 0;
+
+		LaneState(int maxConcurrentRequests) {
+			this.maxConcurrentRequests = maxConcurrentRequests;
+		}
+	}
+
+	/**
+	 * A reservation for an admitted request; close this when the request is done.
+	 */
+	public class Reservation implements AutoCloseable {
+		private Lane lane;
+		private long bytes;
+		private boolean released = false;
+
+		private Reservation(Lane lane, long bytes) {
+			this.lane = lane;
+			this.bytes = bytes;
+		}
+
+		public Lane getLane() {
+			return lane;
+		}
+
+		@Override
+		public void close() {
+			release(this);
+		}
+	}
+
+	public RetrievalAdmissionController(Properties installationProperties) {
+		long defaultBudgetMB = Runtime.getRuntime().maxMemory()/(2*1024*1024);
+		this.memoryBudgetBytes = Long.parseLong(installationProperties.getProperty("org.epics.archiverappliance.retrieval.AdmissionControl.MemoryBudgetMB", Long.toString(defaultBudgetMB)))*1024*1024;
+		this.interactiveCutoffBytes = Long.parseLong(installationProperties.getProperty("org.epics.archiverappliance.retrieval.AdmissionControl.InteractiveCutoffMB", Integer.toString(DataRetrievalServlet.SERIAL_PARALLEL_MEMORY_CUTOFF_MB)))*1024*1024;
+		this.maxQueuedRequestsPerLane = Integer.parseInt(installationProperties.getProperty("org.epics.archiverappliance.retrieval.AdmissionControl.MaxQueuedRequestsPerLane", "64"));
+		this.maxWaitMillis = Long.parseLong(installationProperties.getProperty("org.epics.archiverappliance.retrieval.AdmissionControl.MaxWaitSeconds", "30"))*1000;
+		int bulkMaxConcurrentRequests = Integer.parseInt(installationProperties.getProperty("org.epics.archiverappliance.retrieval.AdmissionControl.BulkMaxConcurrentRequests", "4"));
+		lanes[Lane.INTERACTIVE.ordinal()] = new LaneState(Integer.MAX_VALUE);
+		lanes[Lane.BULK.ordinal()] = new LaneState(bulkMaxConcurrentRequests);
+		logger.info("Retrieval admission control using a memory budget of " + memoryBudgetBytes/(1024*1024) + "(MB) with at most " + bulkMaxConcurrentRequests + " concurrent bulk requests");
+	}
+
+	/**
+	 * Reserve memory for a request. If the request does not fit, we wait for other requests to complete upto the maximum wait time.
+	 * @param requestDescription - Used for logging
+	 * @param sizeEstimate - The estimate from the post processors for the entire request; this determines the lane.
+	 * @param memoryToReserve - The estimate for the post processors that hold on to their data; raw data is streamed out as it is read and does not need to be reserved.
+	 * @return A reservation that must be closed when the request is done or null if the request was rejected.
+	 * @throws InterruptedException
+	 */
+	public Reservation admit(String requestDescription, long sizeEstimate, long memoryToReserve) throws InterruptedException {
+		Lane lane = sizeEstimate > interactiveCutoffBytes ? Lane.BULK : Lane.INTERACTIVE;
+		// Requests that are larger than the whole budget are allowed to run by themselves.
+		long bytes = Math.min(Math.max(memoryToReserve, 0), memoryBudgetBytes);
+		LaneState laneState = lanes[lane.ordinal()];
+		synchronized(this) {
+			if(canAdmit(laneState, bytes)) {
+				return grant(laneState, lane, bytes);
+			}
+
+			if(laneState.waitingRequests >= maxQueuedRequestsPerLane) {
+				laneState.rejectedRequests++;
+				logger.warn("Rejecting " + lane + " retrieval request " + requestDescription + " as there are already " + laneState.waitingRequests + " requests waiting");
+				return null;
+			}
+
+			logger.debug("Queueing " + lane + " retrieval request " + requestDescription + " needing " + bytes + " bytes");
+			long waitStart = System.currentTimeMillis();
+			long deadline = waitStart + maxWaitMillis;
+			laneState.waitingRequests++;
+			try {
+				while(!canAdmit(laneState, bytes)) {
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0) {
+						laneState.rejectedRequests++;
+						logger.warn("Rejecting " + lane + " retrieval request " + requestDescription + " needing " + bytes + " bytes after waiting for " + maxWaitMillis + "(ms)");
+						return null;
+					}
+					this.wait(remaining);
+				}
+			} finally {
+				laneState.waitingRequests--;
+			}
+			laneState.queuedRequests++;
+			laneState.totalWaitMillis += System.currentTimeMillis() - waitStart;
+			return grant(laneState, lane, bytes);
+		}
+	}
+
+	/**
+	 * Clients can retry rejected requests after this many seconds.
+	 * @return
+	 */
+	public int getRetryAfterSeconds() {
+		return (int) Math.max(maxWaitMillis/1000, 1);
+	}
+
+	private boolean canAdmit(LaneState laneState, long bytes) {
+		return laneState.runningRequests < laneState.maxConcurrentRequests && reservedBytes + bytes <= memoryBudgetBytes;
+	}
+
+	private Reservation grant(LaneState laneState, Lane lane, long bytes) {
+		laneState.runningRequests++;
+		laneState.admittedRequests++;
+		reservedBytes += bytes;
+		return new Reservation(lane, bytes);
+	}
+
+	private synchronized void release(Reservation reservation) {
+		if(reservation.released) return;
+		reservation.released = true;
+		lanes[reservation.lane.ordinal()].runningRequests--;
+		reservedBytes -= reservation.bytes;
+		this.notifyAll();
+	}
+
+	/**
+	 * Get the current state of admission control as a list of name/value pairs for the metrics pages.
+	 * @return
+	 */
+	public synchronized Map<String, String> getMetrics() {
+		DecimalFormat twoSignificantDigits = new DecimalFormat("###,###,###,###,###,###.##");
+		LinkedHashMap<String, String> metrics = new LinkedHashMap<String, String>();
+		metrics.put("Retrieval memory budget (MB)", twoSignificantDigits.format((double)memoryBudgetBytes/(1024*1024)));
+		metrics.put("Retrieval memory reserved (MB)", twoSignificantDigits.format((double)reservedBytes/(1024*1024)));
+		for(Lane lane : Lane.values()) {
+			LaneState laneState = lanes[lane.ordinal()];
+			String laneName = lane == Lane.INTERACTIVE ? "Interactive" : "Bulk";
+			metrics.put(laneName + " requests running", Integer.toString(laneState.runningRequests));
+			metrics.put(laneName + " requests waiting", Integer.toString(laneState.waitingRequests));
+			metrics.put(laneName + " requests admitted", Long.toString(laneState.admittedRequests));
+			metrics.put(laneName + " requests that had to wait", Long.toString(laneState.queuedRequests));
+			metrics.put(laneName + " requests rejected", Long.toString(laneState.rejectedRequests));
+			metrics.put(laneName + " average wait (ms)", laneState.queuedRequests > 0 ? Long.toString(laneState.totalWaitMillis/laneState.queuedRequests) : "0");
+		}
+		return metrics;
+	}
+
+	/**
+	 * Write the current state of admission control for the <code>/metrics</code> BPL.
+	 * @param metrics
+	 */
+	public synchronized void writeOpenMetrics(OpenMetricsWriter metrics) {
+		metrics.gauge("retrieval_memory_budget_bytes", "Memory budget for retrieval requests", memoryBudgetBytes);
+		metrics.gauge("retrieval_memory_reserved_bytes", "Memory reserved by the retrieval requests that are running", reservedBytes);
+		metrics.family("retrieval_lane_running_requests", "gauge", "Retrieval requests running by lane");
+		for(Lane lane : Lane.values()) {
+			metrics.sample("retrieval_lane_running_requests", "lane", lane.toString().toLowerCase(), lanes[lane.ordinal()].runningRequests);
+		}
+		metrics.family("retrieval_lane_waiting_requests", "gauge", "Retrieval requests waiting for memory by lane");
+		for(Lane lane : Lane.values()) {
+			metrics.sample("retrieval_lane_waiting_requests", "lane", lane.toString().toLowerCase(), lanes[lane.ordinal()].waitingRequests);
+		}
+		metrics.family("retrieval_lane_admitted_requests_total", "counter", "Retrieval requests admitted by lane");
+		for(Lane lane : Lane.values()) {
+			metrics.sample("retrieval_lane_admitted_requests_total", "lane", lane.toString().toLowerCase(), lanes[lane.ordinal()].admittedRequests);
+		}
+		metrics.family("retrieval_lane_rejected_requests_total", "counter", "Retrieval requests rejected by lane");
+		for(Lane lane : Lane.values()) {
+			metrics.sample("retrieval_lane_rejected_requests_total", "lane", lane.toString().toLowerCase(), lanes[lane.ordinal()].rejectedRequests);
+		}
+		metrics.family("retrieval_lane_wait_seconds_total", "counter", "Time spent by retrieval requests waiting for memory by lane");
+		for(Lane lane : Lane.values()) {
+			metrics.sample("retrieval_lane_wait_seconds_total", "lane", lane.toString().toLowerCase(), lanes[lane.ordinal()].totalWaitMillis/1000.0);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package org.epics.archiverappliance.retrieval;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.sql.Timestamp;
+
+import org.epics.archiverappliance.EventStream;
+
+/**
+ * Event streams can optionally implement bulk transfer friendly methods for retrieval.
+ * If this interface is implemented, and the stream is eligible, then the raw response can copy the serialized events as is into the response without decoding and re-encoding each event.
+ * This is only used for data that does not need to be post processed; the merge dedup consumer still processes the edges of the request and overlapping streams one event at a time.
+ * @author mshankar
+ *
+ */
+public interface RetrievalBulkStream extends EventStream, RemotableOverRaw {
+
+	/**
+	 * Can this stream be transferred in bulk?
+	 * This should be a cheap check and should return false if we have already started iterating thru this stream or if the stream is constrained in some way that requires event level processing.
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean canTransferInBulk() throws IOException;
+
+	/**
+	 * Timestamp of the first event in this stream. Only valid if canTransferInBulk returns true.
+	 * @return
+	 */
+	public Timestamp getFirstEventTimeStamp();
+
+	/**
+	 * Timestamp of the last event in this stream. Only valid if canTransferInBulk returns true.
+	 * @return
+	 */
+	public Timestamp getLastEventTimeStamp();
+
+	/**
+	 * Transfer the serialized events (escaped and newline separated; that is, without the header) into the target channel.
+	 * @param target
+	 * @return The number of bytes transferred.
+	 * @throws IOException
+	 */
+	public long transferTo(WritableByteChannel target) throws IOException;
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.retrieval;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Tracks whether anybody is still listening for the response of a retrieval request.
+ * Once the client disconnects (or we fail writing the response, or the request times out), the request is cancelled.
+ * Cancelling a request cancels all the pending futures registered with it and stops the merge dedup consumer from reading any more events.
+ * This way, we stop reading data from the stores as soon as we know that nobody is going to see it.
+ * This also holds on to the memory reserved for the request from the admission controller till we are done processing the request.
+ *
+ * @author mshankar
+ *
+ */
+class RetrievalCancellation {
+	private static Logger logger = Logger.getLogger(RetrievalCancellation.class.getName());
+	private String requestDescription;
+	private volatile boolean cancelled = false;
+	private ConcurrentLinkedQueue<Future<?>> futures = new ConcurrentLinkedQueue<Future<?>>();
+	private RetrievalAdmissionController.Reservation reservation = null;
+
+	RetrievalCancellation(String requestDescription) {
+		this.requestDescription = requestDescription;
+	}
+
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Cancel this request; pending futures are cancelled and running ones are interrupted.
+	 * @param reason
+	 */
+	void cancel(String reason) {
+		if(cancelled) return;
+		cancelled = true;
+		logger.info("Cancelling retrieval request " + requestDescription + " - " + reason);
+		Future<?> future;
+		while((future = futures.poll()) != null) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * Register a future that needs to be cancelled if this request is cancelled.
+	 * @param future
+	 */
+	void addFuture(Future<?> future) {
+		futures.add(future);
+		if(cancelled) {
+			future.cancel(true);
+		}
+	}
+
+	void addFutures(Collection<? extends Future<?>> futuresToAdd) {
+		if(futuresToAdd == null) return;
+		for(Future<?> future : futuresToAdd) {
+			addFuture(future);
+		}
+	}
+
+	/**
+	 * Hold on to the memory reserved for this request; this is released by {@link #releaseReservation()}.
+	 * @param reservation
+	 */
+	void holdReservation(RetrievalAdmissionController.Reservation reservation) {
+		releaseReservation();
+		this.reservation = reservation;
+	}
+
+	/**
+	 * Release the memory reserved for this request; call this once we are done processing the request.
+	 */
+	void releaseReservation() {
+		if(reservation != null) {
+			reservation.close();
+			reservation = null;
+		}
+	}
+
+	/**
+	 * Throws a RetrievalCancelledException if this request has been cancelled.
+	 * @throws RetrievalCancelledException
+	 */
+	void checkCancelled() throws RetrievalCancelledException {
+		if(cancelled) {
+			throw new RetrievalCancelledException("Retrieval request " + requestDescription + " has been cancelled");
+		}
+	}
+
+	/**
+	 * Checks if this exception is from the client closing the connection; if so, we cancel the request.
+	 * @param ex
+	 * @return true if this request has been cancelled; false if this is some other exception.
+	 */
+	boolean cancelIfClientAbort(Throwable ex) {
+		if(ex != null && ex.toString() != null && ex.toString().contains("ClientAbortException")) {
+			// We check for ClientAbortException etc this way to avoid including tomcat jars in the build path.
+			cancel("Client closed the connection");
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Wrap the output stream for the response such that any failure writing to the response cancels the request.
+	 * Some of the mime responses swallow exceptions; so we need to do this at the level of the output stream.
+	 * @param os
+	 * @return
+	 */
+	OutputStream wrap(OutputStream os) {
+		return new FilterOutputStream(os) {
+			@Override
+			public void write(int b) throws IOException {
+				try {
+					out.write(b);
+				} catch(IOException ex) {
+					cancel("Exception writing to the response " + ex.toString());
+					throw ex;
+				}
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				try {
+					out.write(b, off, len);
+				} catch(IOException ex) {
+					cancel("Exception writing to the response " + ex.toString());
+					throw ex;
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				try {
+					out.flush();
+				} catch(IOException ex) {
+					cancel("Exception flushing the response " + ex.toString());
+					throw ex;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Thrown by consumers when they notice that the request has been cancelled.
+	 */
+	static class RetrievalCancelledException extends IOException {
+		private static final long serialVersionUID = 6524283929337924616L;
+
+		RetrievalCancelledException(String msg) {
+			super(msg);
+		}
+	}
+}
@@ -6,6 +6,14 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -13,6 +21,7 @@ import org.apache.log4j.Logger;
 import org.epics.archiverappliance.Event;
 import org.epics.archiverappliance.StoragePlugin;
 import org.epics.archiverappliance.common.BasicContext;
+import org.epics.archiverappliance.common.LatencyHistogram;
 import org.epics.archiverappliance.common.TimeUtils;
 import org.epics.archiverappliance.config.ApplianceInfo;
 import org.epics.archiverappliance.config.ChannelArchiverDataServerPVInfo;
@@ -25,10 +34,157 @@ public class RetrievalState {
 	private static Logger logger = Logger.getLogger(RetrievalState.class.getName());
 	private ConfigService configService;
 	private int engineWriteThreadInSeconds = 60;
+	private static final AtomicInteger threadNumber = new AtomicInteger(1);
+	private static final AtomicInteger requestThreadNumber = new AtomicInteger(1);
+	/**
+	 * Used to fetch data for PVs from other appliances in the cluster in parallel.
+	 * Each task here is mostly waiting on a peer; so we use a cached thread pool.
+	 */
+	private ExecutorService clusterRetrievalExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r);
+			t.setName("ClusterRetrieval" + threadNumber.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	/**
+	 * Retrieval requests are processed asynchronously using this executor; this frees up the container threads.
+	 * This is bounded; once the queue is full, requests are rejected right away instead of piling up.
+	 */
+	private ThreadPoolExecutor retrievalRequestExecutor;
+	private int retrievalRequestTimeoutSeconds = 0;
+	private int clusterRetrievalConnectTimeoutSeconds = 10;
+	private int clusterRetrievalSocketTimeoutSeconds = 300;
+	private RetrievalAdmissionController admissionController;
+	/**
+	 * Time taken to process retrieval requests; these are used for the metrics.
+	 */
+	private final LatencyHistogram singlePVRequestLatency = new LatencyHistogram();
+	private final LatencyHistogram multiPVRequestLatency = new LatencyHistogram();
+	private final AtomicLong rejectedRequests = new AtomicLong(0);
 	
 	public RetrievalState(ConfigService configService) {
 		this.configService = configService;
 		this.engineWriteThreadInSeconds = Integer.parseInt(configService.getInstallationProperties().getProperty("org.epics.archiverappliance.config.PVTypeInfo.secondsToBuffer", "60")); 
+		int retrievalRequestThreads = Integer.parseInt(configService.getInstallationProperties().getProperty("org.epics.archiverappliance.retrieval.RetrievalRequestThreads", "32"));
+		int retrievalRequestQueueSize = Integer.parseInt(configService.getInstallationProperties().getProperty("org.epics.archiverappliance.retrieval.RetrievalRequestQueueSize", "256"));
+		this.retrievalRequestTimeoutSeconds = Integer.parseInt(configService.getInstallationProperties().getProperty("org.epics.archiverappliance.retrieval.RetrievalRequestTimeoutSeconds", "0"));
+		this.clusterRetrievalConnectTimeoutSeconds = Integer.parseInt(configService.getInstallationProperties().getProperty("org.epics.archiverappliance.retrieval.ClusterRetrievalConnectTimeoutSeconds", "10"));
+		this.clusterRetrievalSocketTimeoutSeconds = Integer.parseInt(configService.getInstallationProperties().getProperty("org.epics.archiverappliance.retrieval.ClusterRetrievalSocketTimeoutSeconds", "300"));
+		retrievalRequestExecutor = new ThreadPoolExecutor(retrievalRequestThreads, retrievalRequestThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(retrievalRequestQueueSize), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r);
+				t.setName("RetrievalRequest" + requestThreadNumber.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		retrievalRequestExecutor.allowCoreThreadTimeOut(true);
+		admissionController = new RetrievalAdmissionController(configService.getInstallationProperties());
+		logger.info("Processing retrieval requests using " + retrievalRequestThreads + " threads and a queue of size " + retrievalRequestQueueSize);
+		configService.addShutdownHook(new Runnable() {
+			@Override
+			public void run() {
+				clusterRetrievalExecutor.shutdown();
+				retrievalRequestExecutor.shutdownNow();
+			}
+		});
+	}
+	
+	/**
+	 * Executor used to process retrieval requests asynchronously.
+	 * @return
+	 */
+	public ExecutorService getRetrievalRequestExecutor() {
+		return retrievalRequestExecutor;
+	}
+	
+	/**
+	 * Admission control for retrieval requests based on the memory estimates from the post processors.
+	 * @return
+	 */
+	public RetrievalAdmissionController getAdmissionController() {
+		return admissionController;
+	}
+	
+	/**
+	 * Retrieval requests that take longer than this are cancelled. 0 implies that requests never time out.
+	 * @return
+	 */
+	public int getRetrievalRequestTimeoutSeconds() {
+		return retrievalRequestTimeoutSeconds;
+	}
+	
+	/**
+	 * Timeout for connecting to other appliances in the cluster when fetching data for PVs hosted on them.
+	 * @return
+	 */
+	public int getClusterRetrievalConnectTimeoutSeconds() {
+		return clusterRetrievalConnectTimeoutSeconds;
+	}
+	
+	/**
+	 * Timeout for other appliances in the cluster to send us data once we are reading their response.
+	 * @return
+	 */
+	public int getClusterRetrievalSocketTimeoutSeconds() {
+		return clusterRetrievalSocketTimeoutSeconds;
+	}
+	
+	/**
+	 * Time taken to process getData requests.
+	 * @return
+	 */
+	public LatencyHistogram getSinglePVRequestLatency() {
+		return singlePVRequestLatency;
+	}
+	
+	/**
+	 * Time taken to process getDataForPVs requests.
+	 * @return
+	 */
+	public LatencyHistogram getMultiPVRequestLatency() {
+		return multiPVRequestLatency;
+	}
+	
+	public void incrementRejectedRequests() {
+		rejectedRequests.incrementAndGet();
+	}
+	
+	/**
+	 * Number of requests rejected because the retrieval request executor was full.
+	 * @return
+	 */
+	public long getRejectedRequests() {
+		return rejectedRequests.get();
+	}
+	
+	/**
+	 * Retrieval requests that are waiting for a thread in the retrieval request executor.
+	 * @return
+	 */
+	public int getQueuedRequests() {
+		return retrievalRequestExecutor.getQueue().size();
+	}
+	
+	/**
+	 * Retrieval requests that are being processed by the retrieval request executor.
+	 * @return
+	 */
+	public int getActiveRequests() {
+		return retrievalRequestExecutor.getActiveCount();
+	}
+	
+	/**
+	 * Executor used to fetch data for PVs from other appliances in the cluster.
+	 * @return
+	 */
+	public ExecutorService getClusterRetrievalExecutor() {
+		return clusterRetrievalExecutor;
 	}
 
 	/**
@@ -1,16 +1,11 @@
 package org.epics.archiverappliance.retrieval.bpl;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -27,7 +22,6 @@ import org.epics.archiverappliance.utils.ui.MimeTypeConstants;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
-import org.json.simple.parser.JSONParser;
 
 /**
  * 
@@ -58,41 +52,29 @@ public class FilterArchivedPVs implements BPLAction {
 			return;
 		}
 		
-		// We pass on the request to the mgmt webapps in the cluster.
+		// We pass on the request to the mgmt webapps in the cluster in parallel; appliances that fail or do not respond in time are skipped.
 		List<String> filteredPVs = new LinkedList<String>(); 
 		LinkedList<String> mgmtURLs = getMgmtURLsInCluster(configService);
+		if(mgmtURLs == null) {
+			resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			return;
+		}
+		List<String> archivedPVsURLs = new ArrayList<String>();
 		for(String mgmtUrl : mgmtURLs) { 
-			URL retrievalMatchNamesURL = new URL(mgmtUrl + "/archivedPVsForThisAppliance");
-			HttpURLConnection conn = (HttpURLConnection) retrievalMatchNamesURL.openConnection();
-			conn.setRequestMethod("POST");
-	        conn.setRequestProperty("Content-Type", contentType);
-	        conn.setRequestProperty("Content-Length", String.valueOf(pvNamesBytes.length));
-			conn.setDoOutput(true);
-			try {
-				OutputStream os = conn.getOutputStream();
-				os.write(pvNamesBytes);
-				os.flush();
-				logger.debug("Made the call to the appliance " + retrievalMatchNamesURL);
-				
-				
-				BufferedReader reader = new BufferedReader(new InputStreamReader((conn.getInputStream()), StandardCharsets.UTF_8));
-				JSONParser parser=new JSONParser();
-				@SuppressWarnings("unchecked")
-				List<String> respJSONObj = (List<String>) parser.parse(reader);
-				filteredPVs.addAll(respJSONObj);
-				logger.debug("Done parsing response from  " + retrievalMatchNamesURL);
-		        
-		        os.close();
-		        reader.close();
-			} catch(Exception ex) { 
-				logger.error("Exception filtering names from " + retrievalMatchNamesURL, ex);
-			} 
-			finally { 
-		        conn.disconnect();				
+			archivedPVsURLs.add(mgmtUrl + "/archivedPVsForThisAppliance");
+		}
+		List<JSONArray> responses = GetUrlContent.postBytesAndGetContentsAsJSONArrays(archivedPVsURLs, contentType, pvNamesBytes);
+		for(int i = 0; i < responses.size(); i++) {
+			JSONArray response = responses.get(i);
+			if(response == null) {
+				logger.error("Did not get the filtered names from " + archivedPVsURLs.get(i));
+				continue;
+			}
+			for(Object pvName : response) {
+				filteredPVs.add((String) pvName);
 			}
 		}
 
-		
 		try (PrintWriter out = resp.getWriter()) {
 			out.println(JSONValue.toJSONString(filteredPVs));
 		} catch(Exception ex) {
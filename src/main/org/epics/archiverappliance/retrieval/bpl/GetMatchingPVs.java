@@ -13,6 +13,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.log4j.Logger;
 import org.epics.archiverappliance.common.BPLAction;
 import org.epics.archiverappliance.config.ConfigService;
+import org.epics.archiverappliance.config.PVNameIndex;
 import org.epics.archiverappliance.retrieval.mimeresponses.MimeResponse;
 import org.epics.archiverappliance.utils.ui.GetUrlContent;
 import org.epics.archiverappliance.utils.ui.MimeTypeConstants;
@@ -53,9 +54,7 @@ public class GetMatchingPVs implements BPLAction {
 		}
 		
 		if(req.getParameter("pv") != null) { 
-			nameToMatch = req.getParameter("pv");
-			nameToMatch = nameToMatch.replace("*", ".*");
-			nameToMatch = nameToMatch.replace("?", ".");
+			nameToMatch = PVNameIndex.globToRegex(req.getParameter("pv"));
 			logger.debug("Finding PV's for glob (converted to regex)" + nameToMatch);			
 		}
 		
@@ -9,14 +9,16 @@ package org.epics.archiverappliance.retrieval.bpl.reports;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.epics.archiverappliance.common.BPLAction;
 import org.epics.archiverappliance.config.ConfigService;
+import org.epics.archiverappliance.retrieval.RetrievalState;
 import org.epics.archiverappliance.utils.ui.MimeTypeConstants;
 import org.json.simple.JSONValue;
 
@@ -31,9 +33,23 @@ public class ApplianceMetricsDetails implements BPLAction {
 	public void execute(HttpServletRequest req, HttpServletResponse resp, ConfigService configService) throws IOException {
 		resp.setContentType(MimeTypeConstants.APPLICATION_JSON);
 		try (PrintWriter out = resp.getWriter()) {
-			LinkedList<HashMap<String, String>> ret = new LinkedList<HashMap<String, String>>();
+			LinkedList<Map<String, String>> ret = new LinkedList<Map<String, String>>();
+			RetrievalState retrievalState = configService.getRetrievalRuntimeState();
+			if(retrievalState != null) {
+				for(Map.Entry<String, String> metric : retrievalState.getAdmissionController().getMetrics().entrySet()) {
+					addDetailedStatus(ret, metric.getKey(), metric.getValue());
+				}
+			}
 			out.println(JSONValue.toJSONString(ret));
 		}
 	}
 
+	private static void addDetailedStatus(LinkedList<Map<String, String>> statuses, String name, String value) {
+		Map<String, String> obj = new LinkedHashMap<String, String>();
+		obj.put("name", name);
+		obj.put("value", value);
+		obj.put("source", "retrieval");
+		statuses.add(obj);
+	}
+
 }
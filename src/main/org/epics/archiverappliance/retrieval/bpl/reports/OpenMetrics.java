@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.retrieval.bpl.reports;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.epics.archiverappliance.common.BPLAction;
+import org.epics.archiverappliance.common.OpenMetricsWriter;
+import org.epics.archiverappliance.config.ConfigService;
+import org.epics.archiverappliance.config.NearCache;
+import org.epics.archiverappliance.config.pubsub.PartitionedEventBus;
+import org.epics.archiverappliance.retrieval.RetrievalState;
+
+/**
+ * Retrieval metrics in the Prometheus text format.
+ * @author mshankar
+ *
+ */
+public class OpenMetrics implements BPLAction {
+
+	@Override
+	public void execute(HttpServletRequest req, HttpServletResponse resp, ConfigService configService) throws IOException {
+		resp.setContentType(OpenMetricsWriter.CONTENT_TYPE);
+		RetrievalState retrievalState = configService.getRetrievalRuntimeState();
+		try (PrintWriter out = resp.getWriter()) {
+			OpenMetricsWriter metrics = new OpenMetricsWriter(out, "retrieval");
+			if(retrievalState != null) {
+				metrics.family("retrieval_request_seconds", "summary", "Time taken to process retrieval requests");
+				metrics.summary("retrieval_request_seconds", "request", "getData", retrievalState.getSinglePVRequestLatency());
+				metrics.summary("retrieval_request_seconds", "request", "getDataForPVs", retrievalState.getMultiPVRequestLatency());
+				metrics.gauge("retrieval_active_requests", "Retrieval requests being processed", retrievalState.getActiveRequests());
+				metrics.gauge("retrieval_queued_requests", "Retrieval requests waiting for a thread", retrievalState.getQueuedRequests());
+				metrics.counter("retrieval_rejected_requests_total", "Retrieval requests rejected because too many requests were being processed", retrievalState.getRejectedRequests());
+				retrievalState.getAdmissionController().writeOpenMetrics(metrics);
+			}
+			NearCache.writeOpenMetrics(metrics, configService.getNearCaches());
+			PartitionedEventBus.writeOpenMetrics(metrics, configService.getEventBus());
+			if(configService.getPubSubEventBatcher() != null) {
+				configService.getPubSubEventBatcher().writeOpenMetrics(metrics);
+			}
+			metrics.jvmMetrics();
+		}
+	}
+}
@@ -15,6 +15,7 @@ import org.epics.archiverappliance.EventStreamDesc;
 import org.epics.archiverappliance.common.TimeUtils;
 import org.epics.archiverappliance.config.ArchDBRTypes;
 import org.epics.archiverappliance.data.SampleValue;
+import org.epics.archiverappliance.data.VectorValue;
 import org.epics.archiverappliance.engine.membuf.ArrayListEventStream;
 import org.epics.archiverappliance.retrieval.RemotableEventStreamDesc;
 
@@ -144,8 +145,15 @@ public class MatlabResponse implements MimeResponse {
 				int i = 0;
 				for(Event e : dest) {
 					SampleValue sampleValue = e.getSampleValue();
-					for(int col = 0; col < sampleValue.getElementCount(); col++) {
-						ret.set(sampleValue.getValue(col).doubleValue(), i, col);
+					if(sampleValue instanceof VectorValue) {
+						VectorValue<?> vectorValue = (VectorValue<?>) sampleValue;
+						for(int col = 0; col < vectorValue.getElementCount(); col++) {
+							ret.set(vectorValue.getElementAsDouble(col), i, col);
+						}
+					} else {
+						for(int col = 0; col < sampleValue.getElementCount(); col++) {
+							ret.set(sampleValue.getValue(col).doubleValue(), i, col);
+						}
 					}
 					i++;
 				}
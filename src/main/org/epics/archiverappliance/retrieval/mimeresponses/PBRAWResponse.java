@@ -10,6 +10,8 @@ package org.epics.archiverappliance.retrieval.mimeresponses;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.sql.Timestamp;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -23,6 +25,7 @@ import org.epics.archiverappliance.EventStreamDesc;
 import org.epics.archiverappliance.common.TimeUtils;
 import org.epics.archiverappliance.retrieval.RemotableEventStreamDesc;
 import org.epics.archiverappliance.retrieval.RemotableOverRaw;
+import org.epics.archiverappliance.retrieval.RetrievalBulkStream;
 
 import edu.stanford.slac.archiverappliance.PB.EPICSEvent;
 import edu.stanford.slac.archiverappliance.PB.EPICSEvent.FieldValue;
@@ -98,6 +101,23 @@ public class PBRAWResponse implements MimeResponse {
 		eventsWritten++;
 	}
 
+	/**
+	 * Copy the serialized events from the stream as is into the response.
+	 * The header for this stream is written as part of swicthingToStream.
+	 * We only do this once we are past the events that the merge dedup consumer buffers; till then the year in the header may need to change on a per event basis.
+	 * @param strm
+	 * @return The number of bytes transferred or -1 if we cannot transfer this stream in bulk at this time.
+	 * @throws IOException
+	 */
+	public long transferInBulk(RetrievalBulkStream strm) throws IOException {
+		if(eventsWritten <= MERGEDEDUP_BUFFER_EVENTCOUNT) {
+			return -1;
+		}
+		// We do not close this channel as that would close the underlying output stream.
+		WritableByteChannel channel = Channels.newChannel(os);
+		return strm.transferTo(channel);
+	}
+
 	@Override
 	public void close() {
 		try { os.close(); os = null; } catch(Exception t) {} 
@@ -24,9 +24,11 @@ import org.epics.archiverappliance.data.VectorValue;
  *
  */
 public class SineGenerator implements SimulationValueGenerator {
+	private static final int NUM_COPIES = 10;
 	private int phasediffindegress = 0;
 	// By default, we let the simulation stream (or other containing stream) choose the number of samples it wants.
 	private int numberofsamples = -1;
+	private int elementCount = NUM_COPIES;
 	
 	public SineGenerator(int phasediffindegress) {
 		this.phasediffindegress = phasediffindegress;
@@ -37,13 +39,23 @@ public class SineGenerator implements SimulationValueGenerator {
 		this.numberofsamples = numberofsamples;
 	}
 
+	/**
+	 * @param phasediffindegress
+	 * @param numberofsamples
+	 * @param elementCount - The number of elements in the waveforms that we generate.
+	 */
+	public SineGenerator(int phasediffindegress, int numberofsamples, int elementCount) {
+		this.phasediffindegress = phasediffindegress;
+		this.numberofsamples = numberofsamples;
+		this.elementCount = elementCount;
+	}
+
 
 	@Override
 	public int getNumberOfSamples(ArchDBRTypes type) {
 		return numberofsamples;
 	}
 
-	private static final int NUM_COPIES = 10;
 	@Override
 	public SampleValue getSampleValue(ArchDBRTypes type, int secondsIntoYear) {
 		// We want to fit 360 degrees into an hour (3600 seconds) so each second is 1/10th of a degree. 
@@ -66,19 +78,19 @@ public class SineGenerator implements SimulationValueGenerator {
 		case DBR_SCALAR_DOUBLE:
 			return new ScalarValue<Double>(sineval);
 		case DBR_WAVEFORM_STRING:
-			return new VectorStringSampleValue(Collections.nCopies(NUM_COPIES, Double.toString(sineval)));
+			return new VectorStringSampleValue(Collections.nCopies(elementCount, Double.toString(sineval)));
 		case DBR_WAVEFORM_SHORT:
-			return new VectorValue<Short>(Collections.nCopies(NUM_COPIES,(short) (Short.MAX_VALUE*sineval)));
+			return new VectorValue<Short>(Collections.nCopies(elementCount,(short) (Short.MAX_VALUE*sineval)));
 		case DBR_WAVEFORM_FLOAT:
-			return new VectorValue<Float>(Collections.nCopies(NUM_COPIES,(float) sineval));
+			return new VectorValue<Float>(Collections.nCopies(elementCount,(float) sineval));
 		case DBR_WAVEFORM_ENUM:
-			return new VectorValue<Short>(Collections.nCopies(NUM_COPIES,(short) (Short.MAX_VALUE*sineval)));
+			return new VectorValue<Short>(Collections.nCopies(elementCount,(short) (Short.MAX_VALUE*sineval)));
 		case DBR_WAVEFORM_BYTE:
-			return new VectorValue<Byte>(Collections.nCopies(NUM_COPIES,(byte) (Byte.MAX_VALUE*sineval)));			
+			return new VectorValue<Byte>(Collections.nCopies(elementCount,(byte) (Byte.MAX_VALUE*sineval)));			
 		case DBR_WAVEFORM_INT:
-			return new VectorValue<Integer>(Collections.nCopies(NUM_COPIES, (int) (Integer.MAX_VALUE*sineval)));
+			return new VectorValue<Integer>(Collections.nCopies(elementCount, (int) (Integer.MAX_VALUE*sineval)));
 		case DBR_WAVEFORM_DOUBLE:
-			return new VectorValue<Double>(Collections.nCopies(NUM_COPIES, sineval));
+			return new VectorValue<Double>(Collections.nCopies(elementCount, sineval));
 		case DBR_V4_GENERIC_BYTES:
 			return new ScalarStringSampleValue(Double.toString(sineval));
 		default:
@@ -17,18 +17,30 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -53,6 +65,31 @@ public class GetUrlContent {
 	public static final String ARCHAPPL_COMPONENT = "ARCHAPPL_COMPONENT";
 	private static final Logger logger = Logger.getLogger(GetUrlContent.class);
 	
+	/**
+	 * When fanning out requests to multiple appliances/servers, we wait at most this long for each of them to respond. 
+	 * This is also the connect and socket timeout on each request; servers that do not respond in this time are skipped.
+	 */
+	private static int fanOutTimeoutSeconds = 60;
+	private static final AtomicInteger fanOutThreadNumber = new AtomicInteger(1);
+	private static ExecutorService fanOutExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r);
+			t.setName("GetUrlContentFanOut" + fanOutThreadNumber.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	/**
+	 * Set the timeout used when fanning out requests to multiple URLs.
+	 * This is set from archappl.properties at startup.
+	 * @param timeoutSeconds
+	 */
+	public static void setFanOutTimeoutSeconds(int timeoutSeconds) {
+		fanOutTimeoutSeconds = timeoutSeconds;
+	}
+	
 	/**
 	 * Small utility method for getting the content of an URL as a string
 	 * Returns null in case of an exception.
@@ -85,10 +122,17 @@ public class GetUrlContent {
 	 * @return
 	 */
 	public static JSONArray getURLContentAsJSONArray(String urlStr, boolean logErrors) {
+		return getURLContentAsJSONArray(urlStr, logErrors, 0);
+	}
+	
+	/**
+	 * @param timeoutSeconds - The connect and socket timeout for this request; 0 for no timeout.
+	 */
+	private static JSONArray getURLContentAsJSONArray(String urlStr, boolean logErrors, int timeoutSeconds) {
 		try {
 			logger.debug("Getting the contents of " + urlStr + " as a JSON array.");
 			JSONParser parser=new JSONParser();
-			try (InputStream is = getURLContentAsStream(urlStr)) {
+			try (InputStream is = getURLContentAsStream(urlStr, timeoutSeconds)) {
 				return (JSONArray) parser.parse(new InputStreamReader(is));
 			}
 		} catch (IOException ex) {
@@ -115,10 +159,17 @@ public class GetUrlContent {
 	 * @return
 	 */
 	public static JSONObject getURLContentAsJSONObject(String urlStr, boolean logErrors) {
+		return getURLContentAsJSONObject(urlStr, logErrors, 0);
+	}
+	
+	/**
+	 * @param timeoutSeconds - The connect and socket timeout for this request; 0 for no timeout.
+	 */
+	private static JSONObject getURLContentAsJSONObject(String urlStr, boolean logErrors, int timeoutSeconds) {
 		try {
 			logger.debug("Getting the contents of " + urlStr + " as a JSON object.");
 			JSONParser parser=new JSONParser();
-			try (InputStream is = getURLContentAsStream(urlStr)) {
+			try (InputStream is = getURLContentAsStream(urlStr, timeoutSeconds)) {
 				return (JSONObject) parser.parse(new InputStreamReader(is));
 			}
 		} catch (IOException ex) {
@@ -139,22 +190,13 @@ public class GetUrlContent {
 	@SuppressWarnings("unchecked")
 	public static JSONArray combineJSONArrays(List<String> urlStrs) {
 		JSONArray result = new JSONArray();
-		for(String urlStr : urlStrs) {
-			try {
-				logger.debug("Getting the contents of " + urlStr + " as a JSON array.");
-				JSONParser parser=new JSONParser();
-				try (InputStream is = getURLContentAsStream(urlStr)) {
-					JSONArray content = (JSONArray) parser.parse(new InputStreamReader(is));
-					if(content != null) {
-						result.addAll(content);
-					} else {
-						logger.debug(urlStr + " returned an empty array");
-					}
-				}
-			} catch (IOException ex) {
-				logger.error("Exception getting contents of internal URL " + urlStr, ex);
-			} catch (ParseException pex) {
-				logger.error("Parse exception getting contents of internal URL " + urlStr + " at " + pex.getPosition(), pex);
+		List<JSONArray> contents = getURLContentsAsJSONArrays(urlStrs);
+		for(int i = 0; i < urlStrs.size(); i++) {
+			JSONArray content = contents.get(i);
+			if(content != null) {
+				result.addAll(content);
+			} else {
+				logger.debug(urlStrs.get(i) + " returned an empty array");
 			}
 		}
 		return result;
@@ -170,29 +212,228 @@ public class GetUrlContent {
 	public static void combineJSONArraysAndPrintln(List<String> urlStrs, PrintWriter out) {
 		out.println("[");
 		boolean first = true;
+		List<JSONArray> contents = getURLContentsAsJSONArrays(urlStrs);
+		for(int i = 0; i < urlStrs.size(); i++) {
+			JSONArray content = contents.get(i);
+			if(content != null) {
+				for(Object obj : content) {
+					JSONObject jsonObj = (JSONObject) obj;
+					if(first) { first = false; } else { out.println(","); } 
+					out.print(JSONValue.toJSONString(jsonObj));
+				}
+			} else {
+				logger.debug(urlStrs.get(i) + " returned an empty array");
+			}
+		}
+		out.println("]");
+	}
+	
+	/**
+	 * Combine JSON arrays from multiple URL's in sequence and print them out as one JSON array.
+	 * Unlike combineJSONArraysAndPrintln, we do not hold the contents of the URL's in memory; the elements are copied to out as they are parsed.
+	 * The URL's are fetched one after the other; if we could not get the contents of an URL, we skip the rest of that URL's contents.
+	 * @param urlStrs
+	 * @param out
+	 * @return The number of elements printed.
+	 */
+	public static int streamJSONArraysAndPrintln(List<String> urlStrs, PrintWriter out) {
+		out.println("[");
+		int elementsPrinted = 0;
 		for(String urlStr : urlStrs) {
-			try {
-				logger.debug("Getting the contents of " + urlStr + " as a JSON array.");
-				JSONParser parser=new JSONParser();
-				try (InputStream is = getURLContentAsStream(urlStr)) {
-					JSONArray content = (JSONArray) parser.parse(new InputStreamReader(is));
-					if(content != null) {
-						for(Object obj : content) {
-							JSONObject jsonObj = (JSONObject) obj;
-							if(first) { first = false; } else { out.println(","); } 
-							out.print(JSONValue.toJSONString(jsonObj));
-						}
-					} else {
-						logger.debug(urlStr + " returned an empty array");
-					}
+			logger.debug("Streaming the contents of " + urlStr + " as a JSON array.");
+			try (JSONArrayStreamReader reader = new JSONArrayStreamReader(new InputStreamReader(new BufferedInputStream(getURLContentAsStream(urlStr)), "UTF-8"))) {
+				JSONObject jsonObj = reader.next();
+				while(jsonObj != null) {
+					if(elementsPrinted > 0) { out.println(","); }
+					out.print(JSONValue.toJSONString(jsonObj));
+					elementsPrinted++;
+					jsonObj = reader.next();
 				}
 			} catch (IOException ex) {
-				logger.error("Exception getting contents of internal URL " + urlStr, ex);
-			} catch (ParseException pex) {
-				logger.error("Parse exception getting contents of internal URL " + urlStr + " at " + pex.getPosition(), pex);
+				logger.error("Exception streaming contents of internal URL " + urlStr, ex);
 			}
 		}
 		out.println("]");
+		return elementsPrinted;
+	}
+	
+	/**
+	 * Get the contents of multiple URL's as JSON arrays.
+	 * The URL's are fetched in parallel; so the time taken is that of the slowest server and not the sum of all the servers.
+	 * The results are in the same order as the URL's; if we could not get the contents of an URL (or it did not respond in time), the result is null for that URL.
+	 * @param urlStrs
+	 * @return
+	 */
+	public static List<JSONArray> getURLContentsAsJSONArrays(List<String> urlStrs) {
+		List<Callable<JSONArray>> tasks = new ArrayList<Callable<JSONArray>>(urlStrs.size());
+		for(final String urlStr : urlStrs) {
+			tasks.add(new Callable<JSONArray>() {
+				@Override
+				public JSONArray call() throws Exception {
+					return getURLContentAsJSONArray(urlStr, true, fanOutTimeoutSeconds);
+				}
+			});
+		}
+		return fanOut(urlStrs, tasks);
+	}
+	
+	/**
+	 * Get the contents of multiple URL's as JSON objects.
+	 * The URL's are fetched in parallel; so the time taken is that of the slowest server and not the sum of all the servers.
+	 * The results are in the same order as the URL's; if we could not get the contents of an URL (or it did not respond in time), the result is null for that URL.
+	 * @param urlStrs
+	 * @return
+	 */
+	public static List<JSONObject> getURLContentsAsJSONObjects(List<String> urlStrs) {
+		List<Callable<JSONObject>> tasks = new ArrayList<Callable<JSONObject>>(urlStrs.size());
+		for(final String urlStr : urlStrs) {
+			tasks.add(new Callable<JSONObject>() {
+				@Override
+				public JSONObject call() throws Exception {
+					return getURLContentAsJSONObject(urlStr, true, fanOutTimeoutSeconds);
+				}
+			});
+		}
+		return fanOut(urlStrs, tasks);
+	}
+	
+	/**
+	 * POST a list of strings to each of multiple URL's; for example, the PVs for each appliance to that appliance's engine.
+	 * The POSTs are made in parallel; each one uses the fan out timeout as its connect and socket timeout.
+	 * The results are in the same order as the URL's; if a POST failed (or did not complete in time), the result is null for that URL.
+	 * @param urlStrs
+	 * @param paramName
+	 * @param paramsForURLs - The list of strings to POST to the URL at the same position in urlStrs.
+	 * @return
+	 */
+	public static List<JSONArray> postStringListsAndGetContentsAsJSONArrays(List<String> urlStrs, final String paramName, List<LinkedList<String>> paramsForURLs) {
+		List<Callable<JSONArray>> tasks = new ArrayList<Callable<JSONArray>>(urlStrs.size());
+		for(int i = 0; i < urlStrs.size(); i++) {
+			final String urlStr = urlStrs.get(i);
+			final LinkedList<String> params = paramsForURLs.get(i);
+			tasks.add(new Callable<JSONArray>() {
+				@Override
+				public JSONArray call() throws Exception {
+					return postStringListAndGetContentAsJSONArray(urlStr, paramName, params, fanOutTimeoutSeconds, fanOutTimeoutSeconds);
+				}
+			});
+		}
+		return fanOut(urlStrs, tasks);
+	}
+	
+	/**
+	 * POST the same body to multiple URL's and get the responses as JSON arrays.
+	 * The POSTs are made in parallel; each one uses the fan out timeout as its connect and socket timeout.
+	 * The results are in the same order as the URL's; if a POST failed (or did not complete in time), the result is null for that URL.
+	 * @param urlStrs
+	 * @param contentType - The content type of the body; if null, we use application/x-www-form-urlencoded
+	 * @param body
+	 * @return
+	 */
+	public static List<JSONArray> postBytesAndGetContentsAsJSONArrays(List<String> urlStrs, final String contentType, final byte[] body) {
+		List<Callable<JSONArray>> tasks = new ArrayList<Callable<JSONArray>>(urlStrs.size());
+		for(final String urlStr : urlStrs) {
+			tasks.add(new Callable<JSONArray>() {
+				@Override
+				public JSONArray call() throws Exception {
+					return postBytesAndGetContentAsJSONArray(urlStr, contentType, body, fanOutTimeoutSeconds);
+				}
+			});
+		}
+		return fanOut(urlStrs, tasks);
+	}
+	
+	private static JSONArray postBytesAndGetContentAsJSONArray(String url, String contentType, byte[] body, int timeoutSeconds) throws IOException {
+		try(CloseableHttpClient httpclient = createHttpClient(timeoutSeconds)) {
+			HttpPost postMethod = new HttpPost(url);
+			postMethod.addHeader(ARCHAPPL_COMPONENT, "true");
+			postMethod.addHeader("Connection", "close"); // https://www.nuxeo.com/blog/using-httpclient-properly-avoid-closewait-tcp-connections/
+			postMethod.setEntity(new ByteArrayEntity(body, contentType != null ? ContentType.parse(contentType) : ContentType.APPLICATION_FORM_URLENCODED));
+			logger.debug("About to make a POST with " + url);
+			HttpResponse response = httpclient.execute(postMethod);
+			if(response.getStatusLine().getStatusCode() != 200) {
+				throw new IOException("Invalid status calling " + url + ". Got " + response.getStatusLine().getStatusCode() + response.getStatusLine().getReasonPhrase());
+			}
+			HttpEntity entity = response.getEntity();
+			if (entity == null) {
+				throw new IOException("HTTP response did not have an entity associated with it");
+			}
+			try(InputStream is = entity.getContent()) {
+				return (JSONArray) new JSONParser().parse(new InputStreamReader(is, "UTF-8"));
+			} catch(ParseException ex) {
+				throw new IOException("Parse exception getting contents of " + url + " at " + ex.getPosition(), ex);
+			}
+		}
+	}
+	
+	/**
+	 * Execute the tasks in parallel and wait for each of them to complete within the fan out timeout of when it started.
+	 * The requests themselves also time out; cancelling a task does not interrupt a blocked socket read.
+	 * We return partial results; tasks that fail or do not complete in time have a null result.
+	 * @param urlStrs - Used for logging
+	 * @param tasks
+	 * @return
+	 */
+	private static <T> List<T> fanOut(List<String> urlStrs, List<Callable<T>> tasks) {
+		List<T> results = new ArrayList<T>(tasks.size());
+		if(tasks.size() == 1) {
+			// No point in using another thread.
+			try {
+				results.add(tasks.get(0).call());
+			} catch(Exception ex) {
+				logger.error("Exception getting contents of internal URL " + urlStrs.get(0), ex);
+				results.add(null);
+			}
+			return results;
+		}
+		
+		List<FanOutTask<T>> fanOutTasks = new ArrayList<FanOutTask<T>>(tasks.size());
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		for(Callable<T> task : tasks) {
+			FanOutTask<T> fanOutTask = new FanOutTask<T>(task);
+			fanOutTasks.add(fanOutTask);
+			futures.add(fanOutExecutor.submit(fanOutTask));
+		}
+		for(int i = 0; i < futures.size(); i++) {
+			Future<T> future = futures.get(i);
+			try {
+				// Each server gets the full timeout from when its request started; a task that has not started yet gets the full timeout from now.
+				long startMs = fanOutTasks.get(i).startMs;
+				if(startMs == 0) startMs = System.currentTimeMillis();
+				long remainingMs = Math.max(startMs + fanOutTimeoutSeconds*1000L - System.currentTimeMillis(), 0L);
+				results.add(future.get(remainingMs, TimeUnit.MILLISECONDS));
+			} catch(TimeoutException ex) {
+				logger.error("Timeout getting contents of internal URL " + urlStrs.get(i) + " after " + fanOutTimeoutSeconds + " seconds; skipping this server.");
+				future.cancel(true);
+				results.add(null);
+			} catch(ExecutionException ex) {
+				logger.error("Exception getting contents of internal URL " + urlStrs.get(i), ex.getCause());
+				results.add(null);
+			} catch(InterruptedException ex) {
+				logger.error("Interrupted getting contents of internal URL " + urlStrs.get(i), ex);
+				future.cancel(true);
+				results.add(null);
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Records when a fan out task started executing.
+	 */
+	private static class FanOutTask<T> implements Callable<T> {
+		private final Callable<T> task;
+		volatile long startMs = 0;
+		
+		FanOutTask(Callable<T> task) {
+			this.task = task;
+		}
+		
+		@Override
+		public T call() throws Exception {
+			startMs = System.currentTimeMillis();
+			return task.call();
+		}
 	}
 	
 	/**
@@ -328,6 +569,42 @@ public class GetUrlContent {
 	 * @throws IOException
 	 */
 	public static JSONArray postStringListAndGetContentAsJSONArray(String url, String paramName, LinkedList<String> params) throws IOException {
+		return postStringListAndGetContentAsJSONArray(url, paramName, params, HttpClients.createDefault());
+	}
+
+	/**
+	 * Same as {@link #postStringListAndGetContentAsJSONArray(String, String, LinkedList)} but give up if we cannot connect or the server stops sending us data for these many seconds.
+	 * @param url
+	 * @param paramName
+	 * @param params
+	 * @param connectTimeoutSeconds
+	 * @param socketTimeoutSeconds
+	 * @return
+	 * @throws IOException - This includes timeouts.
+	 */
+	public static JSONArray postStringListAndGetContentAsJSONArray(String url, String paramName, LinkedList<String> params, int connectTimeoutSeconds, int socketTimeoutSeconds) throws IOException {
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(connectTimeoutSeconds*1000)
+				.setConnectionRequestTimeout(connectTimeoutSeconds*1000)
+				.setSocketTimeout(socketTimeoutSeconds*1000)
+				.build();
+		return postStringListAndGetContentAsJSONArray(url, paramName, params, HttpClients.custom().setDefaultRequestConfig(requestConfig).build());
+	}
+
+	/**
+	 * @param timeoutSeconds - The connect and socket timeout for requests made using this client; 0 for no timeout.
+	 */
+	private static CloseableHttpClient createHttpClient(int timeoutSeconds) {
+		if(timeoutSeconds <= 0) return HttpClients.createDefault();
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(timeoutSeconds*1000)
+				.setConnectionRequestTimeout(timeoutSeconds*1000)
+				.setSocketTimeout(timeoutSeconds*1000)
+				.build();
+		return HttpClients.custom().setDefaultRequestConfig(requestConfig).build();
+	}
+
+	private static JSONArray postStringListAndGetContentAsJSONArray(String url, String paramName, LinkedList<String> params, CloseableHttpClient httpclient) throws IOException {
 		StringWriter buf = new StringWriter();
 		buf.append(paramName);
 		buf.append("=");
@@ -337,26 +614,29 @@ public class GetUrlContent {
 			buf.append(param);
 		}
 		
-		CloseableHttpClient httpclient = HttpClients.createDefault();
-		HttpPost postMethod = new HttpPost(url);
-		postMethod.addHeader("Content-Type", MimeTypeConstants.APPLICATION_FORM_URLENCODED);
-		postMethod.addHeader("Connection", "close"); // https://www.nuxeo.com/blog/using-httpclient-properly-avoid-closewait-tcp-connections/
-		StringEntity archiverValues = new StringEntity(buf.toString(), ContentType.APPLICATION_FORM_URLENCODED);
-		postMethod.setEntity(archiverValues);
-		if(logger.isDebugEnabled()) {
-			logger.debug("About to make a POST with " + url);
-		}
-		HttpResponse response = httpclient.execute(postMethod);
-		HttpEntity entity = response.getEntity();
-		if (entity != null) {
-			logger.debug("Obtained a HTTP entity of length " + entity.getContentLength());
-			// ArchiverValuesHandler takes over the burden of closing the input stream.
-			try(InputStream is = entity.getContent()) {
-				JSONArray retval = (JSONArray) JSONValue.parse(new InputStreamReader(is));
-				return retval;
+		try {
+			HttpPost postMethod = new HttpPost(url);
+			postMethod.addHeader("Content-Type", MimeTypeConstants.APPLICATION_FORM_URLENCODED);
+			postMethod.addHeader("Connection", "close"); // https://www.nuxeo.com/blog/using-httpclient-properly-avoid-closewait-tcp-connections/
+			StringEntity archiverValues = new StringEntity(buf.toString(), ContentType.APPLICATION_FORM_URLENCODED);
+			postMethod.setEntity(archiverValues);
+			if(logger.isDebugEnabled()) {
+				logger.debug("About to make a POST with " + url);
 			}
-		} else {
-			throw new IOException("HTTP response did not have an entity associated with it");
+			HttpResponse response = httpclient.execute(postMethod);
+			HttpEntity entity = response.getEntity();
+			if (entity != null) {
+				logger.debug("Obtained a HTTP entity of length " + entity.getContentLength());
+				// ArchiverValuesHandler takes over the burden of closing the input stream.
+				try(InputStream is = entity.getContent()) {
+					JSONArray retval = (JSONArray) JSONValue.parse(new InputStreamReader(is));
+					return retval;
+				}
+			} else {
+				throw new IOException("HTTP response did not have an entity associated with it");
+			}
+		} finally {
+			httpclient.close();
 		}
 	}
 
@@ -382,7 +662,14 @@ public class GetUrlContent {
 	
 	
 	private static InputStream getURLContentAsStream(String serverURL) throws IOException {
-		CloseableHttpClient httpclient = HttpClients.createDefault();
+		return getURLContentAsStream(serverURL, 0);
+	}
+	
+	/**
+	 * @param timeoutSeconds - The connect and socket timeout for this request; 0 for no timeout.
+	 */
+	private static InputStream getURLContentAsStream(String serverURL, int timeoutSeconds) throws IOException {
+		CloseableHttpClient httpclient = createHttpClient(timeoutSeconds);
 		HttpGet getMethod = new HttpGet(serverURL);
 		getMethod.addHeader("Connection", "close"); // https://www.nuxeo.com/blog/using-httpclient-properly-avoid-closewait-tcp-connections/
 		getMethod.addHeader(ARCHAPPL_COMPONENT, "true");
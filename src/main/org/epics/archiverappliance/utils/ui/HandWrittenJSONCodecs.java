@@ -0,0 +1,412 @@
+package org.epics.archiverappliance.utils.ui;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.epics.archiverappliance.common.ProcessMetrics.ProcessMetric;
+import org.epics.archiverappliance.common.TimeUtils;
+import org.epics.archiverappliance.config.ApplianceAggregateInfo;
+import org.epics.archiverappliance.config.ApplianceInfo;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.config.MetaInfo;
+import org.epics.archiverappliance.config.PVTypeInfo;
+import org.epics.archiverappliance.config.UserSpecifiedSamplingParams;
+import org.epics.archiverappliance.mgmt.policy.PolicyConfig.SamplingMethod;
+import org.json.simple.JSONArray;
+
+/**
+ * Hand-written property accessors for PVTypeInfo, UserSpecifiedSamplingParams, ApplianceAggregateInfo, MetaInfo and the beans in the reports (ApplianceInfo and ProcessMetric).
+ * These are encoded and decoded on startup, on every persistence write, when exporting/importing the configuration, in the cluster BPLs and in the pubsub events.
+ * ApplianceInfo and ProcessMetric are only encoded and have readers only.
+ * JSONEncoder and JSONDecoder use these instead of Method.invoke; the JSON is the same as that for the reflective accessors.
+ * Properties that are not listed here fall back to reflection; so please add new properties of these classes here as well.
+ * @author mshankar
+ *
+ */
+class HandWrittenJSONCodecs {
+	static final HashSet<String> PVTYPEINFO_PROPERTIES = new HashSet<String>(Arrays.asList(
+			"DBRType", "applianceIdentity", "archiveFields", "chunkKey", "computedBytesPerEvent", "computedEventRate", "computedStorageRate",
+			"controllingPV", "creationTime", "dataStores", "elementCount", "extraFields", "hasReducedDataSet", "hostName",
+			"lowerAlarmLimit", "lowerCtrlLimit", "lowerDisplayLimit", "lowerWarningLimit", "modificationTime", "paused", "policyName",
+			"precision", "pvName", "samplingMethod", "samplingPeriod", "scalar", "units",
+			"upperAlarmLimit", "upperCtrlLimit", "upperDisplayLimit", "upperWarningLimit", "useDBEProperties", "usePVAccess", "userSpecifiedEventRate"));
+
+	static final HashSet<String> USERSPECIFIEDSAMPLINGPARAMS_PROPERTIES = new HashSet<String>(Arrays.asList(
+			"aliases", "archiveFields", "controllingPV", "policyName", "skipAliasCheck", "skipCapacityPlanning", "usePVAccess",
+			"userOverrideParams", "userSpecifedSamplingPeriod", "userSpecifedsamplingMethod"));
+
+	static final HashSet<String> APPLIANCEAGGREGATEINFO_PROPERTIES = new HashSet<String>(Arrays.asList(
+			"totalEventRate", "totalPVCount", "totalStorageImpact", "totalStorageRate"));
+
+	static final HashSet<String> METAINFO_PROPERTIES = new HashSet<String>(Arrays.asList(
+			"aliasName", "archDBRTypes", "count", "eventCount", "eventRate", "hostName", "label",
+			"loweCtrlLimit", "lowerAlarmLimit", "lowerDisplayLimit", "lowerWarningLimit", "otherMetaInfo", "precision", "second",
+			"startTime", "storageRate", "storageSize", "unit", "upperAlarmLimit", "upperCtrlLimit", "upperDisplayLimit", "upperWarningLimit", "vector"));
+
+	static final HashSet<String> APPLIANCEINFO_PROPERTIES = new HashSet<String>(Arrays.asList(
+			"clusterInetPort", "dataRetrievalURL", "engineURL", "etlURL", "identity", "mgmtURL", "retrievalURL"));
+
+	static final HashSet<String> PROCESSMETRIC_PROPERTIES = new HashSet<String>(Arrays.asList(
+			"heapUsedPercent", "systemLoadAverage", "timeInEpochSeconds"));
+
+	/**
+	 * @return The hand-written reader for this property; null if we do not have one.
+	 */
+	static JSONEncoder.PropertyReader getReader(Class<?> clazz, String propertyName) {
+		if(clazz.equals(PVTypeInfo.class) && PVTYPEINFO_PROPERTIES.contains(propertyName)) {
+			return new PVTypeInfoReader(propertyName);
+		} else if(clazz.equals(UserSpecifiedSamplingParams.class) && USERSPECIFIEDSAMPLINGPARAMS_PROPERTIES.contains(propertyName)) {
+			return new UserSpecifiedSamplingParamsReader(propertyName);
+		} else if(clazz.equals(ApplianceAggregateInfo.class) && APPLIANCEAGGREGATEINFO_PROPERTIES.contains(propertyName)) {
+			return new ApplianceAggregateInfoReader(propertyName);
+		} else if(clazz.equals(MetaInfo.class) && METAINFO_PROPERTIES.contains(propertyName)) {
+			return new MetaInfoReader(propertyName);
+		} else if(clazz.equals(ApplianceInfo.class) && APPLIANCEINFO_PROPERTIES.contains(propertyName)) {
+			return new ApplianceInfoReader(propertyName);
+		} else if(clazz.equals(ProcessMetric.class) && PROCESSMETRIC_PROPERTIES.contains(propertyName)) {
+			return new ProcessMetricReader(propertyName);
+		}
+		return null;
+	}
+
+	/**
+	 * @return The hand-written writer for this property; null if we do not have one.
+	 */
+	static JSONDecoder.PropertyWriter getWriter(Class<?> clazz, String propertyName) {
+		if(clazz.equals(PVTypeInfo.class) && PVTYPEINFO_PROPERTIES.contains(propertyName)) {
+			return new PVTypeInfoWriter(propertyName);
+		} else if(clazz.equals(UserSpecifiedSamplingParams.class) && USERSPECIFIEDSAMPLINGPARAMS_PROPERTIES.contains(propertyName)) {
+			return new UserSpecifiedSamplingParamsWriter(propertyName);
+		} else if(clazz.equals(ApplianceAggregateInfo.class) && APPLIANCEAGGREGATEINFO_PROPERTIES.contains(propertyName)) {
+			return new ApplianceAggregateInfoWriter(propertyName);
+		} else if(clazz.equals(MetaInfo.class) && METAINFO_PROPERTIES.contains(propertyName)) {
+			return new MetaInfoWriter(propertyName);
+		}
+		return null;
+	}
+
+	private static class PVTypeInfoReader implements JSONEncoder.PropertyReader {
+		private final String propertyName;
+
+		PVTypeInfoReader(String propertyName) {
+			this.propertyName = propertyName;
+		}
+
+		@Override
+		public Object read(Object obj) {
+			PVTypeInfo typeInfo = (PVTypeInfo) obj;
+			switch(propertyName) {
+			case "DBRType": return typeInfo.getDBRType();
+			case "applianceIdentity": return typeInfo.getApplianceIdentity();
+			case "archiveFields": return typeInfo.getArchiveFields();
+			case "chunkKey": return typeInfo.getChunkKey();
+			case "computedBytesPerEvent": return typeInfo.getComputedBytesPerEvent();
+			case "computedEventRate": return typeInfo.getComputedEventRate();
+			case "computedStorageRate": return typeInfo.getComputedStorageRate();
+			case "controllingPV": return typeInfo.getControllingPV();
+			case "creationTime": return typeInfo.getCreationTime();
+			case "dataStores": return typeInfo.getDataStores();
+			case "elementCount": return typeInfo.getElementCount();
+			case "extraFields": return typeInfo.getExtraFields();
+			case "hasReducedDataSet": return typeInfo.isHasReducedDataSet();
+			case "hostName": return typeInfo.getHostName();
+			case "lowerAlarmLimit": return typeInfo.getLowerAlarmLimit();
+			case "lowerCtrlLimit": return typeInfo.getLowerCtrlLimit();
+			case "lowerDisplayLimit": return typeInfo.getLowerDisplayLimit();
+			case "lowerWarningLimit": return typeInfo.getLowerWarningLimit();
+			case "modificationTime": return typeInfo.getModificationTime();
+			case "paused": return typeInfo.isPaused();
+			case "policyName": return typeInfo.getPolicyName();
+			case "precision": return typeInfo.getPrecision();
+			case "pvName": return typeInfo.getPvName();
+			case "samplingMethod": return typeInfo.getSamplingMethod();
+			case "samplingPeriod": return typeInfo.getSamplingPeriod();
+			case "scalar": return typeInfo.isScalar();
+			case "units": return typeInfo.getUnits();
+			case "upperAlarmLimit": return typeInfo.getUpperAlarmLimit();
+			case "upperCtrlLimit": return typeInfo.getUpperCtrlLimit();
+			case "upperDisplayLimit": return typeInfo.getUpperDisplayLimit();
+			case "upperWarningLimit": return typeInfo.getUpperWarningLimit();
+			case "useDBEProperties": return typeInfo.isUseDBEProperties();
+			case "usePVAccess": return typeInfo.isUsePVAccess();
+			case "userSpecifiedEventRate": return typeInfo.getUserSpecifiedEventRate();
+			default: throw new IllegalArgumentException("No hand-written reader for PVTypeInfo property " + propertyName);
+			}
+		}
+	}
+
+	private static class PVTypeInfoWriter implements JSONDecoder.PropertyWriter {
+		private final String propertyName;
+
+		PVTypeInfoWriter(String propertyName) {
+			this.propertyName = propertyName;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public void write(Object obj, Object val) {
+			PVTypeInfo typeInfo = (PVTypeInfo) obj;
+			switch(propertyName) {
+			case "DBRType": typeInfo.setDBRType(ArchDBRTypes.valueOf((String) val)); break;
+			case "applianceIdentity": typeInfo.setApplianceIdentity((String) val); break;
+			case "archiveFields": typeInfo.setArchiveFields(toStringArray(val)); break;
+			case "chunkKey": typeInfo.setChunkKey((String) val); break;
+			case "computedBytesPerEvent": typeInfo.setComputedBytesPerEvent(Integer.parseInt((String) val)); break;
+			case "computedEventRate": typeInfo.setComputedEventRate(Float.parseFloat((String) val)); break;
+			case "computedStorageRate": typeInfo.setComputedStorageRate(Float.parseFloat((String) val)); break;
+			case "controllingPV": typeInfo.setControllingPV((String) val); break;
+			case "creationTime": typeInfo.setCreationTime(TimeUtils.convertFromISO8601String((String) val)); break;
+			case "dataStores": typeInfo.setDataStores(toStringArray(val)); break;
+			case "elementCount": typeInfo.setElementCount(Integer.parseInt((String) val)); break;
+			case "extraFields": typeInfo.setExtraFields((HashMap<String, String>) val); break;
+			case "hasReducedDataSet": typeInfo.setHasReducedDataSet(Boolean.parseBoolean((String) val)); break;
+			case "hostName": typeInfo.setHostName((String) val); break;
+			case "lowerAlarmLimit": typeInfo.setLowerAlarmLimit(Double.valueOf((String) val)); break;
+			case "lowerCtrlLimit": typeInfo.setLowerCtrlLimit(Double.valueOf((String) val)); break;
+			case "lowerDisplayLimit": typeInfo.setLowerDisplayLimit(Double.valueOf((String) val)); break;
+			case "lowerWarningLimit": typeInfo.setLowerWarningLimit(Double.valueOf((String) val)); break;
+			case "modificationTime": typeInfo.setModificationTime(TimeUtils.convertFromISO8601String((String) val)); break;
+			case "paused": typeInfo.setPaused(Boolean.parseBoolean((String) val)); break;
+			case "policyName": typeInfo.setPolicyName((String) val); break;
+			case "precision": typeInfo.setPrecision(Double.valueOf((String) val)); break;
+			case "pvName": typeInfo.setPvName((String) val); break;
+			case "samplingMethod": typeInfo.setSamplingMethod(SamplingMethod.valueOf((String) val)); break;
+			case "samplingPeriod": typeInfo.setSamplingPeriod(Float.parseFloat((String) val)); break;
+			case "scalar": typeInfo.setScalar(Boolean.parseBoolean((String) val)); break;
+			case "units": typeInfo.setUnits((String) val); break;
+			case "upperAlarmLimit": typeInfo.setUpperAlarmLimit(Double.valueOf((String) val)); break;
+			case "upperCtrlLimit": typeInfo.setUpperCtrlLimit(Double.valueOf((String) val)); break;
+			case "upperDisplayLimit": typeInfo.setUpperDisplayLimit(Double.valueOf((String) val)); break;
+			case "upperWarningLimit": typeInfo.setUpperWarningLimit(Double.valueOf((String) val)); break;
+			case "useDBEProperties": typeInfo.setUseDBEProperties(Boolean.parseBoolean((String) val)); break;
+			case "usePVAccess": typeInfo.setUsePVAccess(Boolean.parseBoolean((String) val)); break;
+			case "userSpecifiedEventRate": typeInfo.setUserSpecifiedEventRate(Float.parseFloat((String) val)); break;
+			default: throw new IllegalArgumentException("No hand-written writer for PVTypeInfo property " + propertyName);
+			}
+		}
+	}
+
+	private static class UserSpecifiedSamplingParamsReader implements JSONEncoder.PropertyReader {
+		private final String propertyName;
+
+		UserSpecifiedSamplingParamsReader(String propertyName) {
+			this.propertyName = propertyName;
+		}
+
+		@Override
+		public Object read(Object obj) {
+			UserSpecifiedSamplingParams params = (UserSpecifiedSamplingParams) obj;
+			switch(propertyName) {
+			case "aliases": return params.getAliases();
+			case "archiveFields": return params.getArchiveFields();
+			case "controllingPV": return params.getControllingPV();
+			case "policyName": return params.getPolicyName();
+			case "skipAliasCheck": return params.isSkipAliasCheck();
+			case "skipCapacityPlanning": return params.isSkipCapacityPlanning();
+			case "usePVAccess": return params.isUsePVAccess();
+			case "userOverrideParams": return params.isUserOverrideParams();
+			case "userSpecifedSamplingPeriod": return params.getUserSpecifedSamplingPeriod();
+			case "userSpecifedsamplingMethod": return params.getUserSpecifedsamplingMethod();
+			default: throw new IllegalArgumentException("No hand-written reader for UserSpecifiedSamplingParams property " + propertyName);
+			}
+		}
+	}
+
+	private static class UserSpecifiedSamplingParamsWriter implements JSONDecoder.PropertyWriter {
+		private final String propertyName;
+
+		UserSpecifiedSamplingParamsWriter(String propertyName) {
+			this.propertyName = propertyName;
+		}
+
+		@Override
+		public void write(Object obj, Object val) {
+			UserSpecifiedSamplingParams params = (UserSpecifiedSamplingParams) obj;
+			switch(propertyName) {
+			case "aliases": params.setAliases(toStringArray(val)); break;
+			case "archiveFields": params.setArchiveFields(toStringArray(val)); break;
+			case "controllingPV": params.setControllingPV((String) val); break;
+			case "policyName": params.setPolicyName((String) val); break;
+			case "skipAliasCheck": params.setSkipAliasCheck(Boolean.parseBoolean((String) val)); break;
+			case "skipCapacityPlanning": params.setSkipCapacityPlanning(Boolean.parseBoolean((String) val)); break;
+			case "usePVAccess": params.setUsePVAccess(Boolean.parseBoolean((String) val)); break;
+			case "userOverrideParams": params.setUserOverrideParams(Boolean.parseBoolean((String) val)); break;
+			case "userSpecifedSamplingPeriod": params.setUserSpecifedSamplingPeriod(Float.parseFloat((String) val)); break;
+			case "userSpecifedsamplingMethod": params.setUserSpecifedsamplingMethod(SamplingMethod.valueOf((String) val)); break;
+			default: throw new IllegalArgumentException("No hand-written writer for UserSpecifiedSamplingParams property " + propertyName);
+			}
+		}
+	}
+
+	private static class ApplianceAggregateInfoReader implements JSONEncoder.PropertyReader {
+		private final String propertyName;
+
+		ApplianceAggregateInfoReader(String propertyName) {
+			this.propertyName = propertyName;
+		}
+
+		@Override
+		public Object read(Object obj) {
+			ApplianceAggregateInfo aggregateInfo = (ApplianceAggregateInfo) obj;
+			switch(propertyName) {
+			case "totalEventRate": return aggregateInfo.getTotalEventRate();
+			case "totalPVCount": return aggregateInfo.getTotalPVCount();
+			case "totalStorageImpact": return aggregateInfo.getTotalStorageImpact();
+			case "totalStorageRate": return aggregateInfo.getTotalStorageRate();
+			default: throw new IllegalArgumentException("No hand-written reader for ApplianceAggregateInfo property " + propertyName);
+			}
+		}
+	}
+
+	private static class ApplianceAggregateInfoWriter implements JSONDecoder.PropertyWriter {
+		private final String propertyName;
+
+		ApplianceAggregateInfoWriter(String propertyName) {
+			this.propertyName = propertyName;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public void write(Object obj, Object val) {
+			ApplianceAggregateInfo aggregateInfo = (ApplianceAggregateInfo) obj;
+			switch(propertyName) {
+			case "totalEventRate": aggregateInfo.setTotalEventRate(Double.parseDouble((String) val)); break;
+			case "totalPVCount": aggregateInfo.setTotalPVCount(Double.parseDouble((String) val)); break;
+			case "totalStorageImpact": aggregateInfo.setTotalStorageImpact((HashMap<String, String>) val); break;
+			case "totalStorageRate": aggregateInfo.setTotalStorageRate(Double.parseDouble((String) val)); break;
+			default: throw new IllegalArgumentException("No hand-written writer for ApplianceAggregateInfo property " + propertyName);
+			}
+		}
+	}
+
+	private static class MetaInfoReader implements JSONEncoder.PropertyReader {
+		private final String propertyName;
+
+		MetaInfoReader(String propertyName) {
+			this.propertyName = propertyName;
+		}
+
+		@Override
+		public Object read(Object obj) {
+			MetaInfo metaInfo = (MetaInfo) obj;
+			switch(propertyName) {
+			case "aliasName": return metaInfo.getAliasName();
+			case "archDBRTypes": return metaInfo.getArchDBRTypes();
+			case "count": return metaInfo.getCount();
+			case "eventCount": return metaInfo.getEventCount();
+			case "eventRate": return metaInfo.getEventRate();
+			case "hostName": return metaInfo.getHostName();
+			case "label": return metaInfo.getLabel();
+			case "loweCtrlLimit": return metaInfo.getLoweCtrlLimit();
+			case "lowerAlarmLimit": return metaInfo.getLowerAlarmLimit();
+			case "lowerDisplayLimit": return metaInfo.getLowerDisplayLimit();
+			case "lowerWarningLimit": return metaInfo.getLowerWarningLimit();
+			case "otherMetaInfo": return metaInfo.getOtherMetaInfo();
+			case "precision": return metaInfo.getPrecision();
+			case "second": return metaInfo.getSecond();
+			case "startTime": return metaInfo.getStartTime();
+			case "storageRate": return metaInfo.getStorageRate();
+			case "storageSize": return metaInfo.getStorageSize();
+			case "unit": return metaInfo.getUnit();
+			case "upperAlarmLimit": return metaInfo.getUpperAlarmLimit();
+			case "upperCtrlLimit": return metaInfo.getUpperCtrlLimit();
+			case "upperDisplayLimit": return metaInfo.getUpperDisplayLimit();
+			case "upperWarningLimit": return metaInfo.getUpperWarningLimit();
+			case "vector": return metaInfo.isVector();
+			default: throw new IllegalArgumentException("No hand-written reader for MetaInfo property " + propertyName);
+			}
+		}
+	}
+
+	private static class MetaInfoWriter implements JSONDecoder.PropertyWriter {
+		private final String propertyName;
+
+		MetaInfoWriter(String propertyName) {
+			this.propertyName = propertyName;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public void write(Object obj, Object val) {
+			MetaInfo metaInfo = (MetaInfo) obj;
+			switch(propertyName) {
+			case "aliasName": metaInfo.setAliasName((String) val); break;
+			case "archDBRTypes": metaInfo.setArchDBRTypes(ArchDBRTypes.valueOf((String) val)); break;
+			case "count": metaInfo.setCount(Integer.parseInt((String) val)); break;
+			case "eventCount": metaInfo.setEventCount(Long.parseLong((String) val)); break;
+			case "eventRate": metaInfo.setEventRate(Double.parseDouble((String) val)); break;
+			case "hostName": metaInfo.setHostName((String) val); break;
+			case "label": metaInfo.setLabel(toStringArray(val)); break;
+			case "loweCtrlLimit": metaInfo.setLoweCtrlLimit(Double.parseDouble((String) val)); break;
+			case "lowerAlarmLimit": metaInfo.setLowerAlarmLimit(Double.parseDouble((String) val)); break;
+			case "lowerDisplayLimit": metaInfo.setLowerDisplayLimit(Double.parseDouble((String) val)); break;
+			case "lowerWarningLimit": metaInfo.setLowerWarningLimit(Double.parseDouble((String) val)); break;
+			case "otherMetaInfo": metaInfo.setOtherMetaInfo((HashMap<String, String>) val); break;
+			case "precision": metaInfo.setPrecision(Integer.parseInt((String) val)); break;
+			case "second": metaInfo.setSecond(Double.parseDouble((String) val)); break;
+			case "startTime": metaInfo.setStartTime(Long.parseLong((String) val)); break;
+			case "storageRate": metaInfo.setStorageRate(Double.parseDouble((String) val)); break;
+			case "storageSize": metaInfo.setStorageSize(Long.parseLong((String) val)); break;
+			case "unit": metaInfo.setUnit((String) val); break;
+			case "upperAlarmLimit": metaInfo.setUpperAlarmLimit(Double.parseDouble((String) val)); break;
+			case "upperCtrlLimit": metaInfo.setUpperCtrlLimit(Double.parseDouble((String) val)); break;
+			case "upperDisplayLimit": metaInfo.setUpperDisplayLimit(Double.parseDouble((String) val)); break;
+			case "upperWarningLimit": metaInfo.setUpperWarningLimit(Double.parseDouble((String) val)); break;
+			case "vector": metaInfo.setVector(Boolean.parseBoolean((String) val)); break;
+			default: throw new IllegalArgumentException("No hand-written writer for MetaInfo property " + propertyName);
+			}
+		}
+	}
+
+	private static class ApplianceInfoReader implements JSONEncoder.PropertyReader {
+		private final String propertyName;
+
+		ApplianceInfoReader(String propertyName) {
+			this.propertyName = propertyName;
+		}
+
+		@Override
+		public Object read(Object obj) {
+			ApplianceInfo applianceInfo = (ApplianceInfo) obj;
+			switch(propertyName) {
+			case "clusterInetPort": return applianceInfo.getClusterInetPort();
+			case "dataRetrievalURL": return applianceInfo.getDataRetrievalURL();
+			case "engineURL": return applianceInfo.getEngineURL();
+			case "etlURL": return applianceInfo.getEtlURL();
+			case "identity": return applianceInfo.getIdentity();
+			case "mgmtURL": return applianceInfo.getMgmtURL();
+			case "retrievalURL": return applianceInfo.getRetrievalURL();
+			default: throw new IllegalArgumentException("No hand-written reader for ApplianceInfo property " + propertyName);
+			}
+		}
+	}
+
+	private static class ProcessMetricReader implements JSONEncoder.PropertyReader {
+		private final String propertyName;
+
+		ProcessMetricReader(String propertyName) {
+			this.propertyName = propertyName;
+		}
+
+		@Override
+		public Object read(Object obj) {
+			ProcessMetric processMetric = (ProcessMetric) obj;
+			switch(propertyName) {
+			case "heapUsedPercent": return processMetric.getHeapUsedPercent();
+			case "systemLoadAverage": return processMetric.getSystemLoadAverage();
+			case "timeInEpochSeconds": return processMetric.getTimeInEpochSeconds();
+			default: throw new IllegalArgumentException("No hand-written reader for ProcessMetric property " + propertyName);
+			}
+		}
+	}
+
+	private static String[] toStringArray(Object val) {
+		JSONArray vals = (JSONArray) val;
+		String[] strs = new String[vals.size()];
+		for(int i = 0; i < strs.length; i++) {
+			strs[i] = (String) vals.get(i);
+		}
+		return strs;
+	}
+}
@@ -0,0 +1,141 @@
+package org.epics.archiverappliance.utils.ui;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedList;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Read the elements of a large JSON array one at a time; for example, the typeinfos in an exported configuration.
+ * Unlike JSONValue.parse, we do not build the whole array in memory; only the element being read is held in memory.
+ * This uses json-simple's SAX like parser; the parser is paused after each element and resumed on the next call to {@link #next() next}.
+ * @author mshankar
+ *
+ */
+public class JSONArrayStreamReader implements ContentHandler, AutoCloseable {
+	private final Reader in;
+	private final JSONParser parser = new JSONParser();
+	private final LinkedList<Object> valueStack = new LinkedList<Object>();
+	private final LinkedList<String> keyStack = new LinkedList<String>();
+	private int depth = 0;
+	private boolean started = false;
+	private boolean finished = false;
+	private Object completedElement = null;
+	private int elementsRead = 0;
+
+	public JSONArrayStreamReader(Reader in) {
+		this.in = in;
+	}
+
+	/**
+	 * Get the next element in the array.
+	 * @return The next element as a JSONObject; null if we have reached the end of the array.
+	 * @throws IOException - If the content is not a JSON array of JSON objects.
+	 */
+	public JSONObject next() throws IOException {
+		if(finished) return null;
+		completedElement = null;
+		try {
+			parser.parse(in, this, started);
+			started = true;
+		} catch(ParseException ex) {
+			throw new IOException("Parse exception reading element " + elementsRead + " of a JSON array at position " + ex.getPosition(), ex);
+		}
+		if(completedElement == null) {
+			finished = true;
+			return null;
+		}
+		if(!(completedElement instanceof JSONObject)) {
+			throw new IOException("Expecting element " + elementsRead + " of the JSON array to be a JSON object");
+		}
+		elementsRead++;
+		return (JSONObject) completedElement;
+	}
+
+	public int getElementsRead() {
+		return elementsRead;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	@Override
+	public void startJSON() throws ParseException, IOException {
+	}
+
+	@Override
+	public void endJSON() throws ParseException, IOException {
+	}
+
+	@Override
+	public boolean startObject() throws ParseException, IOException {
+		if(depth == 0) throw new IOException("Expecting a JSON array; instead we have a JSON object");
+		depth++;
+		valueStack.push(new JSONObject());
+		return true;
+	}
+
+	@Override
+	public boolean endObject() throws ParseException, IOException {
+		depth--;
+		return addValue(valueStack.pop());
+	}
+
+	@Override
+	public boolean startObjectEntry(String key) throws ParseException, IOException {
+		keyStack.push(key);
+		return true;
+	}
+
+	@Override
+	public boolean endObjectEntry() throws ParseException, IOException {
+		return true;
+	}
+
+	@Override
+	public boolean startArray() throws ParseException, IOException {
+		depth++;
+		// The outermost array is not built; its elements are handed out one at a time.
+		if(depth > 1) valueStack.push(new JSONArray());
+		return true;
+	}
+
+	@Override
+	public boolean endArray() throws ParseException, IOException {
+		depth--;
+		if(depth == 0) return true;
+		return addValue(valueStack.pop());
+	}
+
+	@Override
+	public boolean primitive(Object value) throws ParseException, IOException {
+		if(depth == 0) throw new IOException("Expecting a JSON array; instead we have a " + value);
+		return addValue(value);
+	}
+
+	/**
+	 * Add a value to the object/array being built.
+	 * If this value is an element of the outermost array, pause the parser so that next can return it.
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean addValue(Object value) {
+		if(valueStack.isEmpty()) {
+			completedElement = value;
+			return false;
+		}
+		Object parent = valueStack.peek();
+		if(parent instanceof JSONObject) {
+			((JSONObject) parent).put(keyStack.pop(), value);
+		} else {
+			((JSONArray) parent).add(value);
+		}
+		return true;
+	}
+}
@@ -4,6 +4,9 @@ import java.beans.BeanInfo;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -11,6 +14,7 @@ import java.sql.Timestamp;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.epics.archiverappliance.common.TimeUtils;
@@ -18,28 +22,46 @@ import org.epics.archiverappliance.config.ArchDBRTypes;
 import org.epics.archiverappliance.mgmt.policy.PolicyConfig.SamplingMethod;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 
 /**
  * Generate something that marshalls JSON into a POJO using bean introspection.
  * Underlying framework is still json-simple.
  * This has a giant switch statement that does things based on types; so please add unit tests as part of adding new fields to objects that use JSONDecoder. 
+ * The introspection is done once per class; decoders are cached and can be shared between threads.
+ * The frequently encoded classes (PVTypeInfo, MetaInfo etc) use the hand-written property writers in {@link HandWrittenJSONCodecs} instead of Method.invoke.
+ * Use {@link #decode(Reader, Object)} to decode straight from the JSON text without building a JSONObject first.
  * @author mshankar
  *
  */
 public class JSONDecoder<T> {
 	private static Logger logger = Logger.getLogger(JSONDecoder.class.getName());
+	private static ConcurrentHashMap<Class<?>, JSONDecoder<?>> cachedDecoders = new ConcurrentHashMap<Class<?>, JSONDecoder<?>>();
+
+	@SuppressWarnings("unchecked")
 	public static <T> JSONDecoder<T> getDecoder(Class<T> clazz) throws IntrospectionException, NoSuchMethodException {
-		return new JSONDecoder<T>(clazz);
+		JSONDecoder<T> decoder = (JSONDecoder<T>) cachedDecoders.get(clazz);
+		if(decoder == null) {
+			decoder = new JSONDecoder<T>(clazz);
+			cachedDecoders.put(clazz, decoder);
+		}
+		return decoder;
 	}
 
 	private LinkedList<AttributeDecoder<T>> decoders = new LinkedList<AttributeDecoder<T>>();
+	private HashMap<String, AttributeDecoder<T>> decodersByPropertyName = new HashMap<String, AttributeDecoder<T>>();
 
 	private JSONDecoder(Class<T> clazz) throws IntrospectionException, NoSuchMethodException {
 		BeanInfo info = Introspector.getBeanInfo(clazz);
 		PropertyDescriptor[] descriptors = info.getPropertyDescriptors();
 		for(PropertyDescriptor descriptor : descriptors) {
 			logger.debug("Generating decoder for " + descriptor.getName());
-			if(descriptor.getPropertyType().equals(String.class)) {
+			PropertyWriter handWrittenWriter = HandWrittenJSONCodecs.getWriter(clazz, descriptor.getName());
+			if(handWrittenWriter != null) {
+				decoders.add(new HandWrittenDecoder<T>(descriptor.getName(), handWrittenWriter));
+			} else if(descriptor.getPropertyType().equals(String.class)) {
 				decoders.add(new StringConstructor<T>(descriptor));
 			} else if(descriptor.getPropertyType().equals(boolean.class)) {
 				decoders.add(new ValueOfDecoder<T>(descriptor));
@@ -71,16 +93,167 @@ public class JSONDecoder<T> {
 				throw new IntrospectionException("Do not have JSON decoder for property " + descriptor.getName() + " of type " + descriptor.getPropertyType().getCanonicalName());
 			}
 		}
+		for(AttributeDecoder<T> decoder : decoders) {
+			decodersByPropertyName.put(decoder.getProperty(), decoder);
+		}
 	}
 	
 	public void decode(JSONObject jsonObj, T obj)  throws IllegalAccessException, InvocationTargetException, InstantiationException {
 		for(AttributeDecoder<T> decoder : decoders) {
-			decoder.decode(jsonObj, obj);
+			if(jsonObj.containsKey(decoder.getProperty())) {
+				decoder.decode(jsonObj.get(decoder.getProperty()), obj);
+			}
 		}
 	}
-	
+
+	/**
+	 * Decode a JSON object from the reader into obj without building a JSONObject for the whole object.
+	 * Only the values of array and object properties are built up before they are decoded.
+	 * @param in
+	 * @param obj
+	 * @throws IOException
+	 */
+	public void decode(Reader in, T obj) throws IOException {
+		StreamingHandler handler = new StreamingHandler(obj);
+		try {
+			new JSONParser().parse(in, handler);
+		} catch(ParseException ex) {
+			throw new IOException("Exception parsing JSON", ex);
+		}
+		if(handler.decodeException != null) {
+			throw new IOException("Exception decoding property " + handler.currentProperty, handler.decodeException);
+		}
+	}
+
+	public void decode(String jsonStr, T obj) throws IOException {
+		decode(new StringReader(jsonStr), obj);
+	}
+
 	private static interface AttributeDecoder<T> {
-		void decode(JSONObject jsonObj, T obj) throws IllegalAccessException, InvocationTargetException, InstantiationException ;
+		String getProperty();
+		void decode(Object val, T obj) throws IllegalAccessException, InvocationTargetException, InstantiationException ;
+	}
+
+	/**
+	 * Converts the JSON value of a property and sets it on the object being decoded.
+	 */
+	static interface PropertyWriter {
+		void write(Object obj, Object val);
+	}
+
+	private static class HandWrittenDecoder<T> implements AttributeDecoder<T> {
+		private String propertyName;
+		private PropertyWriter writer;
+
+		private HandWrittenDecoder(String propertyName, PropertyWriter writer) {
+			this.propertyName = propertyName;
+			this.writer = writer;
+		}
+
+		@Override
+		public String getProperty() {
+			return propertyName;
+		}
+
+		@Override
+		public void decode(Object val, T obj) {
+			writer.write(obj, val);
+		}
+	}
+
+	/**
+	 * Hands over the values of the top level properties to the attribute decoders as they are parsed.
+	 * Array and object values are built up into a JSONArray/JSONObject as that's what the attribute decoders expect.
+	 */
+	private class StreamingHandler implements ContentHandler {
+		private final T obj;
+		private int depth = 0;
+		private String currentProperty = null;
+		private LinkedList<Object> containers = new LinkedList<Object>();
+		private LinkedList<String> containerKeys = new LinkedList<String>();
+		private Exception decodeException = null;
+
+		StreamingHandler(T obj) {
+			this.obj = obj;
+		}
+
+		@Override
+		public void startJSON() throws ParseException, IOException {
+		}
+
+		@Override
+		public void endJSON() throws ParseException, IOException {
+		}
+
+		@Override
+		public boolean startObject() throws ParseException, IOException {
+			depth++;
+			if(depth > 1) containers.push(new JSONObject());
+			return true;
+		}
+
+		@Override
+		public boolean endObject() throws ParseException, IOException {
+			depth--;
+			if(depth >= 1) return value(containers.pop());
+			return true;
+		}
+
+		@Override
+		public boolean startObjectEntry(String key) throws ParseException, IOException {
+			if(depth == 1) {
+				currentProperty = key;
+			} else {
+				containerKeys.push(key);
+			}
+			return true;
+		}
+
+		@Override
+		public boolean endObjectEntry() throws ParseException, IOException {
+			return true;
+		}
+
+		@Override
+		public boolean startArray() throws ParseException, IOException {
+			depth++;
+			containers.push(new JSONArray());
+			return true;
+		}
+
+		@Override
+		public boolean endArray() throws ParseException, IOException {
+			depth--;
+			return value(containers.pop());
+		}
+
+		@Override
+		public boolean primitive(Object value) throws ParseException, IOException {
+			return value(value);
+		}
+
+		@SuppressWarnings("unchecked")
+		private boolean value(Object value) {
+			if(!containers.isEmpty()) {
+				Object container = containers.peek();
+				if(container instanceof JSONArray) {
+					((JSONArray) container).add(value);
+				} else {
+					((JSONObject) container).put(containerKeys.pop(), value);
+				}
+				return true;
+			}
+			AttributeDecoder<T> decoder = currentProperty != null ? decodersByPropertyName.get(currentProperty) : null;
+			if(decoder == null) return true;
+			try {
+				decoder.decode(value, obj);
+				return true;
+			} catch(Exception ex) {
+				// Stop parsing; decode rethrows this.
+				decodeException = ex;
+				return false;
+			}
+		}
 	}
 	
 	private static String WRITE_METHOD_EXPLANATION = ". Our custom JSON decoder requires both get and set methods in standard bean syntax. Use Eclipse to add a 'standard' set method";
@@ -98,12 +271,14 @@ public class JSONDecoder<T> {
 		}
 
 		@Override
-		public void decode(JSONObject jsonObj, T obj) throws IllegalAccessException, InvocationTargetException, InstantiationException {
-			if(jsonObj.containsKey(propertyName)) {
-				String val = (String) jsonObj.get(propertyName);
-				Object newObj = constructorFromString.newInstance(val);
-				writeMethod.invoke(obj, newObj);
-			}
+		public String getProperty() {
+			return propertyName;
+		}
+
+		@Override
+		public void decode(Object val, T obj) throws IllegalAccessException, InvocationTargetException, InstantiationException {
+			Object newObj = constructorFromString.newInstance((String) val);
+			writeMethod.invoke(obj, newObj);
 		}
 	}
 	
@@ -122,15 +297,18 @@ public class JSONDecoder<T> {
 		}
 
 		@Override
-		public void decode(JSONObject jsonObj, T obj) throws IllegalAccessException, InvocationTargetException, InstantiationException {
-			if(jsonObj.containsKey(propertyName)) {
-				JSONArray vals = (JSONArray) jsonObj.get(propertyName);
-				LinkedList<String> newvals = new LinkedList<String>();
-				for(Object val : vals) {
-					newvals.add((String)constructorFromString.newInstance(val));
-				}
-				writeMethod.invoke(obj, new Object[]{newvals.toArray(new String[0])});
+		public String getProperty() {
+			return propertyName;
+		}
+
+		@Override
+		public void decode(Object jsonVal, T obj) throws IllegalAccessException, InvocationTargetException, InstantiationException {
+			JSONArray vals = (JSONArray) jsonVal;
+			LinkedList<String> newvals = new LinkedList<String>();
+			for(Object val : vals) {
+				newvals.add((String)constructorFromString.newInstance(val));
 			}
+			writeMethod.invoke(obj, new Object[]{newvals.toArray(new String[0])});
 		}
 	}
 	
@@ -145,13 +323,16 @@ public class JSONDecoder<T> {
 			if(writeMethod == null) throw new NoSuchMethodException("No write method for " + propertyName + WRITE_METHOD_EXPLANATION);
 		}
 
+		@Override
+		public String getProperty() {
+			return propertyName;
+		}
+
 		@SuppressWarnings("unchecked")
 		@Override
-		public void decode(JSONObject jsonObj, T obj) throws IllegalAccessException, InvocationTargetException, InstantiationException {
-			if(jsonObj.containsKey(propertyName)) {
-				HashMap<String, String> vals = (HashMap<String, String>) jsonObj.get(propertyName);
-				writeMethod.invoke(obj, new Object[]{vals});
-			}
+		public void decode(Object val, T obj) throws IllegalAccessException, InvocationTargetException, InstantiationException {
+			HashMap<String, String> vals = (HashMap<String, String>) val;
+			writeMethod.invoke(obj, new Object[]{vals});
 		}
 	}
 
@@ -182,12 +363,14 @@ public class JSONDecoder<T> {
 		}
 
 		@Override
-		public void decode(JSONObject jsonObj, T obj) throws IllegalAccessException, InvocationTargetException, InstantiationException {
-			if(jsonObj.containsKey(propertyName)) {
-				String val = (String) jsonObj.get(propertyName);
-				Object newObj = valueOfMethod.invoke(null, val);
-				writeMethod.invoke(obj, newObj);
-			}
+		public String getProperty() {
+			return propertyName;
+		}
+
+		@Override
+		public void decode(Object val, T obj) throws IllegalAccessException, InvocationTargetException, InstantiationException {
+			Object newObj = valueOfMethod.invoke(null, (String) val);
+			writeMethod.invoke(obj, newObj);
 		}
 	}
 	
@@ -203,12 +386,14 @@ public class JSONDecoder<T> {
 		}
 
 		@Override
-		public void decode(JSONObject jsonObj, T obj) throws IllegalAccessException, InvocationTargetException, InstantiationException {
-			if(jsonObj.containsKey(propertyName)) {
-				String tsstr = (String) jsonObj.get(propertyName);
-				Timestamp ts = TimeUtils.convertFromISO8601String(tsstr);
-				writeMethod.invoke(obj, ts);
-			}
+		public String getProperty() {
+			return propertyName;
+		}
+
+		@Override
+		public void decode(Object val, T obj) throws IllegalAccessException, InvocationTargetException, InstantiationException {
+			Timestamp ts = TimeUtils.convertFromISO8601String((String) val);
+			writeMethod.invoke(obj, ts);
 		}
 	}
 	
@@ -225,14 +410,16 @@ public class JSONDecoder<T> {
 			this.enumClass = enumClass; 
 		}
 
+		@Override
+		public String getProperty() {
+			return propertyName;
+		}
+
 		@SuppressWarnings("unchecked")
 		@Override
-		public void decode(JSONObject jsonObj, T obj) throws IllegalAccessException, InvocationTargetException, InstantiationException {
-			if(jsonObj.containsKey(propertyName)) {
-				String enumvalue = (String) jsonObj.get(propertyName);
-				Enum enumVal = Enum.valueOf(enumClass, enumvalue);
-				writeMethod.invoke(obj, enumVal);
-			}
+		public void decode(Object val, T obj) throws IllegalAccessException, InvocationTargetException, InstantiationException {
+			Enum enumVal = Enum.valueOf(enumClass, (String) val);
+			writeMethod.invoke(obj, enumVal);
 		}
 	}
 
@@ -4,12 +4,16 @@ import java.beans.BeanInfo;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.sql.Timestamp;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.epics.archiverappliance.common.TimeUtils;
@@ -23,13 +27,24 @@ import org.json.simple.JSONValue;
  * Generate something that converts a POJO into JSON using bean introspection.
  * Underlying framework is still json-simple.
  * This has a giant switch statement that does things based on types; so please add unit tests as part of adding new fields to objects that use JSONEncoder. 
+ * The introspection is done once per class; encoders are cached and can be shared between threads.
+ * The frequently encoded classes (PVTypeInfo, MetaInfo etc) use the hand-written property readers in {@link HandWrittenJSONCodecs} instead of Method.invoke.
+ * Use {@link #encodeAndPrint(Object, Writer)} or {@link #encodeToString(Object)} to write the JSON text directly without building a JSONObject first.
  * @author mshankar
  *
  */
 public class JSONEncoder<T> {
 	private static Logger logger = Logger.getLogger(JSONEncoder.class.getName());
+	private static ConcurrentHashMap<Class<?>, JSONEncoder<?>> cachedEncoders = new ConcurrentHashMap<Class<?>, JSONEncoder<?>>();
+
+	@SuppressWarnings("unchecked")
 	public static <T> JSONEncoder<T> getEncoder(Class<T> clazz) throws IntrospectionException {
-		return new JSONEncoder<T>(clazz);
+		JSONEncoder<T> encoder = (JSONEncoder<T>) cachedEncoders.get(clazz);
+		if(encoder == null) {
+			encoder = new JSONEncoder<T>(clazz);
+			cachedEncoders.put(clazz, encoder);
+		}
+		return encoder;
 	}
 	
 	private LinkedList<AttributeEncoder> encoders = new LinkedList<AttributeEncoder>();
@@ -37,32 +52,34 @@ public class JSONEncoder<T> {
 		BeanInfo info = Introspector.getBeanInfo(clazz);
 		PropertyDescriptor[] descriptors = info.getPropertyDescriptors();
 		for(PropertyDescriptor descriptor : descriptors) {
+			PropertyReader reader = HandWrittenJSONCodecs.getReader(clazz, descriptor.getName());
+			if(reader == null) reader = new ReflectivePropertyReader(descriptor.getReadMethod());
 			if(descriptor.getPropertyType().equals(String.class)) {
-				encoders.add(new ToStringEncoder(descriptor));
+				encoders.add(new ToStringEncoder(descriptor, reader));
 			} else if(descriptor.getPropertyType().equals(boolean.class)) {
-				encoders.add(new ToStringEncoder(descriptor));
+				encoders.add(new ToStringEncoder(descriptor, reader));
 			} else if(descriptor.getPropertyType().equals(int.class)) {
-				encoders.add(new ToStringEncoder(descriptor));
+				encoders.add(new ToStringEncoder(descriptor, reader));
 			} else if(descriptor.getPropertyType().equals(long.class)) {
-				encoders.add(new ToStringEncoder(descriptor));
+				encoders.add(new ToStringEncoder(descriptor, reader));
 			} else if(descriptor.getPropertyType().equals(float.class)) {
-				encoders.add(new ToStringEncoder(descriptor));
+				encoders.add(new ToStringEncoder(descriptor, reader));
 			} else if(descriptor.getPropertyType().equals(double.class)) {
-				encoders.add(new ToStringEncoder(descriptor));
+				encoders.add(new ToStringEncoder(descriptor, reader));
 			} else if(descriptor.getPropertyType().equals(Double.class)) {
-				encoders.add(new ToStringEncoder(descriptor));
+				encoders.add(new ToStringEncoder(descriptor, reader));
 			} else if(descriptor.getPropertyType().equals(Long.class)) {
-				encoders.add(new ToStringEncoder(descriptor));
+				encoders.add(new ToStringEncoder(descriptor, reader));
 			} else if(descriptor.getPropertyType().equals(Timestamp.class)) {
-				encoders.add(new ISO8601Encoder(descriptor));
+				encoders.add(new ISO8601Encoder(descriptor, reader));
 			} else if(descriptor.getPropertyType().equals(ArchDBRTypes.class)) {
-				encoders.add(new ToStringEncoder(descriptor));
+				encoders.add(new ToStringEncoder(descriptor, reader));
 			} else if(descriptor.getPropertyType().equals(SamplingMethod.class)) {
-				encoders.add(new ToStringEncoder(descriptor));
+				encoders.add(new ToStringEncoder(descriptor, reader));
 			} else if(descriptor.getPropertyType().equals(String[].class)) {
-				encoders.add(new ArrayOfToStringEncoder(descriptor));
+				encoders.add(new ArrayOfToStringEncoder(descriptor, reader));
 			} else if(descriptor.getPropertyType().equals(HashMap.class)) {
-				encoders.add(new HashMapEncoder(descriptor));
+				encoders.add(new HashMapEncoder(descriptor, reader));
 			} else if(descriptor.getName().equals("class")) {
 				// Skip class...
 			} else {
@@ -71,9 +88,33 @@ public class JSONEncoder<T> {
 		}
 	}
 	
+	/**
+	 * Reads the value of a property from the object being encoded.
+	 */
+	static interface PropertyReader {
+		Object read(Object obj) throws IllegalAccessException, InvocationTargetException;
+	}
+
+	private static class ReflectivePropertyReader implements PropertyReader {
+		private Method readMethod;
+		private ReflectivePropertyReader(Method readMethod) {
+			this.readMethod = readMethod;
+		}
+
+		@Override
+		public Object read(Object obj) throws IllegalAccessException, InvocationTargetException {
+			return readMethod.invoke(obj);
+		}
+	}
+
 	private static interface AttributeEncoder {
 		String getProperty();
 		void encode(Object obj, JSONObject jsonObj) throws IllegalAccessException, InvocationTargetException ;
+		/**
+		 * Append the JSON for the value of this attribute to buf.
+		 * @return false if the value is null and nothing was appended.
+		 */
+		boolean encodeValue(Object obj, StringBuilder buf) throws IllegalAccessException, InvocationTargetException ;
 	}
 	
 	public JSONObject encode(T obj)  throws IllegalAccessException, InvocationTargetException {
@@ -103,17 +144,65 @@ public class JSONEncoder<T> {
 	}
 	
 	public void encodeAndPrint(T obj, PrintWriter out) throws IllegalAccessException, InvocationTargetException {
-		JSONObject jsonObj = this.encode(obj);
-		out.print(JSONValue.toJSONString(jsonObj));
+		StringBuilder buf = new StringBuilder(1024);
+		this.encode(obj, buf);
+		out.append(buf);
+	}
+
+	/**
+	 * Write the JSON for obj directly to the writer.
+	 * The JSON is the same as that generated by encode (modulo the order of the keys) but we do not build a JSONObject.
+	 * @param obj
+	 * @param out
+	 * @throws IOException
+	 */
+	public void encodeAndPrint(T obj, Writer out) throws IOException {
+		StringBuilder buf = new StringBuilder(1024);
+		this.encode(obj, buf);
+		out.append(buf);
+	}
+
+	public String encodeToString(T obj) {
+		StringBuilder buf = new StringBuilder(1024);
+		this.encode(obj, buf);
+		return buf.toString();
+	}
+
+	private void encode(T obj, StringBuilder buf) {
+		buf.append('{');
+		boolean first = true;
+		for(AttributeEncoder encoder : encoders) {
+			int attributeStart = buf.length();
+			if(!first) buf.append(',');
+			appendString(encoder.getProperty(), buf);
+			buf.append(':');
+			try {
+				if(encoder.encodeValue(obj, buf)) {
+					first = false;
+				} else {
+					buf.setLength(attributeStart);
+				}
+			} catch(Exception ex) {
+				buf.setLength(attributeStart);
+				logger.error("Exception marshalling attribute " + encoder.getProperty(), ex);
+			}
+		}
+		buf.append('}');
+	}
+
+	private static void appendString(String val, StringBuilder buf) {
+		buf.append('"');
+		buf.append(JSONValue.escape(val));
+		buf.append('"');
 	}
 
 	
 	private static class ToStringEncoder implements AttributeEncoder {
 		private String propertyName;
-		private Method readMethod;
-		private ToStringEncoder(PropertyDescriptor descriptor) {
+		private PropertyReader reader;
+		private ToStringEncoder(PropertyDescriptor descriptor, PropertyReader reader) {
 			propertyName = descriptor.getName();
-			readMethod = descriptor.getReadMethod();
+			this.reader = reader;
 		}
 
 		/* (non-Javadoc)
@@ -123,12 +212,20 @@ public class JSONEncoder<T> {
 		@SuppressWarnings("unchecked")
 		@Override
 		public void encode(Object obj, JSONObject jsonObj) throws IllegalAccessException, InvocationTargetException {
-			Object val = readMethod.invoke(obj);
+			Object val = reader.read(obj);
 			if(val != null) {
 				jsonObj.put(propertyName, val.toString());
 			}
 		}
 
+		@Override
+		public boolean encodeValue(Object obj, StringBuilder buf) throws IllegalAccessException, InvocationTargetException {
+			Object val = reader.read(obj);
+			if(val == null) return false;
+			appendString(val.toString(), buf);
+			return true;
+		}
+
 		@Override
 		public String getProperty() {
 			return propertyName;
@@ -137,11 +234,11 @@ public class JSONEncoder<T> {
 	
 	private static class ArrayOfToStringEncoder implements AttributeEncoder { 
 		private String propertyName;
-		private Method readMethod;
+		private PropertyReader reader;
 		
-		private ArrayOfToStringEncoder(PropertyDescriptor descriptor) {
+		private ArrayOfToStringEncoder(PropertyDescriptor descriptor, PropertyReader reader) {
 			propertyName = descriptor.getName();
-			readMethod = descriptor.getReadMethod();
+			this.reader = reader;
 		}
 
 		/* (non-Javadoc)
@@ -151,7 +248,7 @@ public class JSONEncoder<T> {
 		@SuppressWarnings("unchecked")
 		@Override
 		public void encode(Object obj, JSONObject jsonObj) throws IllegalAccessException, InvocationTargetException {
-			Object[] vals = (Object[]) readMethod.invoke(obj);
+			Object[] vals = (Object[]) reader.read(obj);
 			if(vals != null) {
 				JSONArray valarray = new JSONArray();
 				for(Object val : vals) {
@@ -160,6 +257,21 @@ public class JSONEncoder<T> {
 				jsonObj.put(propertyName, valarray);
 			}
 		}
+
+		@Override
+		public boolean encodeValue(Object obj, StringBuilder buf) throws IllegalAccessException, InvocationTargetException {
+			Object[] vals = (Object[]) reader.read(obj);
+			if(vals == null) return false;
+			buf.append('[');
+			boolean first = true;
+			for(Object val : vals) {
+				if(!first) buf.append(',');
+				first = false;
+				appendString(val.toString(), buf);
+			}
+			buf.append(']');
+			return true;
+		}
 		
 		@Override
 		public String getProperty() {
@@ -169,10 +281,10 @@ public class JSONEncoder<T> {
 	
 	private static class ISO8601Encoder implements AttributeEncoder { 
 		private String propertyName;
-		private Method readMethod;
-		private ISO8601Encoder(PropertyDescriptor descriptor) {
+		private PropertyReader reader;
+		private ISO8601Encoder(PropertyDescriptor descriptor, PropertyReader reader) {
 			propertyName = descriptor.getName();
-			readMethod = descriptor.getReadMethod();
+			this.reader = reader;
 		}
 
 		/* (non-Javadoc)
@@ -182,11 +294,19 @@ public class JSONEncoder<T> {
 		@SuppressWarnings("unchecked")
 		@Override
 		public void encode(Object obj, JSONObject jsonObj) throws IllegalAccessException, InvocationTargetException {
-			Timestamp ts = (Timestamp) readMethod.invoke(obj);
+			Timestamp ts = (Timestamp) reader.read(obj);
 			if(ts != null) {
 				jsonObj.put(propertyName, TimeUtils.convertToISO8601String(ts));
 			}
 		}
+
+		@Override
+		public boolean encodeValue(Object obj, StringBuilder buf) throws IllegalAccessException, InvocationTargetException {
+			Timestamp ts = (Timestamp) reader.read(obj);
+			if(ts == null) return false;
+			appendString(TimeUtils.convertToISO8601String(ts), buf);
+			return true;
+		}
 		
 		@Override
 		public String getProperty() {
@@ -197,11 +317,11 @@ public class JSONEncoder<T> {
 	
 	private static class HashMapEncoder implements AttributeEncoder { 
 		private String propertyName;
-		private Method readMethod;
+		private PropertyReader reader;
 		
-		private HashMapEncoder(PropertyDescriptor descriptor) {
+		private HashMapEncoder(PropertyDescriptor descriptor, PropertyReader reader) {
 			propertyName = descriptor.getName();
-			readMethod = descriptor.getReadMethod();
+			this.reader = reader;
 		}
 
 		/* (non-Javadoc)
@@ -211,7 +331,7 @@ public class JSONEncoder<T> {
 		@SuppressWarnings("unchecked")
 		@Override
 		public void encode(Object obj, JSONObject jsonObj) throws IllegalAccessException, InvocationTargetException {
-			HashMap<String, Object> childMap = (HashMap<String, Object>) readMethod.invoke(obj);
+			HashMap<String, Object> childMap = (HashMap<String, Object>) reader.read(obj);
 			if(childMap != null) {
 				JSONObject childObj = new JSONObject();
 				for(String key : childMap.keySet()) {
@@ -220,6 +340,24 @@ public class JSONEncoder<T> {
 				jsonObj.put(propertyName, childObj);
 			}
 		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean encodeValue(Object obj, StringBuilder buf) throws IllegalAccessException, InvocationTargetException {
+			HashMap<String, Object> childMap = (HashMap<String, Object>) reader.read(obj);
+			if(childMap == null) return false;
+			buf.append('{');
+			boolean first = true;
+			for(Map.Entry<String, Object> entry : childMap.entrySet()) {
+				if(!first) buf.append(',');
+				first = false;
+				appendString(entry.getKey(), buf);
+				buf.append(':');
+				appendString(entry.getValue().toString(), buf);
+			}
+			buf.append('}');
+			return true;
+		}
 		
 		@Override
 		public String getProperty() {
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package edu.stanford.slac.archiverappliance.PB.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.epics.archiverappliance.ByteArray;
+import org.epics.archiverappliance.common.TimeUtils;
+import org.epics.archiverappliance.common.YearSecondTimestamp;
+import org.epics.archiverappliance.data.DBRTimeEvent;
+import org.epics.archiverappliance.data.PrimitiveVectorValue;
+import org.epics.archiverappliance.data.SampleValue;
+import org.epics.archiverappliance.data.VectorValue;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+
+import edu.stanford.slac.archiverappliance.PB.EPICSEvent;
+import edu.stanford.slac.archiverappliance.PB.utils.LineEscaper;
+
+/**
+ * Checks that the PBVectorCodec generates the same bytes as the generated builders and parses what they generate.
+ * @author mshankar
+ *
+ */
+public class PBVectorCodecTest {
+	private static final int[] ELEMENT_COUNTS = new int[] { 0, 1, 17, 4096 };
+	private Random random = new Random(42);
+
+	@Test
+	public void testEncodeMatchesBuilders() throws Exception {
+		for(int elementCount : ELEMENT_COUNTS) {
+			for(int severity = 0; severity < 3; severity++) {
+				YearSecondTimestamp yst = new YearSecondTimestamp((short) 2016, random.nextInt(365*24*60*60), random.nextInt(1000000000));
+				int status = severity*3;
+
+				double[] doubles = new double[elementCount];
+				float[] floats = new float[elementCount];
+				int[] ints = new int[elementCount];
+				short[] shorts = new short[elementCount];
+				byte[] bytes = new byte[elementCount];
+				random.nextBytes(bytes);
+				EPICSEvent.VectorDouble.Builder doubleBuilder = EPICSEvent.VectorDouble.newBuilder().setSecondsintoyear(yst.getSecondsintoyear()).setNano(yst.getNanos());
+				EPICSEvent.VectorFloat.Builder floatBuilder = EPICSEvent.VectorFloat.newBuilder().setSecondsintoyear(yst.getSecondsintoyear()).setNano(yst.getNanos());
+				EPICSEvent.VectorInt.Builder intBuilder = EPICSEvent.VectorInt.newBuilder().setSecondsintoyear(yst.getSecondsintoyear()).setNano(yst.getNanos());
+				EPICSEvent.VectorShort.Builder shortBuilder = EPICSEvent.VectorShort.newBuilder().setSecondsintoyear(yst.getSecondsintoyear()).setNano(yst.getNanos());
+				EPICSEvent.VectorChar.Builder byteBuilder = EPICSEvent.VectorChar.newBuilder().setSecondsintoyear(yst.getSecondsintoyear()).setNano(yst.getNanos()).setVal(ByteString.copyFrom(bytes));
+				for(int i = 0; i < elementCount; i++) {
+					doubles[i] = random.nextGaussian()*1e6;
+					floats[i] = (float) random.nextGaussian();
+					ints[i] = random.nextInt();
+					shorts[i] = (short) random.nextInt();
+					doubleBuilder.addVal(doubles[i]);
+					floatBuilder.addVal(floats[i]);
+					intBuilder.addVal(ints[i]);
+					shortBuilder.addVal(shorts[i]);
+				}
+				if(severity != 0) {
+					doubleBuilder.setSeverity(severity).setStatus(status);
+					floatBuilder.setSeverity(severity).setStatus(status);
+					intBuilder.setSeverity(severity).setStatus(status);
+					shortBuilder.setSeverity(severity).setStatus(status);
+					byteBuilder.setSeverity(severity).setStatus(status);
+				}
+
+				checkEncoding(PBVectorCodec.ElementType.DOUBLE, yst, severity, status, PrimitiveVectorValue.OfDouble.toBytes(doubles), doubleBuilder.build().toByteArray(), doubleBuilder.getValList());
+				checkEncoding(PBVectorCodec.ElementType.FLOAT, yst, severity, status, PrimitiveVectorValue.OfFloat.toBytes(floats), floatBuilder.build().toByteArray(), floatBuilder.getValList());
+				checkEncoding(PBVectorCodec.ElementType.SFIXED32, yst, severity, status, PrimitiveVectorValue.OfInt.toBytes(ints), intBuilder.build().toByteArray(), intBuilder.getValList());
+				List<Short> shortList = new ArrayList<Short>();
+				for(short s : shorts) shortList.add(s);
+				checkEncoding(PBVectorCodec.ElementType.SINT32, yst, severity, status, PrimitiveVectorValue.OfShort.toBytes(shorts), shortBuilder.build().toByteArray(), shortList);
+				List<Byte> byteList = new ArrayList<Byte>();
+				for(byte b : bytes) byteList.add(b);
+				checkEncoding(PBVectorCodec.ElementType.BYTES, yst, severity, status, ByteBuffer.wrap(bytes), byteBuilder.build().toByteArray(), byteList);
+			}
+		}
+	}
+
+	private void checkEncoding(PBVectorCodec.ElementType elementType, YearSecondTimestamp yst, int severity, int status, ByteBuffer values, byte[] expectedBytes, List<? extends Number> expectedValues) {
+		ByteArray bar = PBVectorCodec.encode(elementType, yst, severity, status, values);
+		assertArrayEquals("Encoding mismatch for " + elementType + " with " + expectedValues.size() + " elements", LineEscaper.escapeNewLines(expectedBytes), bar.toBytes());
+
+		PBVectorCodec header = PBVectorCodec.parse(elementType, new ByteArray(LineEscaper.escapeNewLines(expectedBytes)));
+		assertEquals(yst.getSecondsintoyear(), header.secondsintoyear);
+		assertEquals(yst.getNanos(), header.nano);
+		assertEquals(severity, header.severity);
+		assertEquals(status, header.status);
+		assertEquals(0, header.fieldValuesCount);
+		assertTrue(header.areValuesDecodable());
+		PrimitiveVectorValue<?> decoded = header.decodeValues();
+		assertEquals(expectedValues.size(), decoded.getElementCount());
+		assertEquals(expectedValues, decoded.getValues());
+		assertTrue(new VectorValue<Number>(new ArrayList<Number>(expectedValues)).equals(decoded));
+		assertTrue(decoded.equals(new VectorValue<Number>(new ArrayList<Number>(expectedValues))));
+		assertFalse(decoded.equals(null));
+		assertFalse(decoded.equals(expectedValues.toString()));
+		for(int i = 0; i < expectedValues.size(); i++) {
+			assertEquals(expectedValues.get(i).doubleValue(), decoded.getElementAsDouble(i), 0.0);
+		}
+	}
+
+	@Test
+	public void testCopyPreservesFieldValues() throws Exception {
+		double[] vals = new double[] { 1.0, -2.5, Double.NaN, 1e300 };
+		YearSecondTimestamp yst = new YearSecondTimestamp((short) 2016, 12345, 6789);
+		PBVectorDouble original = new PBVectorDouble((short) 2016, PBVectorCodec.encode(PBVectorCodec.ElementType.DOUBLE, yst, 2, 7, PrimitiveVectorValue.OfDouble.toBytes(vals)));
+		HashMap<String, String> fields = new HashMap<String, String>();
+		fields.put("HIHI", "10.0");
+		fields.put("EGU", "mm\nnewline");
+		original.setFieldValues(fields, true);
+
+		EPICSEvent.VectorDouble.Builder builder = EPICSEvent.VectorDouble.newBuilder().setSecondsintoyear(yst.getSecondsintoyear()).setNano(yst.getNanos()).setSeverity(2).setStatus(7);
+		for(double val : vals) builder.addVal(val);
+		for(String fieldName : fields.keySet()) {
+			builder.addFieldvalues(EPICSEvent.FieldValue.newBuilder().setName(fieldName).setVal(fields.get(fieldName)).build());
+		}
+		builder.setFieldactualchange(true);
+
+		DBRTimeEvent copy = (DBRTimeEvent) original.makeClone();
+		assertArrayEquals(LineEscaper.escapeNewLines(builder.build().toByteArray()), copy.getRawForm().toBytes());
+		assertTrue(copy.hasFieldValues());
+		assertTrue(copy.isActualChange());
+		assertEquals(fields, copy.getFields());
+		assertEquals(2, copy.getSeverity());
+		assertEquals(7, copy.getStatus());
+		assertEquals(TimeUtils.convertFromYearSecondTimestamp(yst), copy.getEventTimeStamp());
+		assertEquals(original.getSampleValue(), copy.getSampleValue());
+	}
+
+	/**
+	 * The protobuf parsers accept repeated fields that are not packed; we should fall back to the generated code for these.
+	 */
+	@Test
+	public void testUnpackedValues() throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		CodedOutputStream output = CodedOutputStream.newInstance(bos);
+		output.writeUInt32(1, 100);
+		output.writeUInt32(2, 200);
+		output.writeDouble(3, 1.5);
+		output.writeDouble(3, 2.5);
+		output.writeInt32(4, 1);
+		output.flush();
+		PBVectorDouble event = new PBVectorDouble((short) 2016, new ByteArray(LineEscaper.escapeNewLines(bos.toByteArray())));
+		assertEquals(100, event.getSecondsIntoYear());
+		assertEquals(1, event.getSeverity());
+		SampleValue value = event.getSampleValue();
+		assertFalse(value instanceof PrimitiveVectorValue);
+		assertEquals(2, value.getElementCount());
+		assertEquals(2.5, value.getValue(1).doubleValue(), 0.0);
+	}
+}
@@ -7,8 +7,14 @@
  *******************************************************************************/
 package edu.stanford.slac.archiverappliance.PB.utils;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Random;
 
@@ -82,4 +88,85 @@ public class LineEscaperTest {
 		System.out.println("Time to escape/unescape " + total + " byte sequences is " + (exectime)/1000 + "(s) yielding " + (((float)total)/((exectime)/1000)) + " sequences per second");
 	}
 
+	/**
+	 * The scan looks at eight bytes at a time; check that it finds the first special byte at every position in and around a word.
+	 * The other bytes are the neighbours of the special bytes and the bytes that set the high bit; these are the ones that can trip up the bit tricks.
+	 */
+	@Test
+	public void testWordScan() {
+		byte[] specialBytes = new byte[] { LineEscaper.ESCAPE_CHAR, LineEscaper.NEWLINE_CHAR, LineEscaper.CARRIAGERETURN_CHAR };
+		byte[] fillerBytes = new byte[] { 0x00, 0x09, 0x0B, 0x0C, 0x0E, 0x1A, 0x1C, 0x20, 0x7F, (byte) 0x80, (byte) 0x8A, (byte) 0x9B, (byte) 0xFF };
+		for(int size = 0; size <= 40; size++) {
+			for(byte filler : fillerBytes) {
+				for(int position = -1; position < size; position++) {
+					for(byte specialByte : specialBytes) {
+						byte[] input = new byte[size];
+						Arrays.fill(input, filler);
+						if(position >= 0) input[position] = specialByte;
+						// Put another special byte after the first one to make sure we find the first.
+						if(position >= 0 && position + 3 < size) input[position + 3] = LineEscaper.ESCAPE_CHAR;
+						String msg = "Size " + size + " filler " + filler + " special byte " + specialByte + " at " + position;
+						assertEquals(msg, position, LineEscaper.indexOfByteToEscape(input, 0, size));
+						int expectedEscapeChar = -1;
+						for(int i = 0; i < size; i++) {
+							if(input[i] == LineEscaper.ESCAPE_CHAR) { expectedEscapeChar = i; break; }
+						}
+						assertEquals(msg, expectedEscapeChar, LineEscaper.indexOfEscapeChar(input, 0, size));
+						if(size > 2) {
+							// Ranges that do not start at the beginning of the array.
+							int expected = (position >= 1 && position < size - 1) ? position : ((position >= 0 && position + 3 < size - 1) ? position + 3 : -1);
+							assertEquals(msg, expected, LineEscaper.indexOfByteToEscape(input, 1, size - 1));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check the various forms of escape/unescape against each other for inputs with differing densities of the special bytes; including a 1MB waveform.
+	 */
+	@Test
+	public void testEscapeVariants() throws Exception {
+		Random random = new Random(0);
+		byte[] specialBytes = new byte[] { LineEscaper.ESCAPE_CHAR, LineEscaper.NEWLINE_CHAR, LineEscaper.CARRIAGERETURN_CHAR };
+		for(int size : new int[] { 0, 1, 7, 64, 1024*1024 }) {
+			for(int percentSpecial : new int[] { 0, 5, 100 }) {
+				byte[] input = new byte[size];
+				for(int i = 0; i < size; i++) {
+					input[i] = (random.nextInt(100) < percentSpecial) ? specialBytes[random.nextInt(specialBytes.length)] : (byte) (0x20 + random.nextInt(0x60));
+				}
+				String msg = "Size " + size + " with " + percentSpecial + "% special bytes";
+				byte[] escaped = LineEscaper.escapeNewLines(input);
+				assertEquals(msg, LineEscaper.escapedLength(input, 0, input.length), escaped.length);
+				for(byte b : escaped) {
+					assertTrue(msg, b != LineEscaper.NEWLINE_CHAR && b != LineEscaper.CARRIAGERETURN_CHAR);
+				}
+				if(percentSpecial == 0) {
+					assertSame("Nothing to escape should return the input as is", input, escaped);
+				}
+				assertArrayEquals(msg, input, LineEscaper.unescapeNewLines(escaped));
+
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				LineEscaper.escapeNewLines(input, bos);
+				assertArrayEquals(msg, escaped, bos.toByteArray());
+
+				ByteBuffer buf = ByteBuffer.allocate(escaped.length + 2);
+				buf.put((byte) 'x');
+				LineEscaper.escapeNewLines(input, 0, input.length, buf);
+				assertEquals(msg, escaped.length + 1, buf.position());
+				assertArrayEquals(msg, escaped, Arrays.copyOfRange(buf.array(), 1, escaped.length + 1));
+
+				byte[] inPlace = Arrays.copyOf(escaped, escaped.length);
+				int unescapedLen = LineEscaper.unescapeNewLines(inPlace, 0, inPlace.length, inPlace, 0);
+				assertArrayEquals(msg, input, Arrays.copyOf(inPlace, unescapedLen));
+
+				if(escaped.length > 0) {
+					ByteArray bar = new ByteArray(escaped);
+					bar.inPlaceUnescape();
+					assertArrayEquals(msg, input, Arrays.copyOfRange(bar.unescapedData, bar.off, bar.off + bar.unescapedLen));
+				}
+			}
+		}
+	}
 }
\ No newline at end of file
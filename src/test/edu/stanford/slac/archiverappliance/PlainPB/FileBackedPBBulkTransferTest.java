@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package edu.stanford.slac.archiverappliance.PlainPB;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.epics.archiverappliance.ByteArray;
+import org.epics.archiverappliance.Event;
+import org.epics.archiverappliance.common.BasicContext;
+import org.epics.archiverappliance.common.POJOEvent;
+import org.epics.archiverappliance.common.TimeUtils;
+import org.epics.archiverappliance.common.YearSecondTimestamp;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.config.ConfigServiceForTests;
+import org.epics.archiverappliance.config.StoragePluginURLParser;
+import org.epics.archiverappliance.data.ScalarValue;
+import org.epics.archiverappliance.engine.membuf.ArrayListEventStream;
+import org.epics.archiverappliance.retrieval.RemotableEventStreamDesc;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.stanford.slac.archiverappliance.PB.utils.LineEscaper;
+
+/**
+ * Test the bulk transfer used by raw retrieval for FileBackedPBEventStream's.
+ * The bytes transferred in bulk should be exactly what we would have sent had we iterated thru the events.
+ * @author mshankar
+ *
+ */
+public class FileBackedPBBulkTransferTest {
+	File testFolder = new File(ConfigServiceForTests.getDefaultPBTestFolder() + File.separator + "FileBackedPBBulkTransferTest");
+	String pvName = ConfigServiceForTests.ARCH_UNIT_TEST_PVNAME_PREFIX + ":FileBackedPBBulkTransferTest";
+	ArchDBRTypes dbrType = ArchDBRTypes.DBR_SCALAR_DOUBLE;
+	PlainPBStoragePlugin storagePlugin;
+	private ConfigServiceForTests configService;
+	private short currentYear = TimeUtils.getCurrentYear();
+
+	@Before
+	public void setUp() throws Exception {
+		configService = new ConfigServiceForTests(new File("./bin"));
+		if(testFolder.exists()) {
+			FileUtils.deleteDirectory(testFolder);
+		}
+		storagePlugin = (PlainPBStoragePlugin) StoragePluginURLParser.parseStoragePlugin("pb://localhost?name=FileBackedPBBulkTransferTest&rootFolder=" + testFolder.getAbsolutePath() + "&partitionGranularity=PARTITION_YEAR", configService);
+		ArrayListEventStream strm = new ArrayListEventStream(86400, new RemotableEventStreamDesc(dbrType, pvName, currentYear));
+		for(int i = 0; i < 30*86400; i+=60) { 
+			strm.add(new POJOEvent(dbrType, TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp(currentYear, i, 0)), new ScalarValue<Double>((double)i), 0, 0));
+		}
+		try(BasicContext context = new BasicContext()) {
+			storagePlugin.appendData(context, pvName, strm);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(testFolder);
+	}
+
+	@Test
+	public void testBulkTransfer() throws Exception {
+		Path path = getPath();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		int eventCount = 0;
+		try(FileBackedPBEventStream stream = new FileBackedPBEventStream(pvName, path, dbrType)) {
+			for(Event e : stream) {
+				ByteArray val = e.getRawForm();
+				expected.write(val.data, val.off, val.len);
+				expected.write(LineEscaper.NEWLINE_CHAR);
+				eventCount++;
+			}
+			assertFalse("We should not be able to transfer in bulk once we have started iterating", stream.canTransferInBulk());
+		}
+		assertTrue("Expected 43200 events, got " + eventCount, eventCount == 30*86400/60);
+
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		try(FileBackedPBEventStream stream = new FileBackedPBEventStream(pvName, path, dbrType)) {
+			assertTrue("We should be able to transfer the complete file in bulk", stream.canTransferInBulk());
+			assertTrue("First event timestamp is incorrect", stream.getFirstEventTimeStamp().equals(TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp(currentYear, 0, 0))));
+			assertTrue("Last event timestamp is incorrect", stream.getLastEventTimeStamp().equals(TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp(currentYear, 30*86400-60, 0))));
+			long bytesTransferred = stream.transferTo(Channels.newChannel(actual));
+			assertTrue("Transferred " + bytesTransferred + " expected " + expected.size(), bytesTransferred == expected.size());
+		}
+		assertTrue("Bulk transfer does not match the events", Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+	}
+
+	@Test
+	public void testPartialStreamsAreNotTransferredInBulk() throws Exception {
+		Path path = getPath();
+		try(FileBackedPBEventStream stream = new FileBackedPBEventStream(pvName, path, dbrType, 
+				TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp(currentYear, 86400, 0)), 
+				TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp(currentYear, 2*86400, 0)), 
+				false)) {
+			assertFalse("We should not transfer a part of the file in bulk", stream.canTransferInBulk());
+		}
+
+		try(FileBackedPBEventStream stream = new FileBackedPBEventStream(pvName, path, dbrType, 
+				TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp((short)(currentYear-1), 0, 0)), 
+				TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp((short)(currentYear+1), 0, 0)), 
+				true)) {
+			assertFalse("We should not transfer time based streams in bulk", stream.canTransferInBulk());
+		}
+		
+		// Add an incomplete line to the end of the file.
+		Files.write(path, new byte[] { 0x08, 0x01, 0x10 }, StandardOpenOption.APPEND);
+		try(FileBackedPBEventStream stream = new FileBackedPBEventStream(pvName, path, dbrType)) {
+			assertFalse("We should not transfer a file with a partial last line in bulk", stream.canTransferInBulk());
+		}
+	}
+
+	private Path getPath() throws Exception {
+		try(BasicContext context = new BasicContext()) {
+			Path path = PlainPBPathNameUtility.getPathNameForTime(storagePlugin, pvName, TimeUtils.convertToEpochSeconds(TimeUtils.convertFromYearSecondTimestamp(new YearSecondTimestamp(currentYear, 86400, 0))), context.getPaths(), configService.getPVNameToKeyConverter());
+			assertTrue("Did we not write any data?", path != null);
+			return path;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package org.epics.archiverappliance.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the bucketing and percentiles of the latency histogram.
+ * @author mshankar
+ *
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void testBucketBounds() {
+		// Every value should land in a bucket whose upper bound is at least the value and within 25% of it.
+		long previousIndex = -1;
+		for(long micros = 0; micros < 10*1000*1000; micros = micros < 100 ? micros + 1 : micros + micros/7) {
+			int index = LatencyHistogram.bucketIndex(micros);
+			assertTrue("Buckets should not decrease for " + micros, index >= previousIndex);
+			long upperBound = LatencyHistogram.bucketUpperBoundMicros(index);
+			assertTrue("Upper bound " + upperBound + " is less than " + micros, upperBound >= micros);
+			assertTrue("Upper bound " + upperBound + " is too large for " + micros, upperBound <= Math.max(micros*1.25, micros + 1));
+			if(index > 0) {
+				assertTrue("Previous bucket should not contain " + micros, LatencyHistogram.bucketUpperBoundMicros(index - 1) < micros);
+			}
+			previousIndex = index;
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentileMicros(50));
+		for(int i = 1; i <= 1000; i++) {
+			histogram.recordMicros(i*1000);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000*1000, histogram.getMaxMicros());
+		assertEquals(500500.0, histogram.getMeanMicros(), 0.001);
+		assertPercentile(histogram, 50, 500*1000);
+		assertPercentile(histogram, 90, 900*1000);
+		assertPercentile(histogram, 99, 990*1000);
+		assertEquals(1000*1000, histogram.getPercentileMicros(100));
+	}
+
+	@Test
+	public void testNegativeAndHugeValues() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.recordMicros(-5);
+		histogram.recordMicros(Long.MAX_VALUE/2);
+		assertEquals(2, histogram.getCount());
+		assertEquals(0, histogram.getPercentileMicros(50));
+		assertEquals(2, histogram.getBuckets().size());
+	}
+
+	private static void assertPercentile(LatencyHistogram histogram, double percentile, long expectedMicros) {
+		long actual = histogram.getPercentileMicros(percentile);
+		assertTrue("Percentile " + percentile + " is " + actual + "; expecting about " + expectedMicros, actual >= expectedMicros && actual <= expectedMicros*1.25);
+	}
+}
@@ -0,0 +1,48 @@
+package org.epics.archiverappliance.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+/**
+ * Tests for the Prometheus text format written by the OpenMetricsWriter.
+ * @author mshankar
+ *
+ */
+public class OpenMetricsWriterTest {
+
+	@Test
+	public void testFormat() {
+		StringWriter buf = new StringWriter();
+		try(PrintWriter out = new PrintWriter(buf)) {
+			OpenMetricsWriter metrics = new OpenMetricsWriter(out, "engine");
+			metrics.counter("engine_events_total", "Events added", 42);
+			metrics.family("engine_lost_events_total", "counter", "Events lost by reason");
+			metrics.sample("engine_lost_events_total", "reason", "a \"quoted\" reason", 1.5);
+			LatencyHistogram histogram = new LatencyHistogram();
+			histogram.recordMicros(1000);
+			metrics.family("engine_latency_seconds", "summary", "Latency");
+			metrics.summary("engine_latency_seconds", "stage", "sts", histogram);
+		}
+		String[] lines = buf.toString().split("\r?\n");
+		assertEquals("# HELP archappl_engine_events_total Events added", lines[0]);
+		assertEquals("# TYPE archappl_engine_events_total counter", lines[1]);
+		assertEquals("archappl_engine_events_total{component=\"engine\"} 42", lines[2]);
+		assertEquals("archappl_engine_lost_events_total{component=\"engine\",reason=\"a \\\"quoted\\\" reason\"} 1.5", lines[5]);
+		assertTrue(lines[8], lines[8].startsWith("archappl_engine_latency_seconds{component=\"engine\",stage=\"sts\",quantile=\"0.5\"} 0.001"));
+		assertEquals("archappl_engine_latency_seconds_count{component=\"engine\",stage=\"sts\"} 1", lines[12]);
+	}
+
+	@Test
+	public void testFormatValue() {
+		assertEquals("0", OpenMetricsWriter.formatValue(0.0));
+		assertEquals("-3", OpenMetricsWriter.formatValue(-3.0));
+		assertEquals("0.25", OpenMetricsWriter.formatValue(0.25));
+		assertEquals("NaN", OpenMetricsWriter.formatValue(Double.NaN));
+		assertEquals("+Inf", OpenMetricsWriter.formatValue(Double.POSITIVE_INFINITY));
+	}
+}
@@ -0,0 +1,69 @@
+package org.epics.archiverappliance.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.epics.archiverappliance.config.PVTypeInfoEvent.ChangeType;
+import org.junit.Test;
+
+/**
+ * Test that the appliance aggregates are maintained correctly as typeinfos are added, changed, moved and deleted.
+ * @author mshankar
+ *
+ */
+public class ApplianceAggregateInfoTest {
+	private static final String OTHER_APPLIANCE = "appliance1";
+	private static final String STS = "pb://localhost?name=STS&rootFolder=/tmp/aggregatetest/sts&partitionGranularity=PARTITION_HOUR";
+	private static final String MTS = "pb://localhost?name=MTS&rootFolder=/tmp/aggregatetest/mts&partitionGranularity=PARTITION_DAY";
+
+	private static PVTypeInfo makeTypeInfo(String pvName, String applianceIdentity, float storageRate, float eventRate) {
+		PVTypeInfo typeInfo = new PVTypeInfo(pvName, ArchDBRTypes.DBR_SCALAR_DOUBLE, true, 1);
+		typeInfo.setApplianceIdentity(applianceIdentity);
+		typeInfo.setComputedStorageRate(storageRate);
+		typeInfo.setComputedEventRate(eventRate);
+		typeInfo.setDataStores(new String[] { STS, MTS });
+		return typeInfo;
+	}
+
+	@Test
+	public void testIncrementalAggregates() throws Exception {
+		DefaultConfigService configService = new ConfigServiceForTests(new File("./bin"));
+		String myIdentity = configService.getMyApplianceInfo().getIdentity();
+		configService.otherApplianceAggregateInfos.put(OTHER_APPLIANCE, new ApplianceAggregateInfo());
+
+		for(int i = 0; i < 100; i++) {
+			String pvName = "Aggregate:pv" + i;
+			configService.updateApplianceAggregates(new PVTypeInfoEvent(pvName, makeTypeInfo(pvName, myIdentity, 10.5f, 1.0f), ChangeType.TYPEINFO_ADDED));
+		}
+		ApplianceAggregateInfo mine = configService.applianceAggregateInfo.clone();
+		assertEquals(100, mine.getTotalPVCount(), 0.0);
+		assertEquals(1050.0, mine.getTotalStorageRate(), 0.01);
+		assertEquals(100.0, mine.getTotalEventRate(), 0.01);
+		assertEquals(100*(long)(3600*10.5f), mine.getTotalStorageImpact().get("STS").longValue());
+		assertEquals(100*(long)(86400*10.5f), mine.getTotalStorageImpact().get("MTS").longValue());
+
+		// Change the rates of one PV and move another to the other appliance.
+		configService.updateApplianceAggregates(new PVTypeInfoEvent("Aggregate:pv0", makeTypeInfo("Aggregate:pv0", myIdentity, 20.5f, 2.0f), ChangeType.TYPEINFO_MODIFIED, makeTypeInfo("Aggregate:pv0", myIdentity, 10.5f, 1.0f)));
+		configService.updateApplianceAggregates(new PVTypeInfoEvent("Aggregate:pv1", makeTypeInfo("Aggregate:pv1", OTHER_APPLIANCE, 10.5f, 1.0f), ChangeType.TYPEINFO_MODIFIED, makeTypeInfo("Aggregate:pv1", myIdentity, 10.5f, 1.0f)));
+		// Delete a PV
+		configService.updateApplianceAggregates(new PVTypeInfoEvent("Aggregate:pv2", makeTypeInfo("Aggregate:pv2", myIdentity, 10.5f, 1.0f), ChangeType.TYPEINFO_DELETED));
+		// Changes to appliances that we have not seeded are skipped.
+		configService.updateApplianceAggregates(new PVTypeInfoEvent("Aggregate:unseeded", makeTypeInfo("Aggregate:unseeded", "appliance2", 10.5f, 1.0f), ChangeType.TYPEINFO_ADDED));
+
+		ApplianceAggregateInfo difference = configService.applianceAggregateInfo.clone().getDifference(mine);
+		assertEquals(-2, difference.getTotalPVCount(), 0.0);
+		assertEquals(10.0 - 2*10.5, difference.getTotalStorageRate(), 0.01);
+		assertEquals(1.0 - 2*1.0, difference.getTotalEventRate(), 0.01);
+		assertEquals((long)(3600*20.5f) - 3*(long)(3600*10.5f), difference.getTotalStorageImpact().get("STS").longValue());
+
+		ApplianceAggregateInfo other = configService.otherApplianceAggregateInfos.get(OTHER_APPLIANCE).clone();
+		assertEquals(1, other.getTotalPVCount(), 0.0);
+		assertEquals(10.5, other.getTotalStorageRate(), 0.01);
+		assertEquals((long)(86400*10.5f), other.getTotalStorageImpact().get("MTS").longValue());
+		assertTrue(!configService.otherApplianceAggregateInfos.containsKey("appliance2"));
+
+		configService.shutdownNow();
+	}
+}
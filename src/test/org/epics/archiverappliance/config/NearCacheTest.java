@@ -0,0 +1,186 @@
+package org.epics.archiverappliance.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.epics.archiverappliance.common.OpenMetricsWriter;
+import org.junit.Test;
+
+/**
+ * Tests for the near cache in front of the cluster maps; we use a ConcurrentHashMap as the cluster map.
+ * @author mshankar
+ *
+ */
+public class NearCacheTest {
+
+	/**
+	 * A cluster map that counts the lookups.
+	 */
+	@SuppressWarnings("serial")
+	private static class CountingMap extends ConcurrentHashMap<String, String> {
+		AtomicInteger lookups = new AtomicInteger(0);
+		@Override
+		public String get(Object key) {
+			lookups.incrementAndGet();
+			return super.get(key);
+		}
+	}
+
+	@Test
+	public void testGetAndInvalidate() throws Exception {
+		CountingMap clusterMap = new CountingMap();
+		clusterMap.put("PV1", "appliance0");
+		NearCache<String> nearCache = new NearCache<String>("test", clusterMap, 100, 600);
+
+		assertEquals("appliance0", nearCache.get("PV1"));
+		assertEquals("appliance0", nearCache.get("PV1"));
+		assertEquals(1, clusterMap.lookups.get());
+
+		// Misses are not cached
+		assertNull(nearCache.get("PV2"));
+		clusterMap.put("PV2", "appliance1");
+		assertEquals("appliance1", nearCache.get("PV2"));
+
+		// We serve stale data until the entry is invalidated
+		clusterMap.put("PV1", "appliance1");
+		assertEquals("appliance0", nearCache.get("PV1"));
+		nearCache.invalidate("PV1");
+		assertEquals("appliance1", nearCache.get("PV1"));
+		assertEquals(2, nearCache.getStats().hitCount());
+	}
+
+	/**
+	 * If the entry is invalidated while we are looking it up in the cluster, what we got could be stale and should not be cached.
+	 */
+	@Test
+	public void testInvalidationDuringLookup() throws Exception {
+		final NearCache<?>[] nearCacheHolder = new NearCache<?>[1];
+		@SuppressWarnings("serial")
+		ConcurrentHashMap<String, String> clusterMap = new ConcurrentHashMap<String, String>() {
+			@Override
+			public String get(Object key) {
+				String value = super.get(key);
+				nearCacheHolder[0].invalidate((String) key);
+				return value;
+			}
+		};
+		clusterMap.put("PV1", "appliance0");
+		NearCache<String> nearCache = new NearCache<String>("test", clusterMap, 100, 600);
+		nearCacheHolder[0] = nearCache;
+		assertEquals("appliance0", nearCache.get("PV1"));
+		assertEquals(0, nearCache.size());
+	}
+
+	/**
+	 * An invalidation of some other key while we are looking up this key should not stop us from caching this key.
+	 */
+	@Test
+	public void testInvalidationOfOtherKeyDuringLookup() throws Exception {
+		final NearCache<?>[] nearCacheHolder = new NearCache<?>[1];
+		@SuppressWarnings("serial")
+		ConcurrentHashMap<String, String> clusterMap = new ConcurrentHashMap<String, String>() {
+			@Override
+			public String get(Object key) {
+				String value = super.get(key);
+				nearCacheHolder[0].invalidate("PV2");
+				return value;
+			}
+		};
+		clusterMap.put("PV1", "appliance0");
+		NearCache<String> nearCache = new NearCache<String>("test", clusterMap, 100, 600);
+		nearCacheHolder[0] = nearCache;
+		assertEquals("appliance0", nearCache.get("PV1"));
+		assertEquals(1, nearCache.size());
+	}
+
+	/**
+	 * A value that invalidates its key in the near cache when it is serialized; this lets us invalidate after the version check but before the put.
+	 */
+	@SuppressWarnings("serial")
+	private static class InvalidatingValue implements Serializable {
+		private transient NearCache<?> nearCache;
+		private String key;
+		InvalidatingValue(NearCache<?> nearCache, String key) {
+			this.nearCache = nearCache;
+			this.key = key;
+		}
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			nearCache.invalidate(key);
+			out.defaultWriteObject();
+		}
+	}
+
+	/**
+	 * If the entry is invalidated while we are caching it, what we cached could be stale and should be removed.
+	 */
+	@Test
+	public void testInvalidationDuringPut() throws Exception {
+		ConcurrentHashMap<String, InvalidatingValue> clusterMap = new ConcurrentHashMap<String, InvalidatingValue>();
+		NearCache<InvalidatingValue> nearCache = new NearCache<InvalidatingValue>("test", clusterMap, 100, 600, true);
+		clusterMap.put("PV1", new InvalidatingValue(nearCache, "PV1"));
+		clusterMap.put("PV2", new InvalidatingValue(nearCache, "PV2"));
+		assertNotNull(nearCache.get("PV1"));
+		assertEquals(0, nearCache.size());
+		nearCache.prefetch(Arrays.asList("PV2"));
+		assertEquals(0, nearCache.size());
+	}
+
+	@Test
+	public void testPrefetchAndMetrics() throws Exception {
+		CountingMap clusterMap = new CountingMap();
+		for(int i = 0; i < 10; i++) {
+			clusterMap.put("PV" + i, "appliance" + i);
+		}
+		NearCache<String> nearCache = new NearCache<String>("pv2appliancemapping", clusterMap, 100, 600);
+		nearCache.prefetch(Arrays.asList("PV1", "PV2", "PV3", "NotAPV"));
+		assertEquals(3, nearCache.size());
+		int lookupsAfterPrefetch = clusterMap.lookups.get();
+		assertSame(clusterMap.get("PV2"), nearCache.get("PV2"));
+		assertEquals(lookupsAfterPrefetch + 1, clusterMap.lookups.get());
+
+		StringWriter buf = new StringWriter();
+		try(PrintWriter out = new PrintWriter(buf)) {
+			NearCache.writeOpenMetrics(new OpenMetricsWriter(out, "test"), NearCache.asList(nearCache, null));
+		}
+		String metrics = buf.toString();
+		assertTrue(metrics, metrics.contains("archappl_config_nearcache_hits_total{component=\"test\",map=\"pv2appliancemapping\"} 1"));
+		assertTrue(metrics, metrics.contains("archappl_config_nearcache_entries{component=\"test\",map=\"pv2appliancemapping\"} 3"));
+	}
+
+	/**
+	 * Typeinfos are changed in place by callers; each lookup should get its own copy so that changes that have not been put back are not seen by others.
+	 */
+	@Test
+	public void testCopyOnRead() throws Exception {
+		ConcurrentHashMap<String, PVTypeInfo> clusterMap = new ConcurrentHashMap<String, PVTypeInfo>();
+		PVTypeInfo typeInfo = new PVTypeInfo("PV1", ArchDBRTypes.DBR_SCALAR_DOUBLE, true, 1);
+		typeInfo.setApplianceIdentity("appliance0");
+		clusterMap.put("PV1", typeInfo);
+		NearCache<PVTypeInfo> nearCache = new NearCache<PVTypeInfo>("typeinfo", clusterMap, 100, 600, true);
+		nearCache.prefetch(Arrays.asList("PV1"));
+
+		PVTypeInfo first = nearCache.get("PV1");
+		PVTypeInfo second = nearCache.get("PV1");
+		assertNotSame(first, second);
+		assertNotSame(typeInfo, first);
+		assertEquals(2, nearCache.getStats().hitCount());
+		first.setPaused(true);
+		first.setApplianceIdentity("appliance1");
+		assertEquals("appliance0", nearCache.get("PV1").getApplianceIdentity());
+		assertTrue(!nearCache.get("PV1").isPaused());
+		assertTrue(!second.isPaused());
+	}
+}
@@ -0,0 +1,160 @@
+package org.epics.archiverappliance.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Compare the results of the name index against matching the regex against every name.
+ * @author mshankar
+ *
+ */
+public class PVNameIndexTest {
+	private static final String[] SEARCHES = new String[] {
+		"ARCH:TEST:0001:Temp",
+		"ARCH:TEST:000.*",
+		"ARCH.*:Temp",
+		".*:00[12][0-9]:.*",
+		".*Press.*",
+		".*Pr?ess.*",
+		"ARCH:(TEST|PROD):01.*",
+		"ARCH:TEST:0{2}1.*",
+		"ARCH:TEST|ARCH:PROD:0001:Temp",
+		"(?i)arch:test:0001:temp",
+		"\\QARCH:TEST:0001:Temp\\E",
+		"^ARCH:PROD:\\d+:Curr$",
+		".*:Temp\\.VAL",
+		".*",
+		"NotAPV.*",
+	};
+
+	private static List<String> makeNames() {
+		List<String> names = new ArrayList<String>();
+		for(String area : new String[] {"ARCH:TEST", "ARCH:PROD", "LINAC"}) {
+			for(int i = 0; i < 300; i++) {
+				for(String signal : new String[] {"Temp", "Press", "Curr", "Temp.VAL"}) {
+					names.add(area + ":" + String.format("%04d", i) + ":" + signal);
+				}
+			}
+		}
+		return names;
+	}
+
+	private static TreeSet<String> bruteForce(List<String> names, String regex) {
+		Pattern pattern = Pattern.compile(regex);
+		TreeSet<String> ret = new TreeSet<String>();
+		for(String name : names) {
+			if(pattern.matcher(name).matches()) ret.add(name);
+		}
+		return ret;
+	}
+
+	@Test
+	public void testMatchesBruteForce() {
+		List<String> names = makeNames();
+		PVNameIndex index = new PVNameIndex();
+		for(String name : names) {
+			index.add(name);
+		}
+		assertEquals(names.size(), index.size());
+		for(String regex : SEARCHES) {
+			assertEquals(regex, bruteForce(names, regex), index.getMatchingNames(regex, -1));
+		}
+		// The limit applies to the sorted names
+		for(String regex : SEARCHES) {
+			TreeSet<String> limited = index.getMatchingNames(regex, 10);
+			assertTrue(regex, limited.size() <= 10);
+			assertTrue(regex, bruteForce(names, regex).containsAll(limited));
+		}
+	}
+
+	@Test
+	public void testAddRemoveAndRebuild() {
+		List<String> names = makeNames();
+		PVNameIndex index = new PVNameIndex();
+		for(String name : names) {
+			index.add(name);
+		}
+		index.add(names.get(0));
+		assertEquals(names.size(), index.size());
+		// Remove enough names to force a rebuild of the postings
+		List<String> remaining = new ArrayList<String>();
+		for(int i = 0; i < names.size(); i++) {
+			if(i % 3 == 0) {
+				remaining.add(names.get(i));
+			} else {
+				index.remove(names.get(i));
+			}
+		}
+		index.remove("NotAPV");
+		assertEquals(remaining.size(), index.size());
+		assertFalse(index.contains(names.get(1)));
+		assertTrue(index.contains(names.get(0)));
+		for(String regex : SEARCHES) {
+			assertEquals(regex, bruteForce(remaining, regex), index.getMatchingNames(regex, -1));
+		}
+		index.add(names.get(1));
+		remaining.add(names.get(1));
+		for(String regex : SEARCHES) {
+			assertEquals(regex, bruteForce(remaining, regex), index.getMatchingNames(regex, -1));
+		}
+	}
+
+	@Test
+	public void testRegexLiterals() {
+		PVNameIndex.RegexLiterals literals = PVNameIndex.RegexLiterals.parse("ARCH:TEST:0001");
+		assertTrue(literals.exact);
+		assertEquals("ARCH:TEST:0001", literals.prefix);
+
+		literals = PVNameIndex.RegexLiterals.parse("ARCH:.*:00[12]x+:Temp\\.VAL");
+		assertFalse(literals.exact);
+		assertEquals("ARCH:", literals.prefix);
+		assertEquals(Arrays.asList("ARCH:", ":00", "x", ":Temp.VAL"), literals.literals);
+
+		literals = PVNameIndex.RegexLiterals.parse(".*Temps?");
+		assertEquals("", literals.prefix);
+		assertEquals(Arrays.asList("Temp"), literals.literals);
+
+		for(String noLiterals : new String[] {"ARCH:TEST|LINAC", "(?i)ARCH", "\\QARCH\\E", "ARCH)"}) {
+			literals = PVNameIndex.RegexLiterals.parse(noLiterals);
+			assertFalse(noLiterals, literals.exact);
+			assertTrue(noLiterals, literals.literals.isEmpty());
+		}
+	}
+
+	/**
+	 * Escapes that take arguments should not leave their arguments behind as literals.
+	 */
+	@Test
+	public void testEscapesWithArguments() {
+		List<String> names = Arrays.asList("abAcdef", "ab41cdef", "abcdef", "ARCH:TEST:0001:Temp");
+		PVNameIndex index = new PVNameIndex();
+		for(String name : names) {
+			index.add(name);
+		}
+		for(String regex : new String[] {"ab\\x41cdef", "ab\\u0041cdef", "ab\\0101cdef", "ab\\x{41}cdef", "(?<g>A)b\\k<g>", "ab\\p{Lu}cdef"}) {
+			assertEquals(regex, bruteForce(names, regex), index.getMatchingNames(regex, -1));
+			PVNameIndex.RegexLiterals literals = PVNameIndex.RegexLiterals.parse(regex);
+			assertFalse(regex, literals.exact);
+			assertTrue(regex, literals.literals.isEmpty());
+		}
+		assertEquals(new TreeSet<String>(Arrays.asList("abAcdef")), index.getMatchingNames("ab\\x41cdef", -1));
+		assertEquals(new TreeSet<String>(Arrays.asList("abAcdef")), index.getMatchingNames("\\w+\\x41cdef", -1));
+	}
+
+	@Test
+	public void testGlobToRegex() {
+		assertEquals("ARCH\\:TEST\\:.*", PVNameIndex.globToRegex("ARCH:TEST:*"));
+		assertEquals("ARCH\\:\\(.\\)\\.VAL", PVNameIndex.globToRegex("ARCH:(?).VAL"));
+		assertTrue(Pattern.matches(PVNameIndex.globToRegex("ARCH:*.VAL"), "ARCH:0001:Temp.VAL"));
+		assertFalse(Pattern.matches(PVNameIndex.globToRegex("ARCH:*.VAL"), "ARCH:0001:TempxVAL"));
+	}
+}
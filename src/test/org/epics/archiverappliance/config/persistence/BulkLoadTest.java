@@ -0,0 +1,155 @@
+package org.epics.archiverappliance.config.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.config.ConfigPersistence;
+import org.epics.archiverappliance.config.ConfigPersistence.BulkLoadConsumer;
+import org.epics.archiverappliance.config.PVTypeInfo;
+import org.epics.archiverappliance.config.UserSpecifiedSamplingParams;
+import org.epics.archiverappliance.mgmt.policy.PolicyConfig.SamplingMethod;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that the bulk load methods in the persistence layers return everything that was put in, in pages no larger than we asked for.
+ * We use JDBM2 as that does not need a database; this also tests the parallel decoding in BulkLoadDecoder.
+ * @author mshankar
+ *
+ */
+public class BulkLoadTest {
+	private static final int PV_COUNT = 1000;
+	private static final int PAGE_SIZE = 100;
+	private File persistenceFolder = new File(System.getProperty("java.io.tmpdir") + File.separator + "BulkLoadTest");
+
+	@Before
+	public void setUp() throws Exception {
+		FileUtils.deleteDirectory(persistenceFolder);
+		persistenceFolder.mkdirs();
+		System.getProperties().put(JDBM2Persistence.ARCHAPPL_JDBM2_FILENAME, persistenceFolder.getAbsolutePath() + File.separator + "archapplconfig.jdbm2");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		System.getProperties().remove(JDBM2Persistence.ARCHAPPL_JDBM2_FILENAME);
+		FileUtils.deleteDirectory(persistenceFolder);
+	}
+
+	@Test
+	public void testBulkLoad() throws Exception {
+		JDBM2Persistence persistence = new JDBM2Persistence();
+		for(int i = 0; i < PV_COUNT; i++) {
+			String pvName = "BulkLoadTest:pv" + i;
+			PVTypeInfo typeInfo = new PVTypeInfo(pvName, ArchDBRTypes.DBR_SCALAR_DOUBLE, true, 1);
+			typeInfo.setApplianceIdentity("appliance" + (i % 3));
+			persistence.putTypeInfo(pvName, typeInfo);
+			if(i % 5 == 0) {
+				persistence.putArchivePVRequest(pvName, new UserSpecifiedSamplingParams(SamplingMethod.MONITOR, i, null, null, false, false));
+			}
+			if(i % 7 == 0) {
+				persistence.putAliasNamesToRealName("BulkLoadTest:alias" + i, pvName);
+			}
+		}
+
+		// Use a fresh instance so that the typeinfos are preloaded using the bulk load path.
+		checkBulkLoad(new JDBM2Persistence());
+		checkBulkLoad(copyIntoMemory(persistence));
+	}
+
+	private void checkBulkLoad(ConfigPersistence persistence) throws IOException {
+		TreeMap<String, PVTypeInfo> typeInfos = loadAll(new TypeInfoLoader(persistence));
+		assertEquals(PV_COUNT, typeInfos.size());
+		for(int i = 0; i < PV_COUNT; i++) {
+			String pvName = "BulkLoadTest:pv" + i;
+			PVTypeInfo typeInfo = typeInfos.get(pvName);
+			assertEquals(pvName, typeInfo.getPvName());
+			assertEquals("appliance" + (i % 3), typeInfo.getApplianceIdentity());
+		}
+
+		TreeMap<String, UserSpecifiedSamplingParams> archiveRequests = loadAll(new ArchiveRequestsLoader(persistence));
+		assertEquals(PV_COUNT/5, archiveRequests.size());
+		assertEquals(35.0f, archiveRequests.get("BulkLoadTest:pv35").getUserSpecifedSamplingPeriod(), 0.0f);
+
+		TreeMap<String, String> aliases = loadAll(new AliasesLoader(persistence));
+		assertEquals((PV_COUNT + 6)/7, aliases.size());
+		assertEquals("BulkLoadTest:pv49", aliases.get("BulkLoadTest:alias49"));
+	}
+
+	private static InMemoryPersistence copyIntoMemory(ConfigPersistence persistence) throws IOException {
+		InMemoryPersistence ret = new InMemoryPersistence();
+		for(String pvName : persistence.getTypeInfoKeys()) {
+			ret.putTypeInfo(pvName, persistence.getTypeInfo(pvName));
+		}
+		for(String pvName : persistence.getArchivePVRequestsKeys()) {
+			ret.putArchivePVRequest(pvName, persistence.getArchivePVRequest(pvName));
+		}
+		for(String aliasName : persistence.getAliasNamesToRealNamesKeys()) {
+			ret.putAliasNamesToRealName(aliasName, persistence.getAliasNamesToRealName(aliasName));
+		}
+		return ret;
+	}
+
+	private static <T> TreeMap<String, T> loadAll(Loader<T> loader) throws IOException {
+		final TreeMap<String, T> ret = new TreeMap<String, T>();
+		final List<Integer> pageSizes = new LinkedList<Integer>();
+		loader.load(new BulkLoadConsumer<T>() {
+			@Override
+			public void consume(Map<String, T> page) throws IOException {
+				pageSizes.add(page.size());
+				ret.putAll(page);
+			}
+		});
+		for(int pageSize : pageSizes) {
+			assertTrue("Page of size " + pageSize + " is larger than " + PAGE_SIZE, pageSize > 0 && pageSize <= PAGE_SIZE);
+		}
+		return ret;
+	}
+
+	private static abstract class Loader<T> {
+		protected final ConfigPersistence persistence;
+		Loader(ConfigPersistence persistence) {
+			this.persistence = persistence;
+		}
+		abstract void load(BulkLoadConsumer<T> consumer) throws IOException;
+	}
+
+	private static class TypeInfoLoader extends Loader<PVTypeInfo> {
+		TypeInfoLoader(ConfigPersistence persistence) {
+			super(persistence);
+		}
+		@Override
+		void load(BulkLoadConsumer<PVTypeInfo> consumer) throws IOException {
+			persistence.getAllTypeInfos(PAGE_SIZE, consumer);
+		}
+	}
+
+	private static class ArchiveRequestsLoader extends Loader<UserSpecifiedSamplingParams> {
+		ArchiveRequestsLoader(ConfigPersistence persistence) {
+			super(persistence);
+		}
+		@Override
+		void load(BulkLoadConsumer<UserSpecifiedSamplingParams> consumer) throws IOException {
+			persistence.getAllArchivePVRequests(PAGE_SIZE, consumer);
+		}
+	}
+
+	private static class AliasesLoader extends Loader<String> {
+		AliasesLoader(ConfigPersistence persistence) {
+			super(persistence);
+		}
+		@Override
+		void load(BulkLoadConsumer<String> consumer) throws IOException {
+			persistence.getAllAliasNamesToRealNames(PAGE_SIZE, consumer);
+		}
+	}
+}
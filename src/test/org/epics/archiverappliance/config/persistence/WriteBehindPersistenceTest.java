@@ -0,0 +1,195 @@
+package org.epics.archiverappliance.config.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.epics.archiverappliance.common.OpenMetricsWriter;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.config.PVTypeInfo;
+import org.junit.Test;
+
+/**
+ * Test the coalescing, read your writes, batching and retries in the write behind queue.
+ * We use a long flush interval so that we control when the queue is flushed.
+ * @author mshankar
+ *
+ */
+public class WriteBehindPersistenceTest {
+	private static final long FLUSH_INTERVAL_MILLIS = 3600*1000;
+
+	/**
+	 * In memory persistence that counts the batches and can be made to fail.
+	 */
+	private static class CountingPersistence extends InMemoryPersistence {
+		AtomicInteger typeInfoBatches = new AtomicInteger(0);
+		AtomicInteger typeInfosWritten = new AtomicInteger(0);
+		volatile boolean fail = false;
+		volatile String badKey = null;
+		@Override
+		public void putTypeInfos(Map<String, PVTypeInfo> changes) throws IOException {
+			if(fail) throw new IOException("Persistence is down");
+			if(badKey != null && changes.containsKey(badKey)) throw new IOException("Bad change " + badKey);
+			typeInfoBatches.incrementAndGet();
+			typeInfosWritten.addAndGet(changes.size());
+			super.putTypeInfos(changes);
+		}
+	}
+
+	private static PVTypeInfo makeTypeInfo(String pvName, String applianceIdentity) {
+		PVTypeInfo typeInfo = new PVTypeInfo(pvName, ArchDBRTypes.DBR_SCALAR_DOUBLE, true, 1);
+		typeInfo.setApplianceIdentity(applianceIdentity);
+		return typeInfo;
+	}
+
+	@Test
+	public void testCoalesceAndFlush() throws Exception {
+		CountingPersistence delegate = new CountingPersistence();
+		delegate.putTypeInfo("WriteBehind:existing", makeTypeInfo("WriteBehind:existing", "appliance0"));
+		WriteBehindPersistence persistence = new WriteBehindPersistence(delegate, FLUSH_INTERVAL_MILLIS, 1000);
+		try {
+			for(int i = 0; i < 250; i++) {
+				String pvName = "WriteBehind:pv" + i;
+				persistence.putTypeInfo(pvName, makeTypeInfo(pvName, "appliance0"));
+				persistence.putTypeInfo(pvName, makeTypeInfo(pvName, "appliance1"));
+			}
+			persistence.deleteTypeInfo("WriteBehind:existing");
+			persistence.deleteTypeInfo("WriteBehind:pv0");
+			persistence.putAliasNamesToRealName("WriteBehind:alias", "WriteBehind:pv1");
+
+			// Nothing has been written yet but we see our own writes.
+			assertEquals(0, delegate.typeInfoBatches.get());
+			assertEquals("WriteBehind:existing", delegate.getTypeInfo("WriteBehind:existing").getPvName());
+			assertNull(persistence.getTypeInfo("WriteBehind:existing"));
+			assertNull(persistence.getTypeInfo("WriteBehind:pv0"));
+			assertEquals("appliance1", persistence.getTypeInfo("WriteBehind:pv1").getApplianceIdentity());
+			assertEquals("WriteBehind:pv1", persistence.getAliasNamesToRealName("WriteBehind:alias"));
+			HashSet<String> keys = new HashSet<String>(persistence.getTypeInfoKeys());
+			assertEquals(249, keys.size());
+			assertTrue(!keys.contains("WriteBehind:existing") && keys.contains("WriteBehind:pv249"));
+			assertEquals(252, persistence.getQueuedCount());
+
+			persistence.flush();
+			assertEquals(0, persistence.getQueuedCount());
+			assertEquals(0, persistence.getFlushLagMillis());
+			assertEquals(1, delegate.typeInfoBatches.get());
+			assertEquals(251, delegate.typeInfosWritten.get());
+			assertNull(delegate.getTypeInfo("WriteBehind:existing"));
+			assertEquals(249, delegate.getTypeInfoKeys().size());
+			assertEquals("appliance1", delegate.getTypeInfo("WriteBehind:pv249").getApplianceIdentity());
+			assertEquals("WriteBehind:pv1", delegate.getAliasNamesToRealName("WriteBehind:alias"));
+		} finally {
+			persistence.close();
+		}
+	}
+
+	@Test
+	public void testBatchSizeAndEarlyFlush() throws Exception {
+		CountingPersistence delegate = new CountingPersistence();
+		WriteBehindPersistence persistence = new WriteBehindPersistence(delegate, FLUSH_INTERVAL_MILLIS, 100);
+		try {
+			for(int i = 0; i < 250; i++) {
+				String pvName = "WriteBehind:pv" + i;
+				persistence.putTypeInfo(pvName, makeTypeInfo(pvName, "appliance0"));
+			}
+			persistence.flush();
+			assertEquals(250, delegate.getTypeInfoKeys().size());
+			assertEquals(250, delegate.typeInfosWritten.get());
+			// Some of these are written by the early flushes; either way, no batch is larger than the batch size.
+			assertTrue("Batches " + delegate.typeInfoBatches.get(), delegate.typeInfoBatches.get() >= 3);
+		} finally {
+			persistence.close();
+		}
+	}
+
+	@Test
+	public void testRetryOnFailure() throws Exception {
+		CountingPersistence delegate = new CountingPersistence();
+		WriteBehindPersistence persistence = new WriteBehindPersistence(delegate, FLUSH_INTERVAL_MILLIS, 1000);
+		try {
+			persistence.putTypeInfo("WriteBehind:pv0", makeTypeInfo("WriteBehind:pv0", "appliance0"));
+			persistence.putTypeInfo("WriteBehind:pv1", makeTypeInfo("WriteBehind:pv1", "appliance0"));
+			delegate.fail = true;
+			try {
+				persistence.flush();
+				fail("Expecting the flush to fail");
+			} catch(IOException ex) {
+				// Expected
+			}
+			// The failed changes are still queued; a newer change made after the failure wins.
+			assertEquals(2, persistence.getQueuedCount());
+			persistence.putTypeInfo("WriteBehind:pv1", makeTypeInfo("WriteBehind:pv1", "appliance1"));
+			assertEquals("appliance1", persistence.getTypeInfo("WriteBehind:pv1").getApplianceIdentity());
+
+			delegate.fail = false;
+			persistence.flush();
+			assertEquals(0, persistence.getQueuedCount());
+			assertEquals("appliance0", delegate.getTypeInfo("WriteBehind:pv0").getApplianceIdentity());
+			assertEquals("appliance1", delegate.getTypeInfo("WriteBehind:pv1").getApplianceIdentity());
+
+			StringWriter buf = new StringWriter();
+			try(PrintWriter out = new PrintWriter(buf)) {
+				persistence.writeOpenMetrics(new OpenMetricsWriter(out, "mgmt"));
+			}
+			String metrics = buf.toString();
+			assertTrue(metrics, metrics.contains("archappl_config_persistence_flush_failures_total{component=\"mgmt\"} 1"));
+			assertTrue(metrics, metrics.contains("archappl_config_persistence_changes_coalesced_total{component=\"mgmt\"} 1"));
+		} finally {
+			persistence.close();
+		}
+	}
+
+	@Test
+	public void testBadChangeIsParked() throws Exception {
+		CountingPersistence delegate = new CountingPersistence();
+		delegate.badKey = "WriteBehind:bad";
+		WriteBehindPersistence persistence = new WriteBehindPersistence(delegate, FLUSH_INTERVAL_MILLIS, 1000);
+		try {
+			persistence.putTypeInfo("WriteBehind:bad", makeTypeInfo("WriteBehind:bad", "appliance0"));
+			for(int attempt = 0; attempt < WriteBehindPersistence.MAX_WRITE_ATTEMPTS; attempt++) {
+				for(int i = 0; i < 10; i++) {
+					String pvName = "WriteBehind:pv" + attempt + "_" + i;
+					persistence.putTypeInfo(pvName, makeTypeInfo(pvName, "appliance0"));
+				}
+				try {
+					persistence.flush();
+					fail("Expecting the flush to fail");
+				} catch(IOException ex) {
+					// Expected
+				}
+				// The bad change does not hold up the good ones.
+				assertEquals((attempt + 1)*10, delegate.getTypeInfoKeys().size());
+			}
+			// After MAX_WRITE_ATTEMPTS, the bad change is parked; we no longer retry it but we can still read it.
+			assertEquals(0, persistence.getQueuedCount());
+			assertEquals(1, persistence.getParkedCount());
+			assertEquals("appliance0", persistence.getTypeInfo("WriteBehind:bad").getApplianceIdentity());
+			assertTrue(persistence.getTypeInfoKeys().contains("WriteBehind:bad"));
+			persistence.flush();
+
+			StringWriter buf = new StringWriter();
+			try(PrintWriter out = new PrintWriter(buf)) {
+				persistence.writeOpenMetrics(new OpenMetricsWriter(out, "mgmt"));
+			}
+			String metrics = buf.toString();
+			assertTrue(metrics, metrics.contains("archappl_config_persistence_changes_parked_total{component=\"mgmt\"} 1"));
+
+			// A newer change to the same key replaces the parked change.
+			delegate.badKey = null;
+			persistence.putTypeInfo("WriteBehind:bad", makeTypeInfo("WriteBehind:bad", "appliance1"));
+			assertEquals(0, persistence.getParkedCount());
+			persistence.flush();
+			assertEquals("appliance1", delegate.getTypeInfo("WriteBehind:bad").getApplianceIdentity());
+		} finally {
+			persistence.close();
+		}
+	}
+}
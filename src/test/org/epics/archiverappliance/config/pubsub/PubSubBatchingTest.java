@@ -0,0 +1,194 @@
+package org.epics.archiverappliance.config.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.eventbus.Subscribe;
+
+/**
+ * Test the batching of pubsub events and the ordering guarantees of the partitioned event bus.
+ * @author mshankar
+ *
+ */
+public class PubSubBatchingTest {
+	private static final long FLUSH_INTERVAL_MILLIS = 3600*1000;
+
+	@Test
+	public void testBatchingPreservesOrder() throws Exception {
+		final List<PubSubEvent> published = Collections.synchronizedList(new ArrayList<PubSubEvent>());
+		PubSubEventBatcher batcher = new PubSubEventBatcher(new PubSubEventBatcher.Publisher() {
+			@Override
+			public void publish(PubSubEvent pubSubEvent) {
+				published.add(pubSubEvent);
+			}
+		}, 100, FLUSH_INTERVAL_MILLIS);
+		try {
+			for(int i = 0; i < 250; i++) {
+				String pvName = "Batch:pv" + i;
+				batcher.add(makeEvent("MetaInfoRequested", "appliance0_mgmt", pvName));
+				batcher.add(makeEvent("MetaInfoFinished", "appliance0_mgmt", pvName));
+			}
+			batcher.add(makeEvent("ComputeMetaInfo", "appliance1_engine", "Batch:single"));
+			// Batches are sent as soon as they are full; the rest wait for the flush.
+			assertEquals(5, published.size());
+			assertEquals(1, batcher.getPendingEvents());
+			batcher.flush();
+			assertEquals(6, published.size());
+			assertEquals(0, batcher.getPendingEvents());
+
+			List<PubSubEvent> received = new LinkedList<PubSubEvent>();
+			for(PubSubEvent message : published) {
+				if(message instanceof BatchedPubSubEvent) {
+					assertEquals(100, ((BatchedPubSubEvent) message).size());
+					received.addAll(((BatchedPubSubEvent) message).getEvents());
+				} else {
+					// A batch with one event goes out as is.
+					assertEquals("Batch:single", message.getPvName());
+				}
+			}
+			assertEquals(500, received.size());
+			for(int i = 0; i < 250; i++) {
+				PubSubEvent requested = received.get(2*i);
+				PubSubEvent finished = received.get(2*i + 1);
+				assertEquals("Batch:pv" + i, requested.getPvName());
+				assertEquals("MetaInfoRequested", requested.getType());
+				assertEquals("MetaInfoFinished", finished.getType());
+				assertEquals("{\"pvName\":\"Batch:pv" + i + "\"}", finished.getEventData());
+				assertEquals("appliance0", finished.getSource());
+				assertEquals("appliance0_mgmt", finished.getDestination());
+			}
+			assertEquals(501, batcher.getEventsAdded());
+			assertEquals(6, batcher.getMessagesPublished());
+		} finally {
+			batcher.close();
+		}
+	}
+
+	/**
+	 * Several threads add events for the same destination; each thread's events should be published in order and never while holding the batcher's lock.
+	 */
+	@Test
+	public void testConcurrentAddsPublishInOrder() throws Exception {
+		final List<PubSubEvent> published = Collections.synchronizedList(new ArrayList<PubSubEvent>());
+		final AtomicInteger publishesUnderLock = new AtomicInteger(0);
+		final PubSubEventBatcher[] batcherHolder = new PubSubEventBatcher[1];
+		final PubSubEventBatcher batcher = new PubSubEventBatcher(new PubSubEventBatcher.Publisher() {
+			@Override
+			public void publish(PubSubEvent pubSubEvent) {
+				if(Thread.holdsLock(batcherHolder[0])) publishesUnderLock.incrementAndGet();
+				if(pubSubEvent instanceof BatchedPubSubEvent) {
+					published.addAll(((BatchedPubSubEvent) pubSubEvent).getEvents());
+				} else {
+					published.add(pubSubEvent);
+				}
+			}
+		}, 10, 5);
+		batcherHolder[0] = batcher;
+		final int threadCount = 4, eventsPerThread = 1000;
+		try {
+			ArrayList<Thread> threads = new ArrayList<Thread>();
+			for(int t = 0; t < threadCount; t++) {
+				final String pvName = "Concurrent:pv" + t;
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						for(int seq = 0; seq < eventsPerThread; seq++) {
+							PubSubEvent pubSubEvent = makeEvent("Test", "appliance0_mgmt", pvName);
+							pubSubEvent.setEventData(Integer.toString(seq));
+							batcher.add(pubSubEvent);
+						}
+					}
+				});
+				threads.add(thread);
+				thread.start();
+			}
+			for(Thread thread : threads) {
+				thread.join();
+			}
+		} finally {
+			batcher.close();
+		}
+		assertEquals(threadCount*eventsPerThread, published.size());
+		assertEquals(0, publishesUnderLock.get());
+		HashMap<String, Integer> lastSeqForPV = new HashMap<String, Integer>();
+		for(PubSubEvent pubSubEvent : published) {
+			int seq = Integer.parseInt(pubSubEvent.getEventData());
+			Integer lastSeq = lastSeqForPV.get(pubSubEvent.getPvName());
+			assertEquals("Out of order for " + pubSubEvent.getPvName(), lastSeq == null ? 0 : lastSeq + 1, seq);
+			lastSeqForPV.put(pubSubEvent.getPvName(), seq);
+		}
+	}
+
+	private static PubSubEvent makeEvent(String type, String destination, String pvName) {
+		PubSubEvent pubSubEvent = new PubSubEvent(type, destination, pvName);
+		pubSubEvent.setSource("appliance0");
+		pubSubEvent.setEventData("{\"pvName\":\"" + pvName + "\"}");
+		return pubSubEvent;
+	}
+
+	/**
+	 * Records the order in which events are seen for each PV and the threads that see them.
+	 */
+	public static class OrderRecorder {
+		ConcurrentHashMap<String, List<Integer>> sequencesForPV = new ConcurrentHashMap<String, List<Integer>>();
+		ConcurrentHashMap<String, String> threads = new ConcurrentHashMap<String, String>();
+		CountDownLatch latch;
+		OrderRecorder(int expectedEvents) {
+			latch = new CountDownLatch(expectedEvents);
+		}
+		@Subscribe public void record(PubSubEvent pubSubEvent) {
+			List<Integer> sequence = sequencesForPV.get(pubSubEvent.getPvName());
+			if(sequence == null) {
+				sequencesForPV.putIfAbsent(pubSubEvent.getPvName(), Collections.synchronizedList(new ArrayList<Integer>()));
+				sequence = sequencesForPV.get(pubSubEvent.getPvName());
+			}
+			sequence.add(Integer.parseInt(pubSubEvent.getEventData()));
+			threads.put(Thread.currentThread().getName(), pubSubEvent.getPvName());
+			latch.countDown();
+		}
+	}
+
+	@Test
+	public void testPartitionedEventBusOrdering() throws Exception {
+		PartitionedEventBus eventBus = new PartitionedEventBus("Test event bus", 4);
+		int pvCount = 100, eventsPerPV = 50;
+		OrderRecorder recorder = new OrderRecorder(pvCount*eventsPerPV);
+		eventBus.register(recorder);
+		try {
+			for(int seq = 0; seq < eventsPerPV; seq++) {
+				for(int i = 0; i < pvCount; i++) {
+					PubSubEvent pubSubEvent = new PubSubEvent("Test", "ALL", "Partition:pv" + i);
+					pubSubEvent.setEventData(Integer.toString(seq));
+					eventBus.post(pubSubEvent);
+				}
+			}
+			assertTrue("Timed out waiting for events", recorder.latch.await(60, TimeUnit.SECONDS));
+			assertEquals(pvCount, recorder.sequencesForPV.size());
+			for(String pvName : recorder.sequencesForPV.keySet()) {
+				List<Integer> sequence = recorder.sequencesForPV.get(pvName);
+				assertEquals(eventsPerPV, sequence.size());
+				for(int seq = 0; seq < eventsPerPV; seq++) {
+					assertEquals("Events out of order for " + pvName, seq, sequence.get(seq).intValue());
+				}
+			}
+			// Events for 100 PVs should have been spread across more than one thread.
+			HashMap<String, String> threads = new HashMap<String, String>(recorder.threads);
+			assertTrue("Events were delivered on " + threads.keySet(), threads.size() > 1);
+			assertEquals(0, eventBus.getQueueDepth());
+		} finally {
+			eventBus.shutdown();
+		}
+	}
+}
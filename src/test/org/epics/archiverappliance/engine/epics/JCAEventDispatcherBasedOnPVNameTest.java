@@ -0,0 +1,278 @@
+package org.epics.archiverappliance.engine.epics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import gov.aps.jca.CAStatus;
+import gov.aps.jca.Channel;
+import gov.aps.jca.Context;
+import gov.aps.jca.Monitor;
+import gov.aps.jca.dbr.DBR;
+import gov.aps.jca.dbr.DBRType;
+import gov.aps.jca.dbr.DBR_Int;
+import gov.aps.jca.dbr.Severity;
+import gov.aps.jca.event.AccessRightsListener;
+import gov.aps.jca.event.ConnectionListener;
+import gov.aps.jca.event.GetListener;
+import gov.aps.jca.event.MonitorEvent;
+import gov.aps.jca.event.MonitorListener;
+import gov.aps.jca.event.PutListener;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test the per PV ordering, dropping of monitor events on overflow, stealing and the removal of PV queues in the dispatcher.
+ * The events are enqueued directly; we do not need an IOC for these.
+ * @author mshankar
+ *
+ */
+public class JCAEventDispatcherBasedOnPVNameTest {
+	private static final Channel source = new StubChannel();
+	private JCAEventDispatcherBasedOnPVName dispatcher;
+
+	@After
+	public void tearDown() {
+		if(dispatcher != null) dispatcher.dispose();
+	}
+
+	private void createDispatcher(int threads, int maxQueuedEventsPerThread) {
+		Properties props = new Properties();
+		props.setProperty("org.epics.archiverappliance.engine.epics.JCAEventDispatcherBasedOnPVName.threads", Integer.toString(threads));
+		props.setProperty("org.epics.archiverappliance.engine.epics.JCAEventDispatcherBasedOnPVName.maxQueuedEventsPerThread", Integer.toString(maxQueuedEventsPerThread));
+		JCAEventDispatcherBasedOnPVName.configure(props);
+		dispatcher = new JCAEventDispatcherBasedOnPVName();
+	}
+
+	private static MonitorEvent makeEvent(int seq) {
+		return new MonitorEvent(source, new DBR_Int(new int[] { seq }), CAStatus.NORMAL);
+	}
+
+	/**
+	 * Checks that the events for a PV arrive in the order in which they were enqueued.
+	 */
+	private static class OrderCheckingListener implements MonitorListener {
+		private int lastSeq = -1;
+		private boolean outOfOrder = false;
+		private volatile Thread lastThread = null;
+		private final AtomicInteger received = new AtomicInteger(0);
+		private final CountDownLatch done;
+
+		OrderCheckingListener(CountDownLatch done) {
+			this.done = done;
+		}
+
+		@Override
+		public synchronized void monitorChanged(MonitorEvent ev) {
+			int seq = ((DBR_Int) ev.getDBR()).getIntValue()[0];
+			if(seq <= lastSeq) outOfOrder = true;
+			lastSeq = seq;
+			lastThread = Thread.currentThread();
+			received.incrementAndGet();
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Blocks on the first event until released.
+	 */
+	private static class BlockingListener implements MonitorListener, JCAEventDispatcherBasedOnPVName.DroppedEventListener {
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final AtomicInteger received = new AtomicInteger(0);
+		private final AtomicInteger dropped = new AtomicInteger(0);
+		private volatile Thread thread = null;
+
+		@Override
+		public void monitorChanged(MonitorEvent ev) {
+			thread = Thread.currentThread();
+			received.incrementAndGet();
+			started.countDown();
+			try {
+				release.await(30, TimeUnit.SECONDS);
+			} catch(InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void monitorEventDropped(MonitorEvent ev) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	@Test
+	public void testPerPVOrdering() throws Exception {
+		createDispatcher(4, 1000000);
+		int pvCount = 20;
+		final int eventsPerChannel = 1000;
+		final String[] fields = new String[] { "", ".HIHI", ".LOLO" };
+		CountDownLatch done = new CountDownLatch(pvCount*fields.length*eventsPerChannel);
+		final List<OrderCheckingListener> listeners = new ArrayList<OrderCheckingListener>();
+		List<Thread> producers = new ArrayList<Thread>();
+		final AtomicInteger seqGenerator = new AtomicInteger(0);
+		for(int i = 0; i < pvCount; i++) {
+			final OrderCheckingListener listener = new OrderCheckingListener(done);
+			listeners.add(listener);
+			final List<MonitorListener> eventListeners = Collections.<MonitorListener>singletonList(listener);
+			final String pvName = "Test:Ordering:" + i;
+			// The PV and its fields send events from one producer thread so that the sequence numbers are enqueued in order.
+			Thread producer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int j = 0; j < eventsPerChannel; j++) {
+						for(String field : fields) {
+							dispatcher.enqueue(pvName + field, false, makeEvent(seqGenerator.incrementAndGet()), eventListeners);
+						}
+					}
+				}
+			});
+			producers.add(producer);
+		}
+		for(Thread producer : producers) producer.start();
+		for(Thread producer : producers) producer.join();
+		assertTrue("Timed out waiting for the events to be dispatched", done.await(60, TimeUnit.SECONDS));
+		for(OrderCheckingListener listener : listeners) {
+			assertEquals(fields.length*eventsPerChannel, listener.received.get());
+			assertTrue("Events were dispatched out of order", !listener.outOfOrder);
+		}
+	}
+
+	@Test
+	public void testOverflowDropsMonitorEvents() throws Exception {
+		int maxQueuedEvents = 5;
+		createDispatcher(1, maxQueuedEvents);
+		BlockingListener listener = new BlockingListener();
+		List<Object> eventListeners = Collections.<Object>singletonList(listener);
+		dispatcher.enqueue("Test:Overflow", false, makeEvent(0), eventListeners);
+		assertTrue("The first event was not dispatched", listener.started.await(10, TimeUnit.SECONDS));
+		// The only thread is blocked; so we can queue up to maxQueuedEvents and the rest are dropped.
+		int extraEvents = 10;
+		for(int i = 1; i <= extraEvents; i++) {
+			dispatcher.enqueue("Test:Overflow", false, makeEvent(i), eventListeners);
+		}
+		assertEquals(extraEvents - maxQueuedEvents, listener.dropped.get());
+		listener.release.countDown();
+		waitFor(listener.received, 1 + maxQueuedEvents);
+		assertEquals(1 + maxQueuedEvents, listener.received.get());
+	}
+
+	@Test
+	public void testIdleThreadStealsQueues() throws Exception {
+		createDispatcher(2, 1000000);
+		// Two PVs that are owned by the same thread.
+		String blockedPV = "Test:Steal:0";
+		String otherPV = null;
+		for(int i = 1; otherPV == null; i++) {
+			String candidate = "Test:Steal:" + i;
+			if(Math.abs(candidate.hashCode() % 2) == Math.abs(blockedPV.hashCode() % 2)) otherPV = candidate;
+		}
+		BlockingListener blockingListener = new BlockingListener();
+		dispatcher.enqueue(blockedPV, false, makeEvent(0), Collections.<Object>singletonList(blockingListener));
+		assertTrue("The first event was not dispatched", blockingListener.started.await(10, TimeUnit.SECONDS));
+		try {
+			CountDownLatch otherDone = new CountDownLatch(10);
+			OrderCheckingListener otherListener = new OrderCheckingListener(otherDone);
+			for(int i = 0; i < 10; i++) {
+				dispatcher.enqueue(otherPV, false, makeEvent(i), Collections.<Object>singletonList(otherListener));
+			}
+			// The owning thread is blocked; so these can only be dispatched if the other thread steals a queue.
+			assertTrue("The idle thread did not steal the queue", otherDone.await(10, TimeUnit.SECONDS));
+			assertTrue("Events were dispatched out of order", !otherListener.outOfOrder);
+			assertTrue("Both PVs were dispatched on the same thread", otherListener.lastThread != blockingListener.thread);
+			long stolenQueues = 0;
+			for(Map.Entry<String, String> metric : JCAEventDispatcherBasedOnPVName.getMetrics().entrySet()) {
+				if(metric.getKey().endsWith("PV queues stolen")) stolenQueues += Long.parseLong(metric.getValue());
+			}
+			assertTrue("No queues were stolen", stolenQueues > 0);
+		} finally {
+			blockingListener.release.countDown();
+		}
+	}
+
+	@Test
+	public void testQueuesAreRemoved() throws Exception {
+		createDispatcher(1, 1000000);
+		CountDownLatch done = new CountDownLatch(2);
+		List<Object> eventListeners = Collections.<Object>singletonList(new OrderCheckingListener(done));
+		dispatcher.enqueue("Test:Remove", false, makeEvent(0), eventListeners);
+		dispatcher.enqueue("Test:Remove.HIHI", false, makeEvent(1), eventListeners);
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(1, dispatcher.getPVQueueCount());
+		JCAEventDispatcherBasedOnPVName.channelDestroyed("Test:Remove");
+		assertEquals("The field channel is still around", 1, dispatcher.getPVQueueCount());
+		JCAEventDispatcherBasedOnPVName.channelDestroyed("Test:Remove.HIHI");
+		waitForQueueCount(0);
+
+		// A late event from a channel that has been destroyed is dispatched but does not leave a queue behind.
+		CountDownLatch lateDone = new CountDownLatch(1);
+		dispatcher.enqueue("Test:Remove", true, makeEvent(2), Collections.<Object>singletonList(new OrderCheckingListener(lateDone)));
+		assertTrue(lateDone.await(10, TimeUnit.SECONDS));
+		waitForQueueCount(0);
+	}
+
+	private void waitForQueueCount(int expected) throws InterruptedException {
+		// The queue is removed by the dispatcher thread once it is done with it.
+		long deadline = System.currentTimeMillis() + 10*1000;
+		while(dispatcher.getPVQueueCount() != expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(expected, dispatcher.getPVQueueCount());
+	}
+
+	private static void waitFor(AtomicInteger counter, int expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10*1000;
+		while(counter.get() < expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * We need a channel as the source of the monitor events; the dispatcher is given the channel name directly.
+	 */
+	private static class StubChannel extends Channel {
+		@Override public Context getContext() { throw new UnsupportedOperationException(); }
+		@Override public void destroy() { }
+		@Override public ConnectionListener[] getConnectionListeners() { return new ConnectionListener[0]; }
+		@Override public void addConnectionListener(ConnectionListener l) { }
+		@Override public void removeConnectionListener(ConnectionListener l) { }
+		@Override public AccessRightsListener[] getAccessRightsListeners() { return new AccessRightsListener[0]; }
+		@Override public void addAccessRightsListener(AccessRightsListener l) { }
+		@Override public void removeAccessRightsListener(AccessRightsListener l) { }
+		@Override public String getName() { return "Test:Stub"; }
+		@Override public DBRType getFieldType() { return DBRType.INT; }
+		@Override public int getElementCount() { return 1; }
+		@Override public ConnectionState getConnectionState() { return ConnectionState.CONNECTED; }
+		@Override public String getHostName() { return "localhost"; }
+		@Override public boolean getReadAccess() { return true; }
+		@Override public boolean getWriteAccess() { return false; }
+		@Override public void put(byte[] value) { throw new UnsupportedOperationException(); }
+		@Override public void put(byte[] value, PutListener l) { throw new UnsupportedOperationException(); }
+		@Override public void put(short[] value) { throw new UnsupportedOperationException(); }
+		@Override public void put(short[] value, PutListener l) { throw new UnsupportedOperationException(); }
+		@Override public void put(int[] value) { throw new UnsupportedOperationException(); }
+		@Override public void put(int[] value, PutListener l) { throw new UnsupportedOperationException(); }
+		@Override public void put(float[] value) { throw new UnsupportedOperationException(); }
+		@Override public void put(float[] value, PutListener l) { throw new UnsupportedOperationException(); }
+		@Override public void put(double[] value) { throw new UnsupportedOperationException(); }
+		@Override public void put(double[] value, PutListener l) { throw new UnsupportedOperationException(); }
+		@Override public void put(String[] value) { throw new UnsupportedOperationException(); }
+		@Override public void put(String[] value, PutListener l) { throw new UnsupportedOperationException(); }
+		@Override public void putACKT(boolean value) { throw new UnsupportedOperationException(); }
+		@Override public void putACKT(boolean value, PutListener l) { throw new UnsupportedOperationException(); }
+		@Override public void putACKS(Severity severity) { throw new UnsupportedOperationException(); }
+		@Override public void putACKS(Severity severity, PutListener l) { throw new UnsupportedOperationException(); }
+		@Override public DBR get(DBRType type, int count) { throw new UnsupportedOperationException(); }
+		@Override public void get(DBRType type, int count, GetListener l) { throw new UnsupportedOperationException(); }
+		@Override public Monitor addMonitor(DBRType type, int count, int mask, MonitorListener l) { throw new UnsupportedOperationException(); }
+	}
+}
@@ -0,0 +1,322 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.engine.ingest;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.epics.archiverappliance.StoragePlugin;
+import org.epics.archiverappliance.common.LatencyHistogram;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.config.ConfigService;
+import org.epics.archiverappliance.config.ConfigServiceForTests;
+import org.epics.archiverappliance.config.StoragePluginURLParser;
+import org.epics.archiverappliance.engine.ArchiveEngine;
+import org.epics.archiverappliance.engine.pv.EngineContext;
+import org.epics.archiverappliance.engine.pv.EngineCounters;
+import org.epics.archiverappliance.engine.pv.EngineLatencies;
+import org.epics.archiverappliance.engine.pv.PV;
+import org.epics.archiverappliance.engine.pv.PVFactory;
+import org.epics.archiverappliance.mgmt.policy.PolicyConfig.SamplingMethod;
+import org.epics.archiverappliance.utils.simulation.SineGenerator;
+
+/**
+ * End to end ingest benchmark for the engine that does not need a SIOC or a network.
+ * We archive a number of {@link SyntheticPV}s thru the usual ArchiveChannel, SampleBuffer and WriterRunnable path into a PlainPB store in the short term folder (typically a tmpfs like /dev/shm).
+ * A few generator threads play the part of the CA dispatcher threads and update each PV at the specified rate.
+ * After a warmup, we report the sustained event rate, the events lost, the time spent by the writer and the GC overhead.
+ * <p>
+ * Arguments are specified as name=value pairs; for example,
+ * <code>java org.epics.archiverappliance.engine.ingest.EngineIngestBenchmark pvs=10000 rate=1 type=DBR_SCALAR_DOUBLE duration=120</code>
+ * <ul>
+ * <li>pvs - Number of PVs; defaults to 1000</li>
+ * <li>rate - Updates per second for each PV; defaults to 1</li>
+ * <li>type - The ArchDBRTypes of the PVs; defaults to DBR_SCALAR_DOUBLE</li>
+ * <li>elements - Number of elements for waveforms; defaults to 10</li>
+ * <li>method - MONITOR or SCAN; defaults to MONITOR</li>
+ * <li>samplingPeriod - Sampling period in seconds; defaults to 1/rate</li>
+ * <li>duration - Seconds to measure for; defaults to 60</li>
+ * <li>warmup - Seconds to run before we start measuring; defaults to 20 which is two write periods</li>
+ * <li>threads - Number of generator threads; defaults to 4</li>
+ * <li>folder - Root folder for the PlainPB store; defaults to ingestbenchmark in the short term folder. This is deleted before and after the run.</li>
+ * </ul>
+ * @author mshankar
+ *
+ */
+public class EngineIngestBenchmark {
+	private static Logger logger = Logger.getLogger(EngineIngestBenchmark.class.getName());
+
+	int pvCount = 1000;
+	double updatesPerSecond = 1.0;
+	ArchDBRTypes dbrType = ArchDBRTypes.DBR_SCALAR_DOUBLE;
+	int elementCount = 10;
+	SamplingMethod samplingMethod = SamplingMethod.MONITOR;
+	double samplingPeriod = -1.0;
+	int durationSeconds = 60;
+	int warmupSeconds = 20;
+	int generatorThreadCount = 4;
+	String rootFolder = ConfigServiceForTests.getDefaultShortTermFolder() + File.separator + "ingestbenchmark";
+
+	private final AtomicLong generatedEvents = new AtomicLong(0);
+	private volatile boolean generating = false;
+
+	public static void main(String[] args) throws Exception {
+		EngineIngestBenchmark benchmark = new EngineIngestBenchmark();
+		for(String arg : args) {
+			String[] parts = arg.split("=", 2);
+			if(parts.length != 2) {
+				System.err.println("Arguments are specified as name=value; skipping " + arg);
+				continue;
+			}
+			benchmark.setArgument(parts[0], parts[1]);
+		}
+		IngestResult result = benchmark.run();
+		System.out.println(result.toString());
+		System.exit(0);
+	}
+
+	void setArgument(String name, String value) {
+		switch(name) {
+		case "pvs": pvCount = Integer.parseInt(value); break;
+		case "rate": updatesPerSecond = Double.parseDouble(value); break;
+		case "type": dbrType = ArchDBRTypes.valueOf(value); break;
+		case "elements": elementCount = Integer.parseInt(value); break;
+		case "method": samplingMethod = SamplingMethod.valueOf(value); break;
+		case "samplingPeriod": samplingPeriod = Double.parseDouble(value); break;
+		case "duration": durationSeconds = Integer.parseInt(value); break;
+		case "warmup": warmupSeconds = Integer.parseInt(value); break;
+		case "threads": generatorThreadCount = Integer.parseInt(value); break;
+		case "folder": rootFolder = value; break;
+		default: throw new IllegalArgumentException("Unknown argument " + name);
+		}
+	}
+
+	/**
+	 * Run the benchmark; this creates and shuts down its own config service.
+	 * @return The measurements after the warmup
+	 * @throws Exception
+	 */
+	public IngestResult run() throws Exception {
+		File rootFolderFile = new File(rootFolder);
+		FileUtils.deleteDirectory(rootFolderFile);
+		ConfigServiceForTests configService = new ConfigServiceForTests(new File("./bin"));
+		try {
+			final ArrayList<SyntheticPV> pvs = new ArrayList<SyntheticPV>(pvCount);
+			final String pvNamePrefix = ConfigServiceForTests.ARCH_UNIT_TEST_PVNAME_PREFIX + "ingest:";
+			EngineContext engineContext = configService.getEngineContext();
+			engineContext.setPVCreatorForTestingPurposesOnly(new PVFactory.PVCreator() {
+				@Override
+				public PV createPV(String name, ConfigService configservice, ArchDBRTypes archDBRTypes, int jcaCommandThreadId) {
+					SyntheticPV pv = new SyntheticPV(name, archDBRTypes, new SineGenerator(0, -1, elementCount));
+					if(name.startsWith(pvNamePrefix) && name.indexOf('.') == -1) {
+						// Fields of the PV (runtime fields, for example) are created but do not get any updates.
+						synchronized(pvs) {
+							pvs.add(pv);
+						}
+					}
+					return pv;
+				}
+			});
+
+			StoragePlugin sts = StoragePluginURLParser.parseStoragePlugin("pb://localhost?name=STS&rootFolder=" + rootFolder + "&partitionGranularity=PARTITION_HOUR", configService);
+			float pvSamplingPeriod = (float) (samplingPeriod > 0 ? samplingPeriod : 1.0/updatesPerSecond);
+			logger.info("Archiving " + pvCount + " synthetic PVs of type " + dbrType + " using " + samplingMethod + " with a sampling period of " + pvSamplingPeriod);
+			for(int i = 0; i < pvCount; i++) {
+				ArchiveEngine.archivePV(pvNamePrefix + i, pvSamplingPeriod, samplingMethod, 10, sts, configService, dbrType, null, false, false);
+			}
+
+			List<Thread> generators = startGenerators(pvs);
+			try {
+				Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+				IngestSnapshot start = new IngestSnapshot(engineContext);
+				Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+				IngestSnapshot end = new IngestSnapshot(engineContext);
+				return new IngestResult(this, start, end, engineContext.getEngineLatencies().getApplianceHistogram(EngineLatencies.Stage.MONITOR_TO_STS), FileUtils.sizeOfDirectory(rootFolderFile));
+			} finally {
+				generating = false;
+				for(Thread generator : generators) {
+					generator.join();
+				}
+			}
+		} finally {
+			configService.shutdownNow();
+			FileUtils.deleteDirectory(rootFolderFile);
+		}
+	}
+
+	/**
+	 * Start the generator threads; each thread updates every n'th PV at the specified rate.
+	 * If a thread falls behind, it updates its PVs again right away; so the generated rate may be less than the requested rate.
+	 */
+	private List<Thread> startGenerators(final List<SyntheticPV> pvs) {
+		generating = true;
+		final long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1)/updatesPerSecond);
+		ArrayList<Thread> generators = new ArrayList<Thread>();
+		for(int threadNum = 0; threadNum < generatorThreadCount; threadNum++) {
+			final int firstPV = threadNum;
+			Thread generator = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long nextUpdateNanos = System.nanoTime();
+					while(generating) {
+						for(int i = firstPV; i < pvs.size(); i += generatorThreadCount) {
+							try {
+								pvs.get(i).generateValue();
+								generatedEvents.incrementAndGet();
+							} catch(Exception ex) {
+								logger.error("Exception generating value for " + pvs.get(i).getName(), ex);
+							}
+						}
+						nextUpdateNanos += periodNanos;
+						long sleepNanos = nextUpdateNanos - System.nanoTime();
+						if(sleepNanos > 0) {
+							LockSupport.parkNanos(sleepNanos);
+						} else {
+							nextUpdateNanos = System.nanoTime();
+						}
+					}
+				}
+			});
+			generator.setName("Synthetic PV generator " + threadNum);
+			generator.start();
+			generators.add(generator);
+		}
+		return generators;
+	}
+
+	/**
+	 * The counters at a point in time; the results are the difference between two of these.
+	 */
+	private class IngestSnapshot {
+		final long nanos = System.nanoTime();
+		final long generated = generatedEvents.get();
+		final long archived;
+		final long bytes;
+		final long[] lost = new long[EngineCounters.LostEventReason.values().length];
+		final double writerSeconds;
+		final long writes;
+		long gcMillis = 0;
+		long gcCount = 0;
+
+		IngestSnapshot(EngineContext engineContext) {
+			EngineCounters engineCounters = engineContext.getEngineCounters();
+			archived = engineCounters.getEventCount();
+			bytes = engineCounters.getStorageBytes();
+			for(EngineCounters.LostEventReason reason : EngineCounters.LostEventReason.values()) {
+				lost[reason.ordinal()] = engineCounters.getLostEventCount(reason);
+			}
+			writerSeconds = engineContext.getTotalSecondsConsumedByWritter();
+			writes = engineContext.getCountOfWritesByWritter();
+			for(GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+				gcMillis += Math.max(gcBean.getCollectionTime(), 0);
+				gcCount += Math.max(gcBean.getCollectionCount(), 0);
+			}
+		}
+	}
+
+	/**
+	 * The results of a run.
+	 */
+	public static class IngestResult {
+		private final String description;
+		private final double elapsedSeconds;
+		private final double generatedEventsPerSecond;
+		private final double archivedEventsPerSecond;
+		private final double archivedBytesPerSecond;
+		private final long[] lostEvents = new long[EngineCounters.LostEventReason.values().length];
+		private final long totalLostEvents;
+		private final double writerSeconds;
+		private final long writes;
+		private final long gcCount;
+		private final double gcOverheadPercent;
+		private final long p99MonitorToSTSMicros;
+		private final long bytesOnDisk;
+
+		private IngestResult(EngineIngestBenchmark benchmark, IngestSnapshot start, IngestSnapshot end, LatencyHistogram monitorToSTS, long bytesOnDisk) {
+			this.description = benchmark.pvCount + " PVs of type " + benchmark.dbrType + (benchmark.dbrType.isWaveForm() ? ("[" + benchmark.elementCount + "]") : "") 
+					+ " at " + benchmark.updatesPerSecond + "Hz using " + benchmark.samplingMethod;
+			this.elapsedSeconds = (end.nanos - start.nanos)/1.0e9;
+			this.generatedEventsPerSecond = (end.generated - start.generated)/elapsedSeconds;
+			this.archivedEventsPerSecond = (end.archived - start.archived)/elapsedSeconds;
+			this.archivedBytesPerSecond = (end.bytes - start.bytes)/elapsedSeconds;
+			long lost = 0;
+			for(int i = 0; i < lostEvents.length; i++) {
+				lostEvents[i] = end.lost[i] - start.lost[i];
+				lost += lostEvents[i];
+			}
+			this.totalLostEvents = lost;
+			this.writerSeconds = end.writerSeconds - start.writerSeconds;
+			this.writes = end.writes - start.writes;
+			this.gcCount = end.gcCount - start.gcCount;
+			this.gcOverheadPercent = (end.gcMillis - start.gcMillis)*100.0/(elapsedSeconds*1000.0);
+			this.p99MonitorToSTSMicros = monitorToSTS.getPercentileMicros(99);
+			this.bytesOnDisk = bytesOnDisk;
+		}
+
+		public double getGeneratedEventsPerSecond() {
+			return generatedEventsPerSecond;
+		}
+
+		public double getArchivedEventsPerSecond() {
+			return archivedEventsPerSecond;
+		}
+
+		public long getLostEventCount(EngineCounters.LostEventReason reason) {
+			return lostEvents[reason.ordinal()];
+		}
+
+		public long getTotalLostEventCount() {
+			return totalLostEvents;
+		}
+
+		public double getWriterSeconds() {
+			return writerSeconds;
+		}
+
+		public long getWriteCount() {
+			return writes;
+		}
+
+		public double getGCOverheadPercent() {
+			return gcOverheadPercent;
+		}
+
+		public long getBytesOnDisk() {
+			return bytesOnDisk;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder buf = new StringBuilder();
+			buf.append("Engine ingest benchmark for ").append(description).append('\n');
+			buf.append(String.format("Measured for (s):                 %.1f%n", elapsedSeconds));
+			buf.append(String.format("Generated events/sec:             %.1f%n", generatedEventsPerSecond));
+			buf.append(String.format("Archived events/sec:              %.1f%n", archivedEventsPerSecond));
+			buf.append(String.format("Archived MB/sec:                  %.3f%n", archivedBytesPerSecond/(1024.0*1024.0)));
+			for(EngineCounters.LostEventReason reason : EngineCounters.LostEventReason.values()) {
+				buf.append(String.format("%-34s%d%n", "Lost events " + reason + ":", lostEvents[reason.ordinal()]));
+			}
+			buf.append(String.format("Writer runs:                      %d%n", writes));
+			buf.append(String.format("Writer time (s):                  %.3f%n", writerSeconds));
+			buf.append(String.format("Writer time per run (ms):         %.1f%n", writes > 0 ? writerSeconds*1000.0/writes : 0.0));
+			buf.append(String.format("Monitor to STS p99 (ms):          %.1f%n", p99MonitorToSTSMicros/1000.0));
+			buf.append(String.format("GC collections:                   %d%n", gcCount));
+			buf.append(String.format("GC overhead (%%):                  %.2f%n", gcOverheadPercent));
+			buf.append(String.format("Bytes on disk:                    %d%n", bytesOnDisk));
+			return buf.toString();
+		}
+	}
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.engine.ingest;
+
+import static org.junit.Assert.assertTrue;
+
+import org.apache.log4j.Logger;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.engine.pv.EngineCounters;
+import org.junit.Test;
+
+/**
+ * A short run of the ingest benchmark to make sure that samples from the synthetic PVs make it thru the engine into the PlainPB store.
+ * @author mshankar
+ *
+ */
+public class EngineIngestBenchmarkTest {
+	private static Logger logger = Logger.getLogger(EngineIngestBenchmarkTest.class.getName());
+
+	@Test
+	public void testShortRun() throws Exception {
+		EngineIngestBenchmark benchmark = new EngineIngestBenchmark();
+		benchmark.pvCount = 100;
+		benchmark.updatesPerSecond = 5;
+		benchmark.dbrType = ArchDBRTypes.DBR_WAVEFORM_DOUBLE;
+		benchmark.elementCount = 100;
+		benchmark.warmupSeconds = 2;
+		benchmark.durationSeconds = 12;
+		EngineIngestBenchmark.IngestResult result = benchmark.run();
+		logger.info(result.toString());
+		assertTrue("Expecting samples to be archived " + result.getArchivedEventsPerSecond(), result.getArchivedEventsPerSecond() > 0);
+		assertTrue("Expecting the writer to have run " + result.getWriteCount(), result.getWriteCount() > 0);
+		assertTrue("Expecting data in the store " + result.getBytesOnDisk(), result.getBytesOnDisk() > 0);
+		assertTrue("Synthetic PVs should not generate incorrect timestamps " + result.getLostEventCount(EngineCounters.LostEventReason.TIMESTAMP_WRONG), result.getLostEventCount(EngineCounters.LostEventReason.TIMESTAMP_WRONG) == 0);
+	}
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.engine.ingest;
+
+import java.lang.reflect.Constructor;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.epics.archiverappliance.common.TimeUtils;
+import org.epics.archiverappliance.common.YearSecondTimestamp;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.config.MetaInfo;
+import org.epics.archiverappliance.data.DBRTimeEvent;
+import org.epics.archiverappliance.engine.pv.PV;
+import org.epics.archiverappliance.engine.pv.PVListener;
+import org.epics.archiverappliance.utils.simulation.SimulationEvent;
+import org.epics.archiverappliance.utils.simulation.SimulationValueGenerator;
+
+import edu.stanford.slac.archiverappliance.PB.data.DBR2PBTypeMapping;
+
+/**
+ * A PV that does not need a control system; it is always connected once started and generates a new value every time {@link #generateValue()} is called.
+ * Like the CA PVs, the values are converted to their PB form and handed to the listeners on the calling thread.
+ * The timestamps are the current time and are strictly increasing.
+ * @author mshankar
+ *
+ */
+public class SyntheticPV implements PV {
+	private final String name;
+	private final ArchDBRTypes archDBRType;
+	private final SimulationValueGenerator valueGenerator;
+	private final Constructor<? extends DBRTimeEvent> serializingConstructor;
+	private final CopyOnWriteArrayList<PVListener> listeners = new CopyOnWriteArrayList<PVListener>();
+	private volatile boolean running = false;
+	private volatile DBRTimeEvent dbrTimeEvent = null;
+	private volatile long dbrTimeEventArrivalNanos = 0;
+	private long lastEventEpochNanos = 0;
+
+	public SyntheticPV(String name, ArchDBRTypes archDBRType, SimulationValueGenerator valueGenerator) {
+		this.name = name;
+		this.archDBRType = archDBRType;
+		this.valueGenerator = valueGenerator;
+		this.serializingConstructor = DBR2PBTypeMapping.getPBClassFor(archDBRType).getSerializingConstructor();
+	}
+
+	/**
+	 * Generate a new value and send it to the listeners; this is a no-op if the PV is not running.
+	 * This is expected to be called from one thread at a time.
+	 * @throws Exception
+	 */
+	public void generateValue() throws Exception {
+		if(!running) return;
+		long arrivalNanos = System.nanoTime();
+		long epochNanos = Math.max(System.currentTimeMillis()*1000000L, lastEventEpochNanos + 1);
+		lastEventEpochNanos = epochNanos;
+		long epochSeconds = epochNanos/1000000000L;
+		YearSecondTimestamp yts = TimeUtils.convertToYearSecondTimestamp(epochSeconds);
+		YearSecondTimestamp eventTimestamp = new YearSecondTimestamp(yts.getYear(), yts.getSecondsintoyear(), (int) (epochNanos % 1000000000L));
+		SimulationEvent simulationEvent = new SimulationEvent(eventTimestamp, archDBRType, valueGenerator.getSampleValue(archDBRType, yts.getSecondsintoyear()));
+		dbrTimeEvent = serializingConstructor.newInstance(simulationEvent);
+		dbrTimeEventArrivalNanos = arrivalNanos;
+		for(PVListener listener : listeners) {
+			listener.pvValueUpdate(this);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public void addListener(PVListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeListener(PVListener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void start() throws Exception {
+		if(running) return;
+		running = true;
+		for(PVListener listener : listeners) {
+			listener.pvConnectionRequestMade(this);
+			listener.pvConnected(this);
+		}
+	}
+
+	@Override
+	public void stop() {
+		if(!running) return;
+		running = false;
+		for(PVListener listener : listeners) {
+			listener.pvDisconnected(this);
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return running;
+	}
+
+	@Override
+	public String getStateInfo() {
+		return running ? "Synthetic" : "Stopped";
+	}
+
+	@Override
+	public DBRTimeEvent getDBRTimeEvent() {
+		return dbrTimeEvent;
+	}
+
+	@Override
+	public long getDBRTimeEventArrivalNanos() {
+		return dbrTimeEventArrivalNanos;
+	}
+
+	@Override
+	public ArchDBRTypes getArchDBRTypes() {
+		return archDBRType;
+	}
+
+	@Override
+	public void markPVHasMetafields(boolean hasMetaField) {
+	}
+
+	@Override
+	public void setMetaFieldParentPV(PV parentPV, boolean isRuntimeOnly) {
+	}
+
+	@Override
+	public void updataMetaFieldValue(String pvName, String fieldValue) {
+	}
+
+	@Override
+	public HashMap<String, String> getLatestMetadata() {
+		return new HashMap<String, String>();
+	}
+
+	@Override
+	public void updateTotalMetaInfo() {
+	}
+
+	@Override
+	public MetaInfo getTotalMetaInfo() {
+		return null;
+	}
+
+	@Override
+	public String getHostName() {
+		return "localhost";
+	}
+
+	@Override
+	public String getLowLevelChannelInfo() {
+		return "Synthetic PV " + name;
+	}
+}
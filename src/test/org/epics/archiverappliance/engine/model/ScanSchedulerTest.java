@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.engine.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.config.ConfigService;
+import org.epics.archiverappliance.config.ConfigServiceForTests;
+import org.epics.archiverappliance.engine.ingest.SyntheticPV;
+import org.epics.archiverappliance.engine.pv.PV;
+import org.epics.archiverappliance.engine.pv.PVFactory;
+import org.epics.archiverappliance.utils.simulation.SineGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the bucket placement, rescheduling and cancellation in the scan scheduler.
+ * The channels use synthetic PVs; so we do not need an IOC. The channels have no values; so a scan does nothing but is still counted.
+ * @author mshankar
+ *
+ */
+public class ScanSchedulerTest {
+	private static final long TICK_MILLIS = 10;
+	private static final int BUCKETS_PER_PERIOD = 4;
+	private ConfigServiceForTests configService;
+	private ScanScheduler scanScheduler;
+
+	@Before
+	public void setUp() throws Exception {
+		configService = new ConfigServiceForTests(new File("./bin"));
+		configService.getEngineContext().setPVCreatorForTestingPurposesOnly(new PVFactory.PVCreator() {
+			@Override
+			public PV createPV(String name, ConfigService configservice, ArchDBRTypes archDBRTypes, int jcaCommandThreadId) {
+				return new SyntheticPV(name, archDBRTypes, new SineGenerator(0));
+			}
+		});
+		configService.getInstallationProperties().setProperty("org.epics.archiverappliance.engine.scan.TickMillis", Long.toString(TICK_MILLIS));
+		configService.getInstallationProperties().setProperty("org.epics.archiverappliance.engine.scan.BucketsPerPeriod", Integer.toString(BUCKETS_PER_PERIOD));
+		configService.getInstallationProperties().setProperty("org.epics.archiverappliance.engine.scan.WorkerThreads", "2");
+		scanScheduler = new ScanScheduler(configService);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		scanScheduler.shutdown();
+		configService.shutdownNow();
+	}
+
+	private List<ScannedArchiveChannel> makeChannels(String prefix, int count, double periodSeconds) throws Exception {
+		List<ScannedArchiveChannel> channels = new ArrayList<ScannedArchiveChannel>();
+		for(int i = 0; i < count; i++) {
+			channels.add(new ScannedArchiveChannel(ConfigServiceForTests.ARCH_UNIT_TEST_PVNAME_PREFIX + prefix + i, null, Enablement.Enabling, 10, null, periodSeconds, configService, ArchDBRTypes.DBR_SCALAR_DOUBLE, null, 0, false));
+		}
+		return channels;
+	}
+
+	@Test
+	public void testBucketPlacement() throws Exception {
+		for(ScannedArchiveChannel channel : makeChannels("scanplacement:", 100, 1.0)) {
+			scanScheduler.addChannel(channel, 1000);
+		}
+		ScanScheduler.ScanGroup group = scanScheduler.getScanGroup(1000);
+		assertNotNull(group);
+		assertEquals(100, group.getChannelCount());
+		int[] channelCounts = group.getBucketChannelCounts();
+		assertEquals(BUCKETS_PER_PERIOD, channelCounts.length);
+		for(int channelCount : channelCounts) {
+			assertTrue("Channels are not spread over the buckets " + channelCount, channelCount > 0);
+		}
+		// The buckets are spread out over the period; no two buckets are due at the same tick.
+		long[] deadlineTicks = group.getBucketDeadlineTicks();
+		HashSet<Long> phases = new HashSet<Long>();
+		for(long deadlineTick : deadlineTicks) {
+			phases.add(deadlineTick % group.getPeriodTicks());
+		}
+		assertEquals(BUCKETS_PER_PERIOD, phases.size());
+
+		// There is no point in having more buckets than ticks in a period.
+		for(ScannedArchiveChannel channel : makeChannels("scanfast:", 10, 0.02)) {
+			scanScheduler.addChannel(channel, 20);
+		}
+		assertEquals(2, scanScheduler.getScanGroup(20).getBucketChannelCounts().length);
+	}
+
+	@Test
+	public void testRescheduling() throws Exception {
+		List<ScannedArchiveChannel> channels = makeChannels("scanreschedule:", 10, 0.1);
+		for(ScannedArchiveChannel channel : channels) {
+			scanScheduler.addChannel(channel, 100);
+		}
+		ScanScheduler.ScanGroup group = scanScheduler.getScanGroup(100);
+		Thread.sleep(1000);
+		long scans = group.getScans();
+		// Each channel is scanned about 10 times a second.
+		assertTrue("Expecting about 100 scans; got " + scans, scans >= 70 && scans <= 130);
+		long[] deadlineTicks = group.getBucketDeadlineTicks();
+		Thread.sleep(500);
+		long[] laterDeadlineTicks = group.getBucketDeadlineTicks();
+		for(int i = 0; i < deadlineTicks.length; i++) {
+			long periodsMoved = (laterDeadlineTicks[i] - deadlineTicks[i])/group.getPeriodTicks();
+			assertEquals("Bucket " + i + " has lost its phase", 0, (laterDeadlineTicks[i] - deadlineTicks[i]) % group.getPeriodTicks());
+			assertTrue("Bucket " + i + " was not rescheduled", periodsMoved > 0);
+		}
+
+		// Adding a channel at a different period moves the channel to the new group.
+		scanScheduler.addChannel(channels.get(0), 200);
+		assertEquals(9, group.getChannelCount());
+		assertEquals(1, scanScheduler.getScanGroup(200).getChannelCount());
+		assertEquals(0, group.getMissedScans());
+	}
+
+	@Test
+	public void testCancellation() throws Exception {
+		List<ScannedArchiveChannel> channels = makeChannels("scancancel:", 10, 0.05);
+		for(ScannedArchiveChannel channel : channels) {
+			scanScheduler.addChannel(channel, 50);
+		}
+		ScanScheduler.ScanGroup group = scanScheduler.getScanGroup(50);
+		Thread.sleep(300);
+		assertTrue(group.getScans() > 0);
+		for(ScannedArchiveChannel channel : channels) {
+			scanScheduler.removeChannel(channel);
+		}
+		assertEquals(0, group.getChannelCount());
+		// The empty buckets are taken out of the wheel when they are next due.
+		Thread.sleep(200);
+		assertEquals(0, scanScheduler.getScheduledBucketCount());
+		long scansAfterRemoval = group.getScans();
+		Thread.sleep(300);
+		assertEquals("Removed channels are still being scanned", scansAfterRemoval, group.getScans());
+
+		// Adding a channel back puts its bucket back in the wheel.
+		scanScheduler.addChannel(channels.get(0), 50);
+		assertEquals(1, scanScheduler.getScheduledBucketCount());
+		Thread.sleep(300);
+		assertTrue("The channel was not scanned after it was added back", group.getScans() > scansAfterRemoval);
+	}
+}
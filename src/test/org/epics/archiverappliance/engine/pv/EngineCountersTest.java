@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2011 The Board of Trustees of the Leland Stanford Junior University
+ * as Operator of the SLAC National Accelerator Laboratory.
+ * Copyright (c) 2011 Brookhaven National Laboratory.
+ * EPICS archiver appliance is distributed subject to a Software License Agreement found
+ * in file LICENSE that is included with this distribution.
+ *******************************************************************************/
+package org.epics.archiverappliance.engine.pv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.config.ConfigService;
+import org.epics.archiverappliance.config.ConfigServiceForTests;
+import org.epics.archiverappliance.engine.ingest.SyntheticPV;
+import org.epics.archiverappliance.engine.model.Enablement;
+import org.epics.archiverappliance.engine.model.MonitoredArchiveChannel;
+import org.epics.archiverappliance.utils.simulation.SineGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that the engine counters follow the connection state of the channels and that the rates are computed over the rate window.
+ * The channels use synthetic PVs; these connect when they are started and disconnect when they are stopped.
+ * @author mshankar
+ *
+ */
+public class EngineCountersTest {
+	private ConfigServiceForTests configService;
+
+	@Before
+	public void setUp() throws Exception {
+		configService = new ConfigServiceForTests(new File("./bin"));
+		configService.getEngineContext().setPVCreatorForTestingPurposesOnly(new PVFactory.PVCreator() {
+			@Override
+			public PV createPV(String name, ConfigService configservice, ArchDBRTypes archDBRTypes, int jcaCommandThreadId) {
+				return new SyntheticPV(name, archDBRTypes, new SineGenerator(0));
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		configService.shutdownNow();
+	}
+
+	@Test
+	public void testConnectionCounts() throws Exception {
+		EngineCounters engineCounters = configService.getEngineContext().getEngineCounters();
+		MonitoredArchiveChannel channel = new MonitoredArchiveChannel(ConfigServiceForTests.ARCH_UNIT_TEST_PVNAME_PREFIX + "counters", null, Enablement.Enabling, 10, null, 1.0, configService, ArchDBRTypes.DBR_SCALAR_DOUBLE, null, 0, false);
+		assertEquals(0, engineCounters.getConnectedChannelCount());
+		// The channel is counted as connected as soon as the PV connects; we do not wait for the first value.
+		channel.start();
+		assertEquals(1, engineCounters.getConnectedChannelCount());
+		assertEquals(0, engineCounters.getDisconnectedChannelCount());
+		channel.stop();
+		assertEquals(0, engineCounters.getConnectedChannelCount());
+		assertEquals(0, engineCounters.getDisconnectedChannelCount());
+		// Starting and stopping again does not count the channel twice.
+		channel.start();
+		channel.start();
+		assertEquals(1, engineCounters.getConnectedChannelCount());
+		channel.stop();
+		channel.stop();
+		assertEquals(0, engineCounters.getConnectedChannelCount());
+	}
+
+	@Test
+	public void testRateWindows() throws Exception {
+		EngineCounters engineCounters = new EngineCounters();
+		for(int i = 0; i < 100; i++) {
+			engineCounters.addEvent(10);
+		}
+		Thread.sleep(100);
+		assertTrue(engineCounters.getEventRate() > 0.0);
+		assertTrue(engineCounters.getDataRate() > 0.0);
+		// After two windows without any events, the rates drop to zero however often they are read.
+		engineCounters.rotateRateWindow();
+		engineCounters.rotateRateWindow();
+		Thread.sleep(10);
+		assertEquals(0.0, engineCounters.getEventRate(), 0.0);
+		assertEquals(0.0, engineCounters.getDataRate(), 0.0);
+		assertEquals(100, engineCounters.getEventCount());
+		assertEquals(1000, engineCounters.getStorageBytes());
+	}
+}
@@ -0,0 +1,134 @@
+package org.epics.archiverappliance.mgmt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.IOUtils;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.config.ConfigServiceForTests;
+import org.epics.archiverappliance.config.PVTypeInfo;
+import org.epics.archiverappliance.mgmt.archivepv.ArchivePVState;
+import org.epics.archiverappliance.mgmt.archivepv.ArchivePVState.ArchivePVStateMachine;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test the state transitions when registering the PVs in the archive PV workflow with the engine in a batch.
+ * The engine is stubbed out using a small HTTP server at the engine URL of this appliance that starts archiving only the PVs whose names end with ok.
+ * @author mshankar
+ *
+ */
+public class MgmtRuntimeStateTest {
+	private static final String PV_PREFIX = ConfigServiceForTests.ARCH_UNIT_TEST_PVNAME_PREFIX + "batchregistration:";
+	private ConfigServiceForTests configService;
+	private HttpServer engineStub;
+	private ExecutorService engineStubExecutor = Executors.newCachedThreadPool();
+	private volatile long engineStubDelayMillis = 0;
+
+	@Before
+	public void setUp() throws Exception {
+		configService = new ConfigServiceForTests(new File("./bin"));
+		configService.getInstallationProperties().setProperty("org.epics.archiverappliance.mgmt.MgmtRuntimeState.engineRegistrationSocketTimeoutSeconds", "1");
+		URL engineURL = new URL(configService.getMyApplianceInfo().getEngineURL());
+		engineStub = HttpServer.create(new InetSocketAddress(engineURL.getHost(), engineURL.getPort()), 0);
+		engineStub.createContext(engineURL.getPath() + "/startArchivingPVs", new HttpHandler() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String body;
+				try(InputStream is = exchange.getRequestBody()) {
+					body = IOUtils.toString(is, "UTF-8");
+				}
+				try {
+					Thread.sleep(engineStubDelayMillis);
+				} catch(InterruptedException ex) {
+					return;
+				}
+				JSONArray statuses = new JSONArray();
+				for(String pvName : body.substring(body.indexOf('=') + 1).split(",")) {
+					pvName = URLDecoder.decode(pvName, "UTF-8");
+					JSONObject status = new JSONObject();
+					status.put("pvName", pvName);
+					status.put("status", pvName.endsWith("ok") ? "ok" : "failed");
+					status.put("validation", "Stubbed failure");
+					statuses.add(status);
+				}
+				byte[] response = statuses.toJSONString().getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, response.length);
+				try(OutputStream os = exchange.getResponseBody()) {
+					os.write(response);
+				}
+			}
+		});
+		engineStub.setExecutor(engineStubExecutor);
+		engineStub.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		engineStub.stop(0);
+		engineStubExecutor.shutdownNow();
+		configService.shutdownNow();
+	}
+
+	private ArchivePVState makeStablePV(String pvName) throws Exception {
+		PVTypeInfo typeInfo = new PVTypeInfo(pvName, ArchDBRTypes.DBR_SCALAR_DOUBLE, true, 1);
+		typeInfo.setApplianceIdentity(configService.getMyApplianceInfo().getIdentity());
+		configService.updateTypeInfoForPV(pvName, typeInfo);
+		ArchivePVState pvState = new ArchivePVState(pvName, configService);
+		pvState.setCurrentStateForTestingPurposesOnly(ArchivePVStateMachine.TYPEINFO_STABLE);
+		return pvState;
+	}
+
+	@Test
+	public void testBatchRegistration() throws Exception {
+		MgmtRuntimeState mgmtRuntimeState = new MgmtRuntimeState(configService);
+		ArchivePVState okPV = makeStablePV(PV_PREFIX + "ok");
+		ArchivePVState failedPV = makeStablePV(PV_PREFIX + "notstarted");
+		LinkedList<ArchivePVState> pvStates = new LinkedList<ArchivePVState>();
+		pvStates.add(okPV);
+		pvStates.add(failedPV);
+		mgmtRuntimeState.registerWithEnginesInBatch(pvStates);
+		// The PV that the engine started goes all the way to FINISHED; the other is retried in the next run.
+		assertEquals(ArchivePVStateMachine.FINISHED, okPV.getCurrentState());
+		assertEquals(ArchivePVStateMachine.TYPEINFO_STABLE, failedPV.getCurrentState());
+		assertEquals(1, mgmtRuntimeState.getPVsCompleted());
+		assertEquals(1, mgmtRuntimeState.getEngineRegistrationBatches());
+		assertEquals(1, mgmtRuntimeState.getEngineRegistrationFailures());
+	}
+
+	@Test
+	public void testHungEngineFallsBack() throws Exception {
+		MgmtRuntimeState mgmtRuntimeState = new MgmtRuntimeState(configService);
+		engineStubDelayMillis = 10*1000;
+		ArchivePVState pvState = makeStablePV(PV_PREFIX + "hungok");
+		LinkedList<ArchivePVState> pvStates = new LinkedList<ArchivePVState>();
+		pvStates.add(pvState);
+		long startMillis = System.currentTimeMillis();
+		mgmtRuntimeState.registerWithEnginesInBatch(pvStates);
+		long elapsedMillis = System.currentTimeMillis() - startMillis;
+		assertTrue("We waited for the hung engine for " + elapsedMillis + "(ms)", elapsedMillis < 5*1000);
+		// We fall back to registering the PV by itself using pub/sub.
+		assertEquals(ArchivePVStateMachine.ARCHIVE_REQUEST_SUBMITTED, pvState.getCurrentState());
+		assertEquals(0, mgmtRuntimeState.getEngineRegistrationBatches());
+		assertEquals(1, mgmtRuntimeState.getEngineRegistrationFailures());
+	}
+}
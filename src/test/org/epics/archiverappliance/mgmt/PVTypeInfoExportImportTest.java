@@ -1,9 +1,15 @@
 package org.epics.archiverappliance.mgmt;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.Arrays;
+import java.util.HashMap;
 
 import org.epics.archiverappliance.common.TimeUtils;
 import org.epics.archiverappliance.config.ArchDBRTypes;
@@ -12,6 +18,8 @@ import org.epics.archiverappliance.config.MetaInfo;
 import org.epics.archiverappliance.config.PVTypeInfo;
 import org.epics.archiverappliance.config.UserSpecifiedSamplingParams;
 import org.epics.archiverappliance.mgmt.policy.PolicyConfig;
+import org.epics.archiverappliance.mgmt.policy.PolicyConfig.SamplingMethod;
+import org.epics.archiverappliance.utils.ui.JSONArrayStreamReader;
 import org.epics.archiverappliance.utils.ui.JSONDecoder;
 import org.epics.archiverappliance.utils.ui.JSONEncoder;
 import org.json.simple.JSONObject;
@@ -73,4 +81,82 @@ public class PVTypeInfoExportImportTest {
         metaInfoDecoder.decode((JSONObject) unmarshalledJSONObject, unmarshalledMetaInfo);
         assertTrue("Expecting DBRType to be " + metaInfo.getArchDBRTypes() + "; instead it is " + unmarshalledMetaInfo.getArchDBRTypes(), metaInfo.getArchDBRTypes().equals(unmarshalledMetaInfo.getArchDBRTypes()));
 	}
+	/**
+	 * The streaming encode/decode should produce/consume the same JSON as going thru a JSONObject.
+	 */
+	@Test
+	public void testStreamingMatchesTree() throws Exception {
+		PVTypeInfo typeInfo = new PVTypeInfo("UnitTestNoNamingConvention:sine\"quoted\\", ArchDBRTypes.DBR_WAVEFORM_DOUBLE, false, 100);
+		typeInfo.setSamplingMethod(SamplingMethod.SCAN);
+		typeInfo.setSamplingPeriod(2.5f);
+		typeInfo.setDataStores(new String[] { "pb://localhost?name=STS&rootFolder=/arch/sts&partitionGranularity=PARTITION_HOUR", "blackhole://localhost" });
+		typeInfo.setArchiveFields(new String[] { "HIHI", "LOLO" });
+		HashMap<String, String> extraFields = new HashMap<String, String>();
+		extraFields.put("DESC", "Line one\nLine two\t\u00e9");
+		extraFields.put("EGU", "mm");
+		typeInfo.setExtraFields(extraFields);
+		typeInfo.setCreationTime(TimeUtils.now());
+		typeInfo.setModificationTime(TimeUtils.now());
+		typeInfo.setApplianceIdentity("appliance0");
+
+		JSONEncoder<PVTypeInfo> typeInfoEncoder = JSONEncoder.getEncoder(PVTypeInfo.class);
+		JSONObject treeJSON = typeInfoEncoder.encode(typeInfo);
+		String streamedJSON = typeInfoEncoder.encodeToString(typeInfo);
+		assertEquals(treeJSON, JSONValue.parse(streamedJSON));
+
+		JSONDecoder<PVTypeInfo> typeInfoDecoder = JSONDecoder.getDecoder(PVTypeInfo.class);
+		PVTypeInfo treeDecoded = new PVTypeInfo();
+		typeInfoDecoder.decode((JSONObject) JSONValue.parse(treeJSON.toJSONString()), treeDecoded);
+		PVTypeInfo streamDecoded = new PVTypeInfo();
+		typeInfoDecoder.decode(streamedJSON, streamDecoded);
+		assertEquals(typeInfoEncoder.encode(treeDecoded), typeInfoEncoder.encode(streamDecoded));
+		assertEquals(treeJSON, typeInfoEncoder.encode(streamDecoded));
+		assertEquals(typeInfo.getPvName(), streamDecoded.getPvName());
+		assertEquals(extraFields, streamDecoded.getExtraFields());
+		assertTrue(Arrays.equals(typeInfo.getArchiveFields(), streamDecoded.getArchiveFields()));
+	}
+
+	/**
+	 * Exported configurations are read one typeinfo at a time when importing; we should get back the same typeinfos.
+	 */
+	@Test
+	public void testStreamingArrayReader() throws Exception {
+		JSONEncoder<PVTypeInfo> typeInfoEncoder = JSONEncoder.getEncoder(PVTypeInfo.class);
+		StringBuilder exported = new StringBuilder("[\n");
+		for(int i = 0; i < 2500; i++) {
+			PVTypeInfo typeInfo = new PVTypeInfo("UnitTestNoNamingConvention:export" + i, ArchDBRTypes.DBR_SCALAR_DOUBLE, true, 1);
+			typeInfo.setDataStores(new String[] { "pb://localhost?name=STS", "blackhole://localhost" });
+			typeInfo.setArchiveFields(new String[] { "HIHI", "LOLO" });
+			typeInfo.setApplianceIdentity("appliance" + (i % 3));
+			if(i > 0) exported.append(",\n");
+			exported.append(typeInfoEncoder.encodeToString(typeInfo));
+		}
+		exported.append("\n]\n");
+
+		JSONDecoder<PVTypeInfo> typeInfoDecoder = JSONDecoder.getDecoder(PVTypeInfo.class);
+		try(JSONArrayStreamReader reader = new JSONArrayStreamReader(new StringReader(exported.toString()))) {
+			for(int i = 0; i < 2500; i++) {
+				JSONObject configJSON = reader.next();
+				PVTypeInfo typeInfo = new PVTypeInfo();
+				typeInfoDecoder.decode(configJSON, typeInfo);
+				assertEquals("UnitTestNoNamingConvention:export" + i, typeInfo.getPvName());
+				assertEquals("appliance" + (i % 3), typeInfo.getApplianceIdentity());
+				assertTrue(Arrays.equals(new String[] { "HIHI", "LOLO" }, typeInfo.getArchiveFields()));
+			}
+			assertNull(reader.next());
+			assertNull(reader.next());
+			assertEquals(2500, reader.getElementsRead());
+		}
+
+		try(JSONArrayStreamReader reader = new JSONArrayStreamReader(new StringReader("[]"))) {
+			assertNull(reader.next());
+		}
+
+		try(JSONArrayStreamReader reader = new JSONArrayStreamReader(new StringReader("{\"pvName\": \"Not an array\"}"))) {
+			reader.next();
+			fail("Expecting an exception when the configuration is not a JSON array");
+		} catch(IOException ex) {
+			// Expected
+		}
+	}
 }
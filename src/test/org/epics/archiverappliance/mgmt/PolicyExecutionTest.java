@@ -1,14 +1,25 @@
 package org.epics.archiverappliance.mgmt;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.epics.archiverappliance.config.ConfigServiceForTests;
 import org.epics.archiverappliance.config.DefaultConfigService;
 import org.epics.archiverappliance.mgmt.policy.ExecutePolicy;
+import org.epics.archiverappliance.mgmt.policy.ExecutePolicyPool;
 import org.epics.archiverappliance.mgmt.policy.PolicyConfig;
 import org.junit.After;
 import org.junit.Before;
@@ -58,4 +69,78 @@ public class PolicyExecutionTest {
 		}
 	}
 
+	/**
+	 * Compute the policies for many PVs in batches and individually from many threads using the same pool.
+	 */
+	@Test
+	public void testPooledPolicyExecution() throws Exception {
+		final DefaultConfigService configService = new ConfigServiceForTests(new File("./src/sitespecific/tests/classpathfiles"));
+		try(final ExecutePolicyPool executePolicyPool = new ExecutePolicyPool(configService, 4, 60*1000)) { 
+			LinkedHashMap<String, HashMap<String, Object>> pvInfos = new LinkedHashMap<String, HashMap<String, Object>>();
+			for(int i = 0; i < 1000; i++) { 
+				HashMap<String, Object> pvInfo = new HashMap<String, Object>();
+				pvInfo.put("eventRate", 1.0f);
+				pvInfo.put("storageRate", 1.0f);
+				pvInfo.put("RTYP", "ai");
+				pvInfos.put("test" + i, pvInfo);
+			}
+			LinkedHashMap<String, PolicyConfig> policies = executePolicyPool.computePoliciesForPVs(pvInfos);
+			assertEquals(new ArrayList<String>(pvInfos.keySet()), new ArrayList<String>(policies.keySet()));
+			for(PolicyConfig policyConfig : policies.values()) { 
+				assertTrue("dataStores is null", policyConfig.getDataStores() != null && policyConfig.getDataStores().length > 1);
+			}
+
+			ExecutorService callers = Executors.newFixedThreadPool(8);
+			List<Future<PolicyConfig>> results = new ArrayList<Future<PolicyConfig>>();
+			for(final Map.Entry<String, HashMap<String, Object>> entry : pvInfos.entrySet()) { 
+				results.add(callers.submit(new Callable<PolicyConfig>() {
+					@Override
+					public PolicyConfig call() throws Exception {
+						return executePolicyPool.computePolicyForPV(entry.getKey(), entry.getValue());
+					}
+				}));
+			}
+			for(Future<PolicyConfig> result : results) { 
+				assertTrue("policyConfig is null", result.get() != null);
+			}
+			callers.shutdown();
+			assertEquals(2000, executePolicyPool.getPoliciesComputed());
+			assertTrue("Created " + executePolicyPool.getInterpretersCreated() + " interpreters", executePolicyPool.getInterpretersCreated() <= 4);
+		}
+	}
+
+	/**
+	 * With a short refresh interval, the interpreters are closed and recreated while more callers than interpreters are waiting for them.
+	 * The waiting callers should be served in order and should create the replacements; so every caller finishes well within one overall deadline.
+	 */
+	@Test
+	public void testPooledPolicyExecutionWithRefresh() throws Exception {
+		final DefaultConfigService configService = new ConfigServiceForTests(new File("./src/sitespecific/tests/classpathfiles"));
+		try(final ExecutePolicyPool executePolicyPool = new ExecutePolicyPool(configService, 2, 10)) { 
+			ExecutorService callers = Executors.newFixedThreadPool(8);
+			List<Future<PolicyConfig>> results = new ArrayList<Future<PolicyConfig>>();
+			for(int i = 0; i < 20; i++) { 
+				final String pvName = "test" + i;
+				results.add(callers.submit(new Callable<PolicyConfig>() {
+					@Override
+					public PolicyConfig call() throws Exception {
+						HashMap<String, Object> pvInfo = new HashMap<String, Object>();
+						pvInfo.put("eventRate", 1.0f);
+						pvInfo.put("storageRate", 1.0f);
+						pvInfo.put("RTYP", "ai");
+						return executePolicyPool.computePolicyForPV(pvName, pvInfo);
+					}
+				}));
+			}
+			// Well within the time a caller waits for an interpreter before giving up.
+			long deadlineMillis = System.currentTimeMillis() + 60*1000;
+			for(Future<PolicyConfig> result : results) { 
+				long remainingMillis = Math.max(deadlineMillis - System.currentTimeMillis(), 0);
+				assertTrue("policyConfig is null", result.get(remainingMillis, TimeUnit.MILLISECONDS) != null);
+			}
+			callers.shutdown();
+			assertEquals(20, executePolicyPool.getPoliciesComputed());
+			assertTrue("Created only " + executePolicyPool.getInterpretersCreated() + " interpreters", executePolicyPool.getInterpretersCreated() > 2);
+		}
+	}
 }
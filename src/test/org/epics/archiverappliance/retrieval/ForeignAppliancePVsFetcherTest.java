@@ -0,0 +1,66 @@
+package org.epics.archiverappliance.retrieval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.epics.archiverappliance.common.TimeUtils;
+import org.junit.Test;
+
+/**
+ * Test splitting the PVs for another appliance into getDataForPVs.raw calls whose URLs fit in the request header limits.
+ * @author mshankar
+ *
+ */
+public class ForeignAppliancePVsFetcherTest {
+	private static final String RETRIEVAL_URL = "http://localhost:17666/retrieval/bpl";
+
+	@Test
+	public void testBatchesFitInURL() throws Exception {
+		HashMap<String, HashSet<String>> batchPVNames = new HashMap<String, HashSet<String>>();
+		HashMap<String, Integer> batchParamLengths = new HashMap<String, Integer>();
+		LinkedHashMap<String, ArrayList<String>> batches = new LinkedHashMap<String, ArrayList<String>>();
+		for(int i = 0; i < 500; i++) {
+			String pvName = "UnitTestNoNamingConvention:ForeignAppliancePVsFetcherTest:LongishPVName:" + i;
+			String pvInRequest = "mean_600(" + pvName + ")";
+			String batchKey = ForeignAppliancePVsFetcher.assignBatch(RETRIEVAL_URL, pvName, pvInRequest, batchPVNames, batchParamLengths);
+			if(!batches.containsKey(batchKey)) batches.put(batchKey, new ArrayList<String>());
+			batches.get(batchKey).add(pvInRequest);
+		}
+		assertTrue("Expecting more than one batch; got " + batches.size(), batches.size() > 1);
+
+		Map<String, String[]> otherParams = new HashMap<String, String[]>();
+		otherParams.put("from", new String[] { "2011-02-01T08:00:00.000Z" });
+		otherParams.put("to", new String[] { "2011-02-02T08:00:00.000Z" });
+		int pvCount = 0;
+		for(ArrayList<String> pvsInRequest : batches.values()) {
+			pvCount += pvsInRequest.size();
+			String url = new ForeignAppliancePVsFetcher(RETRIEVAL_URL + "/../data/getDataForPVs.raw", pvsInRequest, pvsInRequest, otherParams, TimeUtils.now(), 1, 1).buildURL();
+			assertTrue("URL length " + url.length(), url.length() < ForeignAppliancePVsFetcher.MAX_PV_PARAMS_LENGTH + 200);
+		}
+		assertEquals(500, pvCount);
+	}
+
+	@Test
+	public void testDuplicateAndLongPVs() throws Exception {
+		HashMap<String, HashSet<String>> batchPVNames = new HashMap<String, HashSet<String>>();
+		HashMap<String, Integer> batchParamLengths = new HashMap<String, Integer>();
+		String first = ForeignAppliancePVsFetcher.assignBatch(RETRIEVAL_URL, "A", "A", batchPVNames, batchParamLengths);
+		String second = ForeignAppliancePVsFetcher.assignBatch(RETRIEVAL_URL, "A", "mean_600(A)", batchPVNames, batchParamLengths);
+		assertNotEquals(first, second);
+		assertEquals(first, ForeignAppliancePVsFetcher.assignBatch(RETRIEVAL_URL, "B", "B", batchPVNames, batchParamLengths));
+
+		// A PV whose parameter is over the limit gets a batch by itself.
+		StringBuilder longName = new StringBuilder();
+		while(longName.length() < ForeignAppliancePVsFetcher.MAX_PV_PARAMS_LENGTH) longName.append("UnitTestNoNamingConvention:");
+		String longBatch = ForeignAppliancePVsFetcher.assignBatch(RETRIEVAL_URL, longName.toString(), longName.toString(), batchPVNames, batchParamLengths);
+		assertEquals(1, batchPVNames.get(longBatch).size());
+		assertNotEquals(longBatch, ForeignAppliancePVsFetcher.assignBatch(RETRIEVAL_URL, "C", "C", batchPVNames, batchParamLengths));
+	}
+}
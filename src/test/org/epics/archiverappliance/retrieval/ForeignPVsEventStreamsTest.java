@@ -0,0 +1,100 @@
+package org.epics.archiverappliance.retrieval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+import org.epics.archiverappliance.ByteArray;
+import org.epics.archiverappliance.Event;
+import org.epics.archiverappliance.EventStream;
+import org.epics.archiverappliance.common.POJOEvent;
+import org.epics.archiverappliance.common.TimeUtils;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.data.ScalarValue;
+import org.junit.Test;
+
+import edu.stanford.slac.archiverappliance.PB.EPICSEvent.PayloadInfo;
+import edu.stanford.slac.archiverappliance.PB.utils.LineEscaper;
+
+/**
+ * Test splitting the response from a getDataForPVs.raw call to another appliance into event streams for each PV and year.
+ * @author mshankar
+ *
+ */
+public class ForeignPVsEventStreamsTest {
+
+	@Test
+	public void testSplitByPVAndYear() throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		// PV A spans two years; we do not consume PV B at all.
+		writeChunk(bos, "A", (short) 2011, "2011-12-30T00:00:00.000Z", 2, false);
+		writeChunk(bos, "A", (short) 2012, "2012-01-01T00:00:00.000Z", 3, true);
+		writeChunk(bos, "B", (short) 2012, "2012-02-01T00:00:00.000Z", 5, true);
+		writeChunk(bos, "C", (short) 2012, "2012-03-01T00:00:00.000Z", 4, true);
+
+		Timestamp start = TimeUtils.convertFromISO8601String("2011-01-01T00:00:00.000Z");
+		try(ForeignPVsEventStreams streams = new ForeignPVsEventStreams("test", Arrays.asList("A", "B", "C", "D"), null, null, new BufferedInputStream(new ByteArrayInputStream(bos.toByteArray())), start)) {
+			assertEquals(2, countEvents(streams.nextEventStreamForPV("A"), (short) 2011));
+			assertEquals(3, countEvents(streams.nextEventStreamForPV("A"), (short) 2012));
+			assertNull(streams.nextEventStreamForPV("A"));
+			assertEquals(4, countEvents(streams.nextEventStreamForPV("C"), (short) 2012));
+			assertNull(streams.nextEventStreamForPV("C"));
+			assertNull(streams.nextEventStreamForPV("D"));
+		}
+	}
+
+	@Test
+	public void testUnconsumedEventsAreSkipped() throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		writeChunk(bos, "A", (short) 2012, "2012-01-01T00:00:00.000Z", 10, false);
+		writeChunk(bos, "B", (short) 2012, "2012-02-01T00:00:00.000Z", 2, true);
+
+		Timestamp start = TimeUtils.convertFromISO8601String("2012-01-01T00:00:00.000Z");
+		try(ForeignPVsEventStreams streams = new ForeignPVsEventStreams("test", Arrays.asList("A", "B"), null, null, new BufferedInputStream(new ByteArrayInputStream(bos.toByteArray())), start)) {
+			// Read only one event from A; closing the stream should skip the rest.
+			try(EventStream strm = streams.nextEventStreamForPV("A")) {
+				strm.iterator().next();
+			}
+			assertNull(streams.nextEventStreamForPV("A"));
+			assertEquals(2, countEvents(streams.nextEventStreamForPV("B"), (short) 2012));
+		}
+	}
+
+	private static int countEvents(EventStream strm, short expectedYear) throws Exception {
+		int count = 0;
+		try(EventStream eventStream = strm) {
+			assertEquals(expectedYear, ((RemotableEventStreamDesc) eventStream.getDescription()).getYear());
+			for(Event e : eventStream) {
+				assertEquals(expectedYear, TimeUtils.computeYearForEpochSeconds(e.getEpochSeconds()));
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Write a header followed by one event per day; this is what the raw response looks like.
+	 */
+	private static void writeChunk(ByteArrayOutputStream bos, String pvName, short year, String startTime, int days, boolean newChunk) throws Exception {
+		if(newChunk) bos.write(LineEscaper.NEWLINE_CHAR);
+		bos.write(LineEscaper.escapeNewLines(PayloadInfo.newBuilder()
+				.setPvname(pvName)
+				.setType(ArchDBRTypes.DBR_SCALAR_DOUBLE.getPBPayloadType())
+				.setYear(year)
+				.build().toByteArray()));
+		bos.write(LineEscaper.NEWLINE_CHAR);
+		Timestamp ts = TimeUtils.convertFromISO8601String(startTime);
+		for(int day = 0; day < days; day++) {
+			POJOEvent event = new POJOEvent(ArchDBRTypes.DBR_SCALAR_DOUBLE, ts, new ScalarValue<Double>((double) day), 0, 0);
+			ByteArray val = event.getRawForm();
+			bos.write(val.data, val.off, val.len);
+			bos.write(LineEscaper.NEWLINE_CHAR);
+			ts = new Timestamp(ts.getTime() + 86400*1000);
+		}
+	}
+}
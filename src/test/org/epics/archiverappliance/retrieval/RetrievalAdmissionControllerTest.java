@@ -0,0 +1,99 @@
+package org.epics.archiverappliance.retrieval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.epics.archiverappliance.retrieval.RetrievalAdmissionController.Lane;
+import org.epics.archiverappliance.retrieval.RetrievalAdmissionController.Reservation;
+import org.junit.Test;
+
+/**
+ * Tests for the memory budgets and lanes in the retrieval admission controller.
+ * @author mshankar
+ *
+ */
+public class RetrievalAdmissionControllerTest {
+	private static final long MB = 1024*1024;
+
+	private static RetrievalAdmissionController createController(int maxWaitSeconds) {
+		Properties props = new Properties();
+		props.setProperty("org.epics.archiverappliance.retrieval.AdmissionControl.MemoryBudgetMB", "100");
+		props.setProperty("org.epics.archiverappliance.retrieval.AdmissionControl.InteractiveCutoffMB", "10");
+		props.setProperty("org.epics.archiverappliance.retrieval.AdmissionControl.BulkMaxConcurrentRequests", "1");
+		props.setProperty("org.epics.archiverappliance.retrieval.AdmissionControl.MaxQueuedRequestsPerLane", "1");
+		props.setProperty("org.epics.archiverappliance.retrieval.AdmissionControl.MaxWaitSeconds", Integer.toString(maxWaitSeconds));
+		return new RetrievalAdmissionController(props);
+	}
+
+	@Test
+	public void testMemoryBudget() throws Exception {
+		RetrievalAdmissionController controller = createController(0);
+		Reservation first = controller.admit("first", 8*MB, 8*MB);
+		assertNotNull(first);
+		assertEquals(Lane.INTERACTIVE, first.getLane());
+		// Raw retrievals do not reserve memory and are admitted even if they are large.
+		Reservation raw = controller.admit("raw", 500*MB, 0);
+		assertNotNull(raw);
+		assertEquals(Lane.BULK, raw.getLane());
+		raw.close();
+		// Requests larger than the budget can still run by themselves; but not when the budget is partially used.
+		assertNull(controller.admit("huge", 500*MB, 500*MB));
+		first.close();
+		// Closing twice should not release the memory twice.
+		first.close();
+		Reservation huge = controller.admit("huge", 500*MB, 500*MB);
+		assertNotNull(huge);
+		assertNull(controller.admit("small", 1*MB, 1*MB));
+		huge.close();
+		assertNotNull(controller.admit("small", 1*MB, 1*MB));
+	}
+
+	@Test
+	public void testBulkLaneDoesNotBlockInteractive() throws Exception {
+		RetrievalAdmissionController controller = createController(0);
+		Reservation bulk = controller.admit("bulk", 50*MB, 50*MB);
+		assertNotNull(bulk);
+		assertEquals(Lane.BULK, bulk.getLane());
+		assertNull("Only one concurrent bulk request is allowed", controller.admit("bulk2", 20*MB, 20*MB));
+		assertNotNull("Interactive requests are not limited by the bulk lane", controller.admit("interactive", 5*MB, 5*MB));
+		bulk.close();
+	}
+
+	@Test
+	public void testQueuedRequestIsAdmittedOnRelease() throws Exception {
+		final RetrievalAdmissionController controller = createController(30);
+		Reservation big = controller.admit("big", 90*MB, 90*MB);
+		assertNotNull(big);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Reservation> waiting = executor.submit(new Callable<Reservation>() {
+				@Override
+				public Reservation call() throws Exception {
+					return controller.admit("waiting", 8*MB, 20*MB);
+				}
+			});
+			// Wait for the request to be queued; the queue has room for only one request, so the next one is rejected right away.
+			long deadline = System.currentTimeMillis() + 10*1000;
+			while(!"1".equals(controller.getMetrics().get("Interactive requests waiting")) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertNull(controller.admit("rejected", 8*MB, 20*MB));
+			big.close();
+			Reservation admitted = waiting.get(10, TimeUnit.SECONDS);
+			assertNotNull(admitted);
+			assertTrue(controller.getMetrics().get("Interactive requests that had to wait").equals("1"));
+			admitted.close();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package org.epics.archiverappliance.retrieval;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Timestamp;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.epics.archiverappliance.Event;
+import org.epics.archiverappliance.common.TimeUtils;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.config.ConfigServiceForTests;
+import org.epics.archiverappliance.data.ScalarValue;
+import org.epics.archiverappliance.engine.membuf.ArrayListEventStream;
+import org.epics.archiverappliance.retrieval.RetrievalCancellation.RetrievalCancelledException;
+import org.epics.archiverappliance.retrieval.mimeresponses.PBRAWResponse;
+import org.epics.archiverappliance.utils.simulation.SimulationEvent;
+import org.junit.Test;
+
+import edu.stanford.slac.archiverappliance.PB.data.PBScalarDouble;
+
+/**
+ * Make sure that a failure writing to the response cancels the retrieval request.
+ * We should stop reading events and cancel any pending futures once nobody is listening.
+ * @author mshankar
+ *
+ */
+public class RetrievalCancellationTest {
+
+	@Test
+	public void testWriteFailureCancelsRequest() throws Exception {
+		String pvName = ConfigServiceForTests.ARCH_UNIT_TEST_PVNAME_PREFIX + "RetrievalCancellationTest";
+		short currentYear = TimeUtils.getCurrentYear();
+		long startOfYear = TimeUtils.getStartOfCurrentYearInSeconds();
+		ArrayListEventStream strm = new ArrayListEventStream(1000, new RemotableEventStreamDesc(ArchDBRTypes.DBR_SCALAR_DOUBLE, pvName, currentYear));
+		for(int i = 0; i < 1000; i++) {
+			strm.add(new PBScalarDouble(new SimulationEvent(i, currentYear, ArchDBRTypes.DBR_SCALAR_DOUBLE, new ScalarValue<Double>((double) i))));
+		}
+
+		final AtomicInteger writeAttempts = new AtomicInteger(0);
+		OutputStream clientGoneAway = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				writeAttempts.incrementAndGet();
+				throw new IOException("Broken pipe");
+			}
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				writeAttempts.incrementAndGet();
+				throw new IOException("Broken pipe");
+			}
+		};
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			RetrievalCancellation cancellation = new RetrievalCancellation(pvName);
+			// A pending future that would never complete on its own.
+			Future<Object> pendingFuture = executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					Thread.sleep(60*1000);
+					return null;
+				}
+			});
+			cancellation.addFuture(pendingFuture);
+
+			MergeDedupConsumer consumer = new MergeDedupConsumer(new PBRAWResponse(), cancellation.wrap(clientGoneAway));
+			consumer.setCancellation(cancellation);
+			consumer.processingPV(pvName, new Timestamp((startOfYear - 1)*1000), new Timestamp((startOfYear + 2000)*1000), strm.getDescription());
+			try {
+				consumer.consumeEventStream(strm);
+				fail("We should have stopped consuming once the client went away");
+			} catch(RetrievalCancelledException ex) {
+				// Expected
+			}
+			assertTrue("Request should be cancelled", cancellation.isCancelled());
+			assertTrue("Pending future should be cancelled", pendingFuture.isCancelled());
+			assertTrue("We should not have kept writing after the first failure; write attempts " + writeAttempts.get(), writeAttempts.get() <= 2);
+
+			// Futures added after the request has been cancelled are cancelled right away.
+			Future<Object> lateFuture = executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					Thread.sleep(60*1000);
+					return null;
+				}
+			});
+			cancellation.addFuture(lateFuture);
+			assertTrue("Late future should be cancelled", lateFuture.isCancelled());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package org.epics.archiverappliance.utils.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test fanning out requests to multiple servers when one of the servers hangs partway through the response.
+ * @author mshankar
+ *
+ */
+public class GetUrlContentTest {
+	private HttpServer server;
+	private ExecutorService serverExecutor = Executors.newCachedThreadPool();
+	private CountDownLatch releaseHungResponses = new CountDownLatch(1);
+	private String serverURL;
+
+	@Before
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/fast", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] response = "[1]".getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, response.length);
+				try(OutputStream os = exchange.getResponseBody()) {
+					os.write(response);
+				}
+			}
+		});
+		server.createContext("/hung", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				// Send the headers and part of the body and then stop; the client is now blocked in a socket read.
+				exchange.sendResponseHeaders(200, 0);
+				try(OutputStream os = exchange.getResponseBody()) {
+					os.write("[".getBytes("UTF-8"));
+					os.flush();
+					releaseHungResponses.await(60, TimeUnit.SECONDS);
+				} catch(InterruptedException ex) {
+					// Fall thru
+				}
+			}
+		});
+		server.setExecutor(serverExecutor);
+		server.start();
+		serverURL = "http://localhost:" + server.getAddress().getPort();
+		GetUrlContent.setFanOutTimeoutSeconds(1);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		GetUrlContent.setFanOutTimeoutSeconds(60);
+		releaseHungResponses.countDown();
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testHungServerIsSkipped() throws Exception {
+		long startMs = System.currentTimeMillis();
+		List<JSONArray> results = GetUrlContent.getURLContentsAsJSONArrays(Arrays.asList(serverURL + "/hung", serverURL + "/fast", serverURL + "/hung"));
+		long elapsedMs = System.currentTimeMillis() - startMs;
+		assertEquals(3, results.size());
+		assertNull(results.get(0));
+		assertNotNull(results.get(1));
+		assertEquals(1L, results.get(1).get(0));
+		assertNull(results.get(2));
+		// Each server has its own timeout from when its request started; so the hung servers time out together.
+		assertTrue("Fan out took " + elapsedMs + "(ms)", elapsedMs < 5000);
+	}
+
+	@Test
+	public void testSocketTimeout() throws Exception {
+		// The request itself times out; so the fan out thread is not left blocked in a read of the hung server.
+		long startMs = System.currentTimeMillis();
+		List<JSONArray> results = GetUrlContent.getURLContentsAsJSONArrays(Arrays.asList(serverURL + "/hung"));
+		long elapsedMs = System.currentTimeMillis() - startMs;
+		assertNull(results.get(0));
+		assertTrue("Request took " + elapsedMs + "(ms)", elapsedMs < 5000);
+	}
+
+	@Test
+	public void testPostFanOut() throws Exception {
+		LinkedList<String> pvs = new LinkedList<String>(Arrays.asList("pv1", "pv2"));
+		List<LinkedList<String>> params = new ArrayList<LinkedList<String>>();
+		params.add(pvs);
+		params.add(pvs);
+		long startMs = System.currentTimeMillis();
+		List<JSONArray> results = GetUrlContent.postStringListsAndGetContentsAsJSONArrays(Arrays.asList(serverURL + "/fast", serverURL + "/hung"), "pv", params);
+		long elapsedMs = System.currentTimeMillis() - startMs;
+		assertEquals(2, results.size());
+		assertEquals(1L, results.get(0).get(0));
+		assertNull(results.get(1));
+		assertTrue("Fan out took " + elapsedMs + "(ms)", elapsedMs < 5000);
+
+		results = GetUrlContent.postBytesAndGetContentsAsJSONArrays(Arrays.asList(serverURL + "/hung", serverURL + "/fast"), "text/plain", "pv1\npv2".getBytes("UTF-8"));
+		assertNull(results.get(0));
+		assertEquals(1L, results.get(1).get(0));
+	}
+}
@@ -0,0 +1,187 @@
+package org.epics.archiverappliance.utils.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.epics.archiverappliance.common.ProcessMetrics.ProcessMetric;
+import org.epics.archiverappliance.common.TimeUtils;
+import org.epics.archiverappliance.config.ApplianceAggregateInfo;
+import org.epics.archiverappliance.config.ApplianceInfo;
+import org.epics.archiverappliance.config.ArchDBRTypes;
+import org.epics.archiverappliance.config.MetaInfo;
+import org.epics.archiverappliance.config.PVTypeInfo;
+import org.epics.archiverappliance.config.UserSpecifiedSamplingParams;
+import org.epics.archiverappliance.mgmt.policy.PolicyConfig.SamplingMethod;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+/**
+ * The hand-written accessors for PVTypeInfo, UserSpecifiedSamplingParams, ApplianceAggregateInfo, MetaInfo and the report beans should cover all the bean properties and behave the same as the reflective accessors.
+ * @author mshankar
+ *
+ */
+public class HandWrittenJSONCodecsTest {
+
+	@Test
+	public void testAllPropertiesAreCovered() throws Exception {
+		checkCoverage(PVTypeInfo.class, HandWrittenJSONCodecs.PVTYPEINFO_PROPERTIES);
+		checkCoverage(UserSpecifiedSamplingParams.class, HandWrittenJSONCodecs.USERSPECIFIEDSAMPLINGPARAMS_PROPERTIES);
+		checkCoverage(ApplianceAggregateInfo.class, HandWrittenJSONCodecs.APPLIANCEAGGREGATEINFO_PROPERTIES);
+		checkCoverage(MetaInfo.class, HandWrittenJSONCodecs.METAINFO_PROPERTIES);
+		checkCoverage(ApplianceInfo.class, HandWrittenJSONCodecs.APPLIANCEINFO_PROPERTIES);
+		checkCoverage(ProcessMetric.class, HandWrittenJSONCodecs.PROCESSMETRIC_PROPERTIES);
+	}
+
+	@Test
+	public void testPVTypeInfoRoundTrip() throws Exception {
+		PVTypeInfo typeInfo = new PVTypeInfo("UnitTestNoNamingConvention:handwritten", ArchDBRTypes.DBR_WAVEFORM_DOUBLE, false, 100);
+		typeInfo.setApplianceIdentity("appliance0");
+		typeInfo.setArchiveFields(new String[] { "HIHI", "LOLO" });
+		typeInfo.setChunkKey("UnitTestNoNamingConvention/handwritten:");
+		typeInfo.setComputedBytesPerEvent(812);
+		typeInfo.setComputedEventRate(1.5f);
+		typeInfo.setComputedStorageRate(1218.25f);
+		typeInfo.setControllingPV("UnitTestNoNamingConvention:controller");
+		typeInfo.setCreationTime(TimeUtils.now());
+		typeInfo.setDataStores(new String[] { "pb://localhost?name=STS", "blackhole://localhost" });
+		HashMap<String, String> extraFields = new HashMap<String, String>();
+		extraFields.put("DESC", "Line one\nLine two");
+		typeInfo.setExtraFields(extraFields);
+		typeInfo.setHasReducedDataSet(true);
+		typeInfo.setHostName("ioc0");
+		typeInfo.setLowerAlarmLimit(-10.0);
+		typeInfo.setLowerCtrlLimit(-20.0);
+		typeInfo.setLowerDisplayLimit(-30.0);
+		typeInfo.setLowerWarningLimit(-5.0);
+		typeInfo.setModificationTime(TimeUtils.now());
+		typeInfo.setPaused(true);
+		typeInfo.setPolicyName("default");
+		typeInfo.setPrecision(3.0);
+		typeInfo.setSamplingMethod(SamplingMethod.SCAN);
+		typeInfo.setSamplingPeriod(2.5f);
+		typeInfo.setUnits("mm");
+		typeInfo.setUpperAlarmLimit(10.0);
+		typeInfo.setUpperCtrlLimit(20.0);
+		typeInfo.setUpperDisplayLimit(30.0);
+		typeInfo.setUpperWarningLimit(5.0);
+		typeInfo.setUseDBEProperties(true);
+		typeInfo.setUsePVAccess(true);
+		typeInfo.setUserSpecifiedEventRate(0.5f);
+
+		PVTypeInfo decoded = new PVTypeInfo();
+		JSONDecoder.getDecoder(PVTypeInfo.class).decode(JSONEncoder.getEncoder(PVTypeInfo.class).encodeToString(typeInfo), decoded);
+		checkSameProperties(PVTypeInfo.class, typeInfo, decoded);
+	}
+
+	@Test
+	public void testUserSpecifiedSamplingParamsRoundTrip() throws Exception {
+		UserSpecifiedSamplingParams params = new UserSpecifiedSamplingParams(SamplingMethod.MONITOR, 0.1f, "UnitTestNoNamingConvention:controller", "default", true, false);
+		params.setAliases(new String[] { "UnitTestNoNamingConvention:alias" });
+		params.setArchiveFields(new String[] { "HIHI" });
+		params.setSkipAliasCheck(true);
+		params.setSkipCapacityPlanning(true);
+		params.setUserOverrideParams(true);
+
+		UserSpecifiedSamplingParams decoded = new UserSpecifiedSamplingParams();
+		JSONDecoder.getDecoder(UserSpecifiedSamplingParams.class).decode(JSONEncoder.getEncoder(UserSpecifiedSamplingParams.class).encodeToString(params), decoded);
+		checkSameProperties(UserSpecifiedSamplingParams.class, params, decoded);
+	}
+
+	@Test
+	public void testApplianceAggregateInfoRoundTrip() throws Exception {
+		ApplianceAggregateInfo aggregateInfo = new ApplianceAggregateInfo();
+		aggregateInfo.setTotalEventRate(12.5);
+		aggregateInfo.setTotalPVCount(3);
+		aggregateInfo.setTotalStorageRate(1024.75);
+		HashMap<String, String> storageImpact = new HashMap<String, String>();
+		storageImpact.put("STS", "86400");
+		storageImpact.put("MTS", "-12");
+		aggregateInfo.setTotalStorageImpact(storageImpact);
+
+		ApplianceAggregateInfo decoded = new ApplianceAggregateInfo();
+		JSONDecoder.getDecoder(ApplianceAggregateInfo.class).decode(JSONEncoder.getEncoder(ApplianceAggregateInfo.class).encode(aggregateInfo), decoded);
+		checkSameProperties(ApplianceAggregateInfo.class, aggregateInfo, decoded);
+	}
+
+	@Test
+	public void testMetaInfoRoundTrip() throws Exception {
+		MetaInfo metaInfo = new MetaInfo();
+		metaInfo.setAliasName("UnitTestNoNamingConvention:alias");
+		metaInfo.setArchDBRTypes(ArchDBRTypes.DBR_SCALAR_ENUM);
+		metaInfo.setCount(1);
+		metaInfo.setEventCount(120);
+		metaInfo.setHostName("ioc0");
+		metaInfo.setLabel(new String[] { "Off", "On" });
+		metaInfo.setLoweCtrlLimit(-20.0);
+		metaInfo.setLowerAlarmLimit(-10.0);
+		metaInfo.setLowerDisplayLimit(-30.0);
+		metaInfo.setLowerWarningLimit(-5.0);
+		metaInfo.addOtherMetaInfo("MDEL", 0.5);
+		metaInfo.setPrecision(2);
+		metaInfo.setSecond(60.0);
+		metaInfo.setStartTime(1500000000000L);
+		metaInfo.setStorageSize(2400);
+		metaInfo.setUnit("mm");
+		metaInfo.setUpperAlarmLimit(10.0);
+		metaInfo.setUpperCtrlLimit(20.0);
+		metaInfo.setUpperDisplayLimit(30.0);
+		metaInfo.setUpperWarningLimit(5.0);
+		metaInfo.setVector(true);
+
+		MetaInfo decoded = new MetaInfo();
+		JSONDecoder.getDecoder(MetaInfo.class).decode(JSONEncoder.getEncoder(MetaInfo.class).encode(metaInfo), decoded);
+		checkSameProperties(MetaInfo.class, metaInfo, decoded);
+	}
+
+	@Test
+	public void testApplianceInfoEncoding() throws Exception {
+		ApplianceInfo applianceInfo = new ApplianceInfo("appliance0", "http://localhost:17665/mgmt/bpl", "http://localhost:17665/engine/bpl",
+				"http://localhost:17665/retrieval/bpl", "http://localhost:17665/etl/bpl", "localhost:16670", "http://localhost:17665/retrieval");
+		JSONObject encoded = JSONEncoder.getEncoder(ApplianceInfo.class).encode(applianceInfo);
+		for(PropertyDescriptor descriptor : Introspector.getBeanInfo(ApplianceInfo.class).getPropertyDescriptors()) {
+			if(descriptor.getName().equals("class")) continue;
+			assertEquals(descriptor.getName(), descriptor.getReadMethod().invoke(applianceInfo), encoded.get(descriptor.getName()));
+		}
+	}
+
+	/**
+	 * Writers are required for the properties that have set methods; the encode-only report beans have none.
+	 */
+	private static void checkCoverage(Class<?> clazz, HashSet<String> handWrittenProperties) throws Exception {
+		HashSet<String> beanProperties = new HashSet<String>();
+		for(PropertyDescriptor descriptor : Introspector.getBeanInfo(clazz).getPropertyDescriptors()) {
+			if(descriptor.getName().equals("class")) continue;
+			beanProperties.add(descriptor.getName());
+			assertNotNull("No hand-written reader for " + descriptor.getName(), HandWrittenJSONCodecs.getReader(clazz, descriptor.getName()));
+			if(descriptor.getWriteMethod() != null) {
+				assertNotNull("No hand-written writer for " + descriptor.getName(), HandWrittenJSONCodecs.getWriter(clazz, descriptor.getName()));
+			} else {
+				assertNull("Hand-written writer for read-only property " + descriptor.getName(), HandWrittenJSONCodecs.getWriter(clazz, descriptor.getName()));
+			}
+		}
+		assertEquals(beanProperties, handWrittenProperties);
+	}
+
+	/**
+	 * Each property of the decoded object should match the original; we also check that the hand-written reader returns what the getter returns.
+	 */
+	private static void checkSameProperties(Class<?> clazz, Object expected, Object actual) throws Exception {
+		for(PropertyDescriptor descriptor : Introspector.getBeanInfo(clazz).getPropertyDescriptors()) {
+			if(descriptor.getName().equals("class")) continue;
+			Object expectedVal = descriptor.getReadMethod().invoke(expected);
+			Object actualVal = descriptor.getReadMethod().invoke(actual);
+			assertNotNull("Test object does not set " + descriptor.getName(), expectedVal);
+			assertTrue("Mismatch for " + descriptor.getName() + " expected " + expectedVal + " got " + actualVal, Arrays.deepEquals(new Object[] { expectedVal }, new Object[] { actualVal }));
+			Object handWrittenVal = HandWrittenJSONCodecs.getReader(clazz, descriptor.getName()).read(expected);
+			assertTrue("Hand-written reader mismatch for " + descriptor.getName(), Arrays.deepEquals(new Object[] { expectedVal }, new Object[] { handWrittenVal }));
+		}
+	}
+}